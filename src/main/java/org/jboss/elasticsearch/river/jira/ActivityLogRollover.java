@@ -0,0 +1,125 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.TimeZone;
+
+import org.elasticsearch.common.settings.SettingsException;
+
+/**
+ * Mode of time based partitioning of activity log index. Used to configure {@link ActivityLogWriter}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public enum ActivityLogRollover {
+
+	/**
+	 * All records are written into one index.
+	 */
+	NONE("none", null, 0),
+
+	/**
+	 * New index is created for each day.
+	 */
+	DAILY("daily", "yyyy.MM.dd", Calendar.DAY_OF_MONTH),
+
+	/**
+	 * New index is created for each month.
+	 */
+	MONTHLY("monthly", "yyyy.MM", Calendar.MONTH);
+
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+
+	private String configValue;
+
+	private String datePattern;
+
+	private int calendarField;
+
+	private ActivityLogRollover(String configValue, String datePattern, int calendarField) {
+		this.configValue = configValue;
+		this.datePattern = datePattern;
+		this.calendarField = calendarField;
+	}
+
+	/**
+	 * Get value used to represent this value in configuration.
+	 *
+	 * @return configuration value
+	 */
+	public String getConfigValue() {
+		return configValue;
+	}
+
+	/**
+	 * Get name of partition index for given date.
+	 *
+	 * @param baseName of activity log index (name of alias for partitioned modes)
+	 * @param date to get partition for
+	 * @return name of partition index
+	 */
+	public String getPartitionIndexName(String baseName, Date date) {
+		if (datePattern == null)
+			return baseName;
+		return baseName + "_" + createFormat().format(date);
+	}
+
+	/**
+	 * Get date when partition index stops to be written.
+	 *
+	 * @param baseName of activity log index (name of alias for partitioned modes)
+	 * @param partitionIndexName name of partition index
+	 * @return end date of partition or null if index name is not name of partition for this base name
+	 */
+	public Date getPartitionEnd(String baseName, String partitionIndexName) {
+		if (datePattern == null || partitionIndexName == null || !partitionIndexName.startsWith(baseName + "_"))
+			return null;
+		String suffix = partitionIndexName.substring(baseName.length() + 1);
+		if (suffix.length() != datePattern.length())
+			return null;
+		try {
+			SimpleDateFormat format = createFormat();
+			format.setLenient(false);
+			Calendar c = Calendar.getInstance(UTC);
+			c.setTime(format.parse(suffix));
+			c.add(calendarField, 1);
+			return c.getTime();
+		} catch (ParseException e) {
+			return null;
+		}
+	}
+
+	private SimpleDateFormat createFormat() {
+		SimpleDateFormat format = new SimpleDateFormat(datePattern);
+		format.setTimeZone(UTC);
+		return format;
+	}
+
+	/**
+	 * Get enum value based on String value read from configuration file.
+	 *
+	 * @param value to be parsed
+	 * @param defaultValue used if value is null or empty
+	 * @return Enum value, never null, default is used if value is null or empty.
+	 * @throws SettingsException for bad value
+	 */
+	public static ActivityLogRollover parseConfiguration(String value, ActivityLogRollover defaultValue)
+			throws SettingsException {
+		if (Utils.isEmpty(value)) {
+			return defaultValue;
+		}
+		for (ActivityLogRollover r : values()) {
+			if (r.getConfigValue().equalsIgnoreCase(value))
+				return r;
+		}
+		throw new SettingsException("unsupported value for activity log rollover: " + value);
+	}
+
+}
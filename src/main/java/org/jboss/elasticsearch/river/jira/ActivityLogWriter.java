@@ -0,0 +1,201 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+
+import org.elasticsearch.action.admin.indices.alias.Alias;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.bulk.BulkResponse;
+import org.elasticsearch.action.index.IndexRequest;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.indices.IndexAlreadyExistsException;
+
+import static org.elasticsearch.client.Requests.indexRequest;
+
+/**
+ * Component used to write river activity log records. Records are buffered in memory and written in periodic bulk
+ * requests by thread running this {@link Runnable}, so indexer threads are not blocked by writes. Activity log may be
+ * partitioned to time based indices (see {@link ActivityLogRollover}) accessed over alias with name of activity log
+ * index, old partitions are dropped after configured retention time.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class ActivityLogWriter implements Runnable {
+
+	private ESLogger logger;
+
+	protected final Client client;
+
+	/**
+	 * Name of activity log index, or alias in case of partitioned activity log.
+	 */
+	protected final String indexName;
+
+	protected final ActivityLogRollover rollover;
+
+	/**
+	 * Time after end of partition when partition index is deleted [ms]. 0 means never deleted.
+	 */
+	protected final long retention;
+
+	/**
+	 * Period of buffered records writing [ms].
+	 */
+	protected final long flushPeriod;
+
+	protected final BlockingQueue<IndexRequest> queue;
+
+	protected volatile boolean closed = false;
+
+	/**
+	 * Name of the partition index used for last write. We know it exists.
+	 */
+	protected String currentPartitionIndexName;
+
+	/**
+	 * Create and configure writer.
+	 *
+	 * @param esIntegration used to create logger
+	 * @param client ElasticSearch client used to write records
+	 * @param indexName name of activity log index, or alias in case of partitioned activity log
+	 * @param rollover mode of activity log partitioning
+	 * @param retention time after end of partition when partition index is deleted [ms]. 0 means never deleted.
+	 * @param flushPeriod period of buffered records writing [ms]
+	 * @param queueSize maximal number of buffered records. Writing thread is blocked by synchronous write if reached.
+	 */
+	public ActivityLogWriter(IESIntegration esIntegration, Client client, String indexName, ActivityLogRollover rollover,
+			long retention, long flushPeriod, int queueSize) {
+		logger = esIntegration.createLogger(getClass());
+		this.client = client;
+		this.indexName = indexName;
+		this.rollover = rollover;
+		this.retention = retention;
+		this.flushPeriod = flushPeriod;
+		this.queue = new LinkedBlockingQueue<IndexRequest>(queueSize);
+	}
+
+	/**
+	 * Add record into activity log. Record is written later from thread running this writer.
+	 *
+	 * @param typeName document type of record
+	 * @param source of record
+	 */
+	public void write(String typeName, XContentBuilder source) {
+		IndexRequest request = indexRequest().type(typeName).source(source);
+		while (!queue.offer(request)) {
+			logger.debug("Activity log buffer is full, going to flush it");
+			flush();
+		}
+	}
+
+	@Override
+	public void run() {
+		logger.debug("Activity log writer started");
+		while (!closed) {
+			try {
+				Thread.sleep(flushPeriod);
+			} catch (InterruptedException e) {
+				// close requested
+			}
+			flush();
+		}
+		logger.debug("Activity log writer stopped");
+	}
+
+	/**
+	 * Stop writer. All buffered records are written.
+	 */
+	public void close() {
+		closed = true;
+		flush();
+	}
+
+	/**
+	 * Write all buffered records into activity log index.
+	 */
+	public synchronized void flush() {
+		if (queue.isEmpty())
+			return;
+		List<IndexRequest> requests = new ArrayList<IndexRequest>(queue.size());
+		queue.drainTo(requests);
+		try {
+			String targetIndexName = prepareTargetIndex(new Date());
+			BulkRequestBuilder bulk = client.prepareBulk();
+			for (IndexRequest request : requests) {
+				bulk.add(request.index(targetIndexName));
+			}
+			BulkResponse response = bulk.execute().actionGet();
+			if (response.hasFailures()) {
+				logger.error("Error during activity log records writing {}", response.buildFailureMessage());
+			}
+		} catch (Exception e) {
+			logger.error("Error during activity log records writing {}", e.getMessage());
+		}
+	}
+
+	/**
+	 * Get name of index to write records into. Partition index is created and old partitions dropped if necessary.
+	 *
+	 * @param now current date
+	 * @return name of index
+	 */
+	protected String prepareTargetIndex(Date now) {
+		String partitionIndexName = rollover.getPartitionIndexName(indexName, now);
+		if (rollover != ActivityLogRollover.NONE && !partitionIndexName.equals(currentPartitionIndexName)) {
+			createPartitionIndex(partitionIndexName);
+			dropExpiredPartitionIndices(now);
+			currentPartitionIndexName = partitionIndexName;
+		}
+		return partitionIndexName;
+	}
+
+	protected void createPartitionIndex(String partitionIndexName) {
+		createPartitionIndex(client, logger, indexName, partitionIndexName);
+	}
+
+	/**
+	 * Create partition index with alias if it doesn't exist yet. Used by writer, and by river for synchronous writes
+	 * when writer is not running.
+	 *
+	 * @param client ElasticSearch client to use
+	 * @param logger to log into
+	 * @param aliasName name of activity log alias
+	 * @param partitionIndexName name of partition index to create
+	 */
+	protected static void createPartitionIndex(Client client, ESLogger logger, String aliasName,
+			String partitionIndexName) {
+		if (client.admin().indices().prepareExists(partitionIndexName).execute().actionGet().isExists())
+			return;
+		try {
+			logger.info("Going to create activity log partition index {}", partitionIndexName);
+			client.admin().indices().prepareCreate(partitionIndexName).addAlias(new Alias(aliasName)).execute().actionGet();
+		} catch (IndexAlreadyExistsException e) {
+			// OK, created by another node in the meantime
+		}
+	}
+
+	protected void dropExpiredPartitionIndices(Date now) {
+		if (retention <= 0)
+			return;
+		String[] indices = client.admin().cluster().prepareState().execute().actionGet().getState().getMetaData()
+				.concreteAllIndices();
+		for (String index : indices) {
+			Date end = rollover.getPartitionEnd(indexName, index);
+			if (end != null && end.getTime() + retention < now.getTime()) {
+				logger.info("Going to delete expired activity log partition index {}", index);
+				client.admin().indices().prepareDelete(index).execute().actionGet();
+			}
+		}
+	}
+
+}
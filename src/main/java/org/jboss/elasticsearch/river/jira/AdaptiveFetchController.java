@@ -0,0 +1,291 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+/**
+ * Controller adapting number of issues requested from JIRA by one REST call (per project) and number of concurrently
+ * running project indexers (per river) to observed JIRA behavior. AIMD (additive increase, multiplicative decrease)
+ * loop is used: page size is increased by constant step after fast call returning full page, and halved after call
+ * slower than target latency, or after timeout or server error. Page size is also limited so expected response size
+ * (based on observed bytes per issue) doesn't exceed configured limit. Concurrency is halved after timeout or server
+ * error, and increased by one after series of fast calls. Configured in <code>jira/adaptiveFetch</code> element of river
+ * configuration. Implementation is thread safe.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class AdaptiveFetchController {
+
+	protected static final String CONFIG_MIN_ISSUES_PER_REQUEST = "minIssuesPerRequest";
+	protected static final String CONFIG_MAX_ISSUES_PER_REQUEST = "maxIssuesPerRequest";
+	protected static final String CONFIG_ISSUES_PER_REQUEST_STEP = "issuesPerRequestStep";
+	protected static final String CONFIG_TARGET_LATENCY = "targetLatency";
+	protected static final String CONFIG_MAX_RESPONSE_SIZE = "maxResponseSize";
+
+	/**
+	 * Number of subsequent fast calls after which concurrency is increased.
+	 */
+	protected static final int CONCURRENCY_INCREASE_AFTER = 10;
+
+	/**
+	 * Weight of new value in exponentially weighted moving averages of latency and bytes per issue.
+	 */
+	protected static final double EWMA_FACTOR = 0.3;
+
+	private ESLogger logger;
+
+	/**
+	 * Config - lower bound of issues requested by one call.
+	 */
+	protected int minIssuesPerRequest = 10;
+
+	/**
+	 * Config - upper bound of issues requested by one call.
+	 */
+	protected int maxIssuesPerRequest = 200;
+
+	/**
+	 * Config - additive increase step of issues requested by one call.
+	 */
+	protected int issuesPerRequestStep = 10;
+
+	/**
+	 * Config - target latency of one JIRA call [ms].
+	 */
+	protected long targetLatency = 2000;
+
+	/**
+	 * Config - maximal expected size of one JIRA response [bytes].
+	 */
+	protected long maxResponseSize = 2 * 1024 * 1024;
+
+	/**
+	 * Upper bound of concurrency - configured maximal number of indexing threads.
+	 */
+	protected int maxConcurrency;
+
+	/**
+	 * Number of issues requested by first call for project.
+	 */
+	protected int initialIssuesPerRequest;
+
+	protected int concurrency;
+
+	protected int fastCallsInRow = 0;
+
+	/**
+	 * State for projects, key is project key.
+	 */
+	protected final Map<String, ProjectState> projectStates = new HashMap<String, ProjectState>();
+
+	/**
+	 * Adaptive state of one project.
+	 */
+	protected static class ProjectState {
+		int issuesPerRequest;
+		double latencyAvg = -1;
+		double bytesPerIssueAvg = -1;
+		int failures = 0;
+
+		ProjectState(int issuesPerRequest) {
+			this.issuesPerRequest = issuesPerRequest;
+		}
+	}
+
+	/**
+	 * Create and configure controller.
+	 *
+	 * @param esIntegration used to create logger
+	 * @param settings <code>jira/adaptiveFetch</code> element of river configuration
+	 * @param initialIssuesPerRequest number of issues requested by first call for project (configured
+	 *          <code>jira/maxIssuesPerRequest</code>)
+	 * @param maxConcurrency maximal number of concurrently running project indexers (configured
+	 *          <code>jira/maxIndexingThreads</code>)
+	 * @throws SettingsException if configuration is invalid
+	 */
+	public AdaptiveFetchController(IESIntegration esIntegration, Map<String, Object> settings,
+			int initialIssuesPerRequest, int maxConcurrency) throws SettingsException {
+		logger = esIntegration.createLogger(getClass());
+		if (settings != null) {
+			minIssuesPerRequest = XContentMapValues.nodeIntegerValue(settings.get(CONFIG_MIN_ISSUES_PER_REQUEST),
+					minIssuesPerRequest);
+			maxIssuesPerRequest = XContentMapValues.nodeIntegerValue(settings.get(CONFIG_MAX_ISSUES_PER_REQUEST),
+					maxIssuesPerRequest);
+			issuesPerRequestStep = XContentMapValues.nodeIntegerValue(settings.get(CONFIG_ISSUES_PER_REQUEST_STEP),
+					issuesPerRequestStep);
+			targetLatency = Utils.parseTimeValue(settings, CONFIG_TARGET_LATENCY, targetLatency, TimeUnit.MILLISECONDS);
+			try {
+				if (settings.get(CONFIG_MAX_RESPONSE_SIZE) != null)
+					maxResponseSize = ByteSizeValue.parseBytesSizeValue(
+							XContentMapValues.nodeStringValue(settings.get(CONFIG_MAX_RESPONSE_SIZE), null)).bytes();
+			} catch (ElasticsearchParseException e) {
+				throw new SettingsException("jira/adaptiveFetch/" + CONFIG_MAX_RESPONSE_SIZE + " is invalid: " + e.getMessage());
+			}
+		}
+		if (minIssuesPerRequest < 1 || maxIssuesPerRequest < minIssuesPerRequest) {
+			throw new SettingsException("jira/adaptiveFetch/" + CONFIG_MIN_ISSUES_PER_REQUEST + " must be positive and "
+					+ CONFIG_MAX_ISSUES_PER_REQUEST + " must not be lower");
+		}
+		if (issuesPerRequestStep < 1 || targetLatency < 1 || maxResponseSize < 1) {
+			throw new SettingsException("jira/adaptiveFetch/" + CONFIG_ISSUES_PER_REQUEST_STEP + ", "
+					+ CONFIG_TARGET_LATENCY + " and " + CONFIG_MAX_RESPONSE_SIZE + " must be positive");
+		}
+		this.initialIssuesPerRequest = clamp(initialIssuesPerRequest);
+		this.maxConcurrency = Math.max(1, maxConcurrency);
+		this.concurrency = this.maxConcurrency;
+	}
+
+	/**
+	 * Apply changed river limits into running controller, used when river is reconfigured without restart. Number of
+	 * issues requested by next call is reset to new initial value for all projects, and adapted from it again. Actual
+	 * concurrency is lowered to new maximum, or raised by the same number of threads as maximum was raised.
+	 *
+	 * @param initialIssuesPerRequest number of issues requested by first call for project (configured
+	 *          <code>jira/maxIssuesPerRequest</code>)
+	 * @param maxConcurrency maximal number of concurrently running project indexers (configured
+	 *          <code>jira/maxIndexingThreads</code>)
+	 */
+	public synchronized void setLimits(int initialIssuesPerRequest, int maxConcurrency) {
+		int newInitialIssuesPerRequest = clamp(initialIssuesPerRequest);
+		if (newInitialIssuesPerRequest != this.initialIssuesPerRequest) {
+			this.initialIssuesPerRequest = newInitialIssuesPerRequest;
+			for (ProjectState state : projectStates.values()) {
+				state.issuesPerRequest = newInitialIssuesPerRequest;
+			}
+		}
+		int newMaxConcurrency = Math.max(1, maxConcurrency);
+		concurrency = Math.min(newMaxConcurrency, concurrency + Math.max(0, newMaxConcurrency - this.maxConcurrency));
+		this.maxConcurrency = newMaxConcurrency;
+	}
+
+	private int clamp(int issuesPerRequest) {
+		return Math.max(minIssuesPerRequest, Math.min(maxIssuesPerRequest, issuesPerRequest));
+	}
+
+	private ProjectState getProjectState(String projectKey) {
+		ProjectState state = projectStates.get(projectKey);
+		if (state == null) {
+			state = new ProjectState(initialIssuesPerRequest);
+			projectStates.put(projectKey, state);
+		}
+		return state;
+	}
+
+	/**
+	 * Get number of issues to be requested by next JIRA call for project.
+	 *
+	 * @param projectKey key of project
+	 * @return number of issues
+	 */
+	public synchronized int getIssuesPerRequest(String projectKey) {
+		return getProjectState(projectKey).issuesPerRequest;
+	}
+
+	/**
+	 * Get actual number of project indexers allowed to run concurrently.
+	 *
+	 * @return concurrency limit
+	 */
+	public synchronized int getConcurrency() {
+		return concurrency;
+	}
+
+	/**
+	 * Report successful JIRA call.
+	 *
+	 * @param projectKey key of project call was for
+	 * @param latency of call [ms]
+	 * @param responseSize size of response [bytes]
+	 * @param issuesRequested number of issues requested by call
+	 * @param issuesReturned number of issues returned by call
+	 * @param serverMaxResults maximal number of issues returned by JIRA as reported in response, limits next calls if
+	 *          lower than number of requested issues
+	 */
+	public synchronized void reportSuccess(String projectKey, long latency, long responseSize, int issuesRequested,
+			int issuesReturned, int serverMaxResults) {
+		ProjectState state = getProjectState(projectKey);
+		state.latencyAvg = ewma(state.latencyAvg, latency);
+		if (issuesReturned > 0)
+			state.bytesPerIssueAvg = ewma(state.bytesPerIssueAvg, (double) responseSize / issuesReturned);
+
+		int size = state.issuesPerRequest;
+		if (latency > targetLatency) {
+			size = size / 2;
+			fastCallsInRow = 0;
+		} else {
+			if (issuesReturned >= issuesRequested)
+				size = size + issuesPerRequestStep;
+			if (++fastCallsInRow >= CONCURRENCY_INCREASE_AFTER) {
+				fastCallsInRow = 0;
+				if (concurrency < maxConcurrency) {
+					concurrency++;
+					logger.debug("JIRA calls are fast, concurrency increased to {}", concurrency);
+				}
+			}
+		}
+		if (state.bytesPerIssueAvg > 0)
+			size = (int) Math.min(size, maxResponseSize / state.bytesPerIssueAvg);
+		if (serverMaxResults > 0 && serverMaxResults < issuesRequested)
+			size = Math.min(size, serverMaxResults);
+		state.issuesPerRequest = clamp(size);
+	}
+
+	/**
+	 * Report JIRA call failed due timeout or server error.
+	 *
+	 * @param projectKey key of project call was for
+	 */
+	public synchronized void reportFailure(String projectKey) {
+		ProjectState state = getProjectState(projectKey);
+		state.failures++;
+		state.issuesPerRequest = clamp(state.issuesPerRequest / 2);
+		fastCallsInRow = 0;
+		concurrency = Math.max(1, concurrency / 2);
+		logger.info("JIRA call for project {} failed, issues per request decreased to {}, concurrency decreased to {}",
+				projectKey, state.issuesPerRequest, concurrency);
+	}
+
+	private static double ewma(double avg, double value) {
+		if (avg < 0)
+			return value;
+		return EWMA_FACTOR * value + (1 - EWMA_FACTOR) * avg;
+	}
+
+	/**
+	 * Write effective values for project into JSON object.
+	 *
+	 * @param builder to write into
+	 * @param projectKey key of project
+	 * @return true if something was written, false if nothing is known about the project
+	 * @throws IOException
+	 */
+	public synchronized boolean buildProjectDocument(XContentBuilder builder, String projectKey) throws IOException {
+		ProjectState state = projectStates.get(projectKey);
+		if (state == null)
+			return false;
+		builder.startObject();
+		builder.field("issues_per_request", state.issuesPerRequest);
+		if (state.latencyAvg >= 0)
+			builder.field("latency_avg", Math.round(state.latencyAvg) + "ms");
+		if (state.bytesPerIssueAvg >= 0)
+			builder.field("bytes_per_issue", Math.round(state.bytesPerIssueAvg));
+		builder.field("failures", state.failures);
+		builder.endObject();
+		return true;
+	}
+
+}
@@ -0,0 +1,306 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.jboss.elasticsearch.tools.content.PreprocessChainContext;
+import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessor;
+import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessorBase;
+
+/**
+ * Preprocessor wrapping other lookup-style preprocessor (eg. one resolving user, component or version metadata from
+ * other search index), which caches its results, so the same value is looked up only once. Wrapped preprocessor must
+ * fill only configured target fields of issue data, and their values must depend only on value of configured key
+ * field. Issue data with key value found in cache are not passed to wrapped preprocessor at all, cached values of target
+ * fields are put into them instead (target field is removed if it was not filled by wrapped preprocessor). Cache is LRU
+ * with bounded size, entries expire after configured time to live. Configured in <code>cache</code> element of
+ * preprocessor definition in <code>index/preprocessors</code>. Implementation is thread safe.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class CachingPreprocessor extends StructuredContentPreprocessorBase {
+
+	/**
+	 * Name of element with cache configuration in preprocessor definition.
+	 */
+	public static final String CFG_CACHE = "cache";
+	public static final String CFG_KEY_FIELD = "key_field";
+	public static final String CFG_TARGET_FIELDS = "target_fields";
+	public static final String CFG_MAX_SIZE = "max_size";
+	public static final String CFG_TTL = "ttl";
+
+	/**
+	 * Default maximal number of cached values.
+	 */
+	public static final int DEFAULT_MAX_SIZE = 1000;
+
+	/**
+	 * Default time to live of cached value [ms].
+	 */
+	public static final long DEFAULT_TTL = 10 * 60 * 1000;
+
+	protected final StructuredContentPreprocessor delegate;
+
+	/**
+	 * Path of field in issue data with value used as cache key, dot notation.
+	 */
+	protected final String keyField;
+
+	/**
+	 * Paths of fields in issue data filled by wrapped preprocessor, dot notation.
+	 */
+	protected final List<String> targetFields;
+
+	protected final int maxSize;
+
+	/**
+	 * Time to live of cached value [ms], value <= 0 means values do not expire.
+	 */
+	protected final long ttl;
+
+	/**
+	 * Cached values of target fields, LRU ordered.
+	 */
+	protected final Map<Object, CacheEntry> cache;
+
+	protected long hits = 0;
+
+	protected long misses = 0;
+
+	/**
+	 * Create cache for preprocessor.
+	 *
+	 * @param delegate preprocessor to cache results of
+	 * @param settings from <code>cache</code> element of preprocessor definition
+	 * @throws SettingsException if settings are invalid
+	 */
+	@SuppressWarnings("unchecked")
+	public CachingPreprocessor(StructuredContentPreprocessor delegate, Map<String, Object> settings)
+			throws SettingsException {
+		if (delegate == null)
+			throw new IllegalArgumentException("delegate must be defined");
+		this.delegate = delegate;
+		if (settings == null)
+			throw new SettingsException("'" + CFG_CACHE + "' of preprocessor '" + delegate.getName() + "' must be object");
+		keyField = Utils.trimToNull(XContentMapValues.nodeStringValue(settings.get(CFG_KEY_FIELD), null));
+		if (keyField == null)
+			throw new SettingsException("'" + CFG_CACHE + "/" + CFG_KEY_FIELD + "' of preprocessor '" + delegate.getName()
+					+ "' must be defined");
+		Object tf = settings.get(CFG_TARGET_FIELDS);
+		targetFields = new ArrayList<String>();
+		if (tf instanceof List) {
+			for (Object f : (List<Object>) tf) {
+				String s = Utils.trimToNull(XContentMapValues.nodeStringValue(f, null));
+				if (s != null)
+					targetFields.add(s);
+			}
+		} else if (tf != null) {
+			List<String> l = Utils.parseCsvString(XContentMapValues.nodeStringValue(tf, null));
+			if (l != null)
+				targetFields.addAll(l);
+		}
+		if (targetFields.isEmpty())
+			throw new SettingsException("'" + CFG_CACHE + "/" + CFG_TARGET_FIELDS + "' of preprocessor '"
+					+ delegate.getName() + "' must be defined");
+		maxSize = XContentMapValues.nodeIntegerValue(settings.get(CFG_MAX_SIZE), DEFAULT_MAX_SIZE);
+		if (maxSize < 1)
+			throw new SettingsException("'" + CFG_CACHE + "/" + CFG_MAX_SIZE + "' of preprocessor '" + delegate.getName()
+					+ "' must be at least 1");
+		ttl = Utils.parseTimeValue(settings, CFG_TTL, DEFAULT_TTL, TimeUnit.MILLISECONDS);
+		cache = new LinkedHashMap<Object, CacheEntry>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Object, CacheEntry> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	@Override
+	public void init(Map<String, Object> settings) throws SettingsException {
+		// configured in constructor
+	}
+
+	@Override
+	public String getName() {
+		return delegate.getName();
+	}
+
+	@Override
+	public Map<String, Object> preprocessData(Map<String, Object> data, PreprocessChainContext chainContext) {
+		if (data == null)
+			return delegate.preprocessData(data, chainContext);
+		Object key = XContentMapValues.extractValue(keyField, data);
+		if (key == null)
+			return delegate.preprocessData(data, chainContext);
+		key = copyValue(key);
+
+		CacheEntry entry = getCached(key, System.currentTimeMillis());
+		if (entry != null) {
+			for (int i = 0; i < targetFields.size(); i++) {
+				putValue(data, targetFields.get(i), copyValue(entry.values[i]));
+			}
+			return data;
+		}
+
+		data = delegate.preprocessData(data, chainContext);
+		if (data != null) {
+			Object[] values = new Object[targetFields.size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = copyValue(XContentMapValues.extractValue(targetFields.get(i), data));
+			}
+			synchronized (cache) {
+				cache.put(key, new CacheEntry(values, System.currentTimeMillis()));
+			}
+		}
+		return data;
+	}
+
+	/**
+	 * Get cached values for key and count hit or miss.
+	 *
+	 * @param key to get values for
+	 * @param now current timestamp [ms]
+	 * @return cached values or null if not cached or expired
+	 */
+	protected CacheEntry getCached(Object key, long now) {
+		synchronized (cache) {
+			CacheEntry entry = cache.get(key);
+			if (entry != null && ttl > 0 && entry.created + ttl < now) {
+				cache.remove(key);
+				entry = null;
+			}
+			if (entry != null)
+				hits++;
+			else
+				misses++;
+			return entry;
+		}
+	}
+
+	/**
+	 * Put value into map of maps.
+	 *
+	 * @param data to put value into
+	 * @param path of field, dot notation
+	 * @param value to put, field is removed if null
+	 * @see Utils#putValueIntoMapOfMaps(Map, String, Object)
+	 */
+	@SuppressWarnings("unchecked")
+	protected static void putValue(Map<String, Object> data, String path, Object value) {
+		if (value != null) {
+			Utils.putValueIntoMapOfMaps(data, path, value);
+			return;
+		}
+		String[] parts = path.split("\\.");
+		Map<String, Object> m = data;
+		for (int i = 0; i < parts.length - 1; i++) {
+			Object o = m.get(parts[i]);
+			if (!(o instanceof Map))
+				return;
+			m = (Map<String, Object>) o;
+		}
+		m.remove(parts[parts.length - 1]);
+	}
+
+	/**
+	 * Deep copy of value from issue data, so cached value is not changed by later preprocessing of issue.
+	 *
+	 * @param value to copy
+	 * @return copy of maps and lists, other values as they are
+	 */
+	@SuppressWarnings("unchecked")
+	protected static Object copyValue(Object value) {
+		if (value instanceof Map) {
+			Map<String, Object> ret = new LinkedHashMap<String, Object>();
+			for (Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet()) {
+				ret.put(e.getKey(), copyValue(e.getValue()));
+			}
+			return ret;
+		} else if (value instanceof List) {
+			List<Object> ret = new ArrayList<Object>();
+			for (Object o : (List<Object>) value) {
+				ret.add(copyValue(o));
+			}
+			return ret;
+		}
+		return value;
+	}
+
+	/**
+	 * @return number of values found in cache
+	 */
+	public long getHits() {
+		synchronized (cache) {
+			return hits;
+		}
+	}
+
+	/**
+	 * @return number of values not found in cache, so looked up by wrapped preprocessor
+	 */
+	public long getMisses() {
+		synchronized (cache) {
+			return misses;
+		}
+	}
+
+	/**
+	 * @return number of cached values
+	 */
+	public int size() {
+		synchronized (cache) {
+			return cache.size();
+		}
+	}
+
+	/**
+	 * Build document with cache statistics, used in river state.
+	 *
+	 * @param builder to build document into
+	 * @throws IOException
+	 */
+	public void buildDocument(XContentBuilder builder) throws IOException {
+		synchronized (cache) {
+			builder.startObject();
+			builder.field("name", getName());
+			builder.field("size", cache.size());
+			builder.field("max_size", maxSize);
+			builder.field("hits", hits);
+			builder.field("misses", misses);
+			builder.endObject();
+		}
+	}
+
+	protected static class CacheEntry {
+
+		/**
+		 * Values of target fields, aligned with {@link CachingPreprocessor#targetFields}.
+		 */
+		protected final Object[] values;
+
+		/**
+		 * Timestamp when value was cached [ms].
+		 */
+		protected final long created;
+
+		protected CacheEntry(Object[] values, long created) {
+			this.values = values;
+			this.created = created;
+		}
+	}
+
+}
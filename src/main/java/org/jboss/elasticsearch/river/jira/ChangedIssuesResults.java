@@ -37,6 +37,11 @@ public class ChangedIssuesResults {
    */
   private List<Map<String, Object>> issues;
 
+  /**
+   * Size of JIRA response these results are parsed from [bytes], 0 if not known.
+   */
+  private long responseSize = 0;
+
   /**
    * Constructor.
    * 
@@ -91,6 +96,20 @@ public class ChangedIssuesResults {
     return issues;
   }
 
+  /**
+   * @return size of JIRA response these results are parsed from [bytes], 0 if not known
+   */
+  public long getResponseSize() {
+    return responseSize;
+  }
+
+  /**
+   * @param responseSize size of JIRA response these results are parsed from [bytes]
+   */
+  public void setResponseSize(long responseSize) {
+    this.responseSize = responseSize;
+  }
+
   /**
    * Get number of issues in this result part
    * 
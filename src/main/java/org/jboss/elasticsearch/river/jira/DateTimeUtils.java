@@ -32,7 +32,7 @@ public class DateTimeUtils {
     return ISODateTimeFormat.dateTimeParser().parseDateTime(dateString).toDate();
   }
 
-  protected static final SimpleDateFormat ISO_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SZ");
+  protected static final SimpleDateFormat ISO_DATE_FORMAT = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
 
   /**
    * Format Date into ISO 8601 full datetime string.
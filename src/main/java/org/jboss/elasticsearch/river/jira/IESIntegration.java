@@ -9,6 +9,7 @@ import java.io.IOException;
 import java.util.Date;
 import java.util.List;
 
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
@@ -40,6 +41,14 @@ public interface IESIntegration {
 	 */
 	void reportIndexingFinished(ProjectIndexingInfo indexingInfo);
 
+	/**
+	 * Callback method - report issue exceeding diagnostics thresholds so it can be stored into activity log.
+	 * 
+	 * @param record info about problematic issue
+	 * @see IssueDiagnostics
+	 */
+	void reportIssueDiagnosticRecord(IssueDiagnosticRecord record);
+
 	/**
 	 * Check if EclipseSearch instance is closed, so we must interrupt long running indexing processes.
 	 * 
@@ -85,6 +94,32 @@ public interface IESIntegration {
 	 */
 	boolean deleteDatetimeValue(String projectKey, String propertyName);
 
+	/**
+	 * Persistently store string value for jira project. Stored same way as
+	 * {@link #storeDatetimeValue(String, String, Date, BulkRequestBuilder)}, so can be deleted over
+	 * {@link #deleteDatetimeValue(String, String)}.
+	 *
+	 * @param projectKey jira project key this value is for
+	 * @param propertyName name of property for this value identification
+	 * @param value to be stored
+	 * @param esBulk to be used for value store process, if <code>null</code> then value is stored immediately
+	 * @throws Exception
+	 * @see #readStringValue(String, String)
+	 */
+	void storeStringValue(String projectKey, String propertyName, String value, BulkRequestBuilder esBulk)
+			throws Exception;
+
+	/**
+	 * Read string value for jira project from document in ElasticSearch river configuration persistent area.
+	 *
+	 * @param projectKey jira project key this value is for
+	 * @param propertyName name of property for this value identification
+	 * @return value or null if do not exists
+	 * @throws Exception
+	 * @see #storeStringValue(String, String, String, BulkRequestBuilder)
+	 */
+	String readStringValue(String projectKey, String propertyName) throws Exception;
+
 	/**
 	 * Prepare ElasticSearch bulk request to be used for index update by more issues.
 	 * 
@@ -94,13 +129,15 @@ public interface IESIntegration {
 	BulkRequestBuilder prepareESBulkRequestBuilder();
 
 	/**
-	 * Execute ElasticSearch bulk request against ElasticSearch cluster.
+	 * Execute ElasticSearch bulk request against ElasticSearch cluster. Requests rejected due version conflict (stale
+	 * snapshot of externally versioned document) are not handled as failure.
 	 * 
 	 * @param esBulk to perform
+	 * @return responses for requests rejected due version conflict, never null
 	 * @throws Exception in case of update failure
 	 * @see #prepareESBulkRequestBuilder()
 	 */
-	void executeESBulkRequest(BulkRequestBuilder esBulk) throws Exception;
+	List<BulkItemResponse> executeESBulkRequest(BulkRequestBuilder esBulk) throws Exception;
 
 	/**
 	 * Acquire thread from ElasticSearch infrastructure to run indexing.
@@ -148,6 +185,14 @@ public interface IESIntegration {
 	 */
 	SearchResponse executeESScrollSearchNextRequest(SearchResponse scrollResp);
 
+	/**
+	 * Release resources of scroll search on ES side, so they do not wait for scroll keepalive timeout.
+	 * 
+	 * @param scrollResp last response from scroll search request
+	 * @see #executeESScrollSearchNextRequest(SearchResponse)
+	 */
+	void clearESScrollSearch(SearchResponse scrollResp);
+
 	/**
 	 * Get name of the river.
 	 * 
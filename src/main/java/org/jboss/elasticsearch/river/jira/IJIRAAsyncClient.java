@@ -0,0 +1,42 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.Future;
+
+/**
+ * Interface for JIRA Client implementation which is able to perform calls asynchronously, so many calls may be in
+ * flight without blocking threads.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public interface IJIRAAsyncClient extends IJIRAClient {
+
+	/**
+	 * Asynchronous variant of {@link #getAllJIRAProjects()}.
+	 * 
+	 * @return future with list of project keys
+	 * @throws Exception if call can't be started
+	 */
+	Future<List<String>> getAllJIRAProjectsAsync() throws Exception;
+
+	/**
+	 * Asynchronous variant of {@link #getJIRAChangedIssues(String, int, Date, Date)}. Response is parsed in thread which
+	 * calls {@link Future#get()}, so I/O threads of client are not blocked by parsing.
+	 * 
+	 * @param projectKey mandatory key of JIRA project to get issues for
+	 * @param startAt the index of the first issue to return (0-based)
+	 * @param updatedAfter optional parameter to return issues updated only after given date.
+	 * @param updatedBefore optional parameter to return issues updated only before given date.
+	 * @return future with issues informations parsed from JIRA reply.
+	 * @throws Exception if call can't be started
+	 */
+	Future<ChangedIssuesResults> getJIRAChangedIssuesAsync(String projectKey, int startAt, Date updatedAfter,
+			Date updatedBefore) throws Exception;
+
+}
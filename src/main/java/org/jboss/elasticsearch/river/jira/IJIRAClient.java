@@ -1,9 +1,13 @@
 package org.jboss.elasticsearch.river.jira;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
+import org.apache.http.pool.PoolStats;
+
 /**
  * Interface for JIRA Client implementation.
  * 
@@ -34,6 +38,57 @@ public interface IJIRAClient {
 	ChangedIssuesResults getJIRAChangedIssues(String projectKey, int startAt, Date updatedAfter, Date updatedBefore)
 			throws Exception;
 
+	/**
+	 * Get projects with some issue updated after given date. One lightweight search for all projects is performed
+	 * instead of search for each project, so it is cheap way to find projects which need to be indexed.
+	 * 
+	 * @param projectKeys keys of JIRA projects to check
+	 * @param updatedAfter date to check updates after (minute precise)
+	 * @return map where key is key of project with some issue updated after given date, value is date of last update of
+	 *         issue in this project. Projects without updated issue are not in map.
+	 * @throws Exception
+	 */
+	Map<String, Date> getJIRAChangedProjects(Collection<String> projectKeys, Date updatedAfter) throws Exception;
+
+	/**
+	 * Get list of issues updated in more JIRA projects by one request and parse them into <code>Map of Maps</code>
+	 * structure. Issues are ascending ordered by date of last update performed on issue, and contain
+	 * <code>fields.project.key</code> so they can be routed to project. List is limited to only some number of issues
+	 * (given by both JIRA and this client configuration).
+	 * 
+	 * @param projectsUpdatedAfter mandatory keys of JIRA projects to get issues for, each mapped to optional date to
+	 *          return issues of the project updated only after (null value if all issues of project are requested).
+	 * @param startAt the index of the first issue to return (0-based)
+	 * @return List of issues informations parsed from JIRA reply into <code>Map of Maps</code> structure.
+	 * @throws Exception
+	 */
+	ChangedIssuesResults getJIRAChangedIssuesForProjects(Map<String, Date> projectsUpdatedAfter, int startAt)
+			throws Exception;
+
+	/**
+	 * Get one page of comments for given issue. Used to complete list of comments truncated in issue returned from
+	 * search.
+	 *
+	 * @param issueKey key of issue to get comments for
+	 * @param startAt the index of the first comment to return (0-based)
+	 * @return comments structure parsed from JIRA reply into <code>Map of Maps</code> structure, it contains
+	 *         <code>comments</code> list and pagination informations <code>startAt</code>, <code>maxResults</code> and
+	 *         <code>total</code>.
+	 * @throws Exception
+	 */
+	Map<String, Object> getJIRAIssueComments(String issueKey, int startAt) throws Exception;
+
+	/**
+	 * Get changelog of given issue. Used to complete list of changelog histories truncated in issue returned from search.
+	 *
+	 * @param issueKey key of issue to get changelog for
+	 * @return changelog structure parsed from JIRA reply into <code>Map of Maps</code> structure, it contains
+	 *         <code>histories</code> list and pagination informations <code>startAt</code>, <code>maxResults</code> and
+	 *         <code>total</code>.
+	 * @throws Exception
+	 */
+	Map<String, Object> getJIRAIssueChangelog(String issueKey) throws Exception;
+
     /**
      * Configuration - Set JQL Template used while querying issues from jira.
      * This should include '%s' (w/o quotes) as placeholders for PROJECT KEY, AFTER CRITERION and BEFORE CRITERION
@@ -60,12 +115,20 @@ public interface IJIRAClient {
 
 	/**
 	 * Configuration - Set maximal number of issues returned from {@link #getJIRAChangedIssues(String, int, Date, Date)}.
-	 * Called in time of configuration.
+	 * Called in time of configuration, may be changed while indexing runs.
 	 * 
 	 * @param listJIRAIssuesMax to set
 	 */
 	void setListJIRAIssuesMax(int listJIRAIssuesMax);
 
+	/**
+	 * Configuration - Set timeout of JIRA http/s connection and socket read. Used for requests started after the call, so
+	 * may be changed while indexing runs.
+	 * 
+	 * @param timeout in milliseconds
+	 */
+	void setTimeout(int timeout);
+
 	/**
 	 * Get maximal number of issues returned from {@link #getJIRAChangedIssues(String, int, Date, Date)} configured for
 	 * this instance.
@@ -74,6 +137,76 @@ public interface IJIRAClient {
 	 */
 	int getListJIRAIssuesMax();
 
+	/**
+	 * Configuration - Set rate limits for calls to JIRA. Limits are shared by all clients accessing same JIRA host on the
+	 * ES node, the most restrictive limits of clients not closed yet win.
+	 * 
+	 * @param maxRequestsPerSecond maximal number of requests per second, value <= 0 means unlimited
+	 * @param maxBytesPerSecond maximal number of response bytes per second, value <= 0 means unlimited
+	 */
+	void setRateLimits(double maxRequestsPerSecond, long maxBytesPerSecond);
+
+	/**
+	 * Configuration - Set retry policy for calls failed due JIRA unavailability (I/O error or server error).
+	 * 
+	 * @param maxRetries maximal number of retries of one call, 0 means no retry
+	 * @param retryInitialBackoff backoff before first retry [ms], doubled for each next retry
+	 * @param retryMaxBackoff maximal backoff before retry [ms]
+	 */
+	void setRetryPolicy(int maxRetries, long retryInitialBackoff, long retryMaxBackoff);
+
+	/**
+	 * Configuration - Configure circuit breaker for calls to JIRA. Breaker is shared by all clients accessing same JIRA
+	 * host on the ES node, the more sensitive values of clients not closed yet win.
+	 * 
+	 * @param failureThreshold number of subsequent failed calls which opens breaker, value <= 0 means breaker is
+	 *          disabled
+	 * @param openTime time breaker stays open before probe call is permitted [ms]
+	 */
+	void setCircuitBreaker(int failureThreshold, long openTime);
+
+	/**
+	 * Get circuit breaker for calls to JIRA.
+	 * 
+	 * @return circuit breaker or null if not available
+	 */
+	JIRACircuitBreaker getCircuitBreaker();
+
+	/**
+	 * Configuration - Set controller adapting number of issues returned from
+	 * {@link #getJIRAChangedIssues(String, int, Date, Date)} to JIRA behavior. Number set by
+	 * {@link #setListJIRAIssuesMax(int)} is not used if controller is set.
+	 * 
+	 * @param adaptiveFetchController to set, null to disable adaptive behavior
+	 */
+	void setAdaptiveFetchController(AdaptiveFetchController adaptiveFetchController);
+
+	/**
+	 * Configuration - Set river wide memory budget. Number of issues requested by
+	 * {@link #getJIRAChangedIssues(String, int, Date, Date)} is shrunk when budget is filling up, and call waits while
+	 * budget is exhausted.
+	 * 
+	 * @param memoryBudget to use, null to disable
+	 */
+	void setMemoryBudget(JIRAMemoryBudget memoryBudget);
+
+	/**
+	 * Configuration - Set maximal length of string value in <code>fields</code> of returned issue data. Longer values
+	 * (except identifiers and dates) are truncated and their paths are listed in <code>truncatedFields</code> field of
+	 * issue.
+	 * 
+	 * @param maxFieldLength maximal length, 0 means no limit
+	 */
+	void setMaxFieldLength(int maxFieldLength);
+
+	/**
+	 * Configuration - Set size of table used to deduplicate repeated string values while returned issue data are parsed,
+	 * so they share one String instance.
+	 * 
+	 * @param stringDedupTableSize number of slots in table, 0 means values are not deduplicated
+	 */
+	void setStringDedupTableSize(int stringDedupTableSize);
+
 	/**
 	 * Add index structure builder so JIRA client can obtain only fields necessary for indexing.
 	 * 
@@ -96,4 +229,16 @@ public interface IJIRAClient {
 	 */
 	String getJiraAPIUrlBase();
 
+	/**
+	 * Get actual statistics of HTTP connection pool used by this client.
+	 * 
+	 * @return pool statistics or null if not available
+	 */
+	PoolStats getConnectionPoolStats();
+
+	/**
+	 * Release resources (HTTP connection pool) used by this client. Client can't be used after this call.
+	 */
+	void close();
+
 }
\ No newline at end of file
@@ -5,8 +5,10 @@
  */
 package org.jboss.elasticsearch.river.jira;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.Map;
+import java.util.Set;
 
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.search.SearchRequestBuilder;
@@ -76,6 +78,37 @@ public interface IJIRAIssueIndexStructureBuilder {
 	 */
 	void indexIssue(BulkRequestBuilder esBulk, String jiraProjectKey, Map<String, Object> issue) throws Exception;
 
+	/**
+	 * Store/Update issue obtained from JIRA in search index during incremental update. Comments and changelog items
+	 * indexed as separate documents are indexed only if created or updated since given date or not found in search index
+	 * yet, and documents of comments and changelog items which disappeared from issue are deleted in the same bulk (only
+	 * if issue data contain complete list of these items).
+	 * 
+	 * @param esBulk bulk operation builder used to update issue data in search index
+	 * @param jiraProjectKey JIRA project key indexed issue is for
+	 * @param issue data obtained from JIRA to be indexed (JSON parsed into Map of Map structure)
+	 * @param changedSince exact date of last issue indexed during previous update of project, see
+	 *          {@link IssueWatermark#getUpdated()}. If null then all comments and changelog items are indexed, same as in
+	 *          {@link #indexIssue(BulkRequestBuilder, String, Map)}.
+	 * @param pageIndexedDocumentIds ids of comment and changelog documents indexed already, read for whole page of issues
+	 *          by {@link #readIndexedCommentAndChangelogDocumentIds(Collection)}. If null or not containing this issue then
+	 *          all comments and changelog items are indexed and nothing is deleted.
+	 * @throws Exception
+	 */
+	void indexIssue(BulkRequestBuilder esBulk, String jiraProjectKey, Map<String, Object> issue, Date changedSince,
+			Map<String, Map<String, Set<String>>> pageIndexedDocumentIds) throws Exception;
+
+	/**
+	 * Read ids of comment and changelog documents indexed already for page of issues, by one search. Used during
+	 * incremental update, see {@link #indexIssue(BulkRequestBuilder, String, Map, Date, Map)}.
+	 * 
+	 * @param issues data obtained from JIRA to read indexed documents for
+	 * @return map where key is issue key and value is map with sets of document ids where key is document type. Null if
+	 *         comments and changelog items are not indexed as separate documents.
+	 */
+	Map<String, Map<String, Set<String>>> readIndexedCommentAndChangelogDocumentIds(
+			Collection<Map<String, Object>> issues);
+
 	/**
 	 * Construct search request to find issues, comment and changelog indexed documents not updated after given date. Used
 	 * during full index update to remove issues not presented in JIRA anymore. Results from this query are processed by
@@ -99,4 +132,11 @@ public interface IJIRAIssueIndexStructureBuilder {
 	 */
 	boolean deleteIssueDocument(BulkRequestBuilder esBulk, SearchHit issueDocumentToDelete) throws Exception;
 
+	/**
+	 * Get diagnostics of oversized and slow issues collected during {@link #indexIssue(BulkRequestBuilder, String, Map)}.
+	 * 
+	 * @return diagnostics component or null if diagnostics is not configured
+	 */
+	IssueDiagnostics getIssueDiagnostics();
+
 }
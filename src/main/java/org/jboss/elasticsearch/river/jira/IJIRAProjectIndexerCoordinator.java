@@ -20,6 +20,15 @@ public interface IJIRAProjectIndexerCoordinator extends Runnable {
 	 */
 	public abstract void reportIndexingFinished(String jiraProjectKey, boolean finishedOK, boolean fullUpdate);
 
+	/**
+	 * Report number of issues in JIRA project, known after successful full update. Used to find small projects which
+	 * may be indexed together. Implementation of this method must be thread safe!
+	 * 
+	 * @param jiraProjectKey JIRA project key
+	 * @param issuesCount number of issues in project
+	 */
+	void reportProjectSize(String jiraProjectKey, int issuesCount);
+
 	/**
 	 * Force full reindex for given jira project.
 	 * 
@@ -36,6 +45,26 @@ public interface IJIRAProjectIndexerCoordinator extends Runnable {
 	 */
 	void forceIncrementalReindex(String projectKey) throws Exception;
 
+	/**
+	 * Schedule indexing of JIRA projects which newly appeared in JIRA instance, so they are indexed as soon as possible.
+	 * Implementation of this method must be thread safe!
+	 * 
+	 * @param projectKeys keys of new projects
+	 */
+	void scheduleNewProjects(List<String> projectKeys);
+
+	/**
+	 * Change scheduling of indexing while coordinator runs. Running indexers are not affected, new values are used to
+	 * schedule and start next ones. Implementation of this method must be thread safe!
+	 * 
+	 * @param indexUpdatePeriod index update period [ms]
+	 * @param maxIndexingThreads maximal number of parallel JIRA indexing threads
+	 * @param indexFullUpdatePeriod period of index automatic full update from jira [ms]. value <= 0 means never.
+	 * @param indexFullUpdateCronExpression optional cron expression to schedule full update, period is ignored if set
+	 */
+	void setIndexingSchedule(long indexUpdatePeriod, int maxIndexingThreads, long indexFullUpdatePeriod,
+			CronExpression indexFullUpdateCronExpression);
+
 	/**
 	 * Get info about current indexings in process.
 	 * 
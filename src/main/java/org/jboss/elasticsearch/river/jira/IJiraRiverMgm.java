@@ -1,6 +1,7 @@
 package org.jboss.elasticsearch.river.jira;
 
 import java.util.Date;
+import java.util.List;
 
 import org.elasticsearch.cluster.node.DiscoveryNode;
 import org.elasticsearch.river.RiverName;
@@ -26,6 +27,14 @@ public interface IJiraRiverMgm {
 	 */
 	public abstract void restart();
 
+	/**
+	 * Reload configuration of jira river and apply scheduling and throughput settings into running river without
+	 * restart, so running indexings are not interrupted.
+	 * 
+	 * @return list of changed settings which require river restart to be applied, never null
+	 */
+	public abstract List<String> reconfigureLive();
+
 	/**
 	 * Force full index update for some project(s) in this jira river. Used for REST management operations handling.
 	 * 
@@ -56,6 +65,21 @@ public interface IJiraRiverMgm {
 	 */
 	public abstract String getRiverOperationInfo(DiscoveryNode esNode, Date currentDate) throws Exception;
 
+	/**
+	 * Get info about current operation of this river for subset of indexed projects. Used for REST management
+	 * operations handling.
+	 * 
+	 * @param esNode node info is for
+	 * @param currentDate date of info
+	 * @param projectKeysFilter keys of projects to return info for, null for all projects
+	 * @param from index of first indexed project returned (after filtering)
+	 * @param size maximal number of indexed projects returned, -1 for all
+	 * @return String with JSON formatted info.
+	 * @throws Exception
+	 */
+	public abstract String getRiverOperationInfo(DiscoveryNode esNode, Date currentDate, List<String> projectKeysFilter,
+			int from, int size) throws Exception;
+
 	/**
 	 * Get name of river.
 	 * 
@@ -0,0 +1,101 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.IOException;
+import java.util.Date;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Value object holding info about one issue exceeding some of thresholds configured for {@link IssueDiagnostics}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class IssueDiagnosticRecord {
+
+	public static final String DOCFIELD_RIVER_NAME = "river_name";
+	public static final String DOCFIELD_PROJECT_KEY = "project_key";
+	public static final String DOCFIELD_ISSUE_KEY = "issue_key";
+	public static final String DOCFIELD_DATE = "date";
+	public static final String DOCFIELD_DOCUMENT_SIZE = "document_size";
+	public static final String DOCFIELD_COMMENTS = "comments";
+	public static final String DOCFIELD_CHANGELOGS = "changelogs";
+	public static final String DOCFIELD_TRANSFORM_TIME = "transform_time";
+
+	/**
+	 * Key of JIRA project issue is in.
+	 */
+	public final String projectKey;
+	/**
+	 * Key of JIRA issue.
+	 */
+	public final String issueKey;
+	/**
+	 * Date when issue was indexed.
+	 */
+	public final Date date;
+	/**
+	 * Size of all serialized documents (issue, comments, changelogs) created for issue [bytes].
+	 */
+	public final long documentSize;
+	/**
+	 * Number of comments in issue.
+	 */
+	public final int comments;
+	/**
+	 * Number of changelog items in issue.
+	 */
+	public final int changelogs;
+	/**
+	 * Time spent by preprocessing and transformation of the issue [ms].
+	 */
+	public final long transformTime;
+	/**
+	 * Maximal ratio of measured value to configured threshold. Used to order records, greater is worse.
+	 */
+	public final double score;
+
+	public IssueDiagnosticRecord(String projectKey, String issueKey, Date date, long documentSize, int comments,
+			int changelogs, long transformTime, double score) {
+		super();
+		this.projectKey = projectKey;
+		this.issueKey = issueKey;
+		this.date = date;
+		this.documentSize = documentSize;
+		this.comments = comments;
+		this.changelogs = changelogs;
+		this.transformTime = transformTime;
+		this.score = score;
+	}
+
+	/**
+	 * Add object with diagnostic info to given document builder.
+	 *
+	 * @param builder to add information Object into
+	 * @param riverName name of river to print into document, not printed if null
+	 * @param printProjectKey set to true to print project key into document
+	 * @return builder same as on input.
+	 * @throws IOException
+	 */
+	public XContentBuilder buildDocument(XContentBuilder builder, String riverName, boolean printProjectKey)
+			throws IOException {
+		builder.startObject();
+		if (riverName != null)
+			builder.field(DOCFIELD_RIVER_NAME, riverName);
+		if (printProjectKey)
+			builder.field(DOCFIELD_PROJECT_KEY, projectKey);
+		builder.field(DOCFIELD_ISSUE_KEY, issueKey);
+		builder.field(DOCFIELD_DATE, date);
+		builder.field(DOCFIELD_DOCUMENT_SIZE, documentSize);
+		builder.field(DOCFIELD_COMMENTS, comments);
+		builder.field(DOCFIELD_CHANGELOGS, changelogs);
+		builder.field(DOCFIELD_TRANSFORM_TIME, transformTime + "ms");
+		builder.endObject();
+		return builder;
+	}
+
+}
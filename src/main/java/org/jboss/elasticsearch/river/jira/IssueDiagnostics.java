@@ -0,0 +1,192 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.unit.ByteSizeValue;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+/**
+ * Component used to identify pathologically big or slow to process JIRA issues during indexing. Issues exceeding
+ * configured thresholds on serialized document size, comments or changelog items count, or transformation time are
+ * logged, kept in bounded in-memory list of worst issues per project, and optionally written into river activity log.
+ * Configured in <code>index/diagnostics</code> element of river configuration. Implementation is thread safe.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class IssueDiagnostics {
+
+	protected static final String CONFIG_MAX_DOCUMENT_SIZE = "max_document_size";
+	protected static final String CONFIG_MAX_COMMENTS = "max_comments";
+	protected static final String CONFIG_MAX_CHANGELOGS = "max_changelogs";
+	protected static final String CONFIG_MAX_TRANSFORM_TIME = "max_transform_time";
+	protected static final String CONFIG_TOP_SIZE = "top_size";
+	protected static final String CONFIG_ACTIVITY_LOG = "activity_log";
+
+	private static final Comparator<IssueDiagnosticRecord> SCORE_COMPARATOR = new Comparator<IssueDiagnosticRecord>() {
+		@Override
+		public int compare(IssueDiagnosticRecord o1, IssueDiagnosticRecord o2) {
+			return Double.compare(o2.score, o1.score);
+		}
+	};
+
+	private ESLogger logger;
+
+	protected IESIntegration esIntegration;
+
+	/**
+	 * Config - threshold for size of all serialized documents created for one issue [bytes], 0 means not checked.
+	 */
+	protected long maxDocumentSize = 0;
+
+	/**
+	 * Config - threshold for number of comments in one issue, 0 means not checked.
+	 */
+	protected int maxComments = 0;
+
+	/**
+	 * Config - threshold for number of changelog items in one issue, 0 means not checked.
+	 */
+	protected int maxChangelogs = 0;
+
+	/**
+	 * Config - threshold for preprocessing and transformation time of one issue [ms], 0 means not checked.
+	 */
+	protected long maxTransformTime = 0;
+
+	/**
+	 * Config - maximal number of records kept in memory for one project.
+	 */
+	protected int topSize = 10;
+
+	/**
+	 * Config - if true then records are written into river activity log.
+	 */
+	protected boolean writeToActivityLog = false;
+
+	/**
+	 * Worst issues per project. Key is project key, value is list ordered by score descending.
+	 */
+	protected Map<String, List<IssueDiagnosticRecord>> topRecords = new HashMap<String, List<IssueDiagnosticRecord>>();
+
+	/**
+	 * Create and configure diagnostics.
+	 *
+	 * @param esIntegration to be used to write activity log and create logger
+	 * @param settings <code>index/diagnostics</code> element of river configuration
+	 * @throws SettingsException if configuration is invalid
+	 */
+	public IssueDiagnostics(IESIntegration esIntegration, Map<String, Object> settings) throws SettingsException {
+		this.esIntegration = esIntegration;
+		logger = esIntegration.createLogger(getClass());
+		if (settings != null) {
+			try {
+				if (settings.get(CONFIG_MAX_DOCUMENT_SIZE) != null)
+					maxDocumentSize = ByteSizeValue.parseBytesSizeValue(
+							XContentMapValues.nodeStringValue(settings.get(CONFIG_MAX_DOCUMENT_SIZE), null)).bytes();
+			} catch (ElasticsearchParseException e) {
+				throw new SettingsException("index/diagnostics/" + CONFIG_MAX_DOCUMENT_SIZE + " is invalid: " + e.getMessage());
+			}
+			maxComments = XContentMapValues.nodeIntegerValue(settings.get(CONFIG_MAX_COMMENTS), 0);
+			maxChangelogs = XContentMapValues.nodeIntegerValue(settings.get(CONFIG_MAX_CHANGELOGS), 0);
+			maxTransformTime = Utils.parseTimeValue(settings, CONFIG_MAX_TRANSFORM_TIME, 0, null);
+			topSize = XContentMapValues.nodeIntegerValue(settings.get(CONFIG_TOP_SIZE), 10);
+			writeToActivityLog = XContentMapValues.nodeBooleanValue(settings.get(CONFIG_ACTIVITY_LOG), false);
+		}
+		if (topSize < 1)
+			throw new SettingsException("index/diagnostics/" + CONFIG_TOP_SIZE + " must be positive number");
+		if (!isEnabled())
+			logger.warn("Issue diagnostics configured but no any threshold defined in index/diagnostics");
+	}
+
+	/**
+	 * @return true if at least one threshold is configured
+	 */
+	public boolean isEnabled() {
+		return maxDocumentSize > 0 || maxComments > 0 || maxChangelogs > 0 || maxTransformTime > 0;
+	}
+
+	/**
+	 * Check values measured for one issue against configured thresholds. Record is created and stored if some threshold
+	 * is exceeded.
+	 *
+	 * @param projectKey key of project issue is in
+	 * @param issueKey key of checked issue
+	 * @param documentSize size of all serialized documents created for issue [bytes]
+	 * @param comments number of comments in issue
+	 * @param changelogs number of changelog items in issue
+	 * @param transformTime preprocessing and transformation time [ms]
+	 * @return record created for issue or null if issue is OK
+	 */
+	public IssueDiagnosticRecord checkIssue(String projectKey, String issueKey, long documentSize, int comments,
+			int changelogs, long transformTime) {
+		double score = 0;
+		score = Math.max(score, ratio(documentSize, maxDocumentSize));
+		score = Math.max(score, ratio(comments, maxComments));
+		score = Math.max(score, ratio(changelogs, maxChangelogs));
+		score = Math.max(score, ratio(transformTime, maxTransformTime));
+		if (score <= 1)
+			return null;
+
+		IssueDiagnosticRecord record = new IssueDiagnosticRecord(projectKey, issueKey, new Date(), documentSize, comments,
+				changelogs, transformTime, score);
+		logger.warn("JIRA issue {} exceeds diagnostics thresholds: document size {}b, {} comments, {} changelogs, "
+				+ "transformation time {}ms", issueKey, documentSize, comments, changelogs, transformTime);
+		addRecord(record);
+		if (writeToActivityLog)
+			esIntegration.reportIssueDiagnosticRecord(record);
+		return record;
+	}
+
+	private static double ratio(long value, long threshold) {
+		if (threshold <= 0)
+			return 0;
+		return (double) value / threshold;
+	}
+
+	protected synchronized void addRecord(IssueDiagnosticRecord record) {
+		List<IssueDiagnosticRecord> list = topRecords.get(record.projectKey);
+		if (list == null) {
+			list = new ArrayList<IssueDiagnosticRecord>();
+			topRecords.put(record.projectKey, list);
+		}
+		for (Iterator<IssueDiagnosticRecord> i = list.iterator(); i.hasNext();) {
+			if (i.next().issueKey.equals(record.issueKey))
+				i.remove();
+		}
+		list.add(record);
+		Collections.sort(list, SCORE_COMPARATOR);
+		while (list.size() > topSize) {
+			list.remove(list.size() - 1);
+		}
+	}
+
+	/**
+	 * Get worst issues found for given project.
+	 *
+	 * @param projectKey to get records for
+	 * @return list of records ordered from the worst one, never null
+	 */
+	public synchronized List<IssueDiagnosticRecord> getTopRecords(String projectKey) {
+		List<IssueDiagnosticRecord> list = topRecords.get(projectKey);
+		if (list == null)
+			return Collections.emptyList();
+		return new ArrayList<IssueDiagnosticRecord>(list);
+	}
+
+}
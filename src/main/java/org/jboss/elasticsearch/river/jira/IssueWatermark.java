@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.Date;
+
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+
+/**
+ * Position of last indexed issue in stream of issues ordered by date of last update. Composed from exact date of last
+ * update of issue (as returned from JIRA, so at least second precise) and key of this issue. Issues updated before
+ * watermark and the issue itself were indexed already. JQL search is only minute precise, so search window starts at
+ * minute of watermark and issues returned again are filtered out over {@link #isIndexed(Date, String)}.
+ * Immutable value object.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class IssueWatermark {
+
+	/**
+	 * Property value where key of last indexed issue is stored, date is stored in
+	 * {@link JIRAProjectIndexer#STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE}.
+	 *
+	 * @see IESIntegration#storeStringValue(String, String, String, BulkRequestBuilder)
+	 */
+	protected static final String STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY = "lastIndexedIssueKey";
+
+	protected final Date updated;
+
+	protected final String issueKey;
+
+	/**
+	 * Constructor.
+	 *
+	 * @param updated exact date of last update of last indexed issue, mandatory
+	 * @param issueKey key of last indexed issue, may be null if not known (eg. watermark stored by older version of
+	 *          river), all issues updated at the same time are treated as not indexed then
+	 */
+	public IssueWatermark(Date updated, String issueKey) {
+		if (updated == null)
+			throw new IllegalArgumentException("updated must be defined");
+		this.updated = updated;
+		this.issueKey = issueKey;
+	}
+
+	/**
+	 * Check if issue was indexed already. Issue is indexed if it was updated before watermark or if it is issue this
+	 * watermark is for. Other issues updated at exactly same time as watermark are treated as not indexed, as JIRA doesn't
+	 * guarantee their order, so they are indexed again rather than lost.
+	 *
+	 * @param issueUpdated exact date of last update of issue
+	 * @param issueKey key of issue
+	 * @return true if issue was indexed already
+	 */
+	public boolean isIndexed(Date issueUpdated, String issueKey) {
+		if (issueUpdated.before(updated))
+			return true;
+		return issueUpdated.equals(updated) && issueKey != null && issueKey.equals(this.issueKey);
+	}
+
+	/**
+	 * Get watermark for later of this and given indexed issue.
+	 *
+	 * @param issueUpdated exact date of last update of issue
+	 * @param issueKey key of issue
+	 * @return this instance or new one for given issue
+	 */
+	public IssueWatermark advance(Date issueUpdated, String issueKey) {
+		if (isIndexed(issueUpdated, issueKey))
+			return this;
+		return new IssueWatermark(issueUpdated, issueKey);
+	}
+
+	/**
+	 * @return exact date of last update of last indexed issue
+	 */
+	public Date getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * @return key of last indexed issue, may be null
+	 */
+	public String getIssueKey() {
+		return issueKey;
+	}
+
+	/**
+	 * @return minute precise date where JQL search for issues not indexed yet has to start
+	 */
+	public Date getJQLWindowStart() {
+		return DateTimeUtils.roundDateTimeToMinutePrecise(updated);
+	}
+
+	/**
+	 * Read watermark of last indexed issue for given JIRA project from persistent store inside ES cluster.
+	 *
+	 * @param esIntegrationComponent to read values over
+	 * @param projectKey JIRA project key to read watermark for
+	 * @return watermark or null if project was not indexed yet
+	 * @throws Exception
+	 */
+	public static IssueWatermark read(IESIntegration esIntegrationComponent, String projectKey) throws Exception {
+		Date updated = esIntegrationComponent.readDatetimeValue(projectKey,
+				JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE);
+		if (updated == null)
+			return null;
+		return new IssueWatermark(updated, esIntegrationComponent.readStringValue(projectKey,
+				STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY));
+	}
+
+	/**
+	 * Store this watermark for given JIRA project into persistent store inside ES cluster.
+	 *
+	 * @param esIntegrationComponent to store values over
+	 * @param projectKey JIRA project key to store watermark for
+	 * @param esBulk ElasticSearch bulk request to be used for update, if <code>null</code> then stored immediately
+	 * @throws Exception
+	 */
+	public void store(IESIntegration esIntegrationComponent, String projectKey, BulkRequestBuilder esBulk)
+			throws Exception {
+		esIntegrationComponent.storeDatetimeValue(projectKey,
+				JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE, updated, esBulk);
+		esIntegrationComponent.storeStringValue(projectKey, STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY, issueKey, esBulk);
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (!(obj instanceof IssueWatermark))
+			return false;
+		IssueWatermark other = (IssueWatermark) obj;
+		return updated.equals(other.updated) && (issueKey == null ? other.issueKey == null : issueKey.equals(other.issueKey));
+	}
+
+	@Override
+	public int hashCode() {
+		return updated.hashCode() * 31 + (issueKey != null ? issueKey.hashCode() : 0);
+	}
+
+	@Override
+	public String toString() {
+		return "IssueWatermark [updated=" + updated + ", issueKey=" + issueKey + "]";
+	}
+
+}
@@ -0,0 +1,511 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.IOException;
+import java.net.URI;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.NameValuePair;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClientBuilder;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.impl.nio.conn.PoolingNHttpClientConnectionManager;
+import org.apache.http.impl.nio.reactor.DefaultConnectingIOReactor;
+import org.apache.http.impl.nio.reactor.IOReactorConfig;
+import org.apache.http.nio.reactor.IOReactorException;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.util.EntityUtils;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.settings.SettingsException;
+
+/**
+ * JIRA 5+ REST API client built on non-blocking NIO HTTP client. Calls are performed by small fixed number of I/O
+ * threads, so many calls may be in flight without blocking thread for each of them. Asynchronous calls return futures,
+ * synchronous calls from {@link IJIRAClient} are performed over the same NIO client. Rate limiter and circuit breaker
+ * for JIRA host are shared with other clients same way as in {@link JIRA5RestClient}, retries of asynchronous calls
+ * are scheduled so no thread waits for backoff or rate limiter. Expired and idle connections are evicted from NIO
+ * connection pool periodically, pool is closed together with client.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRA5AsyncRestClient extends JIRA5RestClient implements IJIRAAsyncClient {
+
+	private ESLogger logger;
+
+	protected PoolingNHttpClientConnectionManager asyncConnectionManager;
+
+	protected CloseableHttpAsyncClient asyncHttpClient;
+
+	/**
+	 * Scheduler used to perform retries of asynchronous calls after backoff, and eviction of connections.
+	 */
+	protected ScheduledExecutorService retryScheduler;
+
+	/**
+	 * Time after which idle connection is closed [ms]. 0 means never closed.
+	 */
+	protected long connectionIdleTimeout;
+
+	/**
+	 * Constructor to create and configure remote JIRA REST API client. See
+	 * {@link JIRA5RestClient#JIRA5RestClient(IESIntegration, String, String, String, Integer, String, JIRAConnectionPoolRegistry, int, int, long, long)}
+	 * for parameters description. Connection limits are used for NIO connection pool owned by this client.
+	 */
+	public JIRA5AsyncRestClient(IESIntegration esIntegration, String jiraUrlBase, String jiraUsername,
+			String jiraPassword, Integer timeout, String restApiVersion, JIRAConnectionPoolRegistry connectionPoolRegistry,
+			int maxConnectionsTotal, int maxConnectionsPerRoute, long connectionKeepAlive, long connectionIdleTimeout) {
+		super(esIntegration, jiraUrlBase, jiraUsername, jiraPassword, timeout, restApiVersion, connectionPoolRegistry,
+				maxConnectionsTotal, maxConnectionsPerRoute, connectionKeepAlive, connectionIdleTimeout);
+		logger = esIntegration.createLogger(getClass());
+		this.connectionIdleTimeout = connectionIdleTimeout;
+
+		IOReactorConfig.Builder ioConfig = IOReactorConfig.custom();
+		if (timeout != null)
+			ioConfig.setConnectTimeout(timeout).setSoTimeout(timeout);
+		try {
+			asyncConnectionManager = new PoolingNHttpClientConnectionManager(new DefaultConnectingIOReactor(
+					ioConfig.build()));
+		} catch (IOReactorException e) {
+			super.close();
+			throw new SettingsException("Unable to create NIO HTTP client for JIRA: " + e.getMessage());
+		}
+		asyncConnectionManager.setMaxTotal(maxConnectionsTotal);
+		asyncConnectionManager.setDefaultMaxPerRoute(maxConnectionsPerRoute);
+
+		HttpAsyncClientBuilder clientBuilder = HttpAsyncClients.custom().setConnectionManager(asyncConnectionManager);
+		clientBuilder.setKeepAliveStrategy(keepAliveStrategy);
+		if (requestConfig != null)
+			clientBuilder.setDefaultRequestConfig(requestConfig);
+		if (credentialsProvider != null)
+			clientBuilder.setDefaultCredentialsProvider(credentialsProvider);
+		asyncHttpClient = clientBuilder.build();
+		asyncHttpClient.start();
+
+		retryScheduler = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			@Override
+			public Thread newThread(Runnable r) {
+				Thread t = new Thread(r, "jira_river_async_retry");
+				t.setDaemon(true);
+				return t;
+			}
+		});
+		retryScheduler.scheduleWithFixedDelay(new Runnable() {
+			@Override
+			public void run() {
+				evictConnections();
+			}
+		}, JIRAConnectionPoolRegistry.EVICTION_PERIOD, JIRAConnectionPoolRegistry.EVICTION_PERIOD, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Close expired connections, and connections idle for longer than {@link #connectionIdleTimeout}, in NIO connection
+	 * pool.
+	 */
+	protected void evictConnections() {
+		try {
+			asyncConnectionManager.closeExpiredConnections();
+			if (connectionIdleTimeout > 0)
+				asyncConnectionManager.closeIdleConnections(connectionIdleTimeout, TimeUnit.MILLISECONDS);
+		} catch (Exception e) {
+			logger.warn("Error during eviction of NIO connections to JIRA: {}", e.getMessage());
+		}
+	}
+
+	@Override
+	protected HttpResponse executeHttpRequest(HttpGet method, HttpClientContext context) throws Exception {
+		try {
+			return asyncHttpClient.execute(targetHost, method, context, null).get();
+		} catch (ExecutionException e) {
+			throw unwrap(e);
+		}
+	}
+
+	@Override
+	public Future<List<String>> getAllJIRAProjectsAsync() throws Exception {
+		final Future<byte[]> responseFuture = performJIRAGetRESTCallAsync("project", null);
+		return new TransformingFuture<List<String>>(responseFuture) {
+			@Override
+			protected List<String> transform(byte[] responseData) throws Exception {
+				return parseProjectKeys(responseData);
+			}
+		};
+	}
+
+	@Override
+	public Future<ChangedIssuesResults> getJIRAChangedIssuesAsync(final String projectKey, int startAt,
+			Date updatedAfter, Date updatedBefore) throws Exception {
+		final AdaptiveFetchController controller = adaptiveFetchController;
+		final int issuesRequested = getIssuesPerRequest(projectKey);
+		final AsyncCall call = startAsyncCall("search",
+				prepareJIRAChangedIssuesParams(projectKey, startAt, updatedAfter, updatedBefore, issuesRequested));
+		return new TransformingFuture<ChangedIssuesResults>(call.future) {
+			@Override
+			protected ChangedIssuesResults transform(byte[] responseData) throws Exception {
+				ChangedIssuesResults ret = parseChangedIssuesResponse(responseData);
+				if (controller != null)
+					controller.reportSuccess(projectKey, call.latency, responseData.length, issuesRequested,
+							ret.getIssuesCount(), ret.getMaxResults());
+				return ret;
+			}
+
+			@Override
+			protected void failed(Exception e) {
+				if (controller != null && isOverloadFailure(e))
+					controller.reportFailure(projectKey);
+			}
+		};
+	}
+
+	/**
+	 * Perform defined REST call to remote JIRA REST API asynchronously. Retries and circuit breaker are handled same way
+	 * as in {@link #performJIRAGetRESTCall(String, List)}.
+	 *
+	 * @param restOperation name of REST operation to call on JIRA API (eg. 'search' or 'project' )
+	 * @param params GET parameters used for call
+	 * @return future with response from server
+	 * @throws Exception if call can't be started
+	 */
+	protected Future<byte[]> performJIRAGetRESTCallAsync(String restOperation, List<NameValuePair> params)
+			throws Exception {
+		return startAsyncCall(restOperation, params).future;
+	}
+
+	private AsyncCall startAsyncCall(String restOperation, List<NameValuePair> params) throws Exception {
+		AsyncCall call = new AsyncCall(prepareRESTCallURI(restOperation, params));
+		call.start();
+		return call;
+	}
+
+	/**
+	 * State of one asynchronous call to JIRA, handles response and schedules retries.
+	 */
+	protected class AsyncCall implements FutureCallback<HttpResponse>, Runnable {
+
+		protected final URI uri;
+
+		protected final BasicFuture<byte[]> future = new BasicFuture<byte[]>(null);
+
+		protected int retry = 0;
+
+		protected int retryAfterAttempt = 0;
+
+		protected long attemptStart;
+
+		/**
+		 * Latency of successful attempt [ms].
+		 */
+		protected volatile long latency;
+
+		protected AsyncCall(URI uri) {
+			this.uri = uri;
+		}
+
+		/**
+		 * Perform first attempt of call in caller thread, so rate limiter slows down caller.
+		 */
+		protected void start() {
+			if (!tryCall())
+				return;
+			try {
+				rateLimiter.acquire();
+			} catch (InterruptedException e) {
+				circuitBreaker.reportAbort();
+				future.failed(e);
+				return;
+			}
+			execute();
+		}
+
+		/**
+		 * Perform scheduled attempt of call. Scheduler thread is shared by all calls, so it never waits in rate limiter,
+		 * attempt is scheduled again after time requested by limiter instead.
+		 */
+		@Override
+		public void run() {
+			if (future.isDone())
+				return;
+			long wait = rateLimiter.tryAcquire(System.currentTimeMillis());
+			if (wait > 0) {
+				schedule(wait);
+				return;
+			}
+			if (tryCall())
+				execute();
+		}
+
+		/**
+		 * Check circuit breaker, fail call if it is open.
+		 *
+		 * @return true if call may be performed
+		 */
+		protected boolean tryCall() {
+			if (future.isDone())
+				return false;
+			if (!circuitBreaker.tryCall(System.currentTimeMillis())) {
+				future.failed(new JIRACircuitOpenException("JIRA REST API call rejected, circuit breaker for " + targetHost
+						+ " is open due previous failures"));
+				return false;
+			}
+			return true;
+		}
+
+		/**
+		 * Send HTTP request of call attempt.
+		 */
+		protected void execute() {
+			HttpGet method = new HttpGet(uri);
+			method.addHeader("Accept", "application/json");
+			RequestConfig config = requestConfig;
+			if (config != null)
+				method.setConfig(config);
+			attemptStart = System.currentTimeMillis();
+			try {
+				asyncHttpClient.execute(targetHost, method, createHttpContext(), this);
+			} catch (RuntimeException e) {
+				// client closed
+				circuitBreaker.reportAbort();
+				future.failed(e);
+			}
+		}
+
+		@Override
+		public void completed(HttpResponse response) {
+			try {
+				int statusCode = response.getStatusLine().getStatusCode();
+				byte[] responseContent = null;
+				if (response.getEntity() != null) {
+					responseContent = EntityUtils.toByteArray(response.getEntity());
+					rateLimiter.reportBytes(responseContent.length);
+				}
+				if (statusCode == HttpStatus.SC_OK) {
+					latency = System.currentTimeMillis() - attemptStart;
+					circuitBreaker.reportSuccess();
+					if (responseContent != null)
+						recordResponse(uri, responseContent, latency);
+					future.completed(responseContent);
+					return;
+				}
+				if (statusCode == SC_TOO_MANY_REQUESTS || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+					Header retryAfterHeader = response.getFirstHeader("Retry-After");
+					long retryAfter = retryAfterHeader != null ? parseRetryAfter(retryAfterHeader.getValue(),
+							System.currentTimeMillis()) : -1;
+					if (retryAfter >= 0 && retryAfterAttempt < MAX_RETRY_AFTER_ATTEMPTS) {
+						retryAfterAttempt++;
+						retryAfter = Math.min(retryAfter, MAX_RETRY_AFTER);
+						logger.info("JIRA responded with HTTP code {}, calls paused for {}ms as requested by Retry-After header",
+								statusCode, retryAfter);
+						rateLimiter.pause(retryAfter);
+						circuitBreaker.reportAbort();
+						schedule(0);
+						return;
+					}
+				}
+				handleFailure(new JIRARestCallException("Failed JIRA REST API call. HTTP error code: " + statusCode
+						+ " Response body: " + responseContent, statusCode));
+			} catch (IOException e) {
+				handleFailure(e);
+			}
+		}
+
+		@Override
+		public void failed(Exception e) {
+			handleFailure(e);
+		}
+
+		@Override
+		public void cancelled() {
+			circuitBreaker.reportAbort();
+			future.cancel(true);
+		}
+
+		protected void handleFailure(Exception e) {
+			if (isUnavailabilityFailure(e)) {
+				long now = System.currentTimeMillis();
+				circuitBreaker.reportFailure(now);
+				if (retry < maxRetries && circuitBreaker.getState(now) == JIRACircuitBreaker.State.CLOSED) {
+					long backoff = computeRetryBackoff(retry++);
+					logger.warn("JIRA REST API call failed due {}, retry {} of {} in {}ms", e.getMessage(), retry, maxRetries,
+							backoff);
+					schedule(backoff);
+					return;
+				}
+			} else if (e instanceof JIRARestCallException) {
+				// JIRA responded so it is available
+				circuitBreaker.reportSuccess();
+			} else {
+				circuitBreaker.reportAbort();
+			}
+			future.failed(e);
+		}
+
+		/**
+		 * Schedule next attempt. Attempts are never performed in I/O thread.
+		 *
+		 * @param delay before attempt [ms]
+		 */
+		protected void schedule(long delay) {
+			try {
+				retryScheduler.schedule(this, delay, TimeUnit.MILLISECONDS);
+			} catch (RejectedExecutionException e) {
+				future.failed(new IOException("JIRA client closed"));
+			}
+		}
+	}
+
+	/**
+	 * Future transforming response data into result in thread which calls {@link #get()}. Transformation is performed
+	 * only once.
+	 *
+	 * @param <T> type of result
+	 */
+	protected static abstract class TransformingFuture<T> implements Future<T> {
+
+		private final Future<byte[]> responseFuture;
+
+		private boolean processed = false;
+
+		private T result;
+
+		private Exception error;
+
+		protected TransformingFuture(Future<byte[]> responseFuture) {
+			this.responseFuture = responseFuture;
+		}
+
+		/**
+		 * Transform response data into result.
+		 *
+		 * @param responseData to transform
+		 * @return result
+		 * @throws Exception
+		 */
+		protected abstract T transform(byte[] responseData) throws Exception;
+
+		/**
+		 * Called once if call failed.
+		 *
+		 * @param e failure
+		 */
+		protected void failed(Exception e) {
+		}
+
+		@Override
+		public boolean cancel(boolean mayInterruptIfRunning) {
+			return responseFuture.cancel(mayInterruptIfRunning);
+		}
+
+		@Override
+		public boolean isCancelled() {
+			return responseFuture.isCancelled();
+		}
+
+		@Override
+		public boolean isDone() {
+			return responseFuture.isDone();
+		}
+
+		@Override
+		public T get() throws InterruptedException, ExecutionException {
+			byte[] responseData = null;
+			try {
+				responseData = responseFuture.get();
+			} catch (ExecutionException e) {
+				process(null, e);
+			}
+			return process(responseData, null);
+		}
+
+		@Override
+		public T get(long timeout, TimeUnit unit) throws InterruptedException, ExecutionException, TimeoutException {
+			byte[] responseData = null;
+			try {
+				responseData = responseFuture.get(timeout, unit);
+			} catch (ExecutionException e) {
+				process(null, e);
+			}
+			return process(responseData, null);
+		}
+
+		private synchronized T process(byte[] responseData, ExecutionException callError) throws ExecutionException {
+			if (!processed) {
+				processed = true;
+				if (callError != null) {
+					error = unwrap(callError);
+					failed(error);
+				} else {
+					try {
+						result = transform(responseData);
+					} catch (Exception e) {
+						error = e;
+					}
+				}
+			}
+			if (error != null)
+				throw new ExecutionException(error.getMessage(), error);
+			return result;
+		}
+	}
+
+	/**
+	 * Get exception which caused {@link ExecutionException}.
+	 *
+	 * @param e to unwrap
+	 * @return cause exception
+	 */
+	protected static Exception unwrap(ExecutionException e) {
+		Throwable cause = e.getCause();
+		if (cause instanceof Exception)
+			return (Exception) cause;
+		return e;
+	}
+
+	@Override
+	public PoolStats getConnectionPoolStats() {
+		if (asyncConnectionManager == null)
+			return null;
+		return asyncConnectionManager.getTotalStats();
+	}
+
+	@Override
+	public void close() {
+		if (retryScheduler != null)
+			retryScheduler.shutdownNow();
+		if (asyncHttpClient != null) {
+			try {
+				asyncHttpClient.close();
+			} catch (IOException e) {
+				logger.warn("Unable to close NIO HTTP client for JIRA: {}", e.getMessage());
+			}
+		}
+		if (asyncConnectionManager != null) {
+			try {
+				asyncConnectionManager.shutdown();
+			} catch (IOException e) {
+				logger.warn("Unable to close NIO connection pool for JIRA: {}", e.getMessage());
+			}
+		}
+		super.close();
+	}
+
+}
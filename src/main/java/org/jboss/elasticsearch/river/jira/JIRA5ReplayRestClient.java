@@ -0,0 +1,61 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.net.URI;
+
+import org.apache.http.HttpStatus;
+
+/**
+ * JIRA client serving responses from {@link JIRAResponseRecording} instead of calling JIRA, so indexing can be run
+ * repeatably and offline, eg. to compare throughput and indexed documents of river versions over same data. Calls are
+ * prepared same way as in {@link JIRA5RestClient}, so recording made with same river configuration is matched. Call
+ * not found in recording fails with HTTP code 404.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRA5ReplayRestClient extends JIRA5RestClient {
+
+	protected final JIRAResponseRecording recording;
+
+	/**
+	 * Multiplier of recorded call latency, 0 means responses are served without delay.
+	 */
+	protected final double latencyScale;
+
+	/**
+	 * Create client.
+	 *
+	 * @param esIntegration to be used
+	 * @param jiraUrlBase JIRA base URL responses were recorded for, used to prepare calls only
+	 * @param restApiVersion version of REST API responses were recorded for
+	 * @param recording to serve responses from
+	 * @param latencyScale multiplier of recorded call latency, 0 means responses are served without delay
+	 */
+	public JIRA5ReplayRestClient(IESIntegration esIntegration, String jiraUrlBase, String restApiVersion,
+			JIRAResponseRecording recording, double latencyScale) {
+		super(esIntegration, jiraUrlBase, null, null, null, restApiVersion);
+		if (recording == null)
+			throw new IllegalArgumentException("recording must be defined");
+		if (latencyScale < 0)
+			throw new IllegalArgumentException("latencyScale must not be negative");
+		this.recording = recording;
+		this.latencyScale = latencyScale;
+	}
+
+	@Override
+	protected byte[] performJIRAGetRESTRequest(URI uri, ConditionalGet conditionalGet) throws Exception {
+		JIRAResponseRecording.RecordedResponse response = recording.get(uri);
+		if (response == null) {
+			throw new JIRARestCallException("No recorded JIRA response for " + uri, HttpStatus.SC_NOT_FOUND);
+		}
+		long delay = (long) (response.getLatency() * latencyScale);
+		if (delay > 0)
+			Thread.sleep(delay);
+		return response.getData();
+	}
+
+}
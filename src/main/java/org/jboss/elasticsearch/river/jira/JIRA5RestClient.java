@@ -5,37 +5,56 @@
  */
 package org.jboss.elasticsearch.river.jira;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InterruptedIOException;
 import java.net.MalformedURLException;
+import java.net.URI;
+import java.net.URISyntaxException;
 import java.net.URL;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
+import java.util.Set;
 import java.util.TimeZone;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
 
-import org.apache.http.Consts;
+import org.apache.http.Header;
 import org.apache.http.HttpHost;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
 import org.apache.http.HttpStatus;
 import org.apache.http.NameValuePair;
+import org.apache.http.auth.AuthScheme;
 import org.apache.http.auth.AuthScope;
 import org.apache.http.auth.UsernamePasswordCredentials;
 import org.apache.http.client.AuthCache;
 import org.apache.http.client.CredentialsProvider;
 import org.apache.http.client.config.RequestConfig;
-import org.apache.http.client.methods.CloseableHttpResponse;
 import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.protocol.HttpClientContext;
+import org.apache.http.client.utils.DateUtils;
 import org.apache.http.client.utils.URIBuilder;
-import org.apache.http.config.ConnectionConfig;
+import org.apache.http.conn.ConnectionKeepAliveStrategy;
 import org.apache.http.impl.auth.BasicScheme;
-import org.apache.http.impl.client.BasicAuthCache;
 import org.apache.http.impl.client.BasicCredentialsProvider;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClientBuilder;
 import org.apache.http.impl.client.HttpClients;
-import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicNameValuePair;
+import org.apache.http.pool.PoolStats;
+import org.apache.http.protocol.HttpContext;
 import org.apache.http.util.EntityUtils;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
@@ -43,6 +62,7 @@ import org.elasticsearch.common.settings.SettingsException;
 import org.elasticsearch.common.xcontent.XContentFactory;
 import org.elasticsearch.common.xcontent.XContentParser;
 import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
 
 /**
  * Class used to call JIRA 5+ series functions to obtain JIRA content over REST API version 2. One instance of this
@@ -60,12 +80,167 @@ public class JIRA5RestClient implements IJIRAClient {
 
 	protected boolean isAuthConfigured = false;
 
-	protected int listJIRAIssuesMax = -1;
+	protected volatile int listJIRAIssuesMax = -1;
 
 	protected IJIRAIssueIndexStructureBuilder indexStructureBuilder;
 
 	/**
-	 * Constructor to create and configure remote JIRA REST API client.
+	 * Optional controller of number of issues requested by one call.
+	 */
+	protected volatile AdaptiveFetchController adaptiveFetchController;
+
+	/**
+	 * Latency of last successful HTTP request performed by {@link #performJIRAGetRESTRequest(URI, ConditionalGet)} in
+	 * current thread [ms]. Measured around HTTP execution and reading of response only, so rate limiter waits,
+	 * Retry-After pauses and retry backoff are not included.
+	 */
+	protected final ThreadLocal<Long> httpRequestLatency = new ThreadLocal<Long>();
+
+	/**
+	 * Default maximal number of HTTP connections in pool.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS_TOTAL = 20;
+
+	/**
+	 * Default maximal number of HTTP connections per route.
+	 */
+	public static final int DEFAULT_MAX_CONNECTIONS_PER_ROUTE = 20;
+
+	/**
+	 * Default time to keep persistent connection alive if server do not define it [ms].
+	 */
+	public static final long DEFAULT_CONNECTION_KEEP_ALIVE = 60 * 1000;
+
+	/**
+	 * Default time after which idle connection is closed [ms].
+	 */
+	public static final long DEFAULT_CONNECTION_IDLE_TIMEOUT = 60 * 1000;
+
+	protected JIRAConnectionPoolRegistry connectionPoolRegistry;
+
+	/**
+	 * HTTP connection pool shared for JIRA host. Null after {@link #close()}.
+	 */
+	protected volatile JIRAConnectionPool connectionPool;
+
+	protected HttpHost targetHost;
+
+	/**
+	 * Rate limiter for JIRA host shared with other clients over {@link #connectionPool}.
+	 */
+	protected JIRARateLimiter rateLimiter;
+
+	/**
+	 * Circuit breaker for JIRA host shared with other clients over {@link #connectionPool}.
+	 */
+	protected JIRACircuitBreaker circuitBreaker;
+
+	/**
+	 * Default maximal number of retries of failed idempotent call.
+	 */
+	public static final int DEFAULT_MAX_RETRIES = 2;
+
+	/**
+	 * Default backoff before first retry of failed call [ms].
+	 */
+	public static final long DEFAULT_RETRY_INITIAL_BACKOFF = 1000;
+
+	/**
+	 * Default maximal backoff before retry of failed call [ms].
+	 */
+	public static final long DEFAULT_RETRY_MAX_BACKOFF = 30 * 1000;
+
+	/**
+	 * Maximal number of retries of failed idempotent call, 0 means no retry.
+	 */
+	protected int maxRetries = DEFAULT_MAX_RETRIES;
+
+	/**
+	 * Backoff before first retry of failed call [ms]. Doubled for each next retry.
+	 */
+	protected long retryInitialBackoff = DEFAULT_RETRY_INITIAL_BACKOFF;
+
+	/**
+	 * Maximal backoff before retry of failed call [ms].
+	 */
+	protected long retryMaxBackoff = DEFAULT_RETRY_MAX_BACKOFF;
+
+	/**
+	 * HTTP status code for "Too Many Requests" response.
+	 */
+	protected static final int SC_TOO_MANY_REQUESTS = 429;
+
+	/**
+	 * Maximal number of subsequent retries of one call requested by <code>Retry-After</code> header.
+	 */
+	protected static final int MAX_RETRY_AFTER_ATTEMPTS = 5;
+
+	/**
+	 * Maximal pause requested by <code>Retry-After</code> header we accept [ms].
+	 */
+	protected static final long MAX_RETRY_AFTER = 5 * 60 * 1000;
+
+	/**
+	 * Validators of last successful project list request, used to perform conditional request next time.
+	 */
+	protected final ConditionalGet projectsConditionalGet = new ConditionalGet();
+
+	/**
+	 * Project keys from last successful project list request, returned if JIRA responds that list is not modified.
+	 */
+	protected List<String> projectKeysCache;
+
+	/**
+	 * HTTP client configuration, kept so other client implementations may reuse it.
+	 */
+	protected ConnectionKeepAliveStrategy keepAliveStrategy;
+
+	/**
+	 * Configuration of requests, replaced by {@link #setTimeout(int)} while client is used, so set to each request.
+	 */
+	protected volatile RequestConfig requestConfig;
+
+	protected CredentialsProvider credentialsProvider;
+
+	/**
+	 * Preemptive authentication cache reused for all calls, null if authentication is not configured.
+	 */
+	protected AuthCache authCache;
+
+	/**
+	 * Optional recording where responses of successful calls are written to.
+	 */
+	protected volatile JIRAResponseRecording responseRecording;
+
+	/**
+	 * Optional river wide budget of memory used by issue data being indexed.
+	 */
+	protected volatile JIRAMemoryBudget memoryBudget;
+
+	/**
+	 * Maximal length of string value in issue data returned from JIRA, longer values are truncated. 0 means no limit.
+	 */
+	protected int maxFieldLength = 0;
+
+	/**
+	 * Name of field added into issue data with list of paths of fields truncated due {@link #maxFieldLength}.
+	 */
+	public static final String FIELD_TRUNCATED_FIELDS = "truncatedFields";
+
+	/**
+	 * Names of identifier and date fields never truncated due {@link #maxFieldLength}, as indexing depends on them.
+	 */
+	protected static final Set<String> NOT_TRUNCATED_FIELDS = new HashSet<String>(Arrays.asList("id", "key", "self",
+			"created", "updated", "resolutiondate", "duedate", "lastViewed"));
+
+	/**
+	 * Size of {@link StringDedupTable} used to deduplicate string values while list of changed issues is parsed, new
+	 * table is used for each response. 0 means values are not deduplicated.
+	 */
+	protected int stringDedupTableSize = 0;
+
+	/**
+	 * Constructor to create and configure remote JIRA REST API client with default connection pool settings.
 	 * 
 	 * @param jiraUrlBase JIRA API URL used to call JIRA (see {@link #prepareAPIURLFromBaseURL(String, String)})
 	 * @param jiraUsername optional username to authenticate into JIRA
@@ -75,6 +250,29 @@ public class JIRA5RestClient implements IJIRAClient {
 	 */
 	public JIRA5RestClient(IESIntegration esIntegration, String jiraUrlBase, String jiraUsername, String jiraPassword,
 			Integer timeout, String restApiVersion) {
+		this(esIntegration, jiraUrlBase, jiraUsername, jiraPassword, timeout, restApiVersion, JIRAConnectionPoolRegistry
+				.getInstance(), DEFAULT_MAX_CONNECTIONS_TOTAL, DEFAULT_MAX_CONNECTIONS_PER_ROUTE,
+				DEFAULT_CONNECTION_KEEP_ALIVE, DEFAULT_CONNECTION_IDLE_TIMEOUT);
+	}
+
+	/**
+	 * Constructor to create and configure remote JIRA REST API client.
+	 * 
+	 * @param jiraUrlBase JIRA API URL used to call JIRA (see {@link #prepareAPIURLFromBaseURL(String, String)})
+	 * @param jiraUsername optional username to authenticate into JIRA
+	 * @param jiraPassword optional password to authenticate into JIRA
+	 * @param timeout JIRA http/s connection timeout in milliseconds
+	 * @param restApiVersion version of REST API to use, default is 2
+	 * @param connectionPoolRegistry registry to obtain HTTP connection pool shared for JIRA host from
+	 * @param maxConnectionsTotal maximal number of HTTP connections in pool
+	 * @param maxConnectionsPerRoute maximal number of HTTP connections per route
+	 * @param connectionKeepAlive time to keep persistent connection alive if server do not define it [ms]. 0 means
+	 *          infinite.
+	 * @param connectionIdleTimeout time after which idle connection is closed [ms]. 0 means never closed.
+	 */
+	public JIRA5RestClient(IESIntegration esIntegration, String jiraUrlBase, String jiraUsername, String jiraPassword,
+			Integer timeout, String restApiVersion, JIRAConnectionPoolRegistry connectionPoolRegistry,
+			int maxConnectionsTotal, int maxConnectionsPerRoute, final long connectionKeepAlive, long connectionIdleTimeout) {
 		logger = esIntegration.createLogger(getClass());
 
 		jiraRestAPIUrlBase = prepareAPIURLFromBaseURL(jiraUrlBase, restApiVersion);
@@ -88,28 +286,45 @@ public class JIRA5RestClient implements IJIRAClient {
 		} catch (MalformedURLException e) {
 			throw new SettingsException("Parameter jira/urlBase is malformed " + e.getMessage());
 		}
+		if (maxConnectionsTotal < 1 || maxConnectionsPerRoute < 1) {
+			throw new SettingsException("Parameters jira/maxConnectionsTotal and jira/maxConnectionsPerRoute must be positive");
+		}
 
-		PoolingHttpClientConnectionManager connManager = new PoolingHttpClientConnectionManager();
-		connManager.setDefaultMaxPerRoute(20);
-		connManager.setMaxTotal(20);
-
-		ConnectionConfig connectionConfig = ConnectionConfig.custom().setCharset(Consts.UTF_8).build();
-		connManager.setDefaultConnectionConfig(connectionConfig);
+		targetHost = new HttpHost(url.getHost(), url.getPort(), url.getProtocol());
+		this.connectionPoolRegistry = connectionPoolRegistry;
+		connectionPool = connectionPoolRegistry.acquire(targetHost, maxConnectionsTotal, maxConnectionsPerRoute,
+				connectionIdleTimeout);
+		rateLimiter = connectionPool.getRateLimiter();
+		circuitBreaker = connectionPool.getCircuitBreaker();
 
-		HttpClientBuilder clientBuilder = HttpClients.custom().setConnectionManager(connManager);
+		HttpClientBuilder clientBuilder = HttpClients.custom().setConnectionManager(connectionPool.getConnectionManager());
+		keepAliveStrategy = new ConnectionKeepAliveStrategy() {
+			@Override
+			public long getKeepAliveDuration(HttpResponse response, HttpContext context) {
+				long duration = DefaultConnectionKeepAliveStrategy.INSTANCE.getKeepAliveDuration(response, context);
+				if (duration > 0)
+					return duration;
+				return connectionKeepAlive > 0 ? connectionKeepAlive : -1;
+			}
+		};
+		clientBuilder.setKeepAliveStrategy(keepAliveStrategy);
 
 		if (timeout != null) {
-			RequestConfig requestConfig = RequestConfig.custom().setSocketTimeout(timeout).setConnectTimeout(timeout).build();
+			requestConfig = RequestConfig.custom().setSocketTimeout(timeout).setConnectTimeout(timeout).build();
 			clientBuilder.setDefaultRequestConfig(requestConfig);
 		}
 
 		if (jiraUsername != null && !"".equals(jiraUsername.trim())) {
 			String host = url.getHost();
-			CredentialsProvider credentialsProvider = new BasicCredentialsProvider();
+			credentialsProvider = new BasicCredentialsProvider();
 			credentialsProvider.setCredentials(new AuthScope(host, AuthScope.ANY_PORT), new UsernamePasswordCredentials(
 					jiraUsername, jiraPassword));
 			clientBuilder.setDefaultCredentialsProvider(credentialsProvider);
 			isAuthConfigured = true;
+			// Preemptive authentication enabled - see
+			// http://hc.apache.org/httpcomponents-client-ga/tutorial/html/authentication.html#d5e1032
+			authCache = new ConcurrentAuthCache();
+			authCache.put(targetHost, new BasicScheme());
 		}
 		httpclient = clientBuilder.build();
 	}
@@ -142,28 +357,56 @@ public class JIRA5RestClient implements IJIRAClient {
 	 * @throws Exception
 	 */
 	@Override
-	@SuppressWarnings("unchecked")
-	public List<String> getAllJIRAProjects() throws Exception {
-		XContentParser parser = null;
-		try {
-			byte[] responseData = performJIRAGetRESTCall("project", null);
-			logger.debug("JIRA REST response data: {}", new String(responseData));
-
-			StringBuilder sb = new StringBuilder();
-			sb.append("{ \"projects\" : ").append(new String(responseData, "UTF-8")).append("}");
-			responseData = sb.toString().getBytes("UTF-8");
-			parser = XContentFactory.xContent(XContentType.JSON).createParser(responseData);
-			Map<String, Object> responseParsed = parser.mapAndClose();
+	public synchronized List<String> getAllJIRAProjects() throws Exception {
+		byte[] responseData = performJIRAGetRESTCall("project", null, projectsConditionalGet);
+		if (responseData == null && projectKeysCache != null) {
+			logger.debug("JIRA project list not modified, cached one used");
+			return new ArrayList<String>(projectKeysCache);
+		}
+		if (responseData == null) {
+			// we have nothing cached so validators are useless, should not happen
+			projectsConditionalGet.reset();
+			responseData = performJIRAGetRESTCall("project", null, null);
+		}
+		projectKeysCache = parseProjectKeys(responseData);
+		return new ArrayList<String>(projectKeysCache);
+	}
 
+	/**
+	 * Parse keys from JSON array of projects returned by JIRA. Array is stream parsed and all other project fields are
+	 * skipped, so whole response is never materialized.
+	 * 
+	 * @param responseData JSON array of projects
+	 * @return list of project keys
+	 * @throws Exception if response structure is invalid
+	 */
+	protected static List<String> parseProjectKeys(byte[] responseData) throws Exception {
+		XContentParser parser = XContentFactory.xContent(XContentType.JSON).createParser(responseData);
+		try {
+			if (parser.nextToken() != XContentParser.Token.START_ARRAY) {
+				throw new IllegalArgumentException("Bad response structure from JIRA, array of projects expected");
+			}
 			List<String> ret = new ArrayList<String>();
-			for (Map<String, Object> mk : (List<Map<String, Object>>) responseParsed.get("projects")) {
-				ret.add((String) mk.get("key"));
+			XContentParser.Token token;
+			while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+				if (token != XContentParser.Token.START_OBJECT) {
+					parser.skipChildren();
+					continue;
+				}
+				while ((token = parser.nextToken()) != XContentParser.Token.END_OBJECT) {
+					if (token == XContentParser.Token.FIELD_NAME && "key".equals(parser.currentName())) {
+						token = parser.nextToken();
+						if (token == XContentParser.Token.VALUE_STRING)
+							ret.add(parser.text());
+					} else {
+						parser.nextToken();
+						parser.skipChildren();
+					}
+				}
 			}
-
 			return ret;
 		} finally {
-			if (parser != null)
-				parser.close();
+			parser.close();
 		}
 	}
 
@@ -180,14 +423,46 @@ public class JIRA5RestClient implements IJIRAClient {
 	 * @throws Exception
 	 */
 	@Override
-	@SuppressWarnings("unchecked")
 	public ChangedIssuesResults getJIRAChangedIssues(String projectKey, int startAt, Date updatedAfter, Date updatedBefore)
 			throws Exception {
-		byte[] responseData = performJIRAChangedIssuesREST(projectKey, startAt, updatedAfter, updatedBefore);
+		awaitMemoryBudget();
+		AdaptiveFetchController controller = adaptiveFetchController;
+		int issuesRequested = getIssuesPerRequest(projectKey);
+		httpRequestLatency.remove();
+		long callStart = System.currentTimeMillis();
+		byte[] responseData;
+		try {
+			responseData = performJIRAChangedIssuesREST(projectKey, startAt, updatedAfter, updatedBefore, issuesRequested);
+		} catch (Exception e) {
+			if (controller != null && isOverloadFailure(e))
+				controller.reportFailure(projectKey);
+			throw e;
+		}
+		long latency = getHttpRequestLatency(callStart);
+		ChangedIssuesResults ret = parseChangedIssuesResponse(responseData);
+		if (controller != null)
+			controller.reportSuccess(projectKey, latency, responseData.length, issuesRequested, ret.getIssuesCount(),
+					ret.getMaxResults());
+		return ret;
+	}
+
+	/**
+	 * Parse response of JIRA REST call for {@link #getJIRAChangedIssues(String, int, Date, Date)}.
+	 * 
+	 * @param responseData data returned from JIRA REST call (JSON formatted)
+	 * @return parsed results
+	 * @throws Exception if response structure is invalid
+	 */
+	@SuppressWarnings("unchecked")
+	protected ChangedIssuesResults parseChangedIssuesResponse(byte[] responseData) throws Exception {
 		logger.debug("JIRA REST response data: {}", new String(responseData));
 
 		XContentParser parser = XContentFactory.xContent(XContentType.JSON).createParser(responseData);
-		Map<String, Object> responseParsed = parser.mapAndClose();
+		Map<String, Object> responseParsed;
+		if (stringDedupTableSize > 0)
+			responseParsed = new StringDedupTable(stringDedupTableSize).readMapAndClose(parser);
+		else
+			responseParsed = parser.mapAndClose();
 		Integer startAtRet = Utils.nodeIntegerValue(responseParsed.get("startAt"));
 		Integer maxResults = Utils.nodeIntegerValue(responseParsed.get("maxResults"));
 		Integer total = Utils.nodeIntegerValue(responseParsed.get("total"));
@@ -196,7 +471,115 @@ public class JIRA5RestClient implements IJIRAClient {
 			throw new IllegalArgumentException("Bad response structure from JIRA: startAt=" + startAtRet + " maxResults="
 					+ maxResults + " total=" + total);
 		}
-		return new ChangedIssuesResults(issues, startAtRet, maxResults, total);
+		if (issues != null && maxFieldLength > 0) {
+			for (Map<String, Object> issue : issues) {
+				truncateIssueFields(issue);
+			}
+		}
+		ChangedIssuesResults ret = new ChangedIssuesResults(issues, startAtRet, maxResults, total);
+		ret.setResponseSize(responseData.length);
+		return ret;
+	}
+
+	/**
+	 * Truncate string values longer than {@link #maxFieldLength} in <code>fields</code> of issue data. Fields from
+	 * {@link #NOT_TRUNCATED_FIELDS} are never truncated. Paths of truncated fields (dot notation) are listed in
+	 * {@link #FIELD_TRUNCATED_FIELDS} field of issue.
+	 * 
+	 * @param issue to truncate values in
+	 */
+	protected void truncateIssueFields(Map<String, Object> issue) {
+		List<String> truncated = new ArrayList<String>();
+		Object fields = issue.get("fields");
+		if (fields != null)
+			issue.put("fields", truncateValue(fields, "fields", truncated));
+		if (!truncated.isEmpty())
+			issue.put(FIELD_TRUNCATED_FIELDS, truncated);
+	}
+
+	@SuppressWarnings("unchecked")
+	private Object truncateValue(Object value, String path, List<String> truncated) {
+		if (value instanceof String) {
+			String s = (String) value;
+			if (s.length() > maxFieldLength) {
+				if (!truncated.contains(path))
+					truncated.add(path);
+				return s.substring(0, maxFieldLength);
+			}
+		} else if (value instanceof Map) {
+			for (Map.Entry<String, Object> e : ((Map<String, Object>) value).entrySet()) {
+				if (!NOT_TRUNCATED_FIELDS.contains(e.getKey()))
+					e.setValue(truncateValue(e.getValue(), path + "." + e.getKey(), truncated));
+			}
+		} else if (value instanceof List) {
+			ListIterator<Object> it = ((List<Object>) value).listIterator();
+			while (it.hasNext()) {
+				it.set(truncateValue(it.next(), path, truncated));
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Wait before JIRA call until {@link #memoryBudget} is not exhausted.
+	 * 
+	 * @throws InterruptedException
+	 */
+	protected void awaitMemoryBudget() throws InterruptedException {
+		JIRAMemoryBudget budget = memoryBudget;
+		if (budget != null)
+			budget.awaitAvailable();
+	}
+
+	/**
+	 * Limit number of issues requested by one call by {@link #memoryBudget}.
+	 * 
+	 * @param issuesPerRequest number of issues to limit, value <= 0 means JIRA default
+	 * @return limited number of issues
+	 */
+	protected int limitByMemoryBudget(int issuesPerRequest) {
+		JIRAMemoryBudget budget = memoryBudget;
+		if (budget != null)
+			return budget.limitIssuesPerRequest(issuesPerRequest);
+		return issuesPerRequest;
+	}
+
+	/**
+	 * Check if exception from JIRA call means JIRA is overloaded, so we have to slow down.
+	 * 
+	 * @param e exception to check
+	 * @return true for timeout or server error
+	 */
+	protected static boolean isOverloadFailure(Exception e) {
+		return (e instanceof InterruptedIOException)
+				|| (e instanceof JIRARestCallException && ((JIRARestCallException) e).isServerError());
+	}
+
+	/**
+	 * Get number of issues requested by one call for given project.
+	 * 
+	 * @param projectKey to get number for
+	 * @return number of issues, value <= 0 means JIRA default is used
+	 */
+	protected int getIssuesPerRequest(String projectKey) {
+		AdaptiveFetchController controller = adaptiveFetchController;
+		if (controller != null)
+			return limitByMemoryBudget(controller.getIssuesPerRequest(projectKey));
+		return limitByMemoryBudget(listJIRAIssuesMax);
+	}
+
+	/**
+	 * Get latency of last successful HTTP request performed in current thread, see {@link #httpRequestLatency}.
+	 * 
+	 * @param callStart timestamp when whole call started [ms], used to compute latency if HTTP request latency is not
+	 *          available (request performed other way)
+	 * @return latency [ms]
+	 */
+	protected long getHttpRequestLatency(long callStart) {
+		Long ret = httpRequestLatency.get();
+		if (ret != null)
+			return ret;
+		return System.currentTimeMillis() - callStart;
 	}
 
 	/**
@@ -206,16 +589,33 @@ public class JIRA5RestClient implements IJIRAClient {
 	 * @param startAt the index of the first issue to return (0-based)
 	 * @param updatedAfter optional parameter to return issues updated only after given date.
 	 * @param updatedBefore optional parameter to return issues updated only before given date.
+	 * @param issuesPerRequest number of issues requested, see {@link #getIssuesPerRequest(String)}
 	 * @return data returned from JIRA REST call (JSON formatted)
 	 * @throws Exception
 	 * @see {@link #getJIRAChangedIssues(String, int, Date, Date)}
 	 */
-	protected byte[] performJIRAChangedIssuesREST(String projectKey, int startAt, Date updatedAfter, Date updatedBefore)
-			throws Exception {
+	protected byte[] performJIRAChangedIssuesREST(String projectKey, int startAt, Date updatedAfter,
+			Date updatedBefore, int issuesPerRequest) throws Exception {
+		return performJIRAGetRESTCall("search", prepareJIRAChangedIssuesParams(projectKey, startAt, updatedAfter,
+				updatedBefore, issuesPerRequest));
+	}
+
+	/**
+	 * Prepare GET parameters of JIRA REST call for {@link #getJIRAChangedIssues(String, int, Date, Date)}.
+	 * 
+	 * @param projectKey mandatory key of JIRA project to get issues for
+	 * @param startAt the index of the first issue to return (0-based)
+	 * @param updatedAfter optional parameter to return issues updated only after given date.
+	 * @param updatedBefore optional parameter to return issues updated only before given date.
+	 * @param issuesPerRequest number of issues requested, value <= 0 means JIRA default is used
+	 * @return list of parameters for 'search' REST operation
+	 */
+	protected List<NameValuePair> prepareJIRAChangedIssuesParams(String projectKey, int startAt, Date updatedAfter,
+			Date updatedBefore, int issuesPerRequest) {
 		List<NameValuePair> params = new ArrayList<NameValuePair>();
 		params.add(new BasicNameValuePair("jql", prepareJIRAChangedIssuesJQL(projectKey, updatedAfter, updatedBefore)));
-		if (listJIRAIssuesMax > 0)
-			params.add(new BasicNameValuePair("maxResults", "" + listJIRAIssuesMax));
+		if (issuesPerRequest > 0)
+			params.add(new BasicNameValuePair("maxResults", "" + issuesPerRequest));
 		params.add(new BasicNameValuePair("startAt", startAt + ""));
 
 		if (indexStructureBuilder != null) {
@@ -228,8 +628,7 @@ public class JIRA5RestClient implements IJIRAClient {
 				params.add(new BasicNameValuePair("expand", expands));
 			}
 		}
-
-		return performJIRAGetRESTCall("search", params);
+		return params;
 	}
 
 	/**
@@ -243,7 +642,7 @@ public class JIRA5RestClient implements IJIRAClient {
 	 * @return JQL string for given conditions
 	 * @throws IllegalArgumentException if some input parameter is illegal
 	 * @see #getJIRAChangedIssues(String, int, Date, Date)
-	 * @see #performJIRAChangedIssuesREST(String, int, Date, Date)
+	 * @see #performJIRAChangedIssuesREST(String, int, Date, Date, int)
 	 */
 	protected String prepareJIRAChangedIssuesJQL(String projectKey, Date updatedAfter, Date updatedBefore) {
 		if (Utils.isEmpty(projectKey)) {
@@ -264,6 +663,267 @@ public class JIRA5RestClient implements IJIRAClient {
 		return result;
 	}
 
+	/**
+	 * Maximal number of projects checked by one JIRA REST call in
+	 * {@link #getJIRAChangedProjects(Collection, Date)}, so request URL doesn't grow too much.
+	 */
+	protected static final int CHANGED_PROJECTS_MAX_PER_REQUEST = 100;
+
+	/**
+	 * Get projects with some issue updated after given date. Issues are requested in descending order of last update
+	 * with <code>project</code> and <code>updated</code> fields only, so first issue found for each project carries
+	 * date of last update in it. If response is truncated then next call is performed for projects not found yet, so
+	 * one call is enough if projects are quiet.
+	 * 
+	 * @param projectKeys keys of JIRA projects to check
+	 * @param updatedAfter date to check updates after (minute precise)
+	 * @return map where key is key of project with some issue updated after given date, value is date of last update of
+	 *         issue in this project.
+	 * @throws Exception
+	 */
+	@Override
+	public Map<String, Date> getJIRAChangedProjects(Collection<String> projectKeys, Date updatedAfter) throws Exception {
+		if (updatedAfter == null) {
+			throw new IllegalArgumentException("updatedAfter must be defined");
+		}
+		Map<String, Date> ret = new HashMap<String, Date>();
+		Set<String> remaining = new LinkedHashSet<String>(projectKeys);
+		while (!remaining.isEmpty()) {
+			List<String> batch = new ArrayList<String>();
+			for (String projectKey : remaining) {
+				batch.add(projectKey);
+				if (batch.size() >= CHANGED_PROJECTS_MAX_PER_REQUEST)
+					break;
+			}
+			List<NameValuePair> params = new ArrayList<NameValuePair>();
+			params.add(new BasicNameValuePair("jql", prepareJIRAChangedProjectsJQL(batch, updatedAfter)));
+			params.add(new BasicNameValuePair("fields", "project,updated"));
+			if (listJIRAIssuesMax > 0)
+				params.add(new BasicNameValuePair("maxResults", "" + listJIRAIssuesMax));
+			boolean truncated = parseChangedProjectsResponse(performJIRAGetRESTCall("search", params), ret);
+			if (truncated) {
+				// projects found now are resolved, others from batch have to be asked again
+				if (!remaining.removeAll(ret.keySet())) {
+					throw new IllegalArgumentException("Bad response structure from JIRA, truncated response without issues");
+				}
+			} else {
+				remaining.removeAll(batch);
+			}
+		}
+		return ret;
+	}
+
+	/**
+	 * Prepare JQL query used to implement {@link #getJIRAChangedProjects(Collection, Date)} operation.
+	 * 
+	 * @param projectKeys keys of JIRA projects to check
+	 * @param updatedAfter date to check updates after
+	 * @return JQL string
+	 */
+	protected String prepareJIRAChangedProjectsJQL(Collection<String> projectKeys, Date updatedAfter) {
+		StringBuilder jql = new StringBuilder();
+		appendProjectsJQLCondition(jql, projectKeys);
+		jql.append(" and updatedDate >= \"").append(formatJQLDate(updatedAfter)).append("\" ORDER BY updated DESC");
+		logger.debug("JIRA JQL string: {}", jql);
+		return jql.toString();
+	}
+
+	/**
+	 * Append <code>project in (...)</code> JQL condition.
+	 * 
+	 * @param jql to append condition to
+	 * @param projectKeys keys of JIRA projects
+	 */
+	protected static void appendProjectsJQLCondition(StringBuilder jql, Collection<String> projectKeys) {
+		jql.append("project in (");
+		boolean first = true;
+		for (String projectKey : projectKeys) {
+			if (!first)
+				jql.append(",");
+			first = false;
+			jql.append("\"").append(projectKey.replace("\"", "\\\"")).append("\"");
+		}
+		jql.append(")");
+	}
+
+	/**
+	 * Get list of issues updated in more JIRA projects by one JQL search. Issues are ascending ordered by date of last
+	 * update, <code>project</code> field is always returned so issue can be routed to its project. Configured JQL template
+	 * is not used.
+	 * 
+	 * @param projectsUpdatedAfter mandatory keys of JIRA projects to get issues for, each mapped to optional date to
+	 *          return issues of the project updated only after.
+	 * @param startAt the index of the first issue to return (0-based)
+	 * @return List of issues informations parsed from JIRA reply into <code>Map of Maps</code> structure.
+	 * @throws Exception
+	 */
+	@Override
+	public ChangedIssuesResults getJIRAChangedIssuesForProjects(Map<String, Date> projectsUpdatedAfter, int startAt)
+			throws Exception {
+		awaitMemoryBudget();
+		return parseChangedIssuesResponse(performJIRAGetRESTCall("search",
+				prepareJIRAChangedIssuesForProjectsParams(projectsUpdatedAfter, startAt)));
+	}
+
+	/**
+	 * Prepare GET parameters of JIRA REST call for {@link #getJIRAChangedIssuesForProjects(Map, int)}.
+	 * 
+	 * @param projectsUpdatedAfter mandatory keys of JIRA projects to get issues for, each mapped to optional date to
+	 *          return issues of the project updated only after.
+	 * @param startAt the index of the first issue to return (0-based)
+	 * @return list of parameters for 'search' REST operation
+	 */
+	protected List<NameValuePair> prepareJIRAChangedIssuesForProjectsParams(Map<String, Date> projectsUpdatedAfter,
+			int startAt) {
+		if (projectsUpdatedAfter == null || projectsUpdatedAfter.isEmpty()) {
+			throw new IllegalArgumentException("projectsUpdatedAfter must be defined");
+		}
+		String jql = prepareJIRAChangedIssuesForProjectsJQL(projectsUpdatedAfter);
+		logger.debug("JIRA JQL string: {}", jql);
+
+		List<NameValuePair> params = new ArrayList<NameValuePair>();
+		params.add(new BasicNameValuePair("jql", jql));
+		int issuesPerRequest = limitByMemoryBudget(listJIRAIssuesMax);
+		if (issuesPerRequest > 0)
+			params.add(new BasicNameValuePair("maxResults", "" + issuesPerRequest));
+		params.add(new BasicNameValuePair("startAt", startAt + ""));
+		if (indexStructureBuilder != null) {
+			String fields = indexStructureBuilder.getRequiredJIRACallIssueFields();
+			if (fields != null) {
+				List<String> fieldList = Utils.parseCsvString(fields);
+				if (fieldList == null)
+					fields = "project";
+				else if (!fieldList.contains("project"))
+					fields = fields + ",project";
+				params.add(new BasicNameValuePair("fields", fields));
+			}
+			String expands = indexStructureBuilder.getRequiredJIRACallIssueExpands();
+			if (expands != null && expands.length() > 0) {
+				params.add(new BasicNameValuePair("expand", expands));
+			}
+		}
+		return params;
+	}
+
+	/**
+	 * Prepare JQL query used to implement {@link #getJIRAChangedIssuesForProjects(Map, int)} operation. Projects with the
+	 * same date (in minute precision of JQL) are grouped into one <code>project in (...)</code> condition, groups are
+	 * joined by <code>or</code>.
+	 * 
+	 * @param projectsUpdatedAfter keys of JIRA projects, each mapped to optional date to return issues updated after
+	 * @return JQL string
+	 */
+	protected String prepareJIRAChangedIssuesForProjectsJQL(Map<String, Date> projectsUpdatedAfter) {
+		Map<String, List<String>> groups = new LinkedHashMap<String, List<String>>();
+		for (Map.Entry<String, Date> e : projectsUpdatedAfter.entrySet()) {
+			String date = formatJQLDate(e.getValue());
+			List<String> group = groups.get(date);
+			if (group == null) {
+				group = new ArrayList<String>();
+				groups.put(date, group);
+			}
+			group.add(e.getKey());
+		}
+		StringBuilder jql = new StringBuilder();
+		boolean more = groups.size() > 1;
+		for (Map.Entry<String, List<String>> group : groups.entrySet()) {
+			if (jql.length() > 0)
+				jql.append(" or ");
+			if (more)
+				jql.append("(");
+			appendProjectsJQLCondition(jql, group.getValue());
+			if (group.getKey() != null) {
+				jql.append(" and updatedDate >= \"").append(group.getKey()).append("\"");
+			}
+			if (more)
+				jql.append(")");
+		}
+		jql.append(" ORDER BY updated ASC");
+		return jql.toString();
+	}
+
+	/**
+	 * Parse response of JIRA REST call for {@link #getJIRAChangedProjects(Collection, Date)}.
+	 * 
+	 * @param responseData data returned from JIRA REST call (JSON formatted)
+	 * @param changedProjects map to put found projects and dates of last update into
+	 * @return true if response doesn't contain all matching issues
+	 * @throws Exception if response structure is invalid
+	 */
+	@SuppressWarnings("unchecked")
+	protected static boolean parseChangedProjectsResponse(byte[] responseData, Map<String, Date> changedProjects)
+			throws Exception {
+		XContentParser parser = XContentFactory.xContent(XContentType.JSON).createParser(responseData);
+		Map<String, Object> responseParsed = parser.mapAndClose();
+		Integer startAt = Utils.nodeIntegerValue(responseParsed.get("startAt"));
+		Integer total = Utils.nodeIntegerValue(responseParsed.get("total"));
+		List<Map<String, Object>> issues = (List<Map<String, Object>>) responseParsed.get("issues");
+		if (startAt == null || total == null) {
+			throw new IllegalArgumentException("Bad response structure from JIRA: startAt=" + startAt + " total=" + total);
+		}
+		int issuesCount = 0;
+		if (issues != null) {
+			issuesCount = issues.size();
+			for (Map<String, Object> issue : issues) {
+				String projectKey = Utils.trimToNull(XContentMapValues.nodeStringValue(
+						XContentMapValues.extractValue("fields.project.key", issue), null));
+				Date updated = DateTimeUtils.parseISODateTime(XContentMapValues.nodeStringValue(
+						XContentMapValues.extractValue("fields.updated", issue), null));
+				if (projectKey == null || updated == null) {
+					throw new IllegalArgumentException("Bad response structure from JIRA, project key or updated date missing: "
+							+ issue);
+				}
+				Date previous = changedProjects.get(projectKey);
+				if (previous == null || previous.before(updated))
+					changedProjects.put(projectKey, updated);
+			}
+		}
+		return total > (startAt + issuesCount);
+	}
+
+	@Override
+	public Map<String, Object> getJIRAIssueComments(String issueKey, int startAt) throws Exception {
+		if (Utils.isEmpty(issueKey)) {
+			throw new IllegalArgumentException("issueKey must be defined");
+		}
+		List<NameValuePair> params = new ArrayList<NameValuePair>();
+		params.add(new BasicNameValuePair("startAt", startAt + ""));
+		return parseIssueListStructure(performJIRAGetRESTCall("issue/" + issueKey + "/comment", params), null);
+	}
+
+	@Override
+	public Map<String, Object> getJIRAIssueChangelog(String issueKey) throws Exception {
+		if (Utils.isEmpty(issueKey)) {
+			throw new IllegalArgumentException("issueKey must be defined");
+		}
+		List<NameValuePair> params = new ArrayList<NameValuePair>();
+		params.add(new BasicNameValuePair("fields", "updated"));
+		params.add(new BasicNameValuePair("expand", "changelog"));
+		return parseIssueListStructure(performJIRAGetRESTCall("issue/" + issueKey, params), "changelog");
+	}
+
+	/**
+	 * Parse response of JIRA REST call for {@link #getJIRAIssueComments(String, int)} and
+	 * {@link #getJIRAIssueChangelog(String)}.
+	 *
+	 * @param responseData data returned from JIRA REST call (JSON formatted)
+	 * @param field name of field where list structure is stored in response, null if response is list structure itself
+	 * @return list structure
+	 * @throws Exception if response structure is invalid
+	 */
+	@SuppressWarnings("unchecked")
+	protected static Map<String, Object> parseIssueListStructure(byte[] responseData, String field) throws Exception {
+		XContentParser parser = XContentFactory.xContent(XContentType.JSON).createParser(responseData);
+		Map<String, Object> responseParsed = parser.mapAndClose();
+		Object ret = responseParsed;
+		if (field != null)
+			ret = responseParsed.get(field);
+		if (!(ret instanceof Map)) {
+			throw new IllegalArgumentException("Bad response structure from JIRA, '" + field + "' field missing");
+		}
+		return (Map<String, Object>) ret;
+	}
+
     private static String jqlTemplate = JiraRiver.DEFAULT_JQL_TEMPLATE;
 
     @Override
@@ -294,15 +954,102 @@ public class JIRA5RestClient implements IJIRAClient {
 	}
 
 	/**
-	 * Perform defined REST call to remote JIRA REST API.
+	 * Perform defined REST call to remote JIRA REST API. Call failed due JIRA unavailability (I/O error or server error)
+	 * is retried with jittered exponential backoff up to {@link #maxRetries} times. Call is rejected without touching
+	 * JIRA if {@link #circuitBreaker} is open.
 	 * 
 	 * @param restOperation name of REST operation to call on JIRA API (eg. 'search' or 'project' )
 	 * @param params GET parameters used for call
 	 * @return response from server if successful
+	 * @throws JIRACircuitOpenException if call is rejected because circuit breaker is open
 	 * @throws Exception in case of unsuccessful call
 	 */
 	protected byte[] performJIRAGetRESTCall(String restOperation, List<NameValuePair> params) throws Exception {
+		return performJIRAGetRESTCall(restOperation, params, null);
+	}
 
+	/**
+	 * Perform defined REST call to remote JIRA REST API, optionally as conditional request. See
+	 * {@link #performJIRAGetRESTCall(String, List)}.
+	 * 
+	 * @param restOperation name of REST operation to call on JIRA API (eg. 'search' or 'project' )
+	 * @param params GET parameters used for call
+	 * @param conditionalGet validators for conditional request, updated from successful response. Null for unconditional
+	 *          request.
+	 * @return response from server if successful, null if conditional request was used and JIRA responded that content
+	 *         is not modified
+	 * @throws JIRACircuitOpenException if call is rejected because circuit breaker is open
+	 * @throws Exception in case of unsuccessful call
+	 */
+	protected byte[] performJIRAGetRESTCall(String restOperation, List<NameValuePair> params,
+			ConditionalGet conditionalGet) throws Exception {
+
+		URI uri = prepareRESTCallURI(restOperation, params);
+		int retry = 0;
+		while (true) {
+			if (!circuitBreaker.tryCall(System.currentTimeMillis())) {
+				throw new JIRACircuitOpenException("JIRA REST API call rejected, circuit breaker for " + targetHost
+						+ " is open due previous failures");
+			}
+			try {
+				httpRequestLatency.remove();
+				long start = System.currentTimeMillis();
+				byte[] ret = performJIRAGetRESTRequest(uri, conditionalGet);
+				circuitBreaker.reportSuccess();
+				if (ret != null)
+					recordResponse(uri, ret, getHttpRequestLatency(start));
+				return ret;
+			} catch (Exception e) {
+				if (isUnavailabilityFailure(e)) {
+					long now = System.currentTimeMillis();
+					circuitBreaker.reportFailure(now);
+					// do not retry if this failure opened breaker
+					if (retry < maxRetries && circuitBreaker.getState(now) == JIRACircuitBreaker.State.CLOSED) {
+						long backoff = computeRetryBackoff(retry++);
+						logger.warn("JIRA REST API call failed due {}, retry {} of {} in {}ms", e.getMessage(), retry, maxRetries,
+								backoff);
+						Thread.sleep(backoff);
+						continue;
+					}
+				} else if (e instanceof JIRARestCallException) {
+					// JIRA responded so it is available
+					circuitBreaker.reportSuccess();
+				} else {
+					circuitBreaker.reportAbort();
+				}
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Write response of successful call into {@link #responseRecording} if configured. Failure of recording is only
+	 * logged, so it doesn't break indexing.
+	 * 
+	 * @param uri of call
+	 * @param response content returned from JIRA
+	 * @param latency of call [ms]
+	 */
+	protected void recordResponse(URI uri, byte[] response, long latency) {
+		JIRAResponseRecording rec = responseRecording;
+		if (rec == null)
+			return;
+		try {
+			rec.record(uri, response, latency);
+		} catch (IOException e) {
+			logger.warn("JIRA response for {} can't be recorded due {}", uri, e.getMessage());
+		}
+	}
+
+	/**
+	 * Prepare URI of JIRA REST API call.
+	 * 
+	 * @param restOperation name of REST operation to call on JIRA API (eg. 'search' or 'project' )
+	 * @param params GET parameters used for call
+	 * @return URI to call
+	 * @throws URISyntaxException
+	 */
+	protected URI prepareRESTCallURI(String restOperation, List<NameValuePair> params) throws URISyntaxException {
 		String url = jiraRestAPIUrlBase + restOperation;
 		logger.debug("Go to perform JIRA REST API call to the {} with parameters {}", url, params);
 
@@ -312,35 +1059,142 @@ public class JIRA5RestClient implements IJIRAClient {
 				builder.addParameter(param.getName(), param.getValue());
 			}
 		}
-		HttpGet method = new HttpGet(builder.build());
-		method.addHeader("Accept", "application/json");
-		CloseableHttpResponse response = null;
-		try {
+		return builder.build();
+	}
 
-			// Preemptive authentication enabled - see
-			// http://hc.apache.org/httpcomponents-client-ga/tutorial/html/authentication.html#d5e1032
-			HttpHost targetHost = new HttpHost(builder.getHost(), builder.getPort(), builder.getScheme());
-			AuthCache authCache = new BasicAuthCache();
-			BasicScheme basicAuth = new BasicScheme();
-			authCache.put(targetHost, basicAuth);
-			HttpClientContext localContext = HttpClientContext.create();
-			localContext.setAuthCache(authCache);
+	/**
+	 * Check if exception from JIRA call means JIRA is unavailable, so call may be retried later.
+	 * 
+	 * @param e exception to check
+	 * @return true for I/O error or server error
+	 */
+	protected static boolean isUnavailabilityFailure(Exception e) {
+		return (e instanceof IOException)
+				|| (e instanceof JIRARestCallException && ((JIRARestCallException) e).isServerError());
+	}
 
-			response = httpclient.execute(targetHost, method, localContext);
-			int statusCode = response.getStatusLine().getStatusCode();
-			byte[] responseContent = null;
-			if (response.getEntity() != null) {
-				responseContent = EntityUtils.toByteArray(response.getEntity());
-			}
-			if (statusCode != HttpStatus.SC_OK) {
-				throw new Exception("Failed JIRA REST API call. HTTP error code: " + statusCode + " Response body: "
-						+ responseContent);
+	/**
+	 * Compute backoff before retry of failed call. Exponential backoff limited by {@link #retryMaxBackoff} is used, with
+	 * random jitter so clients do not retry at the same moment.
+	 * 
+	 * @param retry number of retry, 0 for first one
+	 * @return backoff [ms], between half and full of exponential backoff
+	 */
+	protected long computeRetryBackoff(int retry) {
+		long backoff = retryInitialBackoff << Math.min(retry, 30);
+		if (backoff <= 0 || backoff > retryMaxBackoff)
+			backoff = retryMaxBackoff;
+		long half = backoff / 2;
+		return half + ThreadLocalRandom.current().nextLong(backoff - half + 1);
+	}
+
+	/**
+	 * Perform one GET request to JIRA. Request is delayed by {@link #rateLimiter}, and repeated if JIRA asks for it by
+	 * <code>Retry-After</code> header.
+	 * 
+	 * @param uri to call
+	 * @param conditionalGet validators for conditional request, updated from successful response. Null for unconditional
+	 *          request.
+	 * @return response from server if successful, null if JIRA responded that content is not modified
+	 * @throws JIRARestCallException if JIRA returns HTTP error code
+	 * @throws Exception in case of unsuccessful call
+	 */
+	protected byte[] performJIRAGetRESTRequest(URI uri, ConditionalGet conditionalGet) throws Exception {
+		int retryAfterAttempt = 0;
+		while (true) {
+			rateLimiter.acquire();
+			HttpGet method = new HttpGet(uri);
+			method.addHeader("Accept", "application/json");
+			RequestConfig config = requestConfig;
+			if (config != null)
+				method.setConfig(config);
+			if (conditionalGet != null)
+				conditionalGet.addRequestHeaders(method);
+			HttpResponse response = null;
+			try {
+				long requestStart = System.currentTimeMillis();
+				response = executeHttpRequest(method, createHttpContext());
+				int statusCode = response.getStatusLine().getStatusCode();
+				byte[] responseContent = null;
+				if (response.getEntity() != null)
+					responseContent = EntityUtils.toByteArray(response.getEntity());
+				httpRequestLatency.set(System.currentTimeMillis() - requestStart);
+				if (responseContent != null)
+					rateLimiter.reportBytes(responseContent.length);
+				if (statusCode == SC_TOO_MANY_REQUESTS || statusCode == HttpStatus.SC_SERVICE_UNAVAILABLE) {
+					Header retryAfterHeader = response.getFirstHeader("Retry-After");
+					long retryAfter = retryAfterHeader != null ? parseRetryAfter(retryAfterHeader.getValue(),
+							System.currentTimeMillis()) : -1;
+					if (retryAfter >= 0 && retryAfterAttempt < MAX_RETRY_AFTER_ATTEMPTS) {
+						retryAfterAttempt++;
+						retryAfter = Math.min(retryAfter, MAX_RETRY_AFTER);
+						logger.info("JIRA responded with HTTP code {}, calls paused for {}ms as requested by Retry-After header",
+								statusCode, retryAfter);
+						rateLimiter.pause(retryAfter);
+						continue;
+					}
+				}
+				if (statusCode == HttpStatus.SC_NOT_MODIFIED && conditionalGet != null && conditionalGet.isSet()) {
+					return null;
+				}
+				if (statusCode != HttpStatus.SC_OK) {
+					throw new JIRARestCallException("Failed JIRA REST API call. HTTP error code: " + statusCode
+							+ " Response body: " + responseContent, statusCode);
+				}
+				if (conditionalGet != null)
+					conditionalGet.readResponseHeaders(response);
+				return responseContent;
+			} finally {
+				if (response instanceof Closeable)
+					((Closeable) response).close();
+				method.releaseConnection();
 			}
-			return responseContent;
-		} finally {
-			if (response != null)
-				response.close();
-			method.releaseConnection();
+		}
+	}
+
+	/**
+	 * Execute HTTP request to JIRA host.
+	 * 
+	 * @param method request to execute
+	 * @param context to execute request in
+	 * @return response
+	 * @throws Exception in case of I/O error
+	 */
+	protected HttpResponse executeHttpRequest(HttpGet method, HttpClientContext context) throws Exception {
+		return httpclient.execute(targetHost, method, context);
+	}
+
+	/**
+	 * Create context for HTTP request to JIRA, with preemptive authentication if configured.
+	 * 
+	 * @return context
+	 */
+	protected HttpClientContext createHttpContext() {
+		HttpClientContext localContext = HttpClientContext.create();
+		if (authCache != null)
+			localContext.setAuthCache(authCache);
+		return localContext;
+	}
+
+	/**
+	 * Parse value of <code>Retry-After</code> HTTP response header.
+	 * 
+	 * @param value of header, number of seconds or HTTP date
+	 * @param now current timestamp used to compute delay from HTTP date
+	 * @return delay in milliseconds, -1 if value is not valid
+	 */
+	protected static long parseRetryAfter(String value, long now) {
+		if (value == null)
+			return -1;
+		value = value.trim();
+		try {
+			long seconds = Long.parseLong(value);
+			return seconds >= 0 ? seconds * 1000 : -1;
+		} catch (NumberFormatException e) {
+			Date date = DateUtils.parseDate(value);
+			if (date == null)
+				return -1;
+			return Math.max(0, date.getTime() - now);
 		}
 	}
 
@@ -359,6 +1213,11 @@ public class JIRA5RestClient implements IJIRAClient {
 		this.listJIRAIssuesMax = listJIRAIssuesMax;
 	}
 
+	@Override
+	public void setTimeout(int timeout) {
+		requestConfig = RequestConfig.custom().setSocketTimeout(timeout).setConnectTimeout(timeout).build();
+	}
+
 	@Override
 	public int getListJIRAIssuesMax() {
 		return listJIRAIssuesMax;
@@ -369,4 +1228,138 @@ public class JIRA5RestClient implements IJIRAClient {
 		return jiraRestAPIUrlBase;
 	}
 
+	@Override
+	public void setRateLimits(double maxRequestsPerSecond, long maxBytesPerSecond) {
+		rateLimiter.configure(this, maxRequestsPerSecond, maxBytesPerSecond);
+	}
+
+	@Override
+	public void setRetryPolicy(int maxRetries, long retryInitialBackoff, long retryMaxBackoff) {
+		this.maxRetries = Math.max(0, maxRetries);
+		this.retryInitialBackoff = Math.max(1, retryInitialBackoff);
+		this.retryMaxBackoff = Math.max(this.retryInitialBackoff, retryMaxBackoff);
+	}
+
+	@Override
+	public void setCircuitBreaker(int failureThreshold, long openTime) {
+		circuitBreaker.configure(this, failureThreshold, openTime);
+	}
+
+	@Override
+	public JIRACircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	@Override
+	public void setAdaptiveFetchController(AdaptiveFetchController adaptiveFetchController) {
+		this.adaptiveFetchController = adaptiveFetchController;
+	}
+
+	/**
+	 * Set recording where responses of successful calls are written to, so they can be served back by
+	 * {@link JIRA5ReplayRestClient} later.
+	 * 
+	 * @param responseRecording to write responses to, null to stop recording
+	 */
+	public void setResponseRecording(JIRAResponseRecording responseRecording) {
+		this.responseRecording = responseRecording;
+	}
+
+	@Override
+	public void setMemoryBudget(JIRAMemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	@Override
+	public void setMaxFieldLength(int maxFieldLength) {
+		this.maxFieldLength = maxFieldLength;
+	}
+
+	@Override
+	public void setStringDedupTableSize(int stringDedupTableSize) {
+		this.stringDedupTableSize = stringDedupTableSize;
+	}
+
+	@Override
+	public PoolStats getConnectionPoolStats() {
+		JIRAConnectionPool pool = connectionPool;
+		return pool != null ? pool.getStats() : null;
+	}
+
+	@Override
+	public void close() {
+		JIRAConnectionPool pool = connectionPool;
+		connectionPool = null;
+		if (pool != null) {
+			rateLimiter.release(this);
+			circuitBreaker.release(this);
+			connectionPoolRegistry.release(pool);
+		}
+	}
+
+	/**
+	 * Validators (<code>ETag</code> and <code>Last-Modified</code>) of last successful response, used to perform
+	 * conditional GET request so JIRA may respond with <code>304 Not Modified</code> without content.
+	 */
+	protected static class ConditionalGet {
+
+		protected String etag;
+
+		protected String lastModified;
+
+		/**
+		 * @return true if at least one validator is known
+		 */
+		public boolean isSet() {
+			return etag != null || lastModified != null;
+		}
+
+		protected void addRequestHeaders(HttpRequest request) {
+			if (etag != null)
+				request.addHeader("If-None-Match", etag);
+			if (lastModified != null)
+				request.addHeader("If-Modified-Since", lastModified);
+		}
+
+		protected void readResponseHeaders(HttpResponse response) {
+			Header h = response.getFirstHeader("ETag");
+			etag = h != null ? h.getValue() : null;
+			h = response.getFirstHeader("Last-Modified");
+			lastModified = h != null ? h.getValue() : null;
+		}
+
+		public void reset() {
+			etag = null;
+			lastModified = null;
+		}
+	}
+
+	/**
+	 * Thread safe {@link AuthCache} implementation, so one instance can be shared by concurrent calls.
+	 */
+	protected static class ConcurrentAuthCache implements AuthCache {
+
+		private final Map<HttpHost, AuthScheme> map = new ConcurrentHashMap<HttpHost, AuthScheme>();
+
+		@Override
+		public void put(HttpHost host, AuthScheme authScheme) {
+			map.put(host, authScheme);
+		}
+
+		@Override
+		public AuthScheme get(HttpHost host) {
+			return map.get(host);
+		}
+
+		@Override
+		public void remove(HttpHost host) {
+			map.remove(host);
+		}
+
+		@Override
+		public void clear() {
+			map.clear();
+		}
+	}
+
 }
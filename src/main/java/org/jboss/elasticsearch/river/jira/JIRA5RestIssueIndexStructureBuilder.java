@@ -6,29 +6,38 @@
 package org.jboss.elasticsearch.river.jira;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.delete.DeleteRequest;
 import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.SettingsException;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.elasticsearch.index.VersionType;
 import org.elasticsearch.index.query.FilterBuilder;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.SearchHitField;
 import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessor;
 
 import static org.elasticsearch.client.Requests.deleteRequest;
 import static org.elasticsearch.client.Requests.indexRequest;
-import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
 
 /**
  * JIRA 5 REST API implementation of component responsible to transform issue data obtained from JIRA instance call to
@@ -75,6 +84,20 @@ public class JIRA5RestIssueIndexStructureBuilder implements IJIRAIssueIndexStruc
 	 */
 	public static final String JF_CHANGELOG_ARRAY = JF_CHANGELOG + ".histories";
 
+	/**
+	 * JIRA REST response field constant - created date field of comment or changelog item
+	 */
+	public static final String JF_ITEM_CREATED = "created";
+	/**
+	 * JIRA REST response field constant - updated date field of comment
+	 */
+	public static final String JF_ITEM_UPDATED = "updated";
+
+	/**
+	 * ElasticSearch integration used to find comment and changelog documents indexed for issue during incremental update.
+	 */
+	protected IESIntegration esIntegration;
+
 	/**
 	 * Name of River to be stored in document to mark indexing source
 	 */
@@ -108,6 +131,9 @@ public class JIRA5RestIssueIndexStructureBuilder implements IJIRAIssueIndexStruc
 	protected static final String CONFIG_FIELDCHANGELOGS = "field_changelogs";
 	protected static final String CONFIG_CHANGELOGTYPE = "changelog_type";
 	protected static final String CONFIG_CHANGELOGFILEDS = "changelog_fields";
+	protected static final String CONFIG_DIAGNOSTICS = "diagnostics";
+	protected static final String CONFIG_EXTERNALVERSIONING = "external_versioning";
+	protected static final String CONFIG_DOCUMENTCONTENTTYPE = "document_content_type";
 
 	/**
 	 * Field in jira data to get indexed document id from for issue. If empty or do not provide value then issue key is
@@ -215,6 +241,22 @@ public class JIRA5RestIssueIndexStructureBuilder implements IJIRAIssueIndexStruc
 	 */
 	protected List<StructuredContentPreprocessor> issueDataPreprocessors = null;
 
+	/**
+	 * Diagnostics of oversized and slow issues, null if not configured.
+	 */
+	protected IssueDiagnostics issueDiagnostics = null;
+
+	/**
+	 * If true then issue update timestamp is used as {@link VersionType#EXTERNAL_GTE} version of all documents indexed
+	 * for issue, so older snapshot of issue can't overwrite newer one.
+	 */
+	protected boolean externalVersioning = false;
+
+	/**
+	 * Content type used to build documents written into search index.
+	 */
+	protected XContentType documentContentType = XContentType.JSON;
+
 	/**
 	 * Constructor for unit tests. Nothing is filled inside.
 	 */
@@ -237,6 +279,7 @@ public class JIRA5RestIssueIndexStructureBuilder implements IJIRAIssueIndexStruc
 			String jiraUrlBase, Map<String, Object> settings) throws SettingsException {
 		super();
 		logger = esIntegration.createLogger(getClass());
+		this.esIntegration = esIntegration;
 		this.riverName = esIntegration.riverName().getName();
 		this.indexName = indexName;
 		this.issueTypeName = issueTypeName;
@@ -263,6 +306,16 @@ public class JIRA5RestIssueIndexStructureBuilder implements IJIRAIssueIndexStruc
 			indexFieldForChangelogs = XContentMapValues.nodeStringValue(settings.get(CONFIG_FIELDCHANGELOGS), null);
 			changelogTypeName = XContentMapValues.nodeStringValue(settings.get(CONFIG_CHANGELOGTYPE), null);
 			changelogFieldsConfig = (Map<String, Map<String, String>>) settings.get(CONFIG_CHANGELOGFILEDS);
+
+			externalVersioning = XContentMapValues.nodeBooleanValue(settings.get(CONFIG_EXTERNALVERSIONING), false);
+			documentContentType = Utils.parseDocumentContentType(
+					XContentMapValues.nodeStringValue(settings.get(CONFIG_DOCUMENTCONTENTTYPE), null), "index/"
+							+ CONFIG_DOCUMENTCONTENTTYPE);
+
+			if (settings.get(CONFIG_DIAGNOSTICS) != null) {
+				issueDiagnostics = new IssueDiagnostics(esIntegration,
+						(Map<String, Object>) settings.get(CONFIG_DIAGNOSTICS));
+			}
 		}
 		loadDefaultsIfNecessary();
 		validateConfiguration();
@@ -373,43 +426,235 @@ public class JIRA5RestIssueIndexStructureBuilder implements IJIRAIssueIndexStruc
 
 	@Override
 	public void indexIssue(BulkRequestBuilder esBulk, String jiraProjectKey, Map<String, Object> issue) throws Exception {
+		indexIssue(esBulk, jiraProjectKey, issue, null, null);
+	}
 
-		issue = preprocessIssueData(jiraProjectKey, issue);
-		esBulk.add(indexRequest(indexName).type(issueTypeName).id(prepareIssueDocumentId(issue))
-				.source(prepareIssueIndexedDocument(jiraProjectKey, issue)));
+	@Override
+	public void indexIssue(BulkRequestBuilder esBulk, String jiraProjectKey, Map<String, Object> issue, Date changedSince,
+			Map<String, Map<String, Set<String>>> pageIndexedDocumentIds) throws Exception {
+
+		long startTime = System.currentTimeMillis();
+		long documentSize = 0;
+
+		// ids of comment and changelog documents indexed for this issue already, by document type
+		Map<String, Set<String>> indexedDocumentIds = null;
+		if (changedSince != null && pageIndexedDocumentIds != null) {
+			indexedDocumentIds = pageIndexedDocumentIds.get(extractIssueKey(issue));
+		}
+		// documents of disappeared items may be deleted only if issue contains all items, see JIRAIssueDataCompleter
+		boolean commentsComplete = isListComplete(issue, JF_COMMENT, JIRAIssueDataCompleter.FIELD_COMMENTS);
+		boolean changelogsComplete = isListComplete(issue, JF_CHANGELOG, JIRAIssueDataCompleter.FIELD_HISTORIES);
 
+		issue = preprocessIssueData(jiraProjectKey, issue);
+		String issueKey = extractIssueKey(issue);
+		long version = prepareDocumentVersion(issue);
+		XContentBuilder issueDocument = prepareIssueIndexedDocument(jiraProjectKey, issue);
+		documentSize += issueDocument.bytes().length();
+		esBulk.add(setVersion(
+				indexRequest(indexName).type(issueTypeName).id(prepareIssueDocumentId(issue)).source(issueDocument), version));
+
+		List<Map<String, Object>> comments = null;
+		if (commentIndexingMode != IssueCommentIndexingMode.NONE) {
+			comments = extractIssueComments(issue);
+		}
 		if (commentIndexingMode.isExtraDocumentIndexed()) {
-			List<Map<String, Object>> comments = extractIssueComments(issue);
 			if (comments != null && !comments.isEmpty()) {
-				String issueKey = extractIssueKey(issue);
+				Set<String> indexedIds = indexedDocumentIds != null ? indexedDocumentIds.get(commentTypeName) : null;
 				for (Map<String, Object> comment : comments) {
 					String commentId = extractCommentId(comment);
-					IndexRequest irq = indexRequest(indexName).type(commentTypeName).id(commentId)
-							.source(prepareCommentIndexedDocument(jiraProjectKey, issueKey, comment));
+					if (indexedIds != null && indexedIds.remove(commentId)
+							&& !isChangedSince(comment, changedSince, JF_ITEM_CREATED, JF_ITEM_UPDATED)) {
+						continue;
+					}
+					XContentBuilder commentDocument = prepareCommentIndexedDocument(jiraProjectKey, issueKey, comment);
+					documentSize += commentDocument.bytes().length();
+					IndexRequest irq = indexRequest(indexName).type(commentTypeName).id(commentId).source(commentDocument);
 					if (commentIndexingMode == IssueCommentIndexingMode.CHILD) {
 						irq.parent(issueKey);
 					}
-					esBulk.add(irq);
+					esBulk.add(setVersion(irq, version));
 				}
 			}
 		}
 
+		List<Map<String, Object>> changelogs = null;
+		if (changelogIndexingMode != IssueCommentIndexingMode.NONE) {
+			changelogs = extractIssueChangelogs(issue);
+		}
 		if (changelogIndexingMode.isExtraDocumentIndexed()) {
-			List<Map<String, Object>> changelogs = extractIssueChangelogs(issue);
 			if (changelogs != null && !changelogs.isEmpty()) {
-				String issueKey = extractIssueKey(issue);
+				Set<String> indexedIds = indexedDocumentIds != null ? indexedDocumentIds.get(changelogTypeName) : null;
 				for (Map<String, Object> changelog : changelogs) {
 					String commentId = extractChangelogId(changelog);
-					IndexRequest irq = indexRequest(indexName).type(changelogTypeName).id(commentId)
-							.source(prepareChangelogIndexedDocument(jiraProjectKey, issueKey, changelog));
+					if (indexedIds != null && indexedIds.remove(commentId)
+							&& !isChangedSince(changelog, changedSince, JF_ITEM_CREATED)) {
+						continue;
+					}
+					XContentBuilder changelogDocument = prepareChangelogIndexedDocument(jiraProjectKey, issueKey, changelog);
+					documentSize += changelogDocument.bytes().length();
+					IndexRequest irq = indexRequest(indexName).type(changelogTypeName).id(commentId).source(changelogDocument);
 					if (changelogIndexingMode == IssueCommentIndexingMode.CHILD) {
 						irq.parent(issueKey);
 					}
-					esBulk.add(irq);
+					esBulk.add(setVersion(irq, version));
+				}
+			}
+		}
+
+		if (indexedDocumentIds != null) {
+			// documents left here are for comments and changelog items which disappeared from issue
+			for (Map.Entry<String, Set<String>> entry : indexedDocumentIds.entrySet()) {
+				boolean comment = entry.getKey().equals(commentTypeName);
+				if (!(comment ? commentsComplete : changelogsComplete)) {
+					if (!entry.getValue().isEmpty())
+						logger.debug("List of {} is truncated in issue {} so indexed documents not found in it are kept",
+								entry.getKey(), issueKey);
+					continue;
+				}
+				IssueCommentIndexingMode mode = comment ? commentIndexingMode : changelogIndexingMode;
+				for (String id : entry.getValue()) {
+					logger.debug("Go to delete document {} of type {} which disappeared from issue {}", id, entry.getKey(),
+							issueKey);
+					DeleteRequest drq = deleteRequest(indexName).type(entry.getKey()).id(id);
+					if (mode == IssueCommentIndexingMode.CHILD) {
+						drq.parent(issueKey);
+					}
+					if (version > 0) {
+						drq.version(version).versionType(VersionType.EXTERNAL_GTE);
+					}
+					esBulk.add(drq);
 				}
 			}
 		}
 
+		if (issueDiagnostics != null) {
+			issueDiagnostics.checkIssue(jiraProjectKey, issueKey, documentSize, comments != null ? comments.size() : 0,
+					changelogs != null ? changelogs.size() : 0, System.currentTimeMillis() - startTime);
+		}
+	}
+
+	/**
+	 * Prepare version of documents indexed for issue.
+	 * 
+	 * @param issue data from JIRA
+	 * @return issue update timestamp if {@link #externalVersioning} is enabled, 0 otherwise
+	 */
+	protected long prepareDocumentVersion(Map<String, Object> issue) {
+		if (!externalVersioning)
+			return 0;
+		Date updated = extractIssueUpdated(issue);
+		if (updated == null)
+			throw new IllegalArgumentException("'updated' field not found in JIRA data for issue " + extractIssueKey(issue)
+					+ " so it can't be versioned");
+		return updated.getTime();
+	}
+
+	/**
+	 * Set external version to index request. Request is rejected by ElasticSearch if document with higher version is
+	 * indexed already.
+	 * 
+	 * @param irq request to set version to
+	 * @param version to set, 0 means no versioning
+	 * @return request
+	 */
+	protected IndexRequest setVersion(IndexRequest irq, long version) {
+		if (version > 0) {
+			irq.version(version).versionType(VersionType.EXTERNAL_GTE);
+		}
+		return irq;
+	}
+
+	/**
+	 * Check if comment or changelog item was created or updated since given date.
+	 * 
+	 * @param item data of comment or changelog item from JIRA
+	 * @param since date to check against
+	 * @param dateFields names of date fields in item to check
+	 * @return true if some of date fields is not before given date or is not available
+	 */
+	protected boolean isChangedSince(Map<String, Object> item, Date since, String... dateFields) {
+		for (String dateField : dateFields) {
+			Date date = DateTimeUtils.parseISODateTime(XContentMapValues.nodeStringValue(item.get(dateField), null));
+			if (date == null || !date.before(since))
+				return true;
+		}
+		return false;
+	}
+
+	/**
+	 * Check if list of comments or changelog histories in issue data contains all items of issue, so documents of items
+	 * not found in it may be deleted.
+	 * 
+	 * @param issue data from JIRA
+	 * @param path of list structure in issue data
+	 * @param listField name of field with list in structure
+	 * @return true if list structure is present and is not truncated by JIRA (or was completed already)
+	 */
+	protected static boolean isListComplete(Map<String, Object> issue, String path, String listField) {
+		Map<String, Object> listStructure = JIRAIssueDataCompleter.getListStructure(issue, path);
+		return listStructure != null && !JIRAIssueDataCompleter.isTruncated(listStructure, listField);
+	}
+
+	/**
+	 * {@inheritDoc} Documents are found by one scroll search using terms filter on issue key field, so it requires
+	 * <code>keyword</code> analyzer (or <code>not_analyzed</code> index) for this field in mapping of these documents.
+	 */
+	@Override
+	public Map<String, Map<String, Set<String>>> readIndexedCommentAndChangelogDocumentIds(
+			Collection<Map<String, Object>> issues) {
+		List<String> types = new ArrayList<String>();
+		if (commentIndexingMode.isExtraDocumentIndexed())
+			types.add(commentTypeName);
+		if (changelogIndexingMode.isExtraDocumentIndexed())
+			types.add(changelogTypeName);
+		if (types.isEmpty())
+			return null;
+
+		Map<String, Map<String, Set<String>>> ret = new HashMap<String, Map<String, Set<String>>>();
+		for (Map<String, Object> issue : issues) {
+			String issueKey = extractIssueKey(issue);
+			if (issueKey != null && !ret.containsKey(issueKey)) {
+				Map<String, Set<String>> ids = new LinkedHashMap<String, Set<String>>();
+				for (String type : types)
+					ids.put(type, new HashSet<String>());
+				ret.put(issueKey, ids);
+			}
+		}
+		if (ret.isEmpty())
+			return ret;
+
+		SearchRequestBuilder srb = esIntegration.prepareESScrollSearchRequestBuilder(indexName);
+		FilterBuilder filter = FilterBuilders.boolFilter()
+				.must(FilterBuilders.termsFilter(indexFieldForIssueKey, ret.keySet()))
+				.must(FilterBuilders.termFilter(indexFieldForRiverName, riverName));
+		srb.setQuery(QueryBuilders.matchAllQuery()).addField("_id").addField(indexFieldForIssueKey).setPostFilter(filter)
+				.setTypes(types.toArray(new String[types.size()]));
+
+		SearchResponse scrollResp = esIntegration.executeESSearchRequest(srb);
+		try {
+			if (scrollResp.getHits().getTotalHits() > 0) {
+				scrollResp = esIntegration.executeESScrollSearchNextRequest(scrollResp);
+				while (scrollResp.getHits().getHits().length > 0) {
+					for (SearchHit hit : scrollResp.getHits()) {
+						SearchHitField issueKeyField = hit.field(indexFieldForIssueKey);
+						Map<String, Set<String>> issueIds = issueKeyField != null ? ret.get(XContentMapValues.nodeStringValue(
+								issueKeyField.getValue(), null)) : null;
+						Set<String> ids = issueIds != null ? issueIds.get(hit.getType()) : null;
+						if (ids != null)
+							ids.add(hit.getId());
+					}
+					scrollResp = esIntegration.executeESScrollSearchNextRequest(scrollResp);
+				}
+			}
+		} finally {
+			esIntegration.clearESScrollSearch(scrollResp);
+		}
+		return ret;
+	}
+
+	@Override
+	public IssueDiagnostics getIssueDiagnostics() {
+		return issueDiagnostics;
 	}
 
 	protected String prepareIssueDocumentId(Map<String, Object> issue) {
@@ -492,7 +737,7 @@ public class JIRA5RestIssueIndexStructureBuilder implements IJIRAIssueIndexStruc
 			throws Exception {
 		String issueKey = extractIssueKey(issue);
 
-		XContentBuilder out = jsonBuilder().startObject();
+		XContentBuilder out = XContentFactory.contentBuilder(documentContentType).startObject();
 		addValueToTheIndexField(out, indexFieldForRiverName, riverName);
 		addValueToTheIndexField(out, indexFieldForProjectKey, jiraProjectKey);
 		addValueToTheIndexField(out, indexFieldForIssueKey, issueKey);
@@ -543,7 +788,7 @@ public class JIRA5RestIssueIndexStructureBuilder implements IJIRAIssueIndexStruc
 	 */
 	protected XContentBuilder prepareCommentIndexedDocument(String projectKey, String issueKey,
 			Map<String, Object> comment) throws Exception {
-		XContentBuilder out = jsonBuilder().startObject();
+		XContentBuilder out = XContentFactory.contentBuilder(documentContentType).startObject();
 		addValueToTheIndexField(out, indexFieldForRiverName, riverName);
 		addValueToTheIndexField(out, indexFieldForProjectKey, projectKey);
 		addValueToTheIndexField(out, indexFieldForIssueKey, issueKey);
@@ -585,7 +830,7 @@ public class JIRA5RestIssueIndexStructureBuilder implements IJIRAIssueIndexStruc
 	 */
 	protected XContentBuilder prepareChangelogIndexedDocument(String projectKey, String issueKey,
 			Map<String, Object> changelog) throws Exception {
-		XContentBuilder out = jsonBuilder().startObject();
+		XContentBuilder out = XContentFactory.contentBuilder(documentContentType).startObject();
 		addValueToTheIndexField(out, indexFieldForRiverName, riverName);
 		addValueToTheIndexField(out, indexFieldForProjectKey, projectKey);
 		addValueToTheIndexField(out, indexFieldForIssueKey, issueKey);
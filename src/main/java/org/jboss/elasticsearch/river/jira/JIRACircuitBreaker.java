@@ -0,0 +1,202 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Circuit breaker for calls to one JIRA host. Breaker opens after configured number of subsequent failed calls (JIRA
+ * unavailable), and all calls are rejected then without touching JIRA. After configured open time one probe call is
+ * permitted (half open state), breaker closes again if it succeeds or opens for next open time if it fails. Shared by
+ * all rivers accessing same JIRA host over {@link JIRAConnectionPool}. Implementation is thread safe.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRACircuitBreaker {
+
+	/**
+	 * State of breaker.
+	 */
+	public static enum State {
+		CLOSED, OPEN, HALF_OPEN
+	}
+
+	/**
+	 * Default number of subsequent failed calls which opens breaker.
+	 */
+	public static final int DEFAULT_FAILURE_THRESHOLD = 5;
+
+	/**
+	 * Default time breaker stays open before probe call is permitted [ms].
+	 */
+	public static final long DEFAULT_OPEN_TIME = 60 * 1000;
+
+	/**
+	 * Number of subsequent failed calls which opens breaker, value <= 0 means breaker is disabled.
+	 */
+	protected int failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+
+	/**
+	 * Time breaker stays open before probe call is permitted [ms].
+	 */
+	protected long openTime = DEFAULT_OPEN_TIME;
+
+	/**
+	 * Settings configured by clients sharing this breaker, key is client.
+	 */
+	protected final Map<Object, Settings> clientSettings = new HashMap<Object, Settings>();
+
+	protected int consecutiveFailures = 0;
+
+	/**
+	 * Timestamp when breaker was opened last time [ms], 0 if breaker is closed.
+	 */
+	protected long openedAt = 0;
+
+	protected boolean probeInProgress = false;
+
+	/**
+	 * Configure breaker settings requested by client. Effective settings are the most sensitive ones from all clients
+	 * using breaker (lowest failure threshold and longest open time), breaker is disabled only if all clients disable it.
+	 * Effective settings are recomputed whenever client is configured again or released.
+	 *
+	 * @param client settings are configured for
+	 * @param failureThreshold number of subsequent failed calls which opens breaker, value <= 0 means breaker is
+	 *          disabled
+	 * @param openTime time breaker stays open before probe call is permitted [ms]
+	 * @see #release(Object)
+	 */
+	public synchronized void configure(Object client, int failureThreshold, long openTime) {
+		clientSettings.put(client, new Settings(failureThreshold, openTime));
+		applyClientSettings();
+	}
+
+	/**
+	 * Remove settings of client which doesn't use breaker anymore. Default settings are used if no client remains.
+	 *
+	 * @param client to remove settings of
+	 */
+	public synchronized void release(Object client) {
+		if (clientSettings.remove(client) != null)
+			applyClientSettings();
+	}
+
+	private void applyClientSettings() {
+		if (clientSettings.isEmpty()) {
+			failureThreshold = DEFAULT_FAILURE_THRESHOLD;
+			openTime = DEFAULT_OPEN_TIME;
+			return;
+		}
+		int threshold = 0;
+		long time = 0;
+		for (Settings settings : clientSettings.values()) {
+			if (settings.failureThreshold > 0 && (threshold <= 0 || settings.failureThreshold < threshold))
+				threshold = settings.failureThreshold;
+			if (settings.openTime > time)
+				time = settings.openTime;
+		}
+		failureThreshold = threshold;
+		openTime = time;
+	}
+
+	/**
+	 * Get actual state of breaker.
+	 *
+	 * @param now current timestamp [ms]
+	 * @return state
+	 */
+	public synchronized State getState(long now) {
+		if (openedAt == 0)
+			return State.CLOSED;
+		if (probeInProgress || now >= openedAt + openTime)
+			return State.HALF_OPEN;
+		return State.OPEN;
+	}
+
+	/**
+	 * Check if call to JIRA may be performed now. If <code>true</code> is returned then call result must be reported
+	 * using {@link #reportSuccess()}, {@link #reportFailure(long)} or {@link #reportAbort()}.
+	 *
+	 * @param now current timestamp [ms]
+	 * @return true if call is permitted
+	 */
+	public synchronized boolean tryCall(long now) {
+		if (openedAt == 0)
+			return true;
+		if (probeInProgress || now < openedAt + openTime)
+			return false;
+		probeInProgress = true;
+		return true;
+	}
+
+	/**
+	 * Report successful call (JIRA responded), closes breaker.
+	 */
+	public synchronized void reportSuccess() {
+		consecutiveFailures = 0;
+		openedAt = 0;
+		probeInProgress = false;
+	}
+
+	/**
+	 * Report failed call (JIRA unavailable).
+	 *
+	 * @param now current timestamp [ms]
+	 */
+	public synchronized void reportFailure(long now) {
+		consecutiveFailures++;
+		if (probeInProgress || (failureThreshold > 0 && consecutiveFailures >= failureThreshold)) {
+			openedAt = now;
+		}
+		probeInProgress = false;
+	}
+
+	/**
+	 * Report call finished without result telling anything about JIRA availability (eg. interrupted).
+	 */
+	public synchronized void reportAbort() {
+		probeInProgress = false;
+	}
+
+	/**
+	 * Write actual state of breaker into JSON object.
+	 *
+	 * @param builder to write into
+	 * @param now current timestamp [ms]
+	 * @throws IOException
+	 */
+	public synchronized void buildDocument(XContentBuilder builder, long now) throws IOException {
+		builder.startObject();
+		builder.field("state", getState(now).name());
+		builder.field("consecutive_failures", consecutiveFailures);
+		if (openedAt > 0) {
+			builder.field("opened", new Date(openedAt));
+			builder.field("probe_after", new Date(openedAt + openTime));
+		}
+		builder.endObject();
+	}
+
+	/**
+	 * Settings configured by one client.
+	 */
+	protected static class Settings {
+
+		protected final int failureThreshold;
+
+		protected final long openTime;
+
+		protected Settings(int failureThreshold, long openTime) {
+			this.failureThreshold = failureThreshold;
+			this.openTime = openTime;
+		}
+	}
+
+}
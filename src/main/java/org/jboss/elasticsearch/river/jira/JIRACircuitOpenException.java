@@ -0,0 +1,24 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+/**
+ * Exception thrown when JIRA REST API call is rejected because {@link JIRACircuitBreaker} for JIRA host is open.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRACircuitOpenException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * @param message of exception
+	 */
+	public JIRACircuitOpenException(String message) {
+		super(message);
+	}
+
+}
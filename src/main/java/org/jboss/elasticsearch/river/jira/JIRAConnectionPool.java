@@ -0,0 +1,128 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.Consts;
+import org.apache.http.config.ConnectionConfig;
+import org.apache.http.conn.HttpClientConnectionManager;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.pool.PoolStats;
+
+/**
+ * Pool of HTTP connections to one JIRA host shared by all {@link JIRA5RestClient} instances on the ES node which
+ * access this host, together with {@link JIRARateLimiter} and {@link JIRACircuitBreaker} for this host. Instances are
+ * managed by {@link JIRAConnectionPoolRegistry}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRAConnectionPool {
+
+	/**
+	 * Key of pool in registry, <code>scheme://host:port</code>.
+	 */
+	protected final String key;
+
+	protected final PoolingHttpClientConnectionManager connectionManager;
+
+	/**
+	 * Time after which idle connection is closed [ms]. 0 means idle connections are not closed.
+	 */
+	protected long idleTimeout;
+
+	protected final JIRARateLimiter rateLimiter = new JIRARateLimiter();
+
+	protected final JIRACircuitBreaker circuitBreaker = new JIRACircuitBreaker();
+
+	/**
+	 * Number of clients using this pool.
+	 */
+	protected int references = 0;
+
+	/**
+	 * Create pool.
+	 *
+	 * @param key of pool in registry
+	 * @param maxTotal maximal number of connections in pool
+	 * @param maxPerRoute maximal number of connections per route
+	 * @param idleTimeout time after which idle connection is closed [ms]. 0 means idle connections are not closed.
+	 */
+	protected JIRAConnectionPool(String key, int maxTotal, int maxPerRoute, long idleTimeout) {
+		this.key = key;
+		this.idleTimeout = idleTimeout;
+		connectionManager = new PoolingHttpClientConnectionManager();
+		connectionManager.setDefaultConnectionConfig(ConnectionConfig.custom().setCharset(Consts.UTF_8).build());
+		connectionManager.setMaxTotal(maxTotal);
+		connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+	}
+
+	/**
+	 * Update pool configuration when it is acquired by next client. Limits are raised only, so pool satisfies all
+	 * clients using it. The shortest idle timeout wins.
+	 *
+	 * @param maxTotal maximal number of connections in pool requested by client
+	 * @param maxPerRoute maximal number of connections per route requested by client
+	 * @param idleTimeout time after which idle connection is closed [ms] requested by client
+	 */
+	protected void configure(int maxTotal, int maxPerRoute, long idleTimeout) {
+		if (maxTotal > connectionManager.getMaxTotal())
+			connectionManager.setMaxTotal(maxTotal);
+		if (maxPerRoute > connectionManager.getDefaultMaxPerRoute())
+			connectionManager.setDefaultMaxPerRoute(maxPerRoute);
+		if (idleTimeout > 0 && (this.idleTimeout <= 0 || idleTimeout < this.idleTimeout))
+			this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * @return connection manager to be used by HTTP client
+	 */
+	public HttpClientConnectionManager getConnectionManager() {
+		return connectionManager;
+	}
+
+	/**
+	 * @return rate limiter for calls to JIRA host
+	 */
+	public JIRARateLimiter getRateLimiter() {
+		return rateLimiter;
+	}
+
+	/**
+	 * @return circuit breaker for calls to JIRA host
+	 */
+	public JIRACircuitBreaker getCircuitBreaker() {
+		return circuitBreaker;
+	}
+
+	/**
+	 * @return actual statistics of pool (leased, available and pending connections)
+	 */
+	public PoolStats getStats() {
+		return connectionManager.getTotalStats();
+	}
+
+	/**
+	 * Close expired connections, and connections idle for longer than configured idle timeout.
+	 */
+	public void evictConnections() {
+		connectionManager.closeExpiredConnections();
+		if (idleTimeout > 0)
+			connectionManager.closeIdleConnections(idleTimeout, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Close all connections, pool can't be used after this call.
+	 */
+	protected void shutdown() {
+		connectionManager.shutdown();
+	}
+
+	public String getKey() {
+		return key;
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.http.HttpHost;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.logging.Loggers;
+
+/**
+ * Node level registry of {@link JIRAConnectionPool}s, one pool is shared for all rivers accessing same JIRA host.
+ * Pools are reference counted, pool is closed when last client releases it. Registry runs thread which periodically
+ * evicts expired and idle connections from all pools. Implementation is thread safe.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRAConnectionPoolRegistry {
+
+	private static final ESLogger logger = Loggers.getLogger(JIRAConnectionPoolRegistry.class);
+
+	/**
+	 * Period of expired and idle connections eviction [ms].
+	 */
+	public static final long EVICTION_PERIOD = 5000;
+
+	private static final JIRAConnectionPoolRegistry INSTANCE = new JIRAConnectionPoolRegistry();
+
+	/**
+	 * Get registry shared on the ES node.
+	 *
+	 * @return registry instance
+	 */
+	public static JIRAConnectionPoolRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Pools, key is {@link JIRAConnectionPool#getKey()}.
+	 */
+	protected final Map<String, JIRAConnectionPool> pools = new HashMap<String, JIRAConnectionPool>();
+
+	protected Thread evictionThread;
+
+	/**
+	 * Get pool for given JIRA host. Pool is created if not exists yet. Client must call {@link #release(JIRAConnectionPool)}
+	 * when pool is not used anymore.
+	 *
+	 * @param host JIRA host to get pool for
+	 * @param maxTotal maximal number of connections in pool
+	 * @param maxPerRoute maximal number of connections per route
+	 * @param idleTimeout time after which idle connection is closed [ms]. 0 means idle connections are not closed.
+	 * @return pool to be used
+	 */
+	public synchronized JIRAConnectionPool acquire(HttpHost host, int maxTotal, int maxPerRoute, long idleTimeout) {
+		String key = prepareKey(host);
+		JIRAConnectionPool pool = pools.get(key);
+		if (pool == null) {
+			logger.debug("Creating HTTP connection pool for JIRA {}", key);
+			pool = new JIRAConnectionPool(key, maxTotal, maxPerRoute, idleTimeout);
+			pools.put(key, pool);
+		} else {
+			pool.configure(maxTotal, maxPerRoute, idleTimeout);
+		}
+		pool.references++;
+		startEvictionThread();
+		return pool;
+	}
+
+	/**
+	 * Release pool acquired before. Pool is closed if it is not used by any other client.
+	 *
+	 * @param pool to release
+	 */
+	public synchronized void release(JIRAConnectionPool pool) {
+		if (pool == null || pools.get(pool.getKey()) != pool)
+			return;
+		pool.references--;
+		if (pool.references <= 0) {
+			logger.debug("Closing HTTP connection pool for JIRA {}", pool.getKey());
+			pools.remove(pool.getKey());
+			pool.shutdown();
+			if (pools.isEmpty() && evictionThread != null) {
+				evictionThread.interrupt();
+				evictionThread = null;
+			}
+		}
+	}
+
+	protected static String prepareKey(HttpHost host) {
+		String scheme = host.getSchemeName() != null ? host.getSchemeName().toLowerCase() : "http";
+		int port = host.getPort();
+		if (port < 0)
+			port = "https".equals(scheme) ? 443 : 80;
+		return scheme + "://" + host.getHostName().toLowerCase() + ":" + port;
+	}
+
+	private void startEvictionThread() {
+		if (evictionThread != null)
+			return;
+		evictionThread = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				while (!Thread.currentThread().isInterrupted()) {
+					try {
+						Thread.sleep(EVICTION_PERIOD);
+					} catch (InterruptedException e) {
+						return;
+					}
+					evictConnections();
+				}
+			}
+		}, "jira_river_connection_eviction");
+		evictionThread.setDaemon(true);
+		evictionThread.start();
+	}
+
+	/**
+	 * Evict expired and idle connections from all pools.
+	 */
+	protected void evictConnections() {
+		List<JIRAConnectionPool> toEvict;
+		synchronized (this) {
+			toEvict = new ArrayList<JIRAConnectionPool>(pools.values());
+		}
+		for (JIRAConnectionPool pool : toEvict) {
+			try {
+				pool.evictConnections();
+			} catch (Exception e) {
+				logger.warn("Error during connection eviction from pool {}: {}", pool.getKey(), e.getMessage());
+			}
+		}
+	}
+
+}
@@ -0,0 +1,249 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+/**
+ * Component used to complete lists of comments and changelog histories truncated by JIRA in issues returned from
+ * search. JIRA returns only first page of these lists with issue, and tells total count of items in <code>total</code>
+ * field. Remaining items of truncated lists are fetched from JIRA issue REST API and merged into issue data before it is
+ * indexed. Issues are completed in parallel, number of parallel JIRA calls is bounded and shared by all indexers of one
+ * river. Instance is thread safe.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRAIssueDataCompleter {
+
+	/**
+	 * Default maximal number of issues completed in parallel.
+	 */
+	public static final int DEFAULT_MAX_PARALLEL_FETCHES = 4;
+
+	protected static final String FIELD_COMMENTS = "comments";
+	protected static final String FIELD_HISTORIES = "histories";
+	protected static final String FIELD_START_AT = "startAt";
+	protected static final String FIELD_MAX_RESULTS = "maxResults";
+	protected static final String FIELD_TOTAL = "total";
+
+	private ESLogger logger;
+
+	protected final IJIRAClient jiraClient;
+
+	/**
+	 * Executor used to fetch data in parallel. Null if data are fetched in caller thread.
+	 */
+	protected ExecutorService executor;
+
+	/**
+	 * Create completer.
+	 *
+	 * @param esIntegrationComponent used to obtain logger and fetching threads
+	 * @param jiraClient to be used to fetch data from JIRA
+	 * @param maxParallelFetches maximal number of issues completed in parallel, data are fetched in caller thread if 1
+	 */
+	public JIRAIssueDataCompleter(final IESIntegration esIntegrationComponent, IJIRAClient jiraClient,
+			int maxParallelFetches) {
+		if (maxParallelFetches < 1)
+			throw new IllegalArgumentException("maxParallelFetches must be at least 1");
+		logger = esIntegrationComponent.createLogger(getClass());
+		this.jiraClient = jiraClient;
+		if (maxParallelFetches > 1) {
+			executor = Executors.newFixedThreadPool(maxParallelFetches, new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					return esIntegrationComponent.acquireIndexingThread("jira_river_issue_data_fetcher", r);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Complete truncated lists of comments and changelog histories in given issues. Issue data are changed directly.
+	 *
+	 * @param issues to complete, as returned from JIRA search
+	 * @return number of extra JIRA calls performed to complete each issue, array is aligned with input list
+	 * @throws Exception if some JIRA call failed
+	 */
+	public int[] completeIssues(List<Map<String, Object>> issues) throws Exception {
+		int[] calls = new int[issues.size()];
+		List<Future<Integer>> futures = new ArrayList<Future<Integer>>();
+		List<Integer> futureIndexes = new ArrayList<Integer>();
+		try {
+			for (int i = 0; i < issues.size(); i++) {
+				Map<String, Object> issue = issues.get(i);
+				Map<String, Object> comment = getListStructure(issue, JIRA5RestIssueIndexStructureBuilder.JF_COMMENT);
+				Map<String, Object> changelog = getListStructure(issue, JIRA5RestIssueIndexStructureBuilder.JF_CHANGELOG);
+				boolean commentsTruncated = isTruncated(comment, FIELD_COMMENTS);
+				boolean changelogTruncated = isTruncated(changelog, FIELD_HISTORIES);
+				if (!commentsTruncated && !changelogTruncated)
+					continue;
+				IssueCompletion task = new IssueCompletion(issue, commentsTruncated ? comment : null,
+						changelogTruncated ? changelog : null);
+				if (executor == null) {
+					calls[i] = task.call();
+				} else {
+					futures.add(executor.submit(task));
+					futureIndexes.add(i);
+				}
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				try {
+					calls[futureIndexes.get(i)] = futures.get(i).get();
+				} catch (ExecutionException e) {
+					if (e.getCause() instanceof Exception)
+						throw (Exception) e.getCause();
+					throw e;
+				}
+			}
+		} finally {
+			for (Future<Integer> future : futures) {
+				future.cancel(true);
+			}
+		}
+		return calls;
+	}
+
+	/**
+	 * Release threads used to fetch data. Instance can't be used after this call.
+	 */
+	public void close() {
+		if (executor != null)
+			executor.shutdownNow();
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static Map<String, Object> getListStructure(Map<String, Object> issue, String path) {
+		Object o = XContentMapValues.extractValue(path, issue);
+		if (o instanceof Map)
+			return (Map<String, Object>) o;
+		return null;
+	}
+
+	/**
+	 * Check if list in structure returned from JIRA is truncated.
+	 *
+	 * @param listStructure to check, may be null
+	 * @param listField name of field with list in structure
+	 * @return true if <code>total</code> field says there are more items than list contains
+	 */
+	protected static boolean isTruncated(Map<String, Object> listStructure, String listField) {
+		if (listStructure == null)
+			return false;
+		Integer total = Utils.nodeIntegerValue(listStructure.get(FIELD_TOTAL));
+		return total != null && total > getList(listStructure, listField).size();
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static List<Map<String, Object>> getList(Map<String, Object> listStructure, String listField) {
+		Object o = listStructure.get(listField);
+		if (o instanceof List)
+			return (List<Map<String, Object>>) o;
+		return new ArrayList<Map<String, Object>>();
+	}
+
+	/**
+	 * Merge items into list in structure returned from JIRA. Items already present in list (by <code>id</code>) are
+	 * skipped, pagination informations are updated so list is not truncated anymore.
+	 *
+	 * @param listStructure to merge items into
+	 * @param listField name of field with list in structure
+	 * @param items to merge
+	 */
+	protected static void mergeList(Map<String, Object> listStructure, String listField, List<Map<String, Object>> items) {
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>(getList(listStructure, listField));
+		Set<Object> ids = new HashSet<Object>();
+		for (Map<String, Object> item : list) {
+			ids.add(item.get(JIRA5RestIssueIndexStructureBuilder.JF_ID));
+		}
+		for (Map<String, Object> item : items) {
+			Object id = item.get(JIRA5RestIssueIndexStructureBuilder.JF_ID);
+			if (id == null || ids.add(id))
+				list.add(item);
+		}
+		listStructure.put(listField, list);
+		listStructure.put(FIELD_START_AT, 0);
+		listStructure.put(FIELD_MAX_RESULTS, list.size());
+		listStructure.put(FIELD_TOTAL, list.size());
+	}
+
+	/**
+	 * Task to complete one issue.
+	 */
+	protected class IssueCompletion implements Callable<Integer> {
+
+		protected final Map<String, Object> issue;
+		protected final Map<String, Object> comment;
+		protected final Map<String, Object> changelog;
+
+		/**
+		 * @param issue to complete
+		 * @param comment truncated comments structure of issue, null if not truncated
+		 * @param changelog truncated changelog structure of issue, null if not truncated
+		 */
+		protected IssueCompletion(Map<String, Object> issue, Map<String, Object> comment, Map<String, Object> changelog) {
+			this.issue = issue;
+			this.comment = comment;
+			this.changelog = changelog;
+		}
+
+		/**
+		 * @return number of JIRA calls performed
+		 */
+		@Override
+		public Integer call() throws Exception {
+			String issueKey = XContentMapValues.nodeStringValue(issue.get(JIRA5RestIssueIndexStructureBuilder.JF_KEY), null);
+			int calls = 0;
+			if (comment != null) {
+				calls += completeComments(issueKey);
+			}
+			if (changelog != null) {
+				logger.debug("Go to fetch changelog of issue {} as it is truncated", issueKey);
+				Map<String, Object> fetched = jiraClient.getJIRAIssueChangelog(issueKey);
+				calls++;
+				mergeList(changelog, FIELD_HISTORIES, getList(fetched, FIELD_HISTORIES));
+			}
+			return calls;
+		}
+
+		protected int completeComments(String issueKey) throws Exception {
+			List<Map<String, Object>> embedded = getList(comment, FIELD_COMMENTS);
+			Integer embeddedStartAt = Utils.nodeIntegerValue(comment.get(FIELD_START_AT));
+			// embedded comments are first page usually, so we continue with next one
+			int startAt = (embeddedStartAt == null || embeddedStartAt == 0) ? embedded.size() : 0;
+			List<Map<String, Object>> fetched = new ArrayList<Map<String, Object>>();
+			int calls = 0;
+			while (true) {
+				logger.debug("Go to fetch comments of issue {} from {} as they are truncated", issueKey, startAt);
+				Map<String, Object> page = jiraClient.getJIRAIssueComments(issueKey, startAt);
+				calls++;
+				List<Map<String, Object>> pageComments = getList(page, FIELD_COMMENTS);
+				fetched.addAll(pageComments);
+				Integer total = Utils.nodeIntegerValue(page.get(FIELD_TOTAL));
+				Integer pageStartAt = Utils.nodeIntegerValue(page.get(FIELD_START_AT));
+				startAt = (pageStartAt != null ? pageStartAt : startAt) + pageComments.size();
+				if (pageComments.isEmpty() || total == null || total <= startAt)
+					break;
+			}
+			mergeList(comment, FIELD_COMMENTS, fetched);
+			return calls;
+		}
+	}
+
+}
@@ -0,0 +1,147 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.IOException;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * River wide budget of memory used by issue data being indexed. Indexers account approximate size of fetched JIRA
+ * responses and built bulk requests until bulk is written into search index. JIRA client shrinks number of issues
+ * requested by one call when more than half of budget is used, and waits before the call until some memory is
+ * released when budget is exhausted. Allocation itself never blocks, so budget may be exceeded by pages fetched
+ * concurrently, and page larger than whole budget is indexed too if nothing else is allocated. Implementation is thread
+ * safe.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRAMemoryBudget {
+
+	protected final long maxBytes;
+
+	protected long usedBytes = 0;
+
+	protected long peakBytes = 0;
+
+	/**
+	 * Number of waits for released memory.
+	 */
+	protected long waits = 0;
+
+	protected boolean closed = false;
+
+	/**
+	 * Create budget.
+	 *
+	 * @param maxBytes size of budget [bytes], must be positive
+	 */
+	public JIRAMemoryBudget(long maxBytes) {
+		if (maxBytes < 1)
+			throw new IllegalArgumentException("maxBytes must be positive");
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Wait until budget is not exhausted. Returns immediately if budget is closed.
+	 *
+	 * @throws InterruptedException if waiting thread is interrupted
+	 */
+	public synchronized void awaitAvailable() throws InterruptedException {
+		if (usedBytes < maxBytes || closed)
+			return;
+		waits++;
+		while (usedBytes >= maxBytes && !closed) {
+			wait();
+		}
+	}
+
+	/**
+	 * @return true if all memory from budget is used
+	 */
+	public synchronized boolean isExhausted() {
+		return usedBytes >= maxBytes;
+	}
+
+	/**
+	 * Account memory as used. Never blocks.
+	 *
+	 * @param bytes to account
+	 */
+	public synchronized void allocate(long bytes) {
+		if (bytes <= 0)
+			return;
+		usedBytes += bytes;
+		if (usedBytes > peakBytes)
+			peakBytes = usedBytes;
+	}
+
+	/**
+	 * Release memory accounted by {@link #allocate(long)} before.
+	 *
+	 * @param bytes to release
+	 */
+	public synchronized void release(long bytes) {
+		if (bytes <= 0)
+			return;
+		usedBytes = Math.max(0, usedBytes - bytes);
+		notifyAll();
+	}
+
+	/**
+	 * Limit number of issues requested from JIRA by one call, number is shrunk linearly when more than half of budget is
+	 * used.
+	 *
+	 * @param issuesPerRequest number of issues requested if budget is not limiting, value <= 0 means JIRA default
+	 * @return limited number of issues, at least 1. JIRA default is not limited.
+	 */
+	public synchronized int limitIssuesPerRequest(int issuesPerRequest) {
+		if (issuesPerRequest <= 0 || usedBytes * 2 <= maxBytes)
+			return issuesPerRequest;
+		long freeBytes = Math.max(0, maxBytes - usedBytes);
+		return (int) Math.max(1, issuesPerRequest * freeBytes * 2 / maxBytes);
+	}
+
+	/**
+	 * Close budget, waiting threads are released and no thread waits since now.
+	 */
+	public synchronized void close() {
+		closed = true;
+		notifyAll();
+	}
+
+	public long getMaxBytes() {
+		return maxBytes;
+	}
+
+	public synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	public synchronized long getPeakBytes() {
+		return peakBytes;
+	}
+
+	public synchronized long getWaits() {
+		return waits;
+	}
+
+	/**
+	 * Build document with budget statistics, used in river state.
+	 *
+	 * @param builder to build document into
+	 * @throws IOException
+	 */
+	public synchronized void buildDocument(XContentBuilder builder) throws IOException {
+		builder.startObject();
+		builder.field("max_bytes", maxBytes);
+		builder.field("used_bytes", usedBytes);
+		builder.field("peak_bytes", peakBytes);
+		builder.field("waits", waits);
+		builder.endObject();
+	}
+
+}
@@ -0,0 +1,372 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.common.logging.ESLogger;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+
+/**
+ * Class used to run one incremental index update process for more small JIRA projects together. Issues updated in all
+ * projects are obtained by one JQL search with search window of each project, routed to their projects using
+ * <code>fields.project.key</code>, and indexed by one shared bulk request for each page. {@link IssueWatermark} of last indexed issue is advanced for each project
+ * individually, so projects can be indexed by {@link JIRAProjectIndexer} again later. Full update is never performed
+ * by this indexer. Can be used only for one run, then must be discarded and new instance created!
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRAProjectBatchIndexer implements Runnable {
+
+	private ESLogger logger;
+
+	protected final IJIRAClient jiraClient;
+
+	protected final IESIntegration esIntegrationComponent;
+
+	/**
+	 * Configured JIRA issue index structure builder to be used.
+	 */
+	protected final IJIRAIssueIndexStructureBuilder jiraIssueIndexStructureBuilder;
+
+	/**
+	 * Keys of JIRA projects updated.
+	 */
+	protected final List<String> projectKeys;
+
+	/**
+	 * Time when indexing started.
+	 */
+	protected long startTime = 0;
+
+	/**
+	 * Info about current indexing for each project.
+	 */
+	protected final Map<String, ProjectIndexingInfo> indexingInfos = new LinkedHashMap<String, ProjectIndexingInfo>();
+
+	/**
+	 * Optional completer of truncated comments and changelogs of issues.
+	 */
+	protected JIRAIssueDataCompleter issueDataCompleter;
+
+	/**
+	 * Optional river wide memory budget, fetched page of issues and built bulk request are accounted into it until bulk
+	 * is written.
+	 */
+	protected JIRAMemoryBudget memoryBudget;
+
+	/**
+	 * Bytes accounted into {@link #memoryBudget} for current page and not released yet.
+	 */
+	protected long memoryAllocated = 0;
+
+	/**
+	 * Create and configure indexer.
+	 *
+	 * @param projectKeys keys of JIRA projects to be indexed by this indexer.
+	 * @param jiraClient configured JIRA client to be used to obtain informations from JIRA.
+	 * @param esIntegrationComponent to be used to call River component and ElasticSearch functions
+	 * @param jiraIssueIndexStructureBuilder to be used during indexing
+	 */
+	public JIRAProjectBatchIndexer(List<String> projectKeys, IJIRAClient jiraClient,
+			IESIntegration esIntegrationComponent, IJIRAIssueIndexStructureBuilder jiraIssueIndexStructureBuilder) {
+		if (projectKeys == null || projectKeys.isEmpty())
+			throw new IllegalArgumentException("projectKeys must be defined");
+		logger = esIntegrationComponent.createLogger(getClass());
+		this.jiraClient = jiraClient;
+		this.projectKeys = new ArrayList<String>(projectKeys);
+		this.esIntegrationComponent = esIntegrationComponent;
+		this.jiraIssueIndexStructureBuilder = jiraIssueIndexStructureBuilder;
+		for (String projectKey : projectKeys) {
+			indexingInfos.put(projectKey, new ProjectIndexingInfo(projectKey, false));
+		}
+	}
+
+	@Override
+	public void run() {
+		startTime = System.currentTimeMillis();
+		for (ProjectIndexingInfo indexingInfo : indexingInfos.values()) {
+			indexingInfo.startDate = new Date(startTime);
+		}
+		String errorMessage = null;
+		try {
+			processUpdate();
+			logger.info("Finished batch incremental update for JIRA projects {}. {} updated issues. Time elapsed {}s.",
+					projectKeys, getIssuesUpdated(), ((System.currentTimeMillis() - startTime) / 1000));
+		} catch (Throwable e) {
+			errorMessage = e.getMessage();
+			Throwable cause = e;
+			// do not log stacktrace for some operational exceptions to keep log file much clear
+			if (((cause instanceof IOException) || (cause instanceof InterruptedException)) && cause.getMessage() != null)
+				cause = null;
+			logger.error("Failed batch incremental update for JIRA projects {} due: {}", cause, projectKeys, e.getMessage());
+		}
+		long timeElapsed = System.currentTimeMillis() - startTime;
+		for (ProjectIndexingInfo indexingInfo : indexingInfos.values()) {
+			indexingInfo.timeElapsed = timeElapsed;
+			indexingInfo.finishedOK = errorMessage == null;
+			indexingInfo.errorMessage = errorMessage;
+			esIntegrationComponent.reportIndexingFinished(indexingInfo);
+		}
+	}
+
+	/**
+	 * Process incremental update of search index for all projects. Search starts from {@link IssueWatermark} of each
+	 * project, issues at or before watermark stored for their project are skipped as they were indexed already.
+	 *
+	 * @throws Exception
+	 */
+	protected void processUpdate() throws Exception {
+		try {
+			processUpdatePages();
+		} finally {
+			releaseMemory(memoryAllocated);
+		}
+	}
+
+	/**
+	 * Index pages of updated issues, see {@link #processUpdate()}.
+	 *
+	 * @throws Exception
+	 */
+	protected void processUpdatePages() throws Exception {
+		Map<String, IssueWatermark> startWatermarks = new HashMap<String, IssueWatermark>();
+		for (String projectKey : projectKeys) {
+			IssueWatermark w = IssueWatermark.read(esIntegrationComponent, projectKey);
+			if (w == null) {
+				throw new IllegalStateException("JIRA project " + projectKey
+						+ " was never indexed so it can't be updated in batch");
+			}
+			startWatermarks.put(projectKey, w);
+		}
+		Map<String, IssueWatermark> watermarks = new HashMap<String, IssueWatermark>(startWatermarks);
+		Map<String, Date> indexedInWindow = new HashMap<String, Date>();
+
+		// start of window common for all projects, moved forward by paging, null until first window move
+		Date updatedAfter = null;
+		int startAt = 0;
+		// parameters of current page if it was requested to continue previous one, null for first page in window
+		JIRAProjectIndexer.NextPage continued = null;
+		boolean cont = true;
+		while (cont) {
+			if (isClosed())
+				throw new InterruptedException("Interrupted because River is closed");
+
+			Map<String, Date> projectsUpdatedAfter = prepareProjectsUpdatedAfter(startWatermarks, updatedAfter);
+			if (logger.isDebugEnabled())
+				logger.debug("Go to ask for updated JIRA issues for projects {} with startAt {}", projectsUpdatedAfter,
+						startAt);
+
+			ChangedIssuesResults res = jiraClient.getJIRAChangedIssuesForProjects(projectsUpdatedAfter, startAt);
+			if (continued != null && !continued.isContinuedBy(res, jiraIssueIndexStructureBuilder)) {
+				logger.debug("Issues of JIRA projects {} changed during paging, go to scan window from start again",
+						projectKeys);
+				startAt = 0;
+				continued = null;
+				continue;
+			}
+			if (res.getIssuesCount() == 0)
+				break;
+			allocateMemory(res.getResponseSize());
+
+			Date firstIssueUpdatedDate = null;
+			Date lastIssueUpdatedDate = null;
+			String lastIssueKey = null;
+			List<Map<String, Object>> selectedIssues = new ArrayList<Map<String, Object>>();
+			List<String> selectedProjectKeys = new ArrayList<String>();
+			for (Map<String, Object> issue : res.getIssues()) {
+				String issueKey = jiraIssueIndexStructureBuilder.extractIssueKey(issue);
+				if (issueKey == null) {
+					throw new IllegalArgumentException("Issue 'key' field not found in JIRA response for projects "
+							+ projectKeys + " within issue data: " + issue);
+				}
+				Date issueUpdated = jiraIssueIndexStructureBuilder.extractIssueUpdated(issue);
+				if (issueUpdated == null) {
+					throw new IllegalArgumentException("'updated' field not found in JIRA response data for issue " + issueKey);
+				}
+				lastIssueUpdatedDate = issueUpdated;
+				lastIssueKey = issueKey;
+				if (firstIssueUpdatedDate == null) {
+					firstIssueUpdatedDate = issueUpdated;
+				}
+				String projectKey = extractIssueProjectKey(issue);
+				if (!indexingInfos.containsKey(projectKey)) {
+					throw new IllegalArgumentException("Issue " + issueKey + " from unexpected project " + projectKey
+							+ " found in JIRA response for projects " + projectKeys);
+				}
+				if (issueUpdated.equals(indexedInWindow.get(issueKey))
+						|| startWatermarks.get(projectKey).isIndexed(issueUpdated, issueKey)) {
+					// indexed already during previous update of this project or in previous page
+					continue;
+				}
+				logger.debug("Go to update index for issue {} with updated {}", issueKey, issueUpdated);
+				selectedIssues.add(issue);
+				selectedProjectKeys.add(projectKey);
+				indexedInWindow.put(issueKey, issueUpdated);
+				watermarks.put(projectKey, watermarks.get(projectKey).advance(issueUpdated, issueKey));
+			}
+
+			if (!selectedIssues.isEmpty()) {
+				int[] extraCalls = issueDataCompleter != null ? issueDataCompleter.completeIssues(selectedIssues) : null;
+				Map<String, Map<String, Set<String>>> indexedDocumentIds = jiraIssueIndexStructureBuilder
+						.readIndexedCommentAndChangelogDocumentIds(selectedIssues);
+				BulkRequestBuilder esBulk = esIntegrationComponent.prepareESBulkRequestBuilder();
+				// project key for each request in bulk, so skipped stale documents can be counted for right project
+				List<String> bulkProjectKeys = new ArrayList<String>();
+				Set<String> pageProjectKeys = new LinkedHashSet<String>();
+				for (int i = 0; i < selectedIssues.size(); i++) {
+					String projectKey = selectedProjectKeys.get(i);
+					ProjectIndexingInfo indexingInfo = indexingInfos.get(projectKey);
+					if (extraCalls != null)
+						indexingInfo.extraJiraCalls += extraCalls[i];
+					jiraIssueIndexStructureBuilder.indexIssue(esBulk, projectKey, selectedIssues.get(i),
+							startWatermarks.get(projectKey).getUpdated(), indexedDocumentIds);
+					while (bulkProjectKeys.size() < esBulk.numberOfActions())
+						bulkProjectKeys.add(projectKey);
+					indexingInfo.issuesUpdated++;
+					pageProjectKeys.add(projectKey);
+					if (isClosed())
+						throw new InterruptedException("Interrupted because River is closed");
+				}
+
+				if (memoryBudget != null)
+					allocateMemory(esBulk.request().estimatedSizeInBytes());
+				for (String projectKey : pageProjectKeys) {
+					watermarks.get(projectKey).store(esIntegrationComponent, projectKey, esBulk);
+				}
+				for (BulkItemResponse skipped : esIntegrationComponent.executeESBulkRequest(esBulk)) {
+					if (skipped.getItemId() < bulkProjectKeys.size())
+						indexingInfos.get(bulkProjectKeys.get(skipped.getItemId())).staleDocumentsSkipped++;
+				}
+			}
+			releaseMemory(memoryAllocated);
+
+			// same paging logic as in JIRAProjectIndexer, issues are sorted by update time ascending
+			JIRAProjectIndexer.NextPage next = JIRAProjectIndexer.computeNextPage(res, updatedAfter, firstIssueUpdatedDate,
+					lastIssueUpdatedDate, lastIssueKey);
+			cont = next != null;
+			if (cont) {
+				if (next.updatedAfter != null && !next.updatedAfter.equals(updatedAfter)) {
+					JIRAProjectIndexer.removeIssuesBefore(indexedInWindow, next.updatedAfter);
+				}
+				startAt = next.startAt;
+				updatedAfter = next.updatedAfter;
+				continued = next;
+			}
+		}
+	}
+
+	/**
+	 * Prepare start of search window for each project. It is start of window for {@link IssueWatermark} of the project,
+	 * or common window start reached by paging if it is later.
+	 *
+	 * @param startWatermarks watermarks of projects stored by previous update
+	 * @param updatedAfter common window start reached by paging, null if none yet
+	 * @return map from project key to start of its search window, in order of {@link #projectKeys}
+	 */
+	protected Map<String, Date> prepareProjectsUpdatedAfter(Map<String, IssueWatermark> startWatermarks,
+			Date updatedAfter) {
+		Map<String, Date> ret = new LinkedHashMap<String, Date>();
+		for (String projectKey : projectKeys) {
+			Date windowStart = startWatermarks.get(projectKey).getJQLWindowStart();
+			if (updatedAfter != null && updatedAfter.after(windowStart))
+				windowStart = updatedAfter;
+			ret.put(projectKey, windowStart);
+		}
+		return ret;
+	}
+
+	/**
+	 * Get key of project issue belongs to.
+	 *
+	 * @param issue data from JIRA
+	 * @return project key or null if not present in data
+	 */
+	protected static String extractIssueProjectKey(Map<String, Object> issue) {
+		return XContentMapValues.nodeStringValue(XContentMapValues.extractValue("fields.project.key", issue), null);
+	}
+
+	/**
+	 * Check if we must interrupt update process because ElasticSearch runtime needs it.
+	 *
+	 * @return true if we must interrupt update process
+	 */
+	protected boolean isClosed() {
+		return esIntegrationComponent != null && esIntegrationComponent.isClosed();
+	}
+
+	/**
+	 * @return number of issues updated in all projects
+	 */
+	protected int getIssuesUpdated() {
+		int ret = 0;
+		for (ProjectIndexingInfo indexingInfo : indexingInfos.values()) {
+			ret += indexingInfo.issuesUpdated;
+		}
+		return ret;
+	}
+
+	/**
+	 * Set completer used to fetch comments and changelogs truncated in issues returned from search before they are
+	 * indexed.
+	 *
+	 * @param issueDataCompleter to use, null if truncated data are indexed as they are
+	 */
+	public void setIssueDataCompleter(JIRAIssueDataCompleter issueDataCompleter) {
+		this.issueDataCompleter = issueDataCompleter;
+	}
+
+	/**
+	 * Set river wide memory budget to account fetched pages and built bulk requests into.
+	 *
+	 * @param memoryBudget to use, null if memory is not accounted
+	 */
+	public void setMemoryBudget(JIRAMemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	protected void allocateMemory(long bytes) {
+		if (memoryBudget == null || bytes <= 0)
+			return;
+		memoryBudget.allocate(bytes);
+		memoryAllocated += bytes;
+	}
+
+	protected void releaseMemory(long bytes) {
+		if (memoryBudget == null || bytes <= 0)
+			return;
+		memoryBudget.release(bytes);
+		memoryAllocated -= bytes;
+	}
+
+	/**
+	 * Get current indexing info for given project.
+	 *
+	 * @param projectKey to get info for
+	 * @return indexing info instance or null if project is not indexed by this indexer
+	 */
+	public ProjectIndexingInfo getIndexingInfo(String projectKey) {
+		return indexingInfos.get(projectKey);
+	}
+
+	/**
+	 * @return keys of projects indexed by this indexer
+	 */
+	public List<String> getProjectKeys() {
+		return projectKeys;
+	}
+
+}
@@ -6,8 +6,15 @@
 package org.jboss.elasticsearch.river.jira;
 
 import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.search.SearchRequestBuilder;
@@ -15,6 +22,7 @@ import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.search.SearchHit;
+import org.jboss.elasticsearch.river.jira.ProjectIndexingProgress.Phase;
 
 /**
  * Class used to run one index update process for one JIRA project. Can be used only for one run, then must be discarded
@@ -58,6 +66,38 @@ public class JIRAProjectIndexer implements Runnable {
 	 */
 	protected ProjectIndexingInfo indexingInfo;
 
+	/**
+	 * Optional completer of truncated comments and changelogs of issues.
+	 */
+	protected JIRAIssueDataCompleter issueDataCompleter;
+
+	/**
+	 * Number of preprocessing and transform workers of {@link JIRAProjectIndexingPipeline}, 0 means project is indexed
+	 * serially in indexer thread.
+	 */
+	protected int pipelineWorkers = 0;
+
+	/**
+	 * Capacity of queues between stages of {@link JIRAProjectIndexingPipeline} [pages].
+	 */
+	protected int pipelineQueueCapacity = JIRAProjectIndexingPipeline.DEFAULT_QUEUE_CAPACITY;
+
+	/**
+	 * Optional river wide memory budget, fetched pages of issues and built bulk requests are accounted into it until
+	 * bulk is written.
+	 */
+	protected JIRAMemoryBudget memoryBudget;
+
+	/**
+	 * Bytes accounted into {@link #memoryBudget} by this indexer and not released yet.
+	 */
+	protected long memoryAllocated = 0;
+
+	/**
+	 * Set when all memory accounted by this indexer is released at the end of update, nothing is accounted since then.
+	 */
+	protected boolean memoryReleased = false;
+
 	/**
 	 * Create and configure indexer.
 	 * 
@@ -89,9 +129,10 @@ public class JIRAProjectIndexer implements Runnable {
 			indexingInfo.timeElapsed = (System.currentTimeMillis() - startTime);
 			indexingInfo.finishedOK = true;
 			esIntegrationComponent.reportIndexingFinished(indexingInfo);
-			logger.info("Finished {} update for JIRA project {}. {} updated and {} deleted issues. Time elapsed {}s.",
+			logger.info(
+					"Finished {} update for JIRA project {}. {} updated and {} deleted issues, {} extra JIRA calls to complete truncated issue data. Time elapsed {}s.",
 					indexingInfo.fullUpdate ? "full" : "incremental", projectKey, indexingInfo.issuesUpdated,
-					indexingInfo.issuesDeleted, (indexingInfo.timeElapsed / 1000));
+					indexingInfo.issuesDeleted, indexingInfo.extraJiraCalls, (indexingInfo.timeElapsed / 1000));
 		} catch (Throwable e) {
 			indexingInfo.timeElapsed = (System.currentTimeMillis() - startTime);
 			indexingInfo.errorMessage = e.getMessage();
@@ -109,92 +150,408 @@ public class JIRAProjectIndexer implements Runnable {
 	/**
 	 * Process update of search index for configured JIRA project. A {@link #updatedCount} field is updated inside of this
 	 * method. A {@link #fullUpdate} field can be updated inside of this method.
+	 * <p>
+	 * JQL search is only minute precise, so issues are requested in minute precise windows, and issues returned again
+	 * are filtered out against {@link IssueWatermark} stored by previous update and against issues already indexed in
+	 * this update.
+	 * <p>
+	 * If {@link #pipelineWorkers} is configured then issues are indexed by {@link JIRAProjectIndexingPipeline}.
 	 * 
 	 * @throws Exception
 	 */
 	protected void processUpdate() throws Exception {
+		try {
+			processUpdatePages();
+		} finally {
+			releaseAllMemory();
+		}
+	}
+
+	/**
+	 * Index pages of updated issues, see {@link #processUpdate()}.
+	 * 
+	 * @throws Exception
+	 */
+	protected void processUpdatePages() throws Exception {
 		indexingInfo.issuesUpdated = 0;
-		Date updatedAfter = null;
+		IssueWatermark startWatermark = null;
 		if (!indexingInfo.fullUpdate) {
-			updatedAfter = DateTimeUtils.roundDateTimeToMinutePrecise(readLastIssueUpdatedDate(projectKey));
+			startWatermark = IssueWatermark.read(esIntegrationComponent, projectKey);
 		}
-		Date updatedAfterStarting = updatedAfter;
-		if (updatedAfter == null)
+		Date updatedAfter = null;
+		if (startWatermark == null)
 			indexingInfo.fullUpdate = true;
-		Date lastIssueUpdatedDate = null;
-
-		int startAt = 0;
+		else
+			updatedAfter = startWatermark.getJQLWindowStart();
+		indexingInfo.progress = ProjectIndexingProgress.INITIAL;
 
 		logger.info("Go to perform {} update for JIRA project {}", indexingInfo.fullUpdate ? "full" : "incremental",
 				projectKey);
 
-		boolean cont = true;
-		while (cont) {
-			if (isClosed())
-				throw new InterruptedException("Interrupted because River is closed");
+		if (pipelineWorkers > 0) {
+			new JIRAProjectIndexingPipeline(this, pipelineWorkers, pipelineQueueCapacity).run(startWatermark, updatedAfter);
+			return;
+		}
 
-			if (logger.isDebugEnabled())
-				logger.debug("Go to ask for updated JIRA issues for project {} with startAt {} updated {}", projectKey,
-						startAt, (updatedAfter != null ? ("after " + updatedAfter) : "in whole history"));
+		IssueWatermark watermark = startWatermark;
+		// exact update dates of issues indexed in this update and still inside of current search window
+		Map<String, Date> indexedInWindow = new HashMap<String, Date>();
 
-			ChangedIssuesResults res = jiraClient.getJIRAChangedIssues(projectKey, startAt, updatedAfter, null);
+		int startAt = 0;
+		// parameters of current page if it was requested to continue previous one, null for first page in window
+		NextPage continued = null;
+		long pageStartTime = System.currentTimeMillis();
 
-			if (res.getIssuesCount() == 0) {
-				cont = false;
-			} else {
+		boolean cont = true;
+		PrefetchedPage prefetched = null;
+		try {
+			while (cont) {
 				if (isClosed())
 					throw new InterruptedException("Interrupted because River is closed");
 
-				Date firstIssueUpdatedDate = null;
-				BulkRequestBuilder esBulk = esIntegrationComponent.prepareESBulkRequestBuilder();
-				for (Map<String, Object> issue : res.getIssues()) {
-					String issueKey = jiraIssueIndexStructureBuilder.extractIssueKey(issue);
-					if (issueKey == null) {
-						throw new IllegalArgumentException("Issue 'key' field not found in JIRA response for project " + projectKey
-								+ " within issue data: " + issue);
-					}
-					lastIssueUpdatedDate = DateTimeUtils.roundDateTimeToMinutePrecise(jiraIssueIndexStructureBuilder
-							.extractIssueUpdated(issue));
-					logger.debug("Go to update index for issue {} with updated {}", issueKey, lastIssueUpdatedDate);
-					if (lastIssueUpdatedDate == null) {
-						throw new IllegalArgumentException("'updated' field not found in JIRA response data for issue " + issueKey);
-					}
-					if (firstIssueUpdatedDate == null) {
-						firstIssueUpdatedDate = lastIssueUpdatedDate;
-					}
+				if (logger.isDebugEnabled())
+					logger.debug("Go to ask for updated JIRA issues for project {} with startAt {} updated {}", projectKey,
+							startAt, (updatedAfter != null ? ("after " + updatedAfter) : "in whole history"));
 
-					jiraIssueIndexStructureBuilder.indexIssue(esBulk, projectKey, issue);
-					indexingInfo.issuesUpdated++;
+				updateProgressPhase(Phase.FETCH);
+				ChangedIssuesResults res;
+				if (prefetched != null && prefetched.isFor(startAt, updatedAfter)) {
+					res = prefetched.get();
+				} else {
+					if (prefetched != null)
+						prefetched.cancel();
+					res = jiraClient.getJIRAChangedIssues(projectKey, startAt, updatedAfter, null);
+				}
+				prefetched = null;
+				if (continued != null && !continued.isContinuedBy(res, jiraIssueIndexStructureBuilder)) {
+					logger.debug("Issues of JIRA project {} changed during paging, go to scan window after {} from start again",
+							projectKey, updatedAfter);
+					startAt = 0;
+					continued = null;
+					continue;
+				}
+				long pageMemory = res.getResponseSize();
+				allocateMemory(pageMemory);
+
+				if (res.getIssuesCount() == 0) {
+					cont = false;
+				} else {
 					if (isClosed())
 						throw new InterruptedException("Interrupted because River is closed");
-				}
 
-				storeLastIssueUpdatedDate(esBulk, projectKey, lastIssueUpdatedDate);
-				esIntegrationComponent.executeESBulkRequest(esBulk);
+					// ask for next page now, so it is fetched while this one is indexed
+					prefetched = prefetchNextPage(res, updatedAfter);
 
-				// next logic depends on issues sorted by update time ascending when returned from
-				// jiraClient.getJIRAChangedIssues()!!!!
-				if (!lastIssueUpdatedDate.equals(firstIssueUpdatedDate)) {
-					// processed issues updated in different times, so we can continue by issue filtering based on latest time
-					// of update which is more safe for concurrent changes in JIRA
-					updatedAfter = lastIssueUpdatedDate;
-					cont = res.getTotal() > (res.getStartAt() + res.getIssuesCount());
-					startAt = 0;
-				} else {
-					// more issues updated in same time, we must go over them using pagination only, which may sometimes lead
-					// to some issue update lost due concurrent changes in JIRA
-					startAt = res.getStartAt() + res.getIssuesCount();
-					cont = res.getTotal() > startAt;
+					PageSelection selection = selectIssuesToIndex(res, startWatermark, watermark, indexedInWindow);
+					watermark = selection.watermark;
+					if (issueDataCompleter != null && !selection.issues.isEmpty()) {
+						for (int calls : issueDataCompleter.completeIssues(selection.issues)) {
+							indexingInfo.extraJiraCalls += calls;
+						}
+					}
+
+					updateProgressPhase(Phase.BULK);
+					BulkRequestBuilder esBulk = esIntegrationComponent.prepareESBulkRequestBuilder();
+					Date changedSince = startWatermark != null ? startWatermark.getUpdated() : null;
+					Map<String, Map<String, Set<String>>> indexedDocumentIds = null;
+					if (changedSince != null && !selection.issues.isEmpty())
+						indexedDocumentIds = jiraIssueIndexStructureBuilder
+								.readIndexedCommentAndChangelogDocumentIds(selection.issues);
+					for (Map<String, Object> issue : selection.issues) {
+						jiraIssueIndexStructureBuilder.indexIssue(esBulk, projectKey, issue, changedSince, indexedDocumentIds);
+						indexingInfo.issuesUpdated++;
+						if (isClosed())
+							throw new InterruptedException("Interrupted because River is closed");
+					}
+
+					if (!selection.issues.isEmpty()) {
+						long bulkMemory = estimateMemory(esBulk);
+						allocateMemory(bulkMemory);
+						pageMemory += bulkMemory;
+						watermark.store(esIntegrationComponent, projectKey, esBulk);
+						indexingInfo.staleDocumentsSkipped += esIntegrationComponent.executeESBulkRequest(esBulk).size();
+					}
+					releaseMemory(pageMemory);
+
+					long now = System.currentTimeMillis();
+					indexingInfo.progress = indexingInfo.progress.pageProcessed(res.getIssuesCount(), now - pageStartTime,
+							res.getTotal() - (res.getStartAt() + res.getIssuesCount()), now);
+					pageStartTime = now;
+
+					NextPage next = computeNextPage(res, updatedAfter, selection.firstIssueUpdatedDate,
+							selection.lastIssueUpdatedDate, selection.lastIssueKey);
+					cont = next != null;
+					if (cont) {
+						if (next.updatedAfter != null && !next.updatedAfter.equals(updatedAfter)) {
+							removeIssuesBefore(indexedInWindow, next.updatedAfter);
+						}
+						startAt = next.startAt;
+						updatedAfter = next.updatedAfter;
+						continued = next;
+					}
 				}
 			}
+		} finally {
+			if (prefetched != null)
+				prefetched.cancel();
+		}
+	}
+
+	/**
+	 * Select issues from page returned from JIRA which have to be indexed, so issues not indexed already by previous
+	 * update (see <code>startWatermark</code>) or by this update in current search window.
+	 * 
+	 * @param res page of updated issues returned from JIRA
+	 * @param startWatermark watermark stored by previous update, null for full update
+	 * @param watermark watermark after issues indexed by this update before this page, null if none indexed yet
+	 * @param indexedInWindow exact update dates of issues indexed by this update and still inside of current search
+	 *          window, selected issues are added here
+	 * @return selection
+	 * @throws IllegalArgumentException if issue key or update date can't be extracted from some issue
+	 */
+	protected PageSelection selectIssuesToIndex(ChangedIssuesResults res, IssueWatermark startWatermark,
+			IssueWatermark watermark, Map<String, Date> indexedInWindow) {
+		PageSelection ret = new PageSelection(watermark);
+		for (Map<String, Object> issue : res.getIssues()) {
+			String issueKey = jiraIssueIndexStructureBuilder.extractIssueKey(issue);
+			if (issueKey == null) {
+				throw new IllegalArgumentException("Issue 'key' field not found in JIRA response for project " + projectKey
+						+ " within issue data: " + issue);
+			}
+			Date issueUpdated = jiraIssueIndexStructureBuilder.extractIssueUpdated(issue);
+			if (issueUpdated == null) {
+				throw new IllegalArgumentException("'updated' field not found in JIRA response data for issue " + issueKey);
+			}
+			ret.lastIssueUpdatedDate = issueUpdated;
+			ret.lastIssueKey = issueKey;
+			if (ret.firstIssueUpdatedDate == null) {
+				ret.firstIssueUpdatedDate = issueUpdated;
+			}
+
+			if (issueUpdated.equals(indexedInWindow.get(issueKey))
+					|| (startWatermark != null && startWatermark.isIndexed(issueUpdated, issueKey))) {
+				logger.debug("Issue {} with updated {} is indexed already", issueKey, issueUpdated);
+				continue;
+			}
+
+			logger.debug("Go to update index for issue {} with updated {}", issueKey, issueUpdated);
+			ret.issues.add(issue);
+			indexedInWindow.put(issueKey, issueUpdated);
+			ret.watermark = (ret.watermark == null ? new IssueWatermark(issueUpdated, issueKey) : ret.watermark.advance(
+					issueUpdated, issueKey));
+		}
+		return ret;
+	}
+
+	/**
+	 * Issues of one page returned from JIRA selected to be indexed.
+	 */
+	protected static class PageSelection {
+
+		/**
+		 * Issues to be indexed, in order returned from JIRA.
+		 */
+		protected final List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+
+		/**
+		 * Exact update date of first issue in page, including issues not selected.
+		 */
+		protected Date firstIssueUpdatedDate;
+
+		/**
+		 * Exact update date of last issue in page, including issues not selected.
+		 */
+		protected Date lastIssueUpdatedDate;
+
+		/**
+		 * Key of last issue in page, including issues not selected.
+		 */
+		protected String lastIssueKey;
+
+		/**
+		 * Watermark after selected issues are indexed.
+		 */
+		protected IssueWatermark watermark;
+
+		protected PageSelection(IssueWatermark watermark) {
+			this.watermark = watermark;
 		}
+	}
 
-		if (indexingInfo.issuesUpdated > 0 && lastIssueUpdatedDate != null && updatedAfterStarting != null
-				&& updatedAfterStarting.equals(lastIssueUpdatedDate)) {
-			// no any new issue during this update cycle, go to increment lastIssueUpdatedDate in store by one minute not to
-			// index last issue again and again in next cycle - this is here due JQL minute precise on timestamp search
-			storeLastIssueUpdatedDate(null, projectKey,
-					DateTimeUtils.roundDateTimeToMinutePrecise(new Date(lastIssueUpdatedDate.getTime() + 64 * 1000)));
+	/**
+	 * Compute parameters of request for next page of updated issues. Next logic depends on issues sorted by update time
+	 * ascending when returned from {@link IJIRAClient#getJIRAChangedIssues(String, int, Date, Date)}!
+	 * <p>
+	 * If whole page is from same minute then next page is requested by <code>startAt</code> so it overlaps current page
+	 * by its last issue. Caller must check next page by {@link NextPage#isContinuedBy(ChangedIssuesResults,
+	 * IJIRAIssueIndexStructureBuilder)} and scan window from start again if it fails.
+	 * 
+	 * @param res current page of updated issues, must contain some issues
+	 * @param updatedAfter date current page was requested for
+	 * @param firstIssueUpdatedDate exact update date of first issue in current page
+	 * @param lastIssueUpdatedDate exact update date of last issue in current page
+	 * @param lastIssueKey key of last issue in current page
+	 * @return next page parameters or null if there is no next page
+	 */
+	protected static NextPage computeNextPage(ChangedIssuesResults res, Date updatedAfter, Date firstIssueUpdatedDate,
+			Date lastIssueUpdatedDate, String lastIssueKey) {
+		Date firstMinute = DateTimeUtils.roundDateTimeToMinutePrecise(firstIssueUpdatedDate);
+		Date lastMinute = DateTimeUtils.roundDateTimeToMinutePrecise(lastIssueUpdatedDate);
+		if (!lastMinute.equals(firstMinute)) {
+			// processed issues updated in different minutes, so we can continue by issue filtering based on latest minute of
+			// update which is more safe for concurrent changes in JIRA. Issues from this minute returned again are filtered
+			// out as indexed already.
+			if (res.getTotal() <= (res.getStartAt() + res.getIssuesCount()))
+				return null;
+			return new NextPage(0, lastMinute);
+		} else {
+			// more issues updated in same minute, we must go over them using pagination only. Issue changed in JIRA
+			// meanwhile moves to the end of results, so issues after it shift to lower startAt and one of them would be
+			// skipped. So pages overlap by one issue, and shift is detected when next page doesn't start with it.
+			int nextStartAt = res.getStartAt() + res.getIssuesCount();
+			if (res.getTotal() <= nextStartAt)
+				return null;
+			if (res.getIssuesCount() < 2)
+				return new NextPage(nextStartAt, updatedAfter);
+			return new NextPage(nextStartAt - 1, updatedAfter, lastIssueKey, lastIssueUpdatedDate);
+		}
+	}
+
+	/**
+	 * Remove issues updated before given date from map of indexed issues.
+	 * 
+	 * @param indexedIssues map from issue key to exact update date of indexed issue
+	 * @param date to remove issues before
+	 */
+	protected static void removeIssuesBefore(Map<String, Date> indexedIssues, Date date) {
+		for (Iterator<Date> i = indexedIssues.values().iterator(); i.hasNext();) {
+			if (i.next().before(date))
+				i.remove();
+		}
+	}
+
+	/**
+	 * Parameters of request for page of updated issues.
+	 */
+	protected static class NextPage {
+
+		protected final int startAt;
+
+		protected final Date updatedAfter;
+
+		/**
+		 * Key of issue page must start with as it overlaps previous page, null if pages do not overlap.
+		 */
+		protected final String overlapIssueKey;
+
+		/**
+		 * Exact update date of issue page must start with, null if pages do not overlap.
+		 */
+		protected final Date overlapIssueUpdated;
+
+		protected NextPage(int startAt, Date updatedAfter) {
+			this(startAt, updatedAfter, null, null);
+		}
+
+		protected NextPage(int startAt, Date updatedAfter, String overlapIssueKey, Date overlapIssueUpdated) {
+			this.startAt = startAt;
+			this.updatedAfter = updatedAfter;
+			this.overlapIssueKey = overlapIssueKey;
+			this.overlapIssueUpdated = overlapIssueUpdated;
+		}
+
+		/**
+		 * Check if page returned from JIRA for these parameters continues previous page, so no issue was skipped because
+		 * issues were changed in JIRA during paging.
+		 * 
+		 * @param res page returned from JIRA
+		 * @param jiraIssueIndexStructureBuilder used to extract issue key and update date
+		 * @return true if page continues previous one or pages do not overlap
+		 */
+		protected boolean isContinuedBy(ChangedIssuesResults res,
+				IJIRAIssueIndexStructureBuilder jiraIssueIndexStructureBuilder) {
+			if (overlapIssueKey == null)
+				return true;
+			if (res.getIssuesCount() == 0)
+				return false;
+			Map<String, Object> first = res.getIssues().get(0);
+			return overlapIssueKey.equals(jiraIssueIndexStructureBuilder.extractIssueKey(first))
+					&& overlapIssueUpdated.equals(jiraIssueIndexStructureBuilder.extractIssueUpdated(first));
+		}
+	}
+
+	/**
+	 * Start asynchronous fetch of next page of updated issues if JIRA client supports it. Parameters of next page are
+	 * computed same way as in {@link #processUpdate()}, see
+	 * {@link #computeNextPage(ChangedIssuesResults, Date, Date, Date, String)}.
+	 * 
+	 * @param res current page of updated issues, must contain some issues
+	 * @param updatedAfter date current page was requested for
+	 * @return prefetched page or null if JIRA client is not asynchronous or there is no next page
+	 * @throws Exception
+	 */
+	protected PrefetchedPage prefetchNextPage(ChangedIssuesResults res, Date updatedAfter) throws Exception {
+		if (!(jiraClient instanceof IJIRAAsyncClient))
+			return null;
+		// do not fetch ahead while holding page, it could block other indexers waiting for budget forever
+		if (memoryBudget != null && memoryBudget.isExhausted())
+			return null;
+		List<Map<String, Object>> issues = res.getIssues();
+		Date firstIssueUpdatedDate = jiraIssueIndexStructureBuilder.extractIssueUpdated(issues.get(0));
+		Date lastIssueUpdatedDate = jiraIssueIndexStructureBuilder.extractIssueUpdated(issues.get(issues.size() - 1));
+		String lastIssueKey = jiraIssueIndexStructureBuilder.extractIssueKey(issues.get(issues.size() - 1));
+		if (firstIssueUpdatedDate == null || lastIssueUpdatedDate == null || lastIssueKey == null)
+			return null;
+		NextPage next = computeNextPage(res, updatedAfter, firstIssueUpdatedDate, lastIssueUpdatedDate, lastIssueKey);
+		if (next == null)
+			return null;
+		return new PrefetchedPage(next.startAt, next.updatedAfter, ((IJIRAAsyncClient) jiraClient)
+				.getJIRAChangedIssuesAsync(projectKey, next.startAt, next.updatedAfter, null));
+	}
+
+	/**
+	 * Page of updated issues requested from JIRA in advance.
+	 */
+	protected static class PrefetchedPage {
+
+		protected final int startAt;
+
+		protected final Date updatedAfter;
+
+		protected final Future<ChangedIssuesResults> future;
+
+		protected PrefetchedPage(int startAt, Date updatedAfter, Future<ChangedIssuesResults> future) {
+			this.startAt = startAt;
+			this.updatedAfter = updatedAfter;
+			this.future = future;
+		}
+
+		/**
+		 * @return true if this page was requested with given parameters
+		 */
+		protected boolean isFor(int startAt, Date updatedAfter) {
+			return this.startAt == startAt
+					&& (this.updatedAfter == null ? updatedAfter == null : this.updatedAfter.equals(updatedAfter));
+		}
+
+		/**
+		 * Wait for page.
+		 * 
+		 * @return page
+		 * @throws Exception if fetch failed
+		 */
+		protected ChangedIssuesResults get() throws Exception {
+			try {
+				return future.get();
+			} catch (ExecutionException e) {
+				if (e.getCause() instanceof Exception)
+					throw (Exception) e.getCause();
+				throw e;
+			}
+		}
+
+		protected void cancel() {
+			future.cancel(true);
 		}
 	}
 
@@ -216,6 +573,8 @@ public class JIRAProjectIndexer implements Runnable {
 		if (!indexingInfo.fullUpdate)
 			return;
 
+		updateProgressPhase(Phase.DELETE);
+
 		logger.debug("Go to process JIRA deletes for project {} for issues not updated in index after {}", projectKey,
 				boundDate);
 
@@ -250,6 +609,16 @@ public class JIRAProjectIndexer implements Runnable {
 		}
 	}
 
+	/**
+	 * Publish new progress snapshot with changed phase of indexing.
+	 * 
+	 * @param phase to set
+	 */
+	protected void updateProgressPhase(Phase phase) {
+		ProjectIndexingProgress p = indexingInfo.progress;
+		indexingInfo.progress = (p != null ? p : ProjectIndexingProgress.INITIAL).withPhase(phase);
+	}
+
 	/**
 	 * Check if we must interrupt update process because ElasticSearch runtime needs it.
 	 * 
@@ -289,6 +658,82 @@ public class JIRAProjectIndexer implements Runnable {
 				lastIssueUpdatedDate, esBulk);
 	}
 
+	/**
+	 * Set completer used to fetch comments and changelogs truncated in issues returned from search before they are
+	 * indexed.
+	 * 
+	 * @param issueDataCompleter to use, null if truncated data are indexed as they are
+	 */
+	public void setIssueDataCompleter(JIRAIssueDataCompleter issueDataCompleter) {
+		this.issueDataCompleter = issueDataCompleter;
+	}
+
+	/**
+	 * Set indexing of project by {@link JIRAProjectIndexingPipeline}.
+	 * 
+	 * @param workers number of preprocessing and transform workers, 0 means project is indexed serially in indexer
+	 *          thread
+	 * @param queueCapacity capacity of queues between pipeline stages [pages]
+	 */
+	public void setIndexingPipeline(int workers, int queueCapacity) {
+		this.pipelineWorkers = workers;
+		this.pipelineQueueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Set river wide memory budget to account fetched pages and built bulk requests into.
+	 * 
+	 * @param memoryBudget to use, null if memory is not accounted
+	 */
+	public void setMemoryBudget(JIRAMemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Account memory into {@link #memoryBudget}.
+	 * 
+	 * @param bytes to account
+	 */
+	protected synchronized void allocateMemory(long bytes) {
+		if (memoryBudget == null || memoryReleased || bytes <= 0)
+			return;
+		memoryBudget.allocate(bytes);
+		memoryAllocated += bytes;
+	}
+
+	/**
+	 * Release memory accounted by {@link #allocateMemory(long)} before.
+	 * 
+	 * @param bytes to release
+	 */
+	protected synchronized void releaseMemory(long bytes) {
+		bytes = Math.min(bytes, memoryAllocated);
+		if (memoryBudget == null || bytes <= 0)
+			return;
+		memoryBudget.release(bytes);
+		memoryAllocated -= bytes;
+	}
+
+	/**
+	 * Release all memory accounted by this indexer, called at the end of update.
+	 */
+	protected synchronized void releaseAllMemory() {
+		releaseMemory(memoryAllocated);
+		memoryReleased = true;
+	}
+
+	/**
+	 * Estimate memory used by bulk request.
+	 * 
+	 * @param esBulk to estimate
+	 * @return estimated size [bytes], 0 if memory is not accounted
+	 */
+	protected long estimateMemory(BulkRequestBuilder esBulk) {
+		if (memoryBudget == null || esBulk == null)
+			return 0;
+		return esBulk.request().estimatedSizeInBytes();
+	}
+
 	/**
 	 * Get current indexing info.
 	 * 
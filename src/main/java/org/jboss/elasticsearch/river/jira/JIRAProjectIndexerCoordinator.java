@@ -7,11 +7,15 @@ package org.jboss.elasticsearch.river.jira;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.LinkedBlockingQueue;
 
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
@@ -76,23 +80,78 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 
 	protected IJIRAIssueIndexStructureBuilder jiraIssueIndexStructureBuilder;
 
-	protected int maxIndexingThreads;
+	protected volatile int maxIndexingThreads;
+
+	/**
+	 * Optional controller which may lower number of concurrently running indexers below {@link #maxIndexingThreads}.
+	 */
+	protected AdaptiveFetchController adaptiveFetchController;
+
+	/**
+	 * If true then projects due for incremental update are checked for changes by one JIRA search before indexers are
+	 * started for them.
+	 * 
+	 * @see #probeChangedProjects(List)
+	 */
+	protected boolean changeProbe = false;
+
+	/**
+	 * Optional completer of truncated comments and changelogs of issues, passed to started indexers.
+	 */
+	protected JIRAIssueDataCompleter issueDataCompleter;
+
+	/**
+	 * Number of workers of {@link JIRAProjectIndexingPipeline} used by started project indexers, 0 means projects are
+	 * indexed serially.
+	 */
+	protected int pipelineWorkers = 0;
+
+	/**
+	 * Capacity of queues between stages of {@link JIRAProjectIndexingPipeline} [pages].
+	 */
+	protected int pipelineQueueCapacity = JIRAProjectIndexingPipeline.DEFAULT_QUEUE_CAPACITY;
+
+	/**
+	 * Optional river wide memory budget passed to started indexers.
+	 */
+	protected JIRAMemoryBudget memoryBudget;
+
+	/**
+	 * Default maximal number of projects indexed together by one {@link JIRAProjectBatchIndexer}.
+	 */
+	public static final int DEFAULT_SMALL_PROJECT_BATCH_MAX_PROJECTS = 50;
+
+	/**
+	 * Maximal number of issues in project which may be indexed together with other small projects by
+	 * {@link JIRAProjectBatchIndexer}, value <= 0 means batching is disabled.
+	 */
+	protected int smallProjectBatchThreshold = 0;
+
+	/**
+	 * Maximal number of projects indexed together by one {@link JIRAProjectBatchIndexer}.
+	 */
+	protected int smallProjectBatchMaxProjects = DEFAULT_SMALL_PROJECT_BATCH_MAX_PROJECTS;
+
+	/**
+	 * Number of issues in projects, known from last successful full update.
+	 */
+	protected final Map<String, Integer> projectSizes = new ConcurrentHashMap<String, Integer>();
 
 	/**
 	 * Period of index update from jira [ms].
 	 */
-	protected long indexUpdatePeriod;
+	protected volatile long indexUpdatePeriod;
 
 	/**
 	 * Period of index automatic full update from jira [ms]. value <= 0 means never.
 	 */
-	protected long indexFullUpdatePeriod = -1;
+	protected volatile long indexFullUpdatePeriod = -1;
 
 	/**
 	 * Cron expression to schedule automatic full update from remote system. Ignore <code>indexFullUpdatePeriod</code> if
 	 * this one is not null.
 	 */
-	protected CronExpression indexFullUpdateCronExpression;
+	protected volatile CronExpression indexFullUpdateCronExpression;
 
 	/**
 	 * Queue of project keys which needs to be reindexed in near future.
@@ -111,6 +170,11 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 	 */
 	protected final Map<String, JIRAProjectIndexer> projectIndexers = new HashMap<String, JIRAProjectIndexer>();
 
+	/**
+	 * Map where currently running batch indexers are stored for each project they index.
+	 */
+	protected final Map<String, JIRAProjectBatchIndexer> projectBatchIndexers = new HashMap<String, JIRAProjectBatchIndexer>();
+
 	/**
 	 * Constructor with parameters.
 	 * 
@@ -171,6 +235,7 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 				}
 				projectIndexerThreads.clear();
 				projectIndexers.clear();
+				projectBatchIndexers.clear();
 			}
 			logger.info("JIRA river projects indexing coordinator task stopped");
 		}
@@ -209,6 +274,7 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 	protected void fillProjectKeysToIndexQueue() throws Exception, InterruptedException {
 		List<String> ap = esIntegrationComponent.getAllIndexedProjectsKeys();
 		if (ap != null && !ap.isEmpty()) {
+			List<String> due = new ArrayList<String>();
 			for (String projectKey : ap) {
 				if (esIntegrationComponent.isClosed())
 					throw new InterruptedException();
@@ -219,21 +285,92 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 					}
 				}
 				if (!projectKeysToIndexQueue.contains(projectKey) && projectIndexUpdateNecessary(projectKey)) {
-					projectKeysToIndexQueue.add(projectKey);
+					due.add(projectKey);
 				}
 			}
+			if (changeProbe && !due.isEmpty()) {
+				due = probeChangedProjects(due);
+			}
+			projectKeysToIndexQueue.addAll(due);
+		}
+	}
+
+	/**
+	 * Check which of projects due for update really changed in JIRA, using one JIRA search for all of them from the
+	 * oldest last indexed issue update date. Projects which need full update, have forced update or were never indexed
+	 * are not checked and always returned. Time of last index update start is advanced for projects without change, so
+	 * they are checked again after next {@link #indexUpdatePeriod}. All projects are returned if JIRA search fails.
+	 * 
+	 * @param projectKeys keys of projects due for update
+	 * @return keys of projects which have to be indexed now
+	 * @throws Exception
+	 */
+	protected List<String> probeChangedProjects(List<String> projectKeys) throws Exception {
+		List<String> ret = new ArrayList<String>();
+		Map<String, Date> lastIssueUpdatedDates = new HashMap<String, Date>();
+		Date oldest = null;
+		for (String projectKey : projectKeys) {
+			Date lastIssueUpdated = null;
+			if (esIntegrationComponent.readDatetimeValue(projectKey, STORE_PROPERTYNAME_FORCE_INDEX_INCREMENTAL_UPDATE_DATE) == null
+					&& !projectIndexFullUpdateNecessary(projectKey)) {
+				lastIssueUpdated = esIntegrationComponent.readDatetimeValue(projectKey,
+						JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE);
+			}
+			if (lastIssueUpdated == null) {
+				ret.add(projectKey);
+			} else {
+				lastIssueUpdatedDates.put(projectKey, lastIssueUpdated);
+				if (oldest == null || lastIssueUpdated.before(oldest))
+					oldest = lastIssueUpdated;
+			}
 		}
+		if (lastIssueUpdatedDates.isEmpty())
+			return ret;
+
+		Map<String, Date> changedProjects;
+		try {
+			changedProjects = jiraClient.getJIRAChangedProjects(lastIssueUpdatedDates.keySet(),
+					DateTimeUtils.roundDateTimeToMinutePrecise(oldest));
+		} catch (Exception e) {
+			if (esIntegrationComponent.isClosed())
+				throw new InterruptedException();
+			logger.warn("JIRA change probe failed so all projects due are indexed: {}", e.getMessage());
+			return projectKeys;
+		}
+
+		Date now = new Date();
+		for (String projectKey : projectKeys) {
+			Date lastIssueUpdated = lastIssueUpdatedDates.get(projectKey);
+			if (lastIssueUpdated == null)
+				continue;
+			Date changed = changedProjects.get(projectKey);
+			// exact date of last indexed issue update is compared, see IssueWatermark, so project is indexed only if indexer
+			// finds some issue not indexed yet
+			if (changed != null && changed.after(lastIssueUpdated)) {
+				ret.add(projectKey);
+			} else {
+				logger.debug("Project {} not changed in JIRA since {}, indexing skipped", projectKey, lastIssueUpdated);
+				esIntegrationComponent.storeDatetimeValue(projectKey, STORE_PROPERTYNAME_LAST_INDEX_UPDATE_START_DATE, now,
+						null);
+			}
+		}
+		return ret;
 	}
 
 	/**
-	 * Start indexers for projects in {@link #projectKeysToIndexQueue} but not more than {@link #maxIndexingThreads}.
+	 * Start indexers for projects in {@link #projectKeysToIndexQueue} but not more than
+	 * {@link #getEffectiveMaxIndexingThreads()}.
 	 * 
 	 * @throws InterruptedException if indexing process is interrupted
 	 * @throws Exception
 	 */
 	protected void startIndexers() throws InterruptedException, Exception {
 		String firstSkippedFullIndex = null;
-		while (projectIndexerThreads.size() < maxIndexingThreads && !projectKeysToIndexQueue.isEmpty()) {
+		int maxThreads = getEffectiveMaxIndexingThreads();
+		if (smallProjectBatchThreshold > 0 && getRunningIndexerThreadsCount() < maxThreads) {
+			startBatchIndexer();
+		}
+		while (getRunningIndexerThreadsCount() < maxThreads && !projectKeysToIndexQueue.isEmpty()) {
 			if (esIntegrationComponent.isClosed())
 				throw new InterruptedException();
 			String projectKey = projectKeysToIndexQueue.poll();
@@ -241,7 +378,7 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 			boolean fullUpdateNecessary = projectIndexFullUpdateNecessary(projectKey);
 
 			// reserve last free thread for incremental updates!!!
-			if (fullUpdateNecessary && maxIndexingThreads > 1 && projectIndexerThreads.size() == (maxIndexingThreads - 1)) {
+			if (fullUpdateNecessary && maxThreads > 1 && getRunningIndexerThreadsCount() == (maxThreads - 1)) {
 				projectKeysToIndexQueue.add(projectKey);
 				// try to find some project for incremental update, if not any found then end
 				if (firstSkippedFullIndex == null) {
@@ -255,6 +392,9 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 
 			JIRAProjectIndexer indexer = new JIRAProjectIndexer(projectKey, fullUpdateNecessary, jiraClient,
 					esIntegrationComponent, jiraIssueIndexStructureBuilder);
+			indexer.setIssueDataCompleter(issueDataCompleter);
+			indexer.setIndexingPipeline(getPipelineWorkersToStart(maxThreads, fullUpdateNecessary), pipelineQueueCapacity);
+			indexer.setMemoryBudget(memoryBudget);
 			Thread it = esIntegrationComponent.acquireIndexingThread("jira_river_indexer_" + projectKey, indexer);
 			esIntegrationComponent.storeDatetimeValue(projectKey, STORE_PROPERTYNAME_LAST_INDEX_UPDATE_START_DATE,
 					new Date(), null);
@@ -266,6 +406,182 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 		}
 	}
 
+	/**
+	 * Start one {@link JIRAProjectBatchIndexer} for small projects from {@link #projectKeysToIndexQueue} which need
+	 * incremental update only. Project is small if number of its issues known from last full update is not higher than
+	 * {@link #smallProjectBatchThreshold}. Batch indexer is not started for less than two projects.
+	 * 
+	 * @throws Exception
+	 */
+	protected void startBatchIndexer() throws Exception {
+		List<String> batch = new ArrayList<String>();
+		for (String projectKey : projectKeysToIndexQueue) {
+			if (esIntegrationComponent.isClosed())
+				throw new InterruptedException();
+			Integer size = projectSizes.get(projectKey);
+			if (size != null
+					&& size <= smallProjectBatchThreshold
+					&& !projectIndexFullUpdateNecessary(projectKey)
+					&& esIntegrationComponent.readDatetimeValue(projectKey,
+							JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE) != null) {
+				batch.add(projectKey);
+				if (batch.size() >= smallProjectBatchMaxProjects)
+					break;
+			}
+		}
+		if (batch.size() < 2)
+			return;
+
+		projectKeysToIndexQueue.removeAll(batch);
+		JIRAProjectBatchIndexer indexer = new JIRAProjectBatchIndexer(batch, jiraClient, esIntegrationComponent,
+				jiraIssueIndexStructureBuilder);
+		indexer.setIssueDataCompleter(issueDataCompleter);
+		indexer.setMemoryBudget(memoryBudget);
+		Thread it = esIntegrationComponent.acquireIndexingThread("jira_river_batch_indexer_" + batch.get(0), indexer);
+		Date now = new Date();
+		for (String projectKey : batch) {
+			esIntegrationComponent.storeDatetimeValue(projectKey, STORE_PROPERTYNAME_LAST_INDEX_UPDATE_START_DATE, now,
+					null);
+		}
+		synchronized (projectIndexerThreads) {
+			for (String projectKey : batch) {
+				projectIndexerThreads.put(projectKey, it);
+				projectBatchIndexers.put(projectKey, indexer);
+			}
+		}
+		logger.debug("Batch indexer started for small JIRA projects {}", batch);
+		it.start();
+	}
+
+	/**
+	 * Get number of running indexer threads. One thread of batch indexer is counted once even if it indexes more
+	 * projects. Fetcher and worker threads of {@link JIRAProjectIndexingPipeline} are counted for project indexers using
+	 * it.
+	 * 
+	 * @return number of running threads
+	 */
+	protected int getRunningIndexerThreadsCount() {
+		synchronized (projectIndexerThreads) {
+			int count;
+			if (projectBatchIndexers.isEmpty()) {
+				count = projectIndexerThreads.size();
+			} else {
+				Set<Thread> threads = Collections.newSetFromMap(new IdentityHashMap<Thread, Boolean>());
+				threads.addAll(projectIndexerThreads.values());
+				count = threads.size();
+			}
+			for (JIRAProjectIndexer indexer : projectIndexers.values()) {
+				count += getPipelineThreadsCount(indexer.pipelineWorkers);
+			}
+			return count;
+		}
+	}
+
+	/**
+	 * Get number of threads started by {@link JIRAProjectIndexingPipeline} in addition to indexer thread.
+	 * 
+	 * @param workers number of pipeline workers
+	 * @return number of threads, 0 if pipeline is not used
+	 */
+	protected static int getPipelineThreadsCount(int workers) {
+		return workers > 0 ? workers + 1 : 0;
+	}
+
+	/**
+	 * Get number of pipeline workers for project indexer going to be started, so all its threads fit into free indexing
+	 * threads. Pipeline is not used if there are not enough free threads for fetcher and at least one worker.
+	 * 
+	 * @param maxThreads maximal number of indexing threads
+	 * @param fullUpdate true if indexer runs full update, one thread is kept free for incremental updates then
+	 * @return number of pipeline workers, 0 means project is indexed serially
+	 */
+	protected int getPipelineWorkersToStart(int maxThreads, boolean fullUpdate) {
+		if (pipelineWorkers <= 0)
+			return 0;
+		// indexer thread itself
+		int freeThreads = maxThreads - getRunningIndexerThreadsCount() - 1;
+		if (fullUpdate && maxThreads > 1)
+			freeThreads--;
+		// fetcher thread
+		freeThreads--;
+		return freeThreads > 0 ? Math.min(pipelineWorkers, freeThreads) : 0;
+	}
+
+	/**
+	 * Get maximal number of indexers running in parallel, which may be lowered by {@link #adaptiveFetchController}.
+	 * Running indexers are never stopped if limit is lowered, only new ones are not started. No indexer is started while
+	 * circuit breaker for JIRA host is open, and only one while it is half open (waiting for probe call).
+	 * 
+	 * @return maximal number of indexers
+	 */
+	protected int getEffectiveMaxIndexingThreads() {
+		JIRACircuitBreaker circuitBreaker = jiraClient != null ? jiraClient.getCircuitBreaker() : null;
+		if (circuitBreaker != null) {
+			JIRACircuitBreaker.State state = circuitBreaker.getState(System.currentTimeMillis());
+			if (state == JIRACircuitBreaker.State.OPEN) {
+				logger.debug("JIRA circuit breaker is open, no indexer started");
+				return 0;
+			} else if (state == JIRACircuitBreaker.State.HALF_OPEN) {
+				return 1;
+			}
+		}
+		if (adaptiveFetchController != null)
+			return Math.min(maxIndexingThreads, adaptiveFetchController.getConcurrency());
+		return maxIndexingThreads;
+	}
+
+	/**
+	 * Configuration - Enable check of projects changes by one JIRA search before indexers are started.
+	 * 
+	 * @param changeProbe to set
+	 * @see #probeChangedProjects(List)
+	 */
+	public void setChangeProbe(boolean changeProbe) {
+		this.changeProbe = changeProbe;
+	}
+
+	/**
+	 * Configuration - Set completer of truncated comments and changelogs of issues used by indexers.
+	 * 
+	 * @param issueDataCompleter to set, null if truncated data are indexed as they are
+	 */
+	public void setIssueDataCompleter(JIRAIssueDataCompleter issueDataCompleter) {
+		this.issueDataCompleter = issueDataCompleter;
+	}
+
+	/**
+	 * Configuration - Set indexing of projects by {@link JIRAProjectIndexingPipeline}. Not used by
+	 * {@link JIRAProjectBatchIndexer}.
+	 * 
+	 * @param workers maximal number of preprocessing and transform workers of each project indexer, 0 means projects are
+	 *          indexed serially. Pipeline threads are counted into {@link #maxIndexingThreads}, so less workers are used
+	 *          if not enough threads are free, see {@link #getPipelineWorkersToStart(int, boolean)}.
+	 * @param queueCapacity capacity of queues between pipeline stages [pages]
+	 * @see JIRAProjectIndexer#setIndexingPipeline(int, int)
+	 */
+	public void setIndexingPipeline(int workers, int queueCapacity) {
+		this.pipelineWorkers = workers;
+		this.pipelineQueueCapacity = queueCapacity;
+	}
+
+	/**
+	 * Configuration - Set river wide memory budget used by indexers.
+	 * 
+	 * @param memoryBudget to set, null if memory is not accounted
+	 */
+	public void setMemoryBudget(JIRAMemoryBudget memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Configuration - Set controller which may lower number of concurrently running indexers.
+	 * 
+	 * @param adaptiveFetchController to set
+	 */
+	public void setAdaptiveFetchController(AdaptiveFetchController adaptiveFetchController) {
+		this.adaptiveFetchController = adaptiveFetchController;
+	}
+
 	/**
 	 * Check if search index update for given JIRA project have to be performed now.
 	 * 
@@ -280,6 +596,7 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 
 		Date lastIndexing = esIntegrationComponent.readDatetimeValue(projectKey,
 				STORE_PROPERTYNAME_LAST_INDEX_UPDATE_START_DATE);
+		long indexUpdatePeriod = this.indexUpdatePeriod;
 		if (logger.isDebugEnabled())
 			logger.debug("Project {} last indexing start date is {}. We perform next indexing after {}ms.", projectKey,
 					lastIndexing, indexUpdatePeriod);
@@ -303,6 +620,9 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 	protected boolean projectIndexFullUpdateNecessary(String projectKey) throws Exception {
 		if (esIntegrationComponent.readDatetimeValue(projectKey, STORE_PROPERTYNAME_FORCE_INDEX_FULL_UPDATE_DATE) != null)
 			return true;
+		// read once as schedule may be changed by other thread meanwhile
+		CronExpression indexFullUpdateCronExpression = this.indexFullUpdateCronExpression;
+		long indexFullUpdatePeriod = this.indexFullUpdatePeriod;
 		if (indexFullUpdateCronExpression != null) {
 			Date lastFullIndexing = esIntegrationComponent.readDatetimeValue(projectKey,
 					STORE_PROPERTYNAME_LAST_INDEX_FULL_UPDATE_DATE);
@@ -339,6 +659,26 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 		notify();
 	}
 
+	@Override
+	public void scheduleNewProjects(List<String> projectKeys) {
+		if (projectKeys == null || projectKeys.isEmpty())
+			return;
+		for (String projectKey : projectKeys) {
+			synchronized (projectIndexerThreads) {
+				if (projectIndexerThreads.containsKey(projectKey)) {
+					continue;
+				}
+			}
+			if (!projectKeysToIndexQueue.contains(projectKey)) {
+				projectKeysToIndexQueue.add(projectKey);
+			}
+		}
+		// wake up coordinator thread to start indexers now
+		synchronized (this) {
+			notify();
+		}
+	}
+
 	@Override
 	public void reportIndexingFinished(String jiraProjectKey, boolean finishedOK, boolean fullUpdate) {
 		try {
@@ -352,6 +692,7 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 		synchronized (projectIndexerThreads) {
 			projectIndexerThreads.remove(jiraProjectKey);
 			projectIndexers.remove(jiraProjectKey);
+			projectBatchIndexers.remove(jiraProjectKey);
 		}
 		if (finishedOK && fullUpdate) {
 			try {
@@ -368,6 +709,17 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 		}
 	}
 
+	@Override
+	public synchronized void setIndexingSchedule(long indexUpdatePeriod, int maxIndexingThreads,
+			long indexFullUpdatePeriod, CronExpression indexFullUpdateCronExpression) {
+		this.indexUpdatePeriod = indexUpdatePeriod;
+		this.maxIndexingThreads = maxIndexingThreads;
+		this.indexFullUpdatePeriod = indexFullUpdatePeriod;
+		this.indexFullUpdateCronExpression = indexFullUpdateCronExpression;
+		// wake up coordinator thread to use new values now
+		notify();
+	}
+
 	/**
 	 * Configuration - Set period of index automatic full update from jira [ms]. value <= 0 means never.
 	 * 
@@ -377,6 +729,23 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 		this.indexFullUpdatePeriod = indexFullUpdatePeriod;
 	}
 
+	@Override
+	public void reportProjectSize(String jiraProjectKey, int issuesCount) {
+		projectSizes.put(jiraProjectKey, issuesCount);
+	}
+
+	/**
+	 * Configuration - Enable indexing of more small projects together by {@link JIRAProjectBatchIndexer}.
+	 * 
+	 * @param smallProjectBatchThreshold maximal number of issues in project which may be indexed in batch, value <= 0
+	 *          means batching is disabled
+	 * @param smallProjectBatchMaxProjects maximal number of projects indexed by one batch indexer
+	 */
+	public void setSmallProjectBatching(int smallProjectBatchThreshold, int smallProjectBatchMaxProjects) {
+		this.smallProjectBatchThreshold = smallProjectBatchThreshold;
+		this.smallProjectBatchMaxProjects = smallProjectBatchMaxProjects;
+	}
+
 	@Override
 	public List<ProjectIndexingInfo> getCurrentProjectIndexingInfo() {
 		List<ProjectIndexingInfo> ret = new ArrayList<ProjectIndexingInfo>();
@@ -384,6 +753,9 @@ public class JIRAProjectIndexerCoordinator implements IJIRAProjectIndexerCoordin
 			for (JIRAProjectIndexer indexer : projectIndexers.values()) {
 				ret.add(indexer.getIndexingInfo());
 			}
+			for (Map.Entry<String, JIRAProjectBatchIndexer> e : projectBatchIndexers.entrySet()) {
+				ret.add(e.getValue().getIndexingInfo(e.getKey()));
+			}
 		}
 		return ret;
 	}
@@ -0,0 +1,400 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.common.logging.ESLogger;
+import org.jboss.elasticsearch.river.jira.JIRAProjectIndexer.NextPage;
+import org.jboss.elasticsearch.river.jira.JIRAProjectIndexer.PageSelection;
+import org.jboss.elasticsearch.river.jira.ProjectIndexingProgress.Phase;
+
+/**
+ * Staged pipeline used by {@link JIRAProjectIndexer} to run update of one JIRA project. Stages are connected by bounded
+ * queues, so faster stage is blocked by queue capacity when it gets too far ahead of slower one:
+ * <ol>
+ * <li>fetcher - one thread which requests pages of updated issues from JIRA and parses them, and selects issues to be
+ * indexed (see {@link JIRAProjectIndexer#selectIssuesToIndex(ChangedIssuesResults, IssueWatermark, IssueWatermark, Map)}
+ * ). Next page can't be requested before current one is parsed, as its parameters depend on update dates of issues in
+ * current page, so fetching and parsing is one stage. Fetcher runs ahead of other stages up to queue capacity, which
+ * replaces asynchronous prefetch of one page used by serial indexing.
+ * <li>preprocess and transform - configurable number of worker threads, each of them completes truncated data of issues
+ * of one page (if {@link JIRAIssueDataCompleter} is used) and builds bulk request for them over
+ * {@link IJIRAIssueIndexStructureBuilder} (which runs configured preprocessors).
+ * <li>bulk writer - runs in indexer thread, executes bulk requests together with {@link IssueWatermark} reached by
+ * page.
+ * </ol>
+ * Pages are passed to bulk writer in the same order they were fetched in, even if workers finish them in other order,
+ * so watermark stored into index advances in ascending order of issue update dates same way as with serial indexing.
+ * Failure of any stage stops whole pipeline and is thrown from {@link #run(IssueWatermark, Date)}.
+ * <p>
+ * Instance can be used only for one run.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRAProjectIndexingPipeline {
+
+	/**
+	 * Default capacity of queues between stages [pages].
+	 */
+	public static final int DEFAULT_QUEUE_CAPACITY = 2;
+
+	/**
+	 * Timeout of one wait on queue [ms], so stages notice failure of other stage or river close.
+	 */
+	protected static final long QUEUE_WAIT_TIMEOUT = 500;
+
+	/**
+	 * Marker put into {@link #fetchedPages} for each worker when there is no next page.
+	 */
+	protected static final Page END = new Page(-1, null, null);
+
+	private ESLogger logger;
+
+	protected final JIRAProjectIndexer indexer;
+
+	protected final int workers;
+
+	/**
+	 * Pages fetched from JIRA waiting for preprocess and transform worker.
+	 */
+	protected final BlockingQueue<Page> fetchedPages;
+
+	/**
+	 * Pages with bulk request built waiting for bulk writer, in fetch order.
+	 */
+	protected final BlockingQueue<Page> builtPages;
+
+	protected final Object handOffLock = new Object();
+
+	/**
+	 * Sequence number of page to be passed to {@link #builtPages} next, guarded by {@link #handOffLock}.
+	 */
+	protected int handOffSeq = 0;
+
+	/**
+	 * Number of pages fetched from JIRA, set by fetcher when there is no next page. -1 until then.
+	 */
+	protected volatile int pagesCount = -1;
+
+	/**
+	 * First failure of some stage.
+	 */
+	protected final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+
+	protected final List<Thread> threads = new ArrayList<Thread>();
+
+	/**
+	 * Date passed to {@link IJIRAIssueIndexStructureBuilder#indexIssue(BulkRequestBuilder, String, Map, Date, Map)}.
+	 */
+	protected Date changedSince;
+
+	/**
+	 * Create pipeline.
+	 *
+	 * @param indexer pipeline is used by, its components and indexing info are used
+	 * @param workers number of preprocess and transform worker threads, at least 1
+	 * @param queueCapacity capacity of queues between stages [pages], at least 1
+	 */
+	public JIRAProjectIndexingPipeline(JIRAProjectIndexer indexer, int workers, int queueCapacity) {
+		if (workers < 1)
+			throw new IllegalArgumentException("workers must be at least 1");
+		if (queueCapacity < 1)
+			throw new IllegalArgumentException("queueCapacity must be at least 1");
+		logger = indexer.esIntegrationComponent.createLogger(getClass());
+		this.indexer = indexer;
+		this.workers = workers;
+		fetchedPages = new ArrayBlockingQueue<Page>(queueCapacity + workers);
+		builtPages = new ArrayBlockingQueue<Page>(queueCapacity);
+	}
+
+	/**
+	 * Run update of project. Fetcher and worker threads are started, bulk writer runs in caller thread. Counters in
+	 * indexing info of indexer are updated by bulk writer only.
+	 *
+	 * @param startWatermark watermark stored by previous update, null for full update
+	 * @param updatedAfter date to request first page for, null for whole project history
+	 * @throws Exception failure of any stage
+	 */
+	public void run(final IssueWatermark startWatermark, final Date updatedAfter) throws Exception {
+		changedSince = startWatermark != null ? startWatermark.getUpdated() : null;
+		String threadNamePrefix = "jira_river_indexer_" + indexer.projectKey;
+		try {
+			startThread(threadNamePrefix + "_fetcher", new Runnable() {
+				@Override
+				public void run() {
+					try {
+						fetch(startWatermark, updatedAfter);
+					} catch (Throwable e) {
+						fail(e);
+					}
+				}
+			});
+			for (int i = 0; i < workers; i++) {
+				startThread(threadNamePrefix + "_worker", new Runnable() {
+					@Override
+					public void run() {
+						try {
+							transform();
+						} catch (Throwable e) {
+							fail(e);
+						}
+					}
+				});
+			}
+			write();
+		} catch (Throwable e) {
+			fail(e);
+		} finally {
+			for (Thread t : threads) {
+				t.interrupt();
+			}
+		}
+		Throwable e = failure.get();
+		if (e instanceof Exception)
+			throw (Exception) e;
+		if (e instanceof Error)
+			throw (Error) e;
+	}
+
+	protected void startThread(String threadName, Runnable runnable) {
+		Thread t = indexer.esIntegrationComponent.acquireIndexingThread(threadName, runnable);
+		threads.add(t);
+		t.start();
+	}
+
+	/**
+	 * Fetcher stage.
+	 *
+	 * @param startWatermark watermark stored by previous update, null for full update
+	 * @param updatedAfter date to request first page for
+	 * @throws Exception
+	 */
+	protected void fetch(IssueWatermark startWatermark, Date updatedAfter) throws Exception {
+		IssueWatermark watermark = startWatermark;
+		// exact update dates of issues selected in this update and still inside of current search window
+		Map<String, Date> indexedInWindow = new HashMap<String, Date>();
+		int startAt = 0;
+		// parameters of current page if it was requested to continue previous one, null for first page in window
+		NextPage continued = null;
+		int seq = 0;
+		while (true) {
+			checkRunning();
+			if (logger.isDebugEnabled())
+				logger.debug("Go to ask for updated JIRA issues for project {} with startAt {} updated {}", indexer.projectKey,
+						startAt, (updatedAfter != null ? ("after " + updatedAfter) : "in whole history"));
+			ChangedIssuesResults res = indexer.jiraClient.getJIRAChangedIssues(indexer.projectKey, startAt, updatedAfter,
+					null);
+			if (continued != null && !continued.isContinuedBy(res, indexer.jiraIssueIndexStructureBuilder)) {
+				logger.debug("Issues of JIRA project {} changed during paging, go to scan window after {} from start again",
+						indexer.projectKey, updatedAfter);
+				startAt = 0;
+				continued = null;
+				continue;
+			}
+			if (res.getIssuesCount() == 0)
+				break;
+			indexer.allocateMemory(res.getResponseSize());
+			PageSelection selection = indexer.selectIssuesToIndex(res, startWatermark, watermark, indexedInWindow);
+			watermark = selection.watermark;
+			NextPage next = JIRAProjectIndexer.computeNextPage(res, updatedAfter, selection.firstIssueUpdatedDate,
+					selection.lastIssueUpdatedDate, selection.lastIssueKey);
+			if (next == null) {
+				// let bulk writer know it is the last page before it gets it
+				pagesCount = seq + 1;
+			}
+			Page page = new Page(seq++, res, selection);
+			page.memory = res.getResponseSize();
+			put(fetchedPages, page);
+			if (next == null)
+				break;
+			if (next.updatedAfter != null && !next.updatedAfter.equals(updatedAfter)) {
+				JIRAProjectIndexer.removeIssuesBefore(indexedInWindow, next.updatedAfter);
+			}
+			startAt = next.startAt;
+			updatedAfter = next.updatedAfter;
+			continued = next;
+		}
+		pagesCount = seq;
+		for (int i = 0; i < workers; i++) {
+			put(fetchedPages, END);
+		}
+	}
+
+	/**
+	 * Preprocess and transform stage, run by each worker thread.
+	 *
+	 * @throws Exception
+	 */
+	protected void transform() throws Exception {
+		while (true) {
+			Page page = take(fetchedPages);
+			if (page == END)
+				return;
+			List<Map<String, Object>> issues = page.selection.issues;
+			if (!issues.isEmpty()) {
+				if (indexer.issueDataCompleter != null) {
+					for (int calls : indexer.issueDataCompleter.completeIssues(issues)) {
+						page.extraJiraCalls += calls;
+					}
+				}
+				page.esBulk = indexer.esIntegrationComponent.prepareESBulkRequestBuilder();
+				Map<String, Map<String, Set<String>>> indexedDocumentIds = null;
+				if (changedSince != null)
+					indexedDocumentIds = indexer.jiraIssueIndexStructureBuilder.readIndexedCommentAndChangelogDocumentIds(issues);
+				for (Map<String, Object> issue : issues) {
+					indexer.jiraIssueIndexStructureBuilder.indexIssue(page.esBulk, indexer.projectKey, issue, changedSince,
+							indexedDocumentIds);
+					checkRunning();
+				}
+				long bulkMemory = indexer.estimateMemory(page.esBulk);
+				indexer.allocateMemory(bulkMemory);
+				page.memory += bulkMemory;
+			}
+			handOff(page);
+		}
+	}
+
+	/**
+	 * Pass page to bulk writer once all pages fetched before it are passed, so worker finished early waits for others.
+	 *
+	 * @param page to pass
+	 * @throws InterruptedException
+	 */
+	protected void handOff(Page page) throws InterruptedException {
+		synchronized (handOffLock) {
+			while (handOffSeq != page.seq) {
+				checkRunning();
+				handOffLock.wait(QUEUE_WAIT_TIMEOUT);
+			}
+		}
+		put(builtPages, page);
+		synchronized (handOffLock) {
+			handOffSeq++;
+			handOffLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Bulk writer stage.
+	 *
+	 * @throws Exception
+	 */
+	protected void write() throws Exception {
+		ProjectIndexingInfo indexingInfo = indexer.indexingInfo;
+		long pageStartTime = System.currentTimeMillis();
+		int written = 0;
+		while (pagesCount < 0 || written < pagesCount) {
+			Page page = builtPages.poll(QUEUE_WAIT_TIMEOUT, TimeUnit.MILLISECONDS);
+			if (page == null) {
+				checkRunning();
+				continue;
+			}
+			if (page.esBulk != null) {
+				indexer.updateProgressPhase(Phase.BULK);
+				page.selection.watermark.store(indexer.esIntegrationComponent, indexer.projectKey, page.esBulk);
+				indexingInfo.staleDocumentsSkipped += indexer.esIntegrationComponent.executeESBulkRequest(page.esBulk).size();
+				indexingInfo.issuesUpdated += page.selection.issues.size();
+				indexingInfo.extraJiraCalls += page.extraJiraCalls;
+			}
+			written++;
+			indexer.releaseMemory(page.memory);
+
+			ChangedIssuesResults res = page.res;
+			long now = System.currentTimeMillis();
+			indexingInfo.progress = indexingInfo.progress.pageProcessed(res.getIssuesCount(), now - pageStartTime,
+					res.getTotal() - (res.getStartAt() + res.getIssuesCount()), now);
+			pageStartTime = now;
+		}
+	}
+
+	/**
+	 * Put page into queue, wait for free capacity if necessary.
+	 */
+	protected void put(BlockingQueue<Page> queue, Page page) throws InterruptedException {
+		while (!queue.offer(page, QUEUE_WAIT_TIMEOUT, TimeUnit.MILLISECONDS)) {
+			checkRunning();
+		}
+	}
+
+	/**
+	 * Take page from queue, wait for it if necessary.
+	 */
+	protected Page take(BlockingQueue<Page> queue) throws InterruptedException {
+		Page page;
+		while ((page = queue.poll(QUEUE_WAIT_TIMEOUT, TimeUnit.MILLISECONDS)) == null) {
+			checkRunning();
+		}
+		return page;
+	}
+
+	/**
+	 * Check if pipeline may continue.
+	 *
+	 * @throws InterruptedException if some stage failed or river is closed
+	 */
+	protected void checkRunning() throws InterruptedException {
+		if (failure.get() != null)
+			throw new InterruptedException("Interrupted due failure of other indexing stage");
+		if (indexer.isClosed())
+			throw new InterruptedException("Interrupted because River is closed");
+	}
+
+	/**
+	 * Record failure of stage, first one wins.
+	 */
+	protected void fail(Throwable e) {
+		if (failure.compareAndSet(null, e) && !(e instanceof InterruptedException))
+			logger.debug("Indexing pipeline stage for project {} failed due: {}", indexer.projectKey, e.getMessage());
+	}
+
+	/**
+	 * Page of issues passed between stages.
+	 */
+	protected static class Page {
+
+		/**
+		 * Sequence number of page in fetch order.
+		 */
+		protected final int seq;
+
+		protected final ChangedIssuesResults res;
+
+		protected final PageSelection selection;
+
+		/**
+		 * Bulk request with selected issues, null if no issue is selected.
+		 */
+		protected BulkRequestBuilder esBulk;
+
+		/**
+		 * Number of extra JIRA calls performed to complete data of selected issues.
+		 */
+		protected int extraJiraCalls;
+
+		/**
+		 * Bytes of fetched response and built bulk request accounted into memory budget of indexer.
+		 */
+		protected long memory;
+
+		protected Page(int seq, ChangedIssuesResults res, PageSelection selection) {
+			this.seq = seq;
+			this.res = res;
+			this.selection = selection;
+		}
+	}
+
+}
@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Token bucket rate limiter for calls to one JIRA host. Limits number of requests per second and optionally number of
+ * response bytes per second (bytes are counted after response is read, so next requests wait until the debt is paid).
+ * Bucket capacity is one second of traffic. Limiter may be also paused for some time, eg. when JIRA asks for it by
+ * <code>Retry-After</code> response header. Shared by all rivers accessing same JIRA host over
+ * {@link JIRAConnectionPool}, the most restrictive limits from all rivers using it are applied. Implementation is
+ * thread safe.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRARateLimiter {
+
+	/**
+	 * Maximal number of requests per second, value <= 0 means unlimited.
+	 */
+	protected double maxRequestsPerSecond = 0;
+
+	/**
+	 * Maximal number of response bytes per second, value <= 0 means unlimited.
+	 */
+	protected long maxBytesPerSecond = 0;
+
+	protected double requestTokens = 0;
+
+	protected double byteTokens = 0;
+
+	protected long lastRefill = System.currentTimeMillis();
+
+	/**
+	 * Timestamp until which limiter is paused [ms].
+	 */
+	protected long pausedUntil = 0;
+
+	/**
+	 * Limits configured by clients sharing this limiter, key is client.
+	 */
+	protected final Map<Object, Limits> clientLimits = new HashMap<Object, Limits>();
+
+	/**
+	 * Configure limits requested by client. Effective limits are the most restrictive ones from all clients using
+	 * limiter, so they are recomputed whenever client is configured again or released.
+	 *
+	 * @param client limits are configured for
+	 * @param maxRequestsPerSecond maximal number of requests per second, value <= 0 means unlimited
+	 * @param maxBytesPerSecond maximal number of response bytes per second, value <= 0 means unlimited
+	 * @see #release(Object)
+	 */
+	public synchronized void configure(Object client, double maxRequestsPerSecond, long maxBytesPerSecond) {
+		clientLimits.put(client, new Limits(maxRequestsPerSecond, maxBytesPerSecond));
+		applyClientLimits();
+	}
+
+	/**
+	 * Remove limits of client which doesn't use limiter anymore.
+	 *
+	 * @param client to remove limits of
+	 */
+	public synchronized void release(Object client) {
+		if (clientLimits.remove(client) != null)
+			applyClientLimits();
+	}
+
+	private void applyClientLimits() {
+		double requests = 0;
+		long bytes = 0;
+		for (Limits limits : clientLimits.values()) {
+			if (limits.maxRequestsPerSecond > 0 && (requests <= 0 || limits.maxRequestsPerSecond < requests))
+				requests = limits.maxRequestsPerSecond;
+			if (limits.maxBytesPerSecond > 0 && (bytes <= 0 || limits.maxBytesPerSecond < bytes))
+				bytes = limits.maxBytesPerSecond;
+		}
+		refill(System.currentTimeMillis());
+		boolean wasUnlimited = maxRequestsPerSecond <= 0;
+		maxRequestsPerSecond = requests;
+		if (requests > 0)
+			requestTokens = wasUnlimited ? getRequestCapacity() : Math.min(requestTokens, getRequestCapacity());
+		wasUnlimited = maxBytesPerSecond <= 0;
+		maxBytesPerSecond = bytes;
+		if (bytes > 0)
+			byteTokens = wasUnlimited ? bytes : Math.min(byteTokens, bytes);
+	}
+
+	private double getRequestCapacity() {
+		return Math.max(1, maxRequestsPerSecond);
+	}
+
+	/**
+	 * Wait until next request to JIRA may be performed.
+	 *
+	 * @throws InterruptedException if thread is interrupted during waiting
+	 */
+	public void acquire() throws InterruptedException {
+		while (true) {
+			long wait = tryAcquire(System.currentTimeMillis());
+			if (wait <= 0)
+				return;
+			Thread.sleep(wait);
+		}
+	}
+
+	/**
+	 * Try to take token for request.
+	 *
+	 * @param now current timestamp [ms]
+	 * @return 0 if token was taken, or time to wait before next try [ms]
+	 */
+	protected synchronized long tryAcquire(long now) {
+		if (pausedUntil > now)
+			return pausedUntil - now;
+		refill(now);
+		if (maxBytesPerSecond > 0 && byteTokens < 0)
+			return Math.max(1, (long) Math.ceil(-byteTokens * 1000d / maxBytesPerSecond));
+		if (maxRequestsPerSecond > 0) {
+			if (requestTokens < 1)
+				return Math.max(1, (long) Math.ceil((1 - requestTokens) * 1000d / maxRequestsPerSecond));
+			requestTokens--;
+		}
+		return 0;
+	}
+
+	private void refill(long now) {
+		long elapsed = now - lastRefill;
+		if (elapsed <= 0)
+			return;
+		lastRefill = now;
+		if (maxRequestsPerSecond > 0)
+			requestTokens = Math.min(getRequestCapacity(), requestTokens + elapsed * maxRequestsPerSecond / 1000d);
+		if (maxBytesPerSecond > 0)
+			byteTokens = Math.min(maxBytesPerSecond, byteTokens + elapsed * (double) maxBytesPerSecond / 1000d);
+	}
+
+	/**
+	 * Report number of bytes received in response.
+	 *
+	 * @param bytes number of bytes
+	 */
+	public synchronized void reportBytes(long bytes) {
+		if (maxBytesPerSecond > 0) {
+			refill(System.currentTimeMillis());
+			byteTokens -= bytes;
+		}
+	}
+
+	/**
+	 * Pause all requests for given time. Longer pause already in progress is kept.
+	 *
+	 * @param millis time to pause for [ms]
+	 */
+	public synchronized void pause(long millis) {
+		pausedUntil = Math.max(pausedUntil, System.currentTimeMillis() + millis);
+	}
+
+	/**
+	 * Limits configured by one client.
+	 */
+	protected static class Limits {
+
+		protected final double maxRequestsPerSecond;
+
+		protected final long maxBytesPerSecond;
+
+		protected Limits(double maxRequestsPerSecond, long maxBytesPerSecond) {
+			this.maxRequestsPerSecond = maxRequestsPerSecond;
+			this.maxBytesPerSecond = maxBytesPerSecond;
+		}
+	}
+
+}
@@ -0,0 +1,252 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import org.apache.http.NameValuePair;
+import org.apache.http.client.utils.URLEncodedUtils;
+
+/**
+ * Directory with responses of JIRA REST API calls recorded by {@link JIRA5RestClient}, so they can be served back by
+ * {@link JIRA5ReplayRestClient} to run indexing repeatably without JIRA. Each response is stored gzip compressed in own
+ * file. Responses are indexed by key composed from path and sorted parameters of REST call (so by JQL,
+ * <code>startAt</code>, <code>fields</code> etc.) in {@value #INDEX_FILE_NAME} file, one tab separated line with file
+ * name, latency of call and key for each response. Last recorded response wins if same call is recorded more times.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRAResponseRecording {
+
+	/**
+	 * Name of file with index of recorded responses.
+	 */
+	protected static final String INDEX_FILE_NAME = "index.tsv";
+
+	protected static final String RESPONSE_FILE_SUFFIX = ".json.gz";
+
+	protected static final String ENCODING = "UTF-8";
+
+	protected final File directory;
+
+	/**
+	 * Index of recorded responses loaded from {@link #INDEX_FILE_NAME}, null if not loaded yet.
+	 */
+	protected Map<String, IndexEntry> index;
+
+	/**
+	 * Create recording stored in given directory.
+	 *
+	 * @param directory to store responses in, created when first response is recorded
+	 */
+	public JIRAResponseRecording(File directory) {
+		if (directory == null)
+			throw new IllegalArgumentException("directory must be defined");
+		this.directory = directory;
+	}
+
+	/**
+	 * Record response of JIRA REST call.
+	 *
+	 * @param uri of REST call
+	 * @param response content returned from JIRA
+	 * @param latency of call [ms]
+	 * @throws IOException if response can't be stored
+	 */
+	public synchronized void record(URI uri, byte[] response, long latency) throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Directory " + directory + " for recorded JIRA responses can't be created");
+		String key = prepareKey(uri);
+		String fileName = prepareFileName(key);
+		OutputStream os = new GZIPOutputStream(new FileOutputStream(new File(directory, fileName)));
+		try {
+			os.write(response);
+		} finally {
+			os.close();
+		}
+		Writer w = new OutputStreamWriter(new FileOutputStream(new File(directory, INDEX_FILE_NAME), true), ENCODING);
+		try {
+			w.write(fileName + "\t" + latency + "\t" + key + "\n");
+		} finally {
+			w.close();
+		}
+		if (index != null)
+			index.put(key, new IndexEntry(fileName, latency));
+	}
+
+	/**
+	 * Get recorded response for JIRA REST call.
+	 *
+	 * @param uri of REST call
+	 * @return recorded response or null if call was not recorded
+	 * @throws IOException if recording can't be read
+	 */
+	public RecordedResponse get(URI uri) throws IOException {
+		IndexEntry entry;
+		synchronized (this) {
+			if (index == null)
+				index = loadIndex();
+			entry = index.get(prepareKey(uri));
+		}
+		if (entry == null)
+			return null;
+		InputStream is = new GZIPInputStream(new FileInputStream(new File(directory, entry.fileName)));
+		try {
+			ByteArrayOutputStream out = new ByteArrayOutputStream();
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = is.read(buffer)) >= 0) {
+				out.write(buffer, 0, len);
+			}
+			return new RecordedResponse(out.toByteArray(), entry.latency);
+		} finally {
+			is.close();
+		}
+	}
+
+	/**
+	 * @return number of distinct recorded calls
+	 * @throws IOException if recording can't be read
+	 */
+	public synchronized int size() throws IOException {
+		if (index == null)
+			index = loadIndex();
+		return index.size();
+	}
+
+	protected Map<String, IndexEntry> loadIndex() throws IOException {
+		Map<String, IndexEntry> ret = new HashMap<String, IndexEntry>();
+		File indexFile = new File(directory, INDEX_FILE_NAME);
+		if (!indexFile.isFile())
+			return ret;
+		BufferedReader r = new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), ENCODING));
+		try {
+			String line;
+			while ((line = r.readLine()) != null) {
+				String[] parts = line.split("\t", 3);
+				if (parts.length < 3)
+					continue;
+				try {
+					ret.put(parts[2], new IndexEntry(parts[0], Long.parseLong(parts[1])));
+				} catch (NumberFormatException e) {
+					// skip corrupted line
+				}
+			}
+		} finally {
+			r.close();
+		}
+		return ret;
+	}
+
+	/**
+	 * Prepare key of REST call. Key is independent on JIRA host and on order of parameters.
+	 *
+	 * @param uri of REST call
+	 * @return key
+	 */
+	protected static String prepareKey(URI uri) {
+		List<NameValuePair> params = new ArrayList<NameValuePair>(URLEncodedUtils.parse(uri, ENCODING));
+		Collections.sort(params, new Comparator<NameValuePair>() {
+			@Override
+			public int compare(NameValuePair o1, NameValuePair o2) {
+				int ret = o1.getName().compareTo(o2.getName());
+				if (ret != 0)
+					return ret;
+				String v1 = o1.getValue() != null ? o1.getValue() : "";
+				String v2 = o2.getValue() != null ? o2.getValue() : "";
+				return v1.compareTo(v2);
+			}
+		});
+		String path = uri.getRawPath();
+		if (params.isEmpty())
+			return path;
+		return path + "?" + URLEncodedUtils.format(params, ENCODING);
+	}
+
+	/**
+	 * Prepare name of file for response of REST call, SHA-1 hash of key is used.
+	 *
+	 * @param key of REST call
+	 * @return file name
+	 */
+	protected static String prepareFileName(String key) {
+		try {
+			byte[] digest = MessageDigest.getInstance("SHA-1").digest(key.getBytes(ENCODING));
+			StringBuilder sb = new StringBuilder();
+			for (byte b : digest) {
+				sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+			}
+			return sb.append(RESPONSE_FILE_SUFFIX).toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException(e);
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	protected static class IndexEntry {
+
+		protected final String fileName;
+
+		protected final long latency;
+
+		protected IndexEntry(String fileName, long latency) {
+			this.fileName = fileName;
+			this.latency = latency;
+		}
+	}
+
+	/**
+	 * Response of JIRA REST call served from recording.
+	 */
+	public static class RecordedResponse {
+
+		protected final byte[] data;
+
+		protected final long latency;
+
+		protected RecordedResponse(byte[] data, long latency) {
+			this.data = data;
+			this.latency = latency;
+		}
+
+		/**
+		 * @return content of response
+		 */
+		public byte[] getData() {
+			return data;
+		}
+
+		/**
+		 * @return latency of recorded call [ms]
+		 */
+		public long getLatency() {
+			return latency;
+		}
+	}
+
+}
@@ -0,0 +1,42 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+/**
+ * Exception thrown when JIRA REST API call returns HTTP error code.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRARestCallException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	private final int statusCode;
+
+	/**
+	 * @param message of exception
+	 * @param statusCode HTTP status code returned from JIRA
+	 */
+	public JIRARestCallException(String message, int statusCode) {
+		super(message);
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * @return HTTP status code returned from JIRA
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * @return true if status code means server side error (5xx)
+	 */
+	public boolean isServerError() {
+		return statusCode >= 500;
+	}
+
+}
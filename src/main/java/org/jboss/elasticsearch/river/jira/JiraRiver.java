@@ -1,18 +1,27 @@
 package org.jboss.elasticsearch.river.jira;
 
+import java.io.File;
 import java.io.IOException;
 import java.net.MalformedURLException;
 import java.text.ParseException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TimeZone;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.TimeUnit;
 
+import org.apache.http.pool.PoolStats;
 import org.elasticsearch.ElasticsearchException;
+import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.bulk.BulkResponse;
 import org.elasticsearch.action.delete.DeleteResponse;
@@ -26,18 +35,26 @@ import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.logging.ESLogger;
 import org.elasticsearch.common.logging.Loggers;
 import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.unit.ByteSizeValue;
 import org.elasticsearch.common.unit.TimeValue;
 import org.elasticsearch.common.util.concurrent.EsExecutors;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.index.query.FilterBuilders;
 import org.elasticsearch.index.query.QueryBuilders;
 import org.elasticsearch.river.AbstractRiverComponent;
 import org.elasticsearch.river.River;
 import org.elasticsearch.river.RiverName;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.river.RiverSettings;
 import org.elasticsearch.search.SearchHit;
+import org.elasticsearch.search.aggregations.AggregationBuilders;
+import org.elasticsearch.search.aggregations.bucket.terms.Terms;
+import org.elasticsearch.search.aggregations.metrics.tophits.TopHits;
 import org.elasticsearch.search.sort.SortOrder;
+import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessor;
 import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessorFactory;
 
 import static org.elasticsearch.client.Requests.indexRequest;
@@ -65,14 +82,29 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 	protected static final String PERMSTOREPROP_RIVER_STOPPED_PERMANENTLY = "river_stopped_permanently";
 
 	/**
-	 * How often is project list refreshed from JIRA instance [ms].
+	 * Default value how often is project list refreshed from JIRA instance [ms].
 	 */
 	protected static final long JIRA_PROJECTS_REFRESH_TIME = 30 * 60 * 1000;
 
+	/**
+	 * How long to wait before next attempt to read indexing history from activity log after failed one [ms].
+	 */
+	protected static final long INDEXING_HISTORY_WARMUP_RETRY_TIME = 60 * 1000;
+
+	/**
+	 * Settings from <code>jira</code> section of configuration which are applied into running river by
+	 * {@link #reconfigureLive()}, other settings require river restart.
+	 */
+	protected static final Set<String> LIVE_JIRA_SETTINGS = new HashSet<String>(Arrays.asList("maxIndexingThreads",
+			"indexUpdatePeriod", "indexFullUpdatePeriod", "indexFullUpdateCronExpression", "maxIssuesPerRequest", "timeout",
+			"projectKeysIndexed", "projectKeysExcluded"));
+
 	public static final String INDEX_ISSUE_TYPE_NAME_DEFAULT = "jira_issue";
 
 	public static final String INDEX_ACTIVITY_TYPE_NAME_DEFAULT = "jira_river_indexupdate";
 
+	public static final String INDEX_ACTIVITY_DIAGNOSTICS_TYPE_NAME_DEFAULT = "jira_river_issuediagnostics";
+
 	/**
 	 * ElasticSearch client to be used for indexing
 	 */
@@ -83,16 +115,83 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 	 */
 	protected IJIRAClient jiraClient;
 
+	/**
+	 * Optional controller of JIRA call page size and indexing concurrency.
+	 */
+	protected AdaptiveFetchController adaptiveFetchController;
+
+	/**
+	 * Size of river wide memory budget for issue data being indexed [bytes], 0 means budget is not used.
+	 */
+	protected long memoryBudgetSize = 0;
+
+	/**
+	 * Memory budget created in {@link #start()} if {@link #memoryBudgetSize} is configured.
+	 */
+	protected JIRAMemoryBudget memoryBudget;
+
 	/**
 	 * Configured JIRA issue index structure builder to be used.
 	 */
 	protected IJIRAIssueIndexStructureBuilder jiraIssueIndexStructureBuilder;
 
+	/**
+	 * Caches of issue data preprocessors configured with <code>cache</code> element, used to report their statistics.
+	 * Recreated by each {@link #configure(Map)}, may be read by state request meanwhile.
+	 */
+	protected final List<CachingPreprocessor> preprocessorCaches = new CopyOnWriteArrayList<CachingPreprocessor>();
+
 	/**
 	 * Config - maximal number of parallel JIRA indexing threads
 	 */
 	protected int maxIndexingThreads;
 
+	/**
+	 * Config - if true then projects are checked for changes by one JIRA search before indexers are started
+	 * 
+	 * @see JIRAProjectIndexerCoordinator#setChangeProbe(boolean)
+	 */
+	protected boolean changeProbe = false;
+
+	/**
+	 * Config - maximal number of issues in project which may be indexed together with other small projects, value <= 0
+	 * means batching is disabled
+	 * 
+	 * @see JIRAProjectIndexerCoordinator#setSmallProjectBatching(int, int)
+	 */
+	protected int smallProjectBatchThreshold = 0;
+
+	/**
+	 * Config - maximal number of small projects indexed together
+	 */
+	protected int smallProjectBatchMaxProjects = JIRAProjectIndexerCoordinator.DEFAULT_SMALL_PROJECT_BATCH_MAX_PROJECTS;
+
+	/**
+	 * Config - maximal number of issues with truncated comments or changelogs completed in parallel, value 0 means
+	 * truncated data are not completed
+	 * 
+	 * @see JIRAIssueDataCompleter
+	 */
+	protected int maxParallelIssueDataFetches = JIRAIssueDataCompleter.DEFAULT_MAX_PARALLEL_FETCHES;
+
+	/**
+	 * Config - number of preprocessing and transform workers of indexing pipeline of each project indexer, value 0 means
+	 * projects are indexed serially
+	 * 
+	 * @see JIRAProjectIndexingPipeline
+	 */
+	protected int pipelineWorkers = 0;
+
+	/**
+	 * Config - capacity of queues between stages of indexing pipeline [pages]
+	 */
+	protected int pipelineQueueCapacity = JIRAProjectIndexingPipeline.DEFAULT_QUEUE_CAPACITY;
+
+	/**
+	 * Completer of truncated issue data used by running indexers, created in {@link #start()}.
+	 */
+	protected JIRAIssueDataCompleter issueDataCompleter;
+
 	/**
 	 * Config - index update period [ms]
 	 */
@@ -118,6 +217,11 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 	 */
 	protected String typeName;
 
+	/**
+	 * Config - content type of river state and activity log documents
+	 */
+	protected XContentType documentContentType = XContentType.JSON;
+
 	/**
 	 * Config - Base URL of JIRA instance to index by this river
 	 */
@@ -133,6 +237,42 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 	 */
 	protected String activityLogTypeName;
 
+	/**
+	 * Config - name of ElasticSearch type used to store issue diagnostics records in activity log index
+	 */
+	protected String activityLogDiagnosticsTypeName = INDEX_ACTIVITY_DIAGNOSTICS_TYPE_NAME_DEFAULT;
+
+	/**
+	 * Config - mode of activity log index time based partitioning
+	 */
+	protected ActivityLogRollover activityLogRollover = ActivityLogRollover.NONE;
+
+	/**
+	 * Config - time after end of activity log partition when partition index is deleted [ms], 0 means never
+	 */
+	protected long activityLogRetention = 0;
+
+	/**
+	 * Config - period of buffered activity log records writing [ms]
+	 */
+	protected long activityLogFlushPeriod;
+
+	/**
+	 * Config - maximal number of buffered activity log records
+	 */
+	protected int activityLogQueueSize;
+
+	/**
+	 * Writer used to write activity log records, created in {@link #start()} if activity log is enabled. Records are
+	 * written synchronously if null.
+	 */
+	protected ActivityLogWriter activityLogWriter;
+
+	/**
+	 * Thread running {@link #activityLogWriter}.
+	 */
+	protected Thread activityLogWriterThread;
+
 	/**
 	 * Thread running {@link JIRAProjectIndexerCoordinator} is stored here.
 	 */
@@ -148,12 +288,18 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 	 */
 	protected volatile boolean closed = true;
 
+	/**
+	 * Configuration river was configured with by {@link #configure(Map)}, used to detect changed settings which can't
+	 * be applied by {@link #reconfigureLive()}.
+	 */
+	protected Map<String, Object> configuredSettings;
+
 	/**
 	 * List of indexing excluded JIRA project keys loaded from river configuration
 	 * 
 	 * @see #getAllIndexedProjectsKeys()
 	 */
-	protected List<String> projectKeysExcluded = null;
+	protected volatile List<String> projectKeysExcluded = null;
 
 	/**
 	 * List of all JIRA project keys to be indexed. Loaded from river configuration, or from remote JIRA (excludes
@@ -161,19 +307,40 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 	 * 
 	 * @see #getAllIndexedProjectsKeys()
 	 */
-	protected List<String> allIndexedProjectsKeys = null;
+	protected volatile List<String> allIndexedProjectsKeys = null;
 
 	/**
 	 * Next time when {@link #allIndexedProjectsKeys} need to be refreshed from remote JIRA instance.
 	 * 
 	 * @see #getAllIndexedProjectsKeys()
 	 */
-	protected long allIndexedProjectsKeysNextRefresh = 0;
+	protected volatile long allIndexedProjectsKeysNextRefresh = 0;
+
+	/**
+	 * Config - how often is {@link #allIndexedProjectsKeys} refreshed from remote JIRA instance [ms].
+	 * 
+	 * @see #getAllIndexedProjectsKeys()
+	 */
+	protected long projectListRefreshPeriod = JIRA_PROJECTS_REFRESH_TIME;
 
 	/**
-	 * Last project indexing info store. Key in map is project key.
+	 * History of last project indexing runs.
+	 */
+	protected ProjectIndexingHistory lastProjectIndexingInfo = new ProjectIndexingHistory();
+
+	/**
+	 * Flag set to true when {@link #lastProjectIndexingInfo} is filled from activity log.
+	 * 
+	 * @see #warmUpIndexingHistory()
+	 */
+	protected volatile boolean indexingHistoryWarmedUp = false;
+
+	/**
+	 * Time of next attempt to fill {@link #lastProjectIndexingInfo} from activity log, set after failed attempt.
+	 * 
+	 * @see #warmUpIndexingHistory()
 	 */
-	protected Map<String, ProjectIndexingInfo> lastProjectIndexingInfo = new HashMap<String, ProjectIndexingInfo>();
+	protected volatile long indexingHistoryWarmUpNextAttempt = 0;
 
 	/**
 	 * Date of last restart of this river.
@@ -211,6 +378,9 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 		if (!closed)
 			throw new IllegalStateException("Jira River must be stopped to configure it!");
 
+		// caches are recreated with preprocessors of new configuration
+		preprocessorCaches.clear();
+
 		String jiraUser = null;
 		String jiraJqlTimezone = TimeZone.getDefault().getDisplayName();
 
@@ -220,40 +390,147 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 			if (Utils.isEmpty(jiraUrlBase)) {
 				throw new SettingsException("jira/urlBase element of configuration structure not found or empty");
 			}
-			Integer timeout = new Long(Utils.parseTimeValue(jiraSettings, "timeout", 5, TimeUnit.SECONDS)).intValue();
+			Integer timeout = parseTimeout(jiraSettings);
 			jiraUser = XContentMapValues.nodeStringValue(jiraSettings.get("username"), "Anonymous access");
-			jiraClient = new JIRA5RestClient(this, jiraUrlBase, XContentMapValues.nodeStringValue(
-					jiraSettings.get("username"), null), XContentMapValues.nodeStringValue(jiraSettings.get("pwd"), null),
-					timeout, XContentMapValues.nodeStringValue(jiraSettings.get("restApiVersion"), null));
-			jiraClient.setListJIRAIssuesMax(XContentMapValues.nodeIntegerValue(jiraSettings.get("maxIssuesPerRequest"), 50));
+			long maxBytesPerSecond = 0;
+			try {
+				if (jiraSettings.get("maxBytesPerSecond") != null)
+					maxBytesPerSecond = ByteSizeValue.parseBytesSizeValue(
+							XContentMapValues.nodeStringValue(jiraSettings.get("maxBytesPerSecond"), null)).bytes();
+			} catch (ElasticsearchParseException e) {
+				throw new SettingsException("jira/maxBytesPerSecond is invalid: " + e.getMessage());
+			}
+			memoryBudgetSize = 0;
+			try {
+				if (jiraSettings.get("memoryBudget") != null)
+					memoryBudgetSize = ByteSizeValue.parseBytesSizeValue(
+							XContentMapValues.nodeStringValue(jiraSettings.get("memoryBudget"), null)).bytes();
+			} catch (ElasticsearchParseException e) {
+				throw new SettingsException("jira/memoryBudget is invalid: " + e.getMessage());
+			}
+			if (jiraClient != null) {
+				// release resources of client from previous configuration
+				jiraClient.close();
+			}
+			int maxConnectionsTotal = XContentMapValues.nodeIntegerValue(jiraSettings.get("maxConnectionsTotal"),
+					JIRA5RestClient.DEFAULT_MAX_CONNECTIONS_TOTAL);
+			int maxConnectionsPerRoute = XContentMapValues.nodeIntegerValue(jiraSettings.get("maxConnectionsPerRoute"),
+					JIRA5RestClient.DEFAULT_MAX_CONNECTIONS_PER_ROUTE);
+			long connectionKeepAlive = Utils.parseTimeValue(jiraSettings, "connectionKeepAlive",
+					JIRA5RestClient.DEFAULT_CONNECTION_KEEP_ALIVE, TimeUnit.MILLISECONDS);
+			long connectionIdleTimeout = Utils.parseTimeValue(jiraSettings, "connectionIdleTimeout",
+					JIRA5RestClient.DEFAULT_CONNECTION_IDLE_TIMEOUT, TimeUnit.MILLISECONDS);
+			String jiraUsername = XContentMapValues.nodeStringValue(jiraSettings.get("username"), null);
+			String jiraPassword = XContentMapValues.nodeStringValue(jiraSettings.get("pwd"), null);
+			String restApiVersion = XContentMapValues.nodeStringValue(jiraSettings.get("restApiVersion"), null);
+			String recordResponsesDir = Utils.trimToNull(XContentMapValues.nodeStringValue(
+					jiraSettings.get("recordResponsesDir"), null));
+			String replayResponsesDir = Utils.trimToNull(XContentMapValues.nodeStringValue(
+					jiraSettings.get("replayResponsesDir"), null));
+			double replayLatencyScale = XContentMapValues.nodeDoubleValue(jiraSettings.get("replayLatencyScale"), 1);
+			if (recordResponsesDir != null && replayResponsesDir != null) {
+				throw new SettingsException("jira/recordResponsesDir and jira/replayResponsesDir can't be used together");
+			}
+			if (replayLatencyScale < 0) {
+				throw new SettingsException("jira/replayLatencyScale must not be negative");
+			}
+			JIRA5RestClient restClient;
+			if (replayResponsesDir != null) {
+				logger.warn("JIRA is not called, responses are replayed from {}", replayResponsesDir);
+				restClient = new JIRA5ReplayRestClient(this, jiraUrlBase, restApiVersion, new JIRAResponseRecording(
+						new File(replayResponsesDir)), replayLatencyScale);
+			} else if (XContentMapValues.nodeBooleanValue(jiraSettings.get("asyncClient"), false)) {
+				restClient = new JIRA5AsyncRestClient(this, jiraUrlBase, jiraUsername, jiraPassword, timeout,
+						restApiVersion, JIRAConnectionPoolRegistry.getInstance(), maxConnectionsTotal, maxConnectionsPerRoute,
+						connectionKeepAlive, connectionIdleTimeout);
+			} else {
+				restClient = new JIRA5RestClient(this, jiraUrlBase, jiraUsername, jiraPassword, timeout, restApiVersion,
+						JIRAConnectionPoolRegistry.getInstance(), maxConnectionsTotal, maxConnectionsPerRoute,
+						connectionKeepAlive, connectionIdleTimeout);
+			}
+			if (recordResponsesDir != null) {
+				logger.info("JIRA responses are recorded into {}", recordResponsesDir);
+				restClient.setResponseRecording(new JIRAResponseRecording(new File(recordResponsesDir)));
+			}
+			jiraClient = restClient;
+			jiraClient.setListJIRAIssuesMax(parseMaxIssuesPerRequest(jiraSettings));
+			int maxFieldLength = XContentMapValues.nodeIntegerValue(jiraSettings.get("maxFieldLength"), 0);
+			if (maxFieldLength < 0) {
+				throw new SettingsException("jira/maxFieldLength must not be negative");
+			}
+			jiraClient.setMaxFieldLength(maxFieldLength);
+			int stringDedupTableSize = XContentMapValues.nodeIntegerValue(jiraSettings.get("stringDedupTableSize"), 0);
+			if (stringDedupTableSize < 0 || stringDedupTableSize > StringDedupTable.MAX_SIZE) {
+				throw new SettingsException("jira/stringDedupTableSize must be between 0 and " + StringDedupTable.MAX_SIZE);
+			}
+			jiraClient.setStringDedupTableSize(stringDedupTableSize);
+			jiraClient.setRateLimits(XContentMapValues.nodeDoubleValue(jiraSettings.get("maxRequestsPerSecond"), 0),
+					maxBytesPerSecond);
+			jiraClient.setRetryPolicy(
+					XContentMapValues.nodeIntegerValue(jiraSettings.get("maxRetries"), JIRA5RestClient.DEFAULT_MAX_RETRIES),
+					Utils.parseTimeValue(jiraSettings, "retryInitialBackoff", JIRA5RestClient.DEFAULT_RETRY_INITIAL_BACKOFF,
+							TimeUnit.MILLISECONDS),
+					Utils.parseTimeValue(jiraSettings, "retryMaxBackoff", JIRA5RestClient.DEFAULT_RETRY_MAX_BACKOFF,
+							TimeUnit.MILLISECONDS));
+			jiraClient.setCircuitBreaker(XContentMapValues.nodeIntegerValue(
+					jiraSettings.get("circuitBreakerFailureThreshold"), JIRACircuitBreaker.DEFAULT_FAILURE_THRESHOLD), Utils
+					.parseTimeValue(jiraSettings, "circuitBreakerOpenTime", JIRACircuitBreaker.DEFAULT_OPEN_TIME,
+							TimeUnit.MILLISECONDS));
 			if (jiraSettings.get("jqlTimeZone") != null) {
 				TimeZone tz = TimeZone.getTimeZone(XContentMapValues.nodeStringValue(jiraSettings.get("jqlTimeZone"), null));
 				jiraJqlTimezone = tz.getDisplayName();
 				jiraClient.setJQLDateFormatTimezone(tz);
 			}
-            jiraClient.setJqlTemplate(XContentMapValues.nodeStringValue(jiraSettings.get("jqlTemplate"), DEFAULT_JQL_TEMPLATE));
-			maxIndexingThreads = XContentMapValues.nodeIntegerValue(jiraSettings.get("maxIndexingThreads"), 1);
-			indexUpdatePeriod = Utils.parseTimeValue(jiraSettings, "indexUpdatePeriod", 5, TimeUnit.MINUTES);
-			indexFullUpdatePeriod = Utils.parseTimeValue(jiraSettings, "indexFullUpdatePeriod", 12, TimeUnit.HOURS);
-			String ifuce = Utils.trimToNull((String) jiraSettings.get("indexFullUpdateCronExpression"));
-			if (ifuce != null) {
-				try {
-					this.indexFullUpdateCronExpression = new CronExpression(ifuce);
-				} catch (ParseException e) {
-					throw new SettingsException("Cron expression in indexFullUpdateCronExpression is invalid: " + e.getMessage());
-				}
+            String jqlTemplate = XContentMapValues.nodeStringValue(jiraSettings.get("jqlTemplate"), DEFAULT_JQL_TEMPLATE);
+            jiraClient.setJqlTemplate(jqlTemplate);
+			maxIndexingThreads = parseMaxIndexingThreads(jiraSettings);
+			adaptiveFetchController = null;
+			if (jiraSettings.get("adaptiveFetch") != null) {
+				adaptiveFetchController = new AdaptiveFetchController(this,
+						(Map<String, Object>) jiraSettings.get("adaptiveFetch"), jiraClient.getListJIRAIssuesMax(),
+						maxIndexingThreads);
+			}
+			jiraClient.setAdaptiveFetchController(adaptiveFetchController);
+			changeProbe = XContentMapValues.nodeBooleanValue(jiraSettings.get("changeProbe"), false);
+			smallProjectBatchThreshold = XContentMapValues.nodeIntegerValue(jiraSettings.get("smallProjectBatchThreshold"), 0);
+			smallProjectBatchMaxProjects = XContentMapValues.nodeIntegerValue(
+					jiraSettings.get("smallProjectBatchMaxProjects"),
+					JIRAProjectIndexerCoordinator.DEFAULT_SMALL_PROJECT_BATCH_MAX_PROJECTS);
+			if (smallProjectBatchMaxProjects < 2) {
+				throw new SettingsException("jira/smallProjectBatchMaxProjects must be at least 2");
+			}
+			if (smallProjectBatchThreshold > 0 && !DEFAULT_JQL_TEMPLATE.equals(jqlTemplate)) {
+				logger.warn("Small project batching disabled because custom jira/jqlTemplate is used");
+				smallProjectBatchThreshold = 0;
+			}
+			maxParallelIssueDataFetches = XContentMapValues.nodeIntegerValue(jiraSettings.get("maxParallelIssueDataFetches"),
+					JIRAIssueDataCompleter.DEFAULT_MAX_PARALLEL_FETCHES);
+			if (maxParallelIssueDataFetches < 0) {
+				throw new SettingsException("jira/maxParallelIssueDataFetches must not be negative");
 			}
+			pipelineWorkers = XContentMapValues.nodeIntegerValue(jiraSettings.get("pipelineWorkers"), 0);
+			if (pipelineWorkers < 0) {
+				throw new SettingsException("jira/pipelineWorkers must not be negative");
+			}
+			pipelineQueueCapacity = XContentMapValues.nodeIntegerValue(jiraSettings.get("pipelineQueueCapacity"),
+					JIRAProjectIndexingPipeline.DEFAULT_QUEUE_CAPACITY);
+			if (pipelineQueueCapacity < 1) {
+				throw new SettingsException("jira/pipelineQueueCapacity must be at least 1");
+			}
+			indexUpdatePeriod = parseIndexUpdatePeriod(jiraSettings);
+			indexFullUpdatePeriod = parseIndexFullUpdatePeriod(jiraSettings);
+			indexFullUpdateCronExpression = parseIndexFullUpdateCronExpression(jiraSettings);
+			projectListRefreshPeriod = Utils.parseTimeValue(jiraSettings, "projectListRefreshPeriod",
+					JIRA_PROJECTS_REFRESH_TIME, TimeUnit.MILLISECONDS);
 			if (jiraSettings.containsKey("projectKeysIndexed")) {
-				allIndexedProjectsKeys = Utils.parseCsvString(XContentMapValues.nodeStringValue(
-						jiraSettings.get("projectKeysIndexed"), null));
+				allIndexedProjectsKeys = parseProjectKeys(jiraSettings, "projectKeysIndexed");
 				if (allIndexedProjectsKeys != null) {
 					// stop loading from JIRA
 					allIndexedProjectsKeysNextRefresh = Long.MAX_VALUE;
 				}
 			}
 			if (jiraSettings.containsKey("projectKeysExcluded")) {
-				projectKeysExcluded = Utils.parseCsvString(XContentMapValues.nodeStringValue(
-						jiraSettings.get("projectKeysExcluded"), null));
+				projectKeysExcluded = parseProjectKeys(jiraSettings, "projectKeysExcluded");
 			}
 		} else {
 			throw new SettingsException("'jira' element of river configuration structure not found");
@@ -264,6 +541,9 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 			indexSettings = (Map<String, Object>) settings.get("index");
 			indexName = XContentMapValues.nodeStringValue(indexSettings.get("index"), riverName.name());
 			typeName = XContentMapValues.nodeStringValue(indexSettings.get("type"), INDEX_ISSUE_TYPE_NAME_DEFAULT);
+			documentContentType = Utils.parseDocumentContentType(
+					XContentMapValues.nodeStringValue(indexSettings.get("document_content_type"), null),
+					"index/document_content_type");
 		} else {
 			indexName = riverName.name();
 			typeName = INDEX_ISSUE_TYPE_NAME_DEFAULT;
@@ -280,6 +560,19 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 			}
 			activityLogTypeName = Utils.trimToNull(XContentMapValues.nodeStringValue(activityLogSettings.get("type"),
 					INDEX_ACTIVITY_TYPE_NAME_DEFAULT));
+			activityLogDiagnosticsTypeName = Utils.trimToNull(XContentMapValues.nodeStringValue(
+					activityLogSettings.get("diagnostics_type"), INDEX_ACTIVITY_DIAGNOSTICS_TYPE_NAME_DEFAULT));
+			activityLogRollover = ActivityLogRollover.parseConfiguration(
+					XContentMapValues.nodeStringValue(activityLogSettings.get("rollover"), null), ActivityLogRollover.NONE);
+			activityLogRetention = Utils.parseTimeValue(activityLogSettings, "retention", 0, TimeUnit.DAYS);
+			activityLogFlushPeriod = Utils.parseTimeValue(activityLogSettings, "flush_period", 5, TimeUnit.SECONDS);
+			activityLogQueueSize = XContentMapValues.nodeIntegerValue(activityLogSettings.get("queue_size"), 1000);
+			if (activityLogQueueSize < 1) {
+				throw new SettingsException("'activity_log/queue_size' element of river configuration must be positive number");
+			}
+			if (activityLogRetention > 0 && activityLogRollover == ActivityLogRollover.NONE) {
+				throw new SettingsException("'activity_log/retention' can be used only together with 'activity_log/rollover'");
+			}
 		}
 
 		jiraIssueIndexStructureBuilder = new JIRA5RestIssueIndexStructureBuilder(this, indexName, typeName, jiraUrlBase,
@@ -287,6 +580,7 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 		preparePreprocessors(indexSettings, jiraIssueIndexStructureBuilder);
 
 		jiraClient.setIndexStructureBuilder(jiraIssueIndexStructureBuilder);
+		configuredSettings = settings;
 
 		logger
 				.info(
@@ -294,24 +588,67 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 						riverName.getName(), jiraClient.getJiraAPIUrlBase(), jiraUser, jiraJqlTimezone, indexName, typeName);
 		if (activityLogIndexName != null) {
 			logger.info(
-					"Activity log for JIRA River '{}' is enabled. Search index name '{}', document type for index updates '{}'.",
-					riverName.getName(), activityLogIndexName, activityLogTypeName);
+					"Activity log for JIRA River '{}' is enabled. Search index name '{}', document type for index updates '{}', rollover '{}'.",
+					riverName.getName(), activityLogIndexName, activityLogTypeName, activityLogRollover.getConfigValue());
 		}
 	}
 
 	@SuppressWarnings("unchecked")
+	private static Integer parseTimeout(Map<String, Object> jiraSettings) {
+		return new Long(Utils.parseTimeValue(jiraSettings, "timeout", 5, TimeUnit.SECONDS)).intValue();
+	}
+
+	private static int parseMaxIssuesPerRequest(Map<String, Object> jiraSettings) {
+		return XContentMapValues.nodeIntegerValue(jiraSettings.get("maxIssuesPerRequest"), 50);
+	}
+
+	private static int parseMaxIndexingThreads(Map<String, Object> jiraSettings) {
+		return XContentMapValues.nodeIntegerValue(jiraSettings.get("maxIndexingThreads"), 1);
+	}
+
+	private static long parseIndexUpdatePeriod(Map<String, Object> jiraSettings) {
+		return Utils.parseTimeValue(jiraSettings, "indexUpdatePeriod", 5, TimeUnit.MINUTES);
+	}
+
+	private static long parseIndexFullUpdatePeriod(Map<String, Object> jiraSettings) {
+		return Utils.parseTimeValue(jiraSettings, "indexFullUpdatePeriod", 12, TimeUnit.HOURS);
+	}
+
+	private static CronExpression parseIndexFullUpdateCronExpression(Map<String, Object> jiraSettings) {
+		String ifuce = Utils.trimToNull((String) jiraSettings.get("indexFullUpdateCronExpression"));
+		if (ifuce == null)
+			return null;
+		try {
+			return new CronExpression(ifuce);
+		} catch (ParseException e) {
+			throw new SettingsException("Cron expression in indexFullUpdateCronExpression is invalid: " + e.getMessage());
+		}
+	}
+
+	private static List<String> parseProjectKeys(Map<String, Object> jiraSettings, String key) {
+		return Utils.parseCsvString(XContentMapValues.nodeStringValue(jiraSettings.get(key), null));
+	}
+
 	private void preparePreprocessors(Map<String, Object> indexSettings,
 			IJIRAIssueIndexStructureBuilder indexStructureBuilder) {
 		if (indexSettings != null) {
 			List<Map<String, Object>> preproclist = (List<Map<String, Object>>) indexSettings.get("preprocessors");
 			if (preproclist != null && preproclist.size() > 0) {
 				for (Map<String, Object> ppc : preproclist) {
+					StructuredContentPreprocessor preprocessor;
 					try {
-						indexStructureBuilder.addIssueDataPreprocessor(StructuredContentPreprocessorFactory.createPreprocessor(ppc,
-								client));
+						preprocessor = StructuredContentPreprocessorFactory.createPreprocessor(ppc, client);
 					} catch (IllegalArgumentException e) {
 						throw new SettingsException(e.getMessage(), e);
 					}
+					Object cacheSettings = ppc.get(CachingPreprocessor.CFG_CACHE);
+					if (cacheSettings != null) {
+						CachingPreprocessor cachingPreprocessor = new CachingPreprocessor(preprocessor,
+								cacheSettings instanceof Map ? (Map<String, Object>) cacheSettings : null);
+						preprocessorCaches.add(cachingPreprocessor);
+						preprocessor = cachingPreprocessor;
+					}
+					indexStructureBuilder.addIssueDataPreprocessor(preprocessor);
 				}
 			}
 		}
@@ -348,8 +685,31 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 		logger.info("starting JIRA River indexing process");
 		closed = false;
 		lastRestartDate = new Date();
-		coordinatorInstance = new JIRAProjectIndexerCoordinator(jiraClient, this, jiraIssueIndexStructureBuilder,
-				indexUpdatePeriod, maxIndexingThreads, indexFullUpdatePeriod, indexFullUpdateCronExpression);
+		indexingHistoryWarmUpNextAttempt = 0;
+		warmUpIndexingHistory();
+		if (activityLogIndexName != null) {
+			activityLogWriter = new ActivityLogWriter(this, client, activityLogIndexName, activityLogRollover,
+					activityLogRetention, activityLogFlushPeriod, activityLogQueueSize);
+			activityLogWriterThread = acquireIndexingThread("jira_river_activity_log_writer", activityLogWriter);
+			activityLogWriterThread.start();
+		}
+		JIRAProjectIndexerCoordinator coordinator = new JIRAProjectIndexerCoordinator(jiraClient, this,
+				jiraIssueIndexStructureBuilder, indexUpdatePeriod, maxIndexingThreads, indexFullUpdatePeriod,
+				indexFullUpdateCronExpression);
+		coordinator.setAdaptiveFetchController(adaptiveFetchController);
+		coordinator.setChangeProbe(changeProbe);
+		coordinator.setSmallProjectBatching(smallProjectBatchThreshold, smallProjectBatchMaxProjects);
+		coordinator.setIndexingPipeline(pipelineWorkers, pipelineQueueCapacity);
+		if (memoryBudgetSize > 0) {
+			memoryBudget = new JIRAMemoryBudget(memoryBudgetSize);
+			coordinator.setMemoryBudget(memoryBudget);
+		}
+		jiraClient.setMemoryBudget(memoryBudget);
+		if (maxParallelIssueDataFetches > 0) {
+			issueDataCompleter = new JIRAIssueDataCompleter(this, jiraClient, maxParallelIssueDataFetches);
+			coordinator.setIssueDataCompleter(issueDataCompleter);
+		}
+		coordinatorInstance = coordinator;
 		coordinatorThread = acquireIndexingThread("jira_river_coordinator", coordinatorInstance);
 		coordinatorThread.start();
 	}
@@ -361,6 +721,12 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 		if (coordinatorThread != null) {
 			coordinatorThread.interrupt();
 		}
+		stopActivityLogWriter();
+		stopIssueDataCompleter();
+		closeMemoryBudget();
+		if (jiraClient != null) {
+			jiraClient.close();
+		}
 		// free instances created in #start()
 		coordinatorThread = null;
 		coordinatorInstance = null;
@@ -383,6 +749,9 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 		if (coordinatorThread != null) {
 			coordinatorThread.interrupt();
 		}
+		stopActivityLogWriter();
+		stopIssueDataCompleter();
+		closeMemoryBudget();
 		// free instances created in #start()
 		coordinatorThread = null;
 		coordinatorInstance = null;
@@ -398,6 +767,43 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 		}
 	}
 
+	/**
+	 * Stop activity log writer if running, buffered records are written.
+	 */
+	protected void stopActivityLogWriter() {
+		ActivityLogWriter writer = activityLogWriter;
+		activityLogWriter = null;
+		if (writer != null) {
+			writer.close();
+		}
+		if (activityLogWriterThread != null) {
+			activityLogWriterThread.interrupt();
+			activityLogWriterThread = null;
+		}
+	}
+
+	/**
+	 * Stop completer of truncated issue data if running.
+	 */
+	protected void stopIssueDataCompleter() {
+		JIRAIssueDataCompleter completer = issueDataCompleter;
+		issueDataCompleter = null;
+		if (completer != null) {
+			completer.close();
+		}
+	}
+
+	/**
+	 * Close memory budget if used, so no indexer waits for it.
+	 */
+	protected void closeMemoryBudget() {
+		JIRAMemoryBudget budget = memoryBudget;
+		memoryBudget = null;
+		if (budget != null) {
+			budget.close();
+		}
+	}
+
 	/**
 	 * Reconfigure jira river. Must be stopped!
 	 */
@@ -406,6 +812,16 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 			throw new IllegalStateException("Jira River must be stopped to reconfigure it!");
 
 		logger.info("reconfiguring JIRA River");
+		configure(readConfigurationDocument());
+	}
+
+	/**
+	 * Read current configuration document of river.
+	 * 
+	 * @return configuration
+	 * @throws IllegalStateException if document is not found
+	 */
+	protected Map<String, Object> readConfigurationDocument() {
 		String riverIndexName = getRiverIndexName();
 		refreshSearchIndex(riverIndexName);
 		GetResponse resp = client.prepareGet(riverIndexName, riverName().name(), "_meta").execute().actionGet();
@@ -413,14 +829,126 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 			if (logger.isDebugEnabled()) {
 				logger.debug("Configuration document: {}", resp.getSourceAsString());
 			}
-			Map<String, Object> newset = resp.getSource();
-			configure(newset);
+			return resp.getSource();
 		} else {
 			throw new IllegalStateException("Configuration document not found to reconfigure jira river "
 					+ riverName().name());
 		}
 	}
 
+	/**
+	 * Reload configuration of river and apply scheduling and throughput settings (see {@link #LIVE_JIRA_SETTINGS}) into
+	 * running river, so running indexers are not interrupted. Whole configuration is reloaded if river is stopped.
+	 * 
+	 * @return list of changed settings which are not applied because river restart is necessary for them, never null
+	 */
+	@Override
+	public synchronized List<String> reconfigureLive() {
+		if (closed) {
+			reconfigure();
+			return Collections.emptyList();
+		}
+		logger.info("reconfiguring running JIRA River");
+		return applyLiveConfiguration(readConfigurationDocument());
+	}
+
+	/**
+	 * Apply settings which can be changed without restart into running river. All values are validated before first of
+	 * them is applied.
+	 * 
+	 * @param settings new river configuration
+	 * @return list of changed settings which require restart, never null
+	 * @throws SettingsException if some of applied settings is invalid
+	 */
+	@SuppressWarnings("unchecked")
+	protected synchronized List<String> applyLiveConfiguration(Map<String, Object> settings) {
+		Map<String, Object> jiraSettings = (Map<String, Object>) settings.get("jira");
+		if (jiraSettings == null) {
+			throw new SettingsException("'jira' element of river configuration structure not found");
+		}
+		int newMaxIndexingThreads = parseMaxIndexingThreads(jiraSettings);
+		long newIndexUpdatePeriod = parseIndexUpdatePeriod(jiraSettings);
+		long newIndexFullUpdatePeriod = parseIndexFullUpdatePeriod(jiraSettings);
+		CronExpression newIndexFullUpdateCronExpression = parseIndexFullUpdateCronExpression(jiraSettings);
+		int newMaxIssuesPerRequest = parseMaxIssuesPerRequest(jiraSettings);
+		int newTimeout = parseTimeout(jiraSettings);
+		List<String> newProjectKeysIndexed = parseProjectKeys(jiraSettings, "projectKeysIndexed");
+		List<String> newProjectKeysExcluded = parseProjectKeys(jiraSettings, "projectKeysExcluded");
+
+		maxIndexingThreads = newMaxIndexingThreads;
+		indexUpdatePeriod = newIndexUpdatePeriod;
+		indexFullUpdatePeriod = newIndexFullUpdatePeriod;
+		indexFullUpdateCronExpression = newIndexFullUpdateCronExpression;
+		IJIRAProjectIndexerCoordinator coordinator = coordinatorInstance;
+		if (coordinator != null) {
+			coordinator.setIndexingSchedule(indexUpdatePeriod, maxIndexingThreads, indexFullUpdatePeriod,
+					indexFullUpdateCronExpression);
+		}
+		jiraClient.setListJIRAIssuesMax(newMaxIssuesPerRequest);
+		jiraClient.setTimeout(newTimeout);
+		// adaptive fetch uses both limits instead of values applied above
+		AdaptiveFetchController controller = adaptiveFetchController;
+		if (controller != null) {
+			controller.setLimits(newMaxIssuesPerRequest, newMaxIndexingThreads);
+		}
+		projectKeysExcluded = newProjectKeysExcluded;
+		if (newProjectKeysIndexed != null) {
+			allIndexedProjectsKeys = newProjectKeysIndexed;
+			allIndexedProjectsKeysNextRefresh = Long.MAX_VALUE;
+		} else {
+			// reload from JIRA with current exclusions, new projects are scheduled then
+			allIndexedProjectsKeysNextRefresh = 0;
+		}
+
+		List<String> restartRequired = findSettingsRequiringRestart(configuredSettings, settings);
+		if (restartRequired.isEmpty()) {
+			logger.info("JIRA River reconfigured without restart");
+		} else {
+			logger.warn("JIRA River reconfigured without restart, changed settings {} are applied after restart only",
+					restartRequired);
+		}
+		return restartRequired;
+	}
+
+	/**
+	 * Find settings changed in new configuration which can't be applied without river restart.
+	 * 
+	 * @param oldSettings configuration river was configured with
+	 * @param newSettings new configuration
+	 * @return list of changed settings - key of <code>jira</code> section setting in <code>jira/key</code> form, or name
+	 *         of other changed section. Never null.
+	 */
+	@SuppressWarnings("unchecked")
+	protected static List<String> findSettingsRequiringRestart(Map<String, Object> oldSettings,
+			Map<String, Object> newSettings) {
+		List<String> ret = new ArrayList<String>();
+		if (oldSettings == null)
+			oldSettings = Collections.emptyMap();
+		Set<String> sections = new TreeSet<String>(oldSettings.keySet());
+		sections.addAll(newSettings.keySet());
+		for (String section : sections) {
+			Object oldValue = oldSettings.get(section);
+			Object newValue = newSettings.get(section);
+			if ("jira".equals(section) && oldValue instanceof Map && newValue instanceof Map) {
+				Map<String, Object> oldJira = (Map<String, Object>) oldValue;
+				Map<String, Object> newJira = (Map<String, Object>) newValue;
+				Set<String> keys = new TreeSet<String>(oldJira.keySet());
+				keys.addAll(newJira.keySet());
+				for (String key : keys) {
+					if (!LIVE_JIRA_SETTINGS.contains(key) && !valueEquals(oldJira.get(key), newJira.get(key)))
+						ret.add(section + "/" + key);
+				}
+			} else if (!valueEquals(oldValue, newValue)) {
+				ret.add(section);
+			}
+		}
+		return ret;
+	}
+
+	private static boolean valueEquals(Object o1, Object o2) {
+		return o1 == null ? o2 == null : o1.equals(o2);
+	}
+
 	/**
 	 * Restart jira river. Configuration of river is updated.
 	 */
@@ -511,6 +1039,14 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 	 */
 	@Override
 	public String getRiverOperationInfo(DiscoveryNode esNode, Date currentDate) throws Exception {
+		return getRiverOperationInfo(esNode, currentDate, null, 0, -1);
+	}
+
+	@Override
+	public String getRiverOperationInfo(DiscoveryNode esNode, Date currentDate, List<String> projectKeysFilter,
+			int from, int size) throws Exception {
+
+		warmUpIndexingHistory();
 
 		XContentBuilder builder = jsonBuilder().prettyPrint();
 		builder.startObject();
@@ -529,18 +1065,67 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 			builder.field("name", esNode.getName());
 			builder.endObject();
 		}
+		PoolStats poolStats = jiraClient != null ? jiraClient.getConnectionPoolStats() : null;
+		if (poolStats != null) {
+			builder.startObject("jira_connection_pool");
+			builder.field("leased", poolStats.getLeased());
+			builder.field("available", poolStats.getAvailable());
+			builder.field("pending", poolStats.getPending());
+			builder.field("max", poolStats.getMax());
+			builder.endObject();
+		}
+		JIRACircuitBreaker circuitBreaker = jiraClient != null ? jiraClient.getCircuitBreaker() : null;
+		if (circuitBreaker != null) {
+			builder.field("jira_circuit_breaker");
+			circuitBreaker.buildDocument(builder, System.currentTimeMillis());
+		}
+		if (!preprocessorCaches.isEmpty()) {
+			builder.startArray("preprocessor_caches");
+			for (CachingPreprocessor c : preprocessorCaches) {
+				c.buildDocument(builder);
+			}
+			builder.endArray();
+		}
+		JIRAMemoryBudget budget = memoryBudget;
+		if (budget != null) {
+			builder.field("memory_budget");
+			budget.buildDocument(builder);
+		}
+		if (adaptiveFetchController != null) {
+			builder.startObject("adaptive_fetch");
+			builder.field("indexing_threads", adaptiveFetchController.getConcurrency());
+			builder.endObject();
+		}
 		if (coordinatorInstance != null) {
 			List<ProjectIndexingInfo> currProjectIndexingInfo = coordinatorInstance.getCurrentProjectIndexingInfo();
 			if (currProjectIndexingInfo != null) {
 				builder.startArray("current_indexing");
 				for (ProjectIndexingInfo pi : currProjectIndexingInfo) {
-					pi.buildDocument(builder, null, true, false);
+					if (projectKeysFilter == null || projectKeysFilter.contains(pi.projectKey))
+						pi.buildDocument(builder, null, true, false);
 				}
 				builder.endArray();
 			}
 		}
 		List<String> pkeys = getAllIndexedProjectsKeys();
+		IssueDiagnostics issueDiagnostics = jiraIssueIndexStructureBuilder != null ? jiraIssueIndexStructureBuilder
+				.getIssueDiagnostics() : null;
 		if (pkeys != null) {
+			boolean paged = projectKeysFilter != null || from > 0 || size >= 0;
+			if (projectKeysFilter != null) {
+				List<String> filtered = new ArrayList<String>();
+				for (String projectKey : pkeys) {
+					if (projectKeysFilter.contains(projectKey))
+						filtered.add(projectKey);
+				}
+				pkeys = filtered;
+			}
+			if (paged) {
+				builder.field("indexed_jira_projects_total", pkeys.size());
+				int fromIdx = Math.min(Math.max(0, from), pkeys.size());
+				int toIdx = size >= 0 ? Math.min(fromIdx + size, pkeys.size()) : pkeys.size();
+				pkeys = pkeys.subList(fromIdx, toIdx);
+			}
 			builder.startArray("indexed_jira_projects");
 			for (String projectKey : pkeys) {
 				builder.startObject();
@@ -550,6 +1135,21 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 					builder.field("last_indexing");
 					lastIndexing.buildDocument(builder, null, false, true);
 				}
+				if (adaptiveFetchController != null) {
+					builder.field("adaptive_fetch");
+					if (!adaptiveFetchController.buildProjectDocument(builder, projectKey))
+						builder.nullValue();
+				}
+				if (issueDiagnostics != null) {
+					List<IssueDiagnosticRecord> records = issueDiagnostics.getTopRecords(projectKey);
+					if (!records.isEmpty()) {
+						builder.startArray("issue_diagnostics");
+						for (IssueDiagnosticRecord record : records) {
+							record.buildDocument(builder, null, false);
+						}
+						builder.endArray();
+					}
+				}
 				builder.endObject();
 			}
 			builder.endArray();
@@ -563,31 +1163,57 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 	 * @return project indexing info or null if not found.
 	 */
 	protected ProjectIndexingInfo getLastProjectIndexingInfo(String projectKey) {
-		ProjectIndexingInfo lastIndexing = lastProjectIndexingInfo.get(projectKey);
-		if (lastIndexing == null && activityLogIndexName != null) {
-			try {
-				refreshSearchIndex(activityLogIndexName);
-				SearchResponse sr = client
-						.prepareSearch(activityLogIndexName)
-						.setTypes(activityLogTypeName)
-						.setPostFilter(
-								FilterBuilders.andFilter(
-										FilterBuilders.termFilter(ProjectIndexingInfo.DOCFIELD_PROJECT_KEY, projectKey),
-										FilterBuilders.termFilter(ProjectIndexingInfo.DOCFIELD_RIVER_NAME, riverName().getName())))
-						.setQuery(QueryBuilders.matchAllQuery()).addSort(ProjectIndexingInfo.DOCFIELD_START_DATE, SortOrder.DESC)
-						.addField("_source").setSize(1).execute().actionGet();
-				if (sr.getHits().getTotalHits() > 0) {
-					SearchHit hit = sr.getHits().getAt(0);
-					lastIndexing = ProjectIndexingInfo.readFromDocument(hit.sourceAsMap());
-				} else {
-					logger.debug("No last indexing info found in activity log for project {}", projectKey);
+		warmUpIndexingHistory();
+		return lastProjectIndexingInfo.get(projectKey);
+	}
+
+	private static final String AGG_PROJECTS = "projects";
+	private static final String AGG_LAST_INDEXINGS = "last_indexings";
+
+	/**
+	 * Fill {@link #lastProjectIndexingInfo} with records read from activity log if not done yet. All projects are read
+	 * by one search request with aggregation. Unsuccessful read is repeated during first call after
+	 * {@link #INDEXING_HISTORY_WARMUP_RETRY_TIME}, so state requests do not hit unavailable activity log every time.
+	 */
+	protected void warmUpIndexingHistory() {
+		if (indexingHistoryWarmedUp || activityLogIndexName == null
+				|| System.currentTimeMillis() < indexingHistoryWarmUpNextAttempt)
+			return;
+		try {
+			refreshSearchIndex(activityLogIndexName);
+			SearchResponse sr = client
+					.prepareSearch(activityLogIndexName)
+					.setTypes(activityLogTypeName)
+					.setQuery(
+							QueryBuilders.filteredQuery(QueryBuilders.matchAllQuery(),
+									FilterBuilders.termFilter(ProjectIndexingInfo.DOCFIELD_RIVER_NAME, riverName().getName())))
+					.setSize(0)
+					.addAggregation(
+							AggregationBuilders
+									.terms(AGG_PROJECTS)
+									.field(ProjectIndexingInfo.DOCFIELD_PROJECT_KEY)
+									.size(0)
+									.subAggregation(
+											AggregationBuilders.topHits(AGG_LAST_INDEXINGS)
+													.addSort(ProjectIndexingInfo.DOCFIELD_START_DATE, SortOrder.DESC)
+													.setSize(lastProjectIndexingInfo.getSize()))).execute().actionGet();
+			int count = 0;
+			Terms projects = sr.getAggregations().get(AGG_PROJECTS);
+			for (Terms.Bucket bucket : projects.getBuckets()) {
+				TopHits lastIndexings = bucket.getAggregations().get(AGG_LAST_INDEXINGS);
+				for (SearchHit hit : lastIndexings.getHits()) {
+					ProjectIndexingInfo info = ProjectIndexingInfo.readFromDocument(hit.sourceAsMap());
+					if (lastProjectIndexingInfo.putOlder(info.projectKey, info))
+						count++;
 				}
-			} catch (Exception e) {
-				logger.warn("Error during LastProjectIndexingInfo reading from activity log ES index: {} {}", e.getClass()
-						.getName(), e.getMessage());
 			}
+			indexingHistoryWarmedUp = true;
+			logger.debug("Indexing history filled with {} records from activity log", count);
+		} catch (Exception e) {
+			indexingHistoryWarmUpNextAttempt = System.currentTimeMillis() + INDEXING_HISTORY_WARMUP_RETRY_TIME;
+			logger.warn("Error during indexing history reading from activity log ES index: {} {}", e.getClass().getName(),
+					e.getMessage());
 		}
-		return lastIndexing;
 	}
 
 	/**
@@ -641,11 +1267,21 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 	@Override
 	public List<String> getAllIndexedProjectsKeys() throws Exception {
 		if (allIndexedProjectsKeys == null || allIndexedProjectsKeysNextRefresh < System.currentTimeMillis()) {
-			allIndexedProjectsKeys = jiraClient.getAllJIRAProjects();
+			List<String> previousKeys = allIndexedProjectsKeys;
+			List<String> keys = jiraClient.getAllJIRAProjects();
 			if (projectKeysExcluded != null) {
-				allIndexedProjectsKeys.removeAll(projectKeysExcluded);
+				keys.removeAll(projectKeysExcluded);
+			}
+			allIndexedProjectsKeys = keys;
+			allIndexedProjectsKeysNextRefresh = System.currentTimeMillis() + projectListRefreshPeriod;
+			if (previousKeys != null && coordinatorInstance != null) {
+				List<String> newKeys = new ArrayList<String>(keys);
+				newKeys.removeAll(previousKeys);
+				if (!newKeys.isEmpty()) {
+					logger.info("New JIRA projects {} detected, scheduled for indexing", newKeys);
+					coordinatorInstance.scheduleNewProjects(newKeys);
+				}
 			}
-			allIndexedProjectsKeysNextRefresh = System.currentTimeMillis() + JIRA_PROJECTS_REFRESH_TIME;
 		}
 
 		return allIndexedProjectsKeys;
@@ -658,6 +1294,8 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 			try {
 				coordinatorInstance.reportIndexingFinished(indexingInfo.projectKey, indexingInfo.finishedOK,
 						indexingInfo.fullUpdate);
+				if (indexingInfo.finishedOK && indexingInfo.fullUpdate)
+					coordinatorInstance.reportProjectSize(indexingInfo.projectKey, indexingInfo.issuesUpdated);
 			} catch (Exception e) {
 				logger.warn("Indexing finished reporting to coordinator failed due {}", e.getMessage());
 			}
@@ -673,15 +1311,46 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 	protected void writeActivityLogRecord(ProjectIndexingInfo indexingInfo) {
 		if (activityLogIndexName != null) {
 			try {
-				client.prepareIndex(activityLogIndexName, activityLogTypeName)
-						.setSource(indexingInfo.buildDocument(jsonBuilder(), riverName().getName(), true, true)).execute()
-						.actionGet();
+				writeActivityLogDocument(activityLogTypeName,
+						indexingInfo.buildDocument(XContentFactory.contentBuilder(documentContentType), riverName().getName(),
+								true, true));
 			} catch (Exception e) {
 				logger.error("Error during index update result writing to the audit log {}", e.getMessage());
 			}
 		}
 	}
 
+	@Override
+	public void reportIssueDiagnosticRecord(IssueDiagnosticRecord record) {
+		if (activityLogIndexName != null) {
+			try {
+				writeActivityLogDocument(activityLogDiagnosticsTypeName,
+						record.buildDocument(XContentFactory.contentBuilder(documentContentType), riverName().getName(), true));
+			} catch (Exception e) {
+				logger.error("Error during issue diagnostics record writing to the audit log {}", e.getMessage());
+			}
+		}
+	}
+
+	/**
+	 * Write document into activity log. Over {@link #activityLogWriter} if running, synchronously otherwise (into
+	 * current partition index which is created if necessary in case of partitioned activity log).
+	 * 
+	 * @param typeName type of document
+	 * @param source of document
+	 */
+	protected void writeActivityLogDocument(String typeName, XContentBuilder source) {
+		ActivityLogWriter writer = activityLogWriter;
+		if (writer != null) {
+			writer.write(typeName, source);
+		} else {
+			String targetIndexName = activityLogRollover.getPartitionIndexName(activityLogIndexName, new Date());
+			if (activityLogRollover != ActivityLogRollover.NONE)
+				ActivityLogWriter.createPartitionIndex(client, logger, activityLogIndexName, targetIndexName);
+			client.prepareIndex(targetIndexName, typeName).setSource(source).execute().actionGet();
+		}
+	}
+
 	@Override
 	public void storeDatetimeValue(String projectKey, String propertyName, Date datetime, BulkRequestBuilder esBulk)
 			throws IOException {
@@ -722,10 +1391,24 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 	 */
 	protected XContentBuilder storeDatetimeValueBuildDocument(String projectKey, String propertyName, Date datetime)
 			throws IOException {
-		XContentBuilder builder = jsonBuilder().startObject();
+		return storeValueBuildDocument(projectKey, propertyName, DateTimeUtils.formatISODateTime(datetime));
+	}
+
+	/**
+	 * Prepare document to be stored as persistent value, {@link #documentContentType} is used.
+	 * 
+	 * @param projectKey key of project value is for
+	 * @param propertyName name of property
+	 * @param value to store
+	 * @return JSON document
+	 * @throws IOException
+	 */
+	protected XContentBuilder storeValueBuildDocument(String projectKey, String propertyName, String value)
+			throws IOException {
+		XContentBuilder builder = XContentFactory.contentBuilder(documentContentType).startObject();
 		if (projectKey != null)
 			builder.field("projectKey", projectKey);
-		builder.field("propertyName", propertyName).field(STORE_FIELD_VALUE, DateTimeUtils.formatISODateTime(datetime));
+		builder.field("propertyName", propertyName).field(STORE_FIELD_VALUE, value);
 		builder.endObject();
 		return builder;
 	}
@@ -777,6 +1460,42 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 
 	}
 
+	@Override
+	public void storeStringValue(String projectKey, String propertyName, String value, BulkRequestBuilder esBulk)
+			throws IOException {
+		String documentName = prepareValueStoreDocumentName(projectKey, propertyName);
+		if (logger.isDebugEnabled())
+			logger.debug("Going to write {} property with value {} for project {} using {} update. Document name is {}.",
+					propertyName, value, projectKey, (esBulk != null ? "bulk" : "direct"), documentName);
+		if (esBulk != null) {
+			esBulk.add(indexRequest(getRiverIndexName()).type(riverName.name()).id(documentName)
+					.source(storeValueBuildDocument(projectKey, propertyName, value)));
+		} else {
+			client.prepareIndex(getRiverIndexName(), riverName.name(), documentName)
+					.setSource(storeValueBuildDocument(projectKey, propertyName, value)).execute().actionGet();
+		}
+	}
+
+	@Override
+	public String readStringValue(String projectKey, String propertyName) throws IOException {
+		String documentName = prepareValueStoreDocumentName(projectKey, propertyName);
+
+		if (logger.isDebugEnabled())
+			logger.debug("Going to read value from {} property for project {}. Document name is {}.", propertyName,
+					projectKey, documentName);
+
+		refreshSearchIndex(getRiverIndexName());
+		GetResponse getResponse = client.prepareGet(getRiverIndexName(), riverName.name(), documentName).execute()
+				.actionGet();
+		if (getResponse.isExists()) {
+			Object value = getResponse.getSourceAsMap().get(STORE_FIELD_VALUE);
+			if (value != null) {
+				return value.toString();
+			}
+		}
+		return null;
+	}
+
 	/**
 	 * @return
 	 */
@@ -808,11 +1527,26 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 	}
 
 	@Override
-	public void executeESBulkRequest(BulkRequestBuilder esBulk) throws Exception {
+	public List<BulkItemResponse> executeESBulkRequest(BulkRequestBuilder esBulk) throws Exception {
 		BulkResponse response = esBulk.execute().actionGet();
+		List<BulkItemResponse> conflicts = new ArrayList<BulkItemResponse>();
 		if (response.hasFailures()) {
-			throw new ElasticsearchException("Failed to execute ES index bulk update: " + response.buildFailureMessage());
+			boolean failed = false;
+			for (BulkItemResponse item : response.getItems()) {
+				if (item.isFailed()) {
+					if (item.getFailure().getStatus() == RestStatus.CONFLICT) {
+						conflicts.add(item);
+					} else {
+						failed = true;
+					}
+				}
+			}
+			if (failed) {
+				throw new ElasticsearchException("Failed to execute ES index bulk update: " + response.buildFailureMessage());
+			}
+			logger.debug("{} stale documents skipped during ES index bulk update due version conflict", conflicts.size());
 		}
+		return conflicts;
 	}
 
 	@Override
@@ -843,6 +1577,17 @@ public class JiraRiver extends AbstractRiverComponent implements River, IESInteg
 				.actionGet();
 	}
 
+	@Override
+	public void clearESScrollSearch(SearchResponse scrollResp) {
+		if (scrollResp == null || scrollResp.getScrollId() == null)
+			return;
+		try {
+			client.prepareClearScroll().addScrollId(scrollResp.getScrollId()).execute().actionGet();
+		} catch (Exception e) {
+			logger.debug("Unable to clear scroll search: {}", e.getMessage());
+		}
+	}
+
 	@Override
 	public ESLogger createLogger(Class<?> clazz) {
 		return Loggers.getLogger(clazz, settings.globalSettings(), riverName);
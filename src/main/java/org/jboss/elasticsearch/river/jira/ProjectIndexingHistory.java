@@ -0,0 +1,139 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory history of last indexing runs for each project. Bounded number of records is kept for each project, the
+ * oldest are discarded. Implementation is thread safe.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class ProjectIndexingHistory {
+
+	/**
+	 * Default number of records kept for one project.
+	 */
+	public static final int SIZE_DEFAULT = 10;
+
+	protected final int size;
+
+	/**
+	 * Records for projects, key is project key. The latest record is at the end of list.
+	 */
+	protected final Map<String, LinkedList<ProjectIndexingInfo>> records = new HashMap<String, LinkedList<ProjectIndexingInfo>>();
+
+	/**
+	 * Create history with default size.
+	 */
+	public ProjectIndexingHistory() {
+		this(SIZE_DEFAULT);
+	}
+
+	/**
+	 * Create history.
+	 *
+	 * @param size number of records kept for one project
+	 */
+	public ProjectIndexingHistory(int size) {
+		if (size < 1)
+			throw new IllegalArgumentException("size must be positive number");
+		this.size = size;
+	}
+
+	/**
+	 * Add record about just finished indexing run of project.
+	 *
+	 * @param projectKey key of project
+	 * @param info about indexing run
+	 */
+	public synchronized void put(String projectKey, ProjectIndexingInfo info) {
+		LinkedList<ProjectIndexingInfo> list = getOrCreateList(projectKey);
+		list.addLast(info);
+		while (list.size() > size) {
+			list.removeFirst();
+		}
+	}
+
+	/**
+	 * Add record about older indexing run of project, eg. read from activity log. Record is added only if there is room
+	 * in the history and it is not there yet (compared by start date).
+	 *
+	 * @param projectKey key of project
+	 * @param info about indexing run
+	 * @return true if record was added
+	 */
+	public synchronized boolean putOlder(String projectKey, ProjectIndexingInfo info) {
+		LinkedList<ProjectIndexingInfo> list = getOrCreateList(projectKey);
+		if (list.size() >= size)
+			return false;
+		for (ProjectIndexingInfo i : list) {
+			if (i.startDate != null && i.startDate.equals(info.startDate))
+				return false;
+		}
+		// keep list ordered by start date
+		int idx = 0;
+		for (Iterator<ProjectIndexingInfo> it = list.iterator(); it.hasNext(); idx++) {
+			ProjectIndexingInfo i = it.next();
+			if (i.startDate != null && info.startDate != null && i.startDate.after(info.startDate))
+				break;
+		}
+		list.add(idx, info);
+		return true;
+	}
+
+	private LinkedList<ProjectIndexingInfo> getOrCreateList(String projectKey) {
+		LinkedList<ProjectIndexingInfo> list = records.get(projectKey);
+		if (list == null) {
+			list = new LinkedList<ProjectIndexingInfo>();
+			records.put(projectKey, list);
+		}
+		return list;
+	}
+
+	/**
+	 * Get record about last indexing run of project.
+	 *
+	 * @param projectKey key of project
+	 * @return last record or null if not available
+	 */
+	public synchronized ProjectIndexingInfo get(String projectKey) {
+		LinkedList<ProjectIndexingInfo> list = records.get(projectKey);
+		if (list == null || list.isEmpty())
+			return null;
+		return list.getLast();
+	}
+
+	/**
+	 * Get all records for project.
+	 *
+	 * @param projectKey key of project
+	 * @return list of records, the latest first. Never null.
+	 */
+	public synchronized List<ProjectIndexingInfo> getHistory(String projectKey) {
+		LinkedList<ProjectIndexingInfo> list = records.get(projectKey);
+		if (list == null)
+			return Collections.emptyList();
+		List<ProjectIndexingInfo> ret = new ArrayList<ProjectIndexingInfo>(list);
+		Collections.reverse(ret);
+		return ret;
+	}
+
+	/**
+	 * @return number of records kept for one project
+	 */
+	public int getSize() {
+		return size;
+	}
+
+}
@@ -29,6 +29,9 @@ public class ProjectIndexingInfo {
 	public static final String DOCFIELD_START_DATE = "start_date";
 	public static final String DOCFIELD_PROJECT_KEY = "project_key";
 	public static final String DOCFIELD_RIVER_NAME = "river_name";
+	public static final String DOCFIELD_PROGRESS = "progress";
+	public static final String DOCFIELD_EXTRA_JIRA_CALLS = "extra_jira_calls";
+	public static final String DOCFIELD_STALE_DOCUMENTS_SKIPPED = "stale_documents_skipped";
 
 	/**
 	 * Key of JIRA project this indexing is for.
@@ -50,6 +53,16 @@ public class ProjectIndexingInfo {
 	 * Number of comment/changelog documents deleted during this indexing run.
 	 */
 	public int commentsDeleted;
+	/**
+	 * Number of extra JIRA calls performed during this indexing run to complete truncated comments and changelogs of
+	 * issues.
+	 */
+	public int extraJiraCalls;
+	/**
+	 * Number of issue, comment and changelog documents not written during this indexing run because newer snapshot of
+	 * issue was indexed already (rejected by external versioning).
+	 */
+	public int staleDocumentsSkipped;
 
 	/**
 	 * Date of indexing start.
@@ -67,6 +80,10 @@ public class ProjectIndexingInfo {
 	 * error message if indexing finished with error
 	 */
 	public String errorMessage;
+	/**
+	 * Snapshot of progress of running indexing, published by indexer thread. Not stored into activity log.
+	 */
+	public volatile ProjectIndexingProgress progress;
 
 	/**
 	 * Partially filling constructor.
@@ -112,7 +129,8 @@ public class ProjectIndexingInfo {
 	 * 
 	 * @param builder to add information Object into
 	 * @param printProjectKey set to true to print project key into document
-	 * @param printFinalStatus set to true to print final status info into document
+	 * @param printFinalStatus set to true to print final status info into document, progress of running indexing is
+	 *          printed if false
 	 * @return builder same as on input.
 	 * @throws IOException
 	 */
@@ -128,12 +146,22 @@ public class ProjectIndexingInfo {
 		builder.field(DOCFIELD_START_DATE, startDate);
 		builder.field(DOCFIELD_ISSUES_UPDATED, issuesUpdated);
 		builder.field(DOCFIELD_ISSUES_DELETED, issuesDeleted);
+		if (extraJiraCalls > 0)
+			builder.field(DOCFIELD_EXTRA_JIRA_CALLS, extraJiraCalls);
+		if (staleDocumentsSkipped > 0)
+			builder.field(DOCFIELD_STALE_DOCUMENTS_SKIPPED, staleDocumentsSkipped);
 		if (printFinalStatus) {
 			builder.field(DOCFIELD_RESULT, finishedOK ? DOCVAL_RESULT_OK : "ERROR");
 			builder.field(DOCFIELD_TIME_ELAPSED, timeElapsed + "ms");
 			if (!finishedOK && !Utils.isEmpty(errorMessage)) {
 				builder.field(DOCFIELD_ERROR_MESSAGE, errorMessage);
 			}
+		} else {
+			ProjectIndexingProgress p = progress;
+			if (p != null) {
+				builder.field(DOCFIELD_PROGRESS);
+				p.buildDocument(builder);
+			}
 		}
 		builder.endObject();
 		return builder;
@@ -153,6 +181,10 @@ public class ProjectIndexingInfo {
 		ret.startDate = DateTimeUtils.parseISODateTime((String) document.get(DOCFIELD_START_DATE));
 		ret.issuesUpdated = Utils.nodeIntegerValue(document.get(DOCFIELD_ISSUES_UPDATED));
 		ret.issuesDeleted = Utils.nodeIntegerValue(document.get(DOCFIELD_ISSUES_DELETED));
+		if (document.get(DOCFIELD_EXTRA_JIRA_CALLS) != null)
+			ret.extraJiraCalls = Utils.nodeIntegerValue(document.get(DOCFIELD_EXTRA_JIRA_CALLS));
+		if (document.get(DOCFIELD_STALE_DOCUMENTS_SKIPPED) != null)
+			ret.staleDocumentsSkipped = Utils.nodeIntegerValue(document.get(DOCFIELD_STALE_DOCUMENTS_SKIPPED));
 		ret.finishedOK = DOCVAL_RESULT_OK.equals(document.get(DOCFIELD_RESULT));
 		ret.timeElapsed = Long.parseLong(((String) document.get(DOCFIELD_TIME_ELAPSED)).replace("ms", ""));
 		ret.errorMessage = (String) document.get(DOCFIELD_ERROR_MESSAGE);
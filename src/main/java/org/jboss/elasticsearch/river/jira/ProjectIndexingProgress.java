@@ -0,0 +1,143 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.IOException;
+import java.util.Date;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+/**
+ * Immutable snapshot of running project indexing progress. New instance is published by {@link JIRAProjectIndexer}
+ * after each processed page of issues, so it can be read from other threads (eg. by state management REST action)
+ * without any locking.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public final class ProjectIndexingProgress {
+
+	public static final String DOCFIELD_PHASE = "phase";
+	public static final String DOCFIELD_PAGES_DONE = "pages_done";
+	public static final String DOCFIELD_ISSUES_DONE = "issues_done";
+	public static final String DOCFIELD_ISSUES_TOTAL = "issues_total";
+	public static final String DOCFIELD_ISSUES_PER_SECOND = "issues_per_second";
+	public static final String DOCFIELD_ESTIMATED_COMPLETION = "estimated_completion";
+
+	/**
+	 * Phase of the indexing run.
+	 */
+	public static enum Phase {
+		/**
+		 * Issues are fetched from JIRA.
+		 */
+		FETCH,
+		/**
+		 * Fetched issues are transformed and written into search index.
+		 */
+		BULK,
+		/**
+		 * Issues removed from JIRA are deleted from search index (full update only).
+		 */
+		DELETE;
+	}
+
+	/**
+	 * Weight of last page throughput in moving average of issues per second.
+	 */
+	protected static final double RATE_SMOOTHING_FACTOR = 0.3d;
+
+	/**
+	 * Progress in the very beginning of indexing run.
+	 */
+	public static final ProjectIndexingProgress INITIAL = new ProjectIndexingProgress(Phase.FETCH, 0, 0, -1, 0d, null);
+
+	public final Phase phase;
+	/**
+	 * Number of pages of issues processed.
+	 */
+	public final int pagesDone;
+	/**
+	 * Number of issues processed.
+	 */
+	public final int issuesDone;
+	/**
+	 * Estimation of total number of issues processed by this run based on JIRA-reported total, -1 if not known yet.
+	 */
+	public final int issuesTotal;
+	/**
+	 * Moving average of throughput in issues per second.
+	 */
+	public final double issuesPerSecond;
+	/**
+	 * Estimated time of issues update completion, null if not known.
+	 */
+	public final Date estimatedCompletion;
+
+	public ProjectIndexingProgress(Phase phase, int pagesDone, int issuesDone, int issuesTotal, double issuesPerSecond,
+			Date estimatedCompletion) {
+		super();
+		this.phase = phase;
+		this.pagesDone = pagesDone;
+		this.issuesDone = issuesDone;
+		this.issuesTotal = issuesTotal;
+		this.issuesPerSecond = issuesPerSecond;
+		this.estimatedCompletion = estimatedCompletion;
+	}
+
+	/**
+	 * Create copy of this progress with changed phase.
+	 *
+	 * @param newPhase to set
+	 * @return new progress instance
+	 */
+	public ProjectIndexingProgress withPhase(Phase newPhase) {
+		return new ProjectIndexingProgress(newPhase, pagesDone, issuesDone, issuesTotal, issuesPerSecond,
+				estimatedCompletion);
+	}
+
+	/**
+	 * Create new progress after next page of issues is processed.
+	 *
+	 * @param pageIssues number of issues in processed page
+	 * @param pageTime time spent by processing of page [ms]
+	 * @param issuesRemaining estimation of remaining issues to process reported by JIRA
+	 * @param now current time [ms]
+	 * @return new progress instance
+	 */
+	public ProjectIndexingProgress pageProcessed(int pageIssues, long pageTime, int issuesRemaining, long now) {
+		double pageRate = pageIssues * 1000d / Math.max(1, pageTime);
+		double rate = pagesDone == 0 ? pageRate : (RATE_SMOOTHING_FACTOR * pageRate + (1 - RATE_SMOOTHING_FACTOR)
+				* issuesPerSecond);
+		int done = issuesDone + pageIssues;
+		int remaining = Math.max(0, issuesRemaining);
+		Date eta = null;
+		if (rate > 0)
+			eta = new Date(now + (long) (remaining * 1000d / rate));
+		return new ProjectIndexingProgress(phase, pagesDone + 1, done, done + remaining, rate, eta);
+	}
+
+	/**
+	 * Add object with progress info to given document builder.
+	 *
+	 * @param builder to add information Object into
+	 * @return builder same as on input.
+	 * @throws IOException
+	 */
+	public XContentBuilder buildDocument(XContentBuilder builder) throws IOException {
+		builder.startObject();
+		builder.field(DOCFIELD_PHASE, phase.name());
+		builder.field(DOCFIELD_PAGES_DONE, pagesDone);
+		builder.field(DOCFIELD_ISSUES_DONE, issuesDone);
+		if (issuesTotal >= 0)
+			builder.field(DOCFIELD_ISSUES_TOTAL, issuesTotal);
+		builder.field(DOCFIELD_ISSUES_PER_SECOND, Math.round(issuesPerSecond * 10) / 10d);
+		if (estimatedCompletion != null)
+			builder.field(DOCFIELD_ESTIMATED_COMPLETION, estimatedCompletion);
+		builder.endObject();
+		return builder;
+	}
+
+}
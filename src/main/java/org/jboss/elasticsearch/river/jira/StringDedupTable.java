@@ -0,0 +1,194 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentParser;
+
+/**
+ * Bounded open-addressing table used to deduplicate string values while JSON response from JIRA is parsed into
+ * <code>Map of Maps</code> structure, so repeated values (status, issue type and project names, user names and emails,
+ * dates etc.) share one String instance instead of one instance per occurrence. Values are looked up by content of
+ * parser's character buffer, so String is created only for first occurrence of value. Table never grows, when all
+ * probed slots are occupied by other values the home slot is overwritten. Long values (eg. descriptions) are not
+ * deduplicated as they rarely repeat. Table is meant to be used for one parser run only, so implementation is not
+ * thread safe.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class StringDedupTable {
+
+	/**
+	 * Maximal size of table.
+	 */
+	public static final int MAX_SIZE = 1 << 20;
+
+	/**
+	 * Maximal length of deduplicated value, longer values are always created as new String.
+	 */
+	public static final int MAX_VALUE_LENGTH = 128;
+
+	/**
+	 * Maximal number of slots probed for value.
+	 */
+	protected static final int MAX_PROBES = 8;
+
+	protected final String[] slots;
+
+	protected final int mask;
+
+	protected int hits = 0;
+
+	protected int misses = 0;
+
+	/**
+	 * Create table.
+	 *
+	 * @param size of table, rounded up to power of two, must be between 1 and {@link #MAX_SIZE}
+	 */
+	public StringDedupTable(int size) {
+		if (size < 1 || size > MAX_SIZE)
+			throw new IllegalArgumentException("size must be between 1 and " + MAX_SIZE);
+		int capacity = Integer.highestOneBit(size);
+		if (capacity < size)
+			capacity <<= 1;
+		slots = new String[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Get String for value stored in character buffer. Instance from table is returned if the same value was
+	 * deduplicated before.
+	 *
+	 * @param buffer with value
+	 * @param offset of value in buffer
+	 * @param length of value
+	 * @return string value
+	 */
+	public String dedup(char[] buffer, int offset, int length) {
+		if (length > MAX_VALUE_LENGTH)
+			return new String(buffer, offset, length);
+		int hash = 0;
+		for (int i = 0; i < length; i++) {
+			hash = 31 * hash + buffer[offset + i];
+		}
+		int home = (hash ^ (hash >>> 16)) & mask;
+		int idx = home;
+		int free = -1;
+		for (int probe = 0; probe < MAX_PROBES; probe++) {
+			String s = slots[idx];
+			if (s == null) {
+				free = idx;
+				break;
+			}
+			if (s.length() == length && s.hashCode() == hash && contentEquals(s, buffer, offset, length)) {
+				hits++;
+				return s;
+			}
+			idx = (idx + 1) & mask;
+			if (idx == home)
+				break;
+		}
+		misses++;
+		String ret = new String(buffer, offset, length);
+		slots[free >= 0 ? free : home] = ret;
+		return ret;
+	}
+
+	private static boolean contentEquals(String s, char[] buffer, int offset, int length) {
+		for (int i = 0; i < length; i++) {
+			if (s.charAt(i) != buffer[offset + i])
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Read JSON object from parser into <code>Map of Maps</code> structure with deduplicated string values. Same
+	 * structure as {@link XContentParser#map()} is created.
+	 *
+	 * @param parser to read from, closed at the end
+	 * @return read structure
+	 * @throws IOException
+	 */
+	public Map<String, Object> readMapAndClose(XContentParser parser) throws IOException {
+		try {
+			XContentParser.Token token = parser.currentToken();
+			if (token == null)
+				token = parser.nextToken();
+			if (token == XContentParser.Token.START_OBJECT)
+				token = parser.nextToken();
+			return readMap(parser, token);
+		} finally {
+			parser.close();
+		}
+	}
+
+	protected Map<String, Object> readMap(XContentParser parser, XContentParser.Token token) throws IOException {
+		Map<String, Object> ret = new HashMap<String, Object>();
+		for (; token == XContentParser.Token.FIELD_NAME; token = parser.nextToken()) {
+			String fieldName = parser.currentName();
+			ret.put(fieldName, readValue(parser, parser.nextToken()));
+		}
+		return ret;
+	}
+
+	protected List<Object> readList(XContentParser parser) throws IOException {
+		List<Object> ret = new ArrayList<Object>();
+		XContentParser.Token token;
+		while ((token = parser.nextToken()) != XContentParser.Token.END_ARRAY) {
+			ret.add(readValue(parser, token));
+		}
+		return ret;
+	}
+
+	protected Object readValue(XContentParser parser, XContentParser.Token token) throws IOException {
+		if (token == XContentParser.Token.VALUE_STRING) {
+			if (parser.hasTextCharacters())
+				return dedup(parser.textCharacters(), parser.textOffset(), parser.textLength());
+			String text = parser.text();
+			return dedup(text.toCharArray(), 0, text.length());
+		} else if (token == XContentParser.Token.VALUE_NUMBER) {
+			return parser.numberValue();
+		} else if (token == XContentParser.Token.VALUE_BOOLEAN) {
+			return parser.booleanValue();
+		} else if (token == XContentParser.Token.START_OBJECT) {
+			return readMap(parser, parser.nextToken());
+		} else if (token == XContentParser.Token.START_ARRAY) {
+			return readList(parser);
+		} else if (token == XContentParser.Token.VALUE_EMBEDDED_OBJECT) {
+			return parser.binaryValue();
+		}
+		return null;
+	}
+
+	/**
+	 * @return number of slots in table
+	 */
+	public int capacity() {
+		return slots.length;
+	}
+
+	/**
+	 * @return number of values served from table
+	 */
+	public int getHits() {
+		return hits;
+	}
+
+	/**
+	 * @return number of values created as new String
+	 */
+	public int getMisses() {
+		return misses;
+	}
+
+}
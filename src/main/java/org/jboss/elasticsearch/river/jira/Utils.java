@@ -223,6 +223,28 @@ public class Utils {
 		mapToChange.putAll(newMap);
 	}
 
+	/**
+	 * Parse content type of documents written into search index from configuration.
+	 * 
+	 * @param value from configuration, <code>json</code>, <code>smile</code> or <code>cbor</code> (case insensitive)
+	 * @param key of config value, used in error message
+	 * @return content type, {@link XContentType#JSON} if value is empty
+	 * @throws SettingsException if value is not supported
+	 */
+	public static XContentType parseDocumentContentType(String value, String key) throws SettingsException {
+		value = trimToNull(value);
+		if (value == null)
+			return XContentType.JSON;
+		if ("json".equalsIgnoreCase(value))
+			return XContentType.JSON;
+		if ("smile".equalsIgnoreCase(value))
+			return XContentType.SMILE;
+		if ("cbor".equalsIgnoreCase(value))
+			return XContentType.CBOR;
+		throw new SettingsException("Unsupported value '" + value + "' for '" + key
+				+ "' configuration, json, smile or cbor is expected");
+	}
+
 	/**
 	 * Read JSON file from classpath into Map of Map structure.
 	 * 
@@ -12,7 +12,7 @@ package org.jboss.elasticsearch.river.jira.mgm.lifecycle;
  */
 public enum JRLifecycleCommand {
 
-  STOP(1), RESTART(2);
+  STOP(1), RESTART(2), RECONFIGURE(3);
 
   private int id;
 
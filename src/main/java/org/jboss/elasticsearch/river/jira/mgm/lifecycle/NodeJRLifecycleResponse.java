@@ -1,6 +1,10 @@
 package org.jboss.elasticsearch.river.jira.mgm.lifecycle;
 
+import java.io.IOException;
+
 import org.elasticsearch.cluster.node.DiscoveryNode;
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
 import org.jboss.elasticsearch.river.jira.mgm.NodeJRMgmBaseResponse;
 
 /**
@@ -10,6 +14,11 @@ import org.jboss.elasticsearch.river.jira.mgm.NodeJRMgmBaseResponse;
  */
 public class NodeJRLifecycleResponse extends NodeJRMgmBaseResponse {
 
+  /**
+   * Changed settings not applied by {@link JRLifecycleCommand#RECONFIGURE} because river restart is necessary.
+   */
+  protected String[] restartRequiredSettings = new String[0];
+
   protected NodeJRLifecycleResponse() {
   }
 
@@ -32,4 +41,32 @@ public class NodeJRLifecycleResponse extends NodeJRMgmBaseResponse {
     super(node, riverFound);
   }
 
+  /**
+   * Create response with values to be send back to requestor.
+   * 
+   * @param node this response is for.
+   * @param riverFound set to true if you found river on this node
+   * @param restartRequiredSettings changed settings which require river restart
+   */
+  public NodeJRLifecycleResponse(DiscoveryNode node, boolean riverFound, String[] restartRequiredSettings) {
+    super(node, riverFound);
+    this.restartRequiredSettings = restartRequiredSettings;
+  }
+
+  @Override
+  public void readFrom(StreamInput in) throws IOException {
+    super.readFrom(in);
+    restartRequiredSettings = in.readStringArray();
+  }
+
+  @Override
+  public void writeTo(StreamOutput out) throws IOException {
+    super.writeTo(out);
+    out.writeStringArray(restartRequiredSettings);
+  }
+
+  public String[] getRestartRequiredSettings() {
+    return restartRequiredSettings;
+  }
+
 }
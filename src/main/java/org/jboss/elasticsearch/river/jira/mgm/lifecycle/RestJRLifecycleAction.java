@@ -5,6 +5,8 @@
  */
 package org.jboss.elasticsearch.river.jira.mgm.lifecycle;
 
+import java.util.Arrays;
+
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.inject.Inject;
 import org.elasticsearch.common.settings.Settings;
@@ -12,6 +14,7 @@ import org.elasticsearch.rest.BytesRestResponse;
 import org.elasticsearch.rest.RestChannel;
 import org.elasticsearch.rest.RestController;
 import org.elasticsearch.rest.RestRequest;
+import org.jboss.elasticsearch.river.jira.Utils;
 import org.jboss.elasticsearch.river.jira.mgm.JRMgmBaseActionListener;
 import org.jboss.elasticsearch.river.jira.mgm.RestJRMgmBaseAction;
 
@@ -30,6 +33,7 @@ public class RestJRLifecycleAction extends RestJRMgmBaseAction {
 		String baseUrl = baseRestMgmUrl();
 		controller.registerHandler(org.elasticsearch.rest.RestRequest.Method.POST, baseUrl + "stop", this);
 		controller.registerHandler(org.elasticsearch.rest.RestRequest.Method.POST, baseUrl + "restart", this);
+		controller.registerHandler(org.elasticsearch.rest.RestRequest.Method.POST, baseUrl + "reconfigure", this);
 	}
 
 	@Override
@@ -38,6 +42,8 @@ public class RestJRLifecycleAction extends RestJRMgmBaseAction {
 		JRLifecycleCommand command = JRLifecycleCommand.RESTART;
 		if (restRequest.path().endsWith("stop"))
 			command = JRLifecycleCommand.STOP;
+		else if (restRequest.path().endsWith("reconfigure"))
+			command = JRLifecycleCommand.RECONFIGURE;
 
 		JRLifecycleRequest actionRequest = new JRLifecycleRequest(restRequest.param("riverName"), command);
 
@@ -52,8 +58,11 @@ public class RestJRLifecycleAction extends RestJRMgmBaseAction {
 
 							@Override
 							protected void handleJiraRiverResponse(NodeJRLifecycleResponse nodeInfo) throws Exception {
-								restChannel.sendResponse(new BytesRestResponse(OK, buildMessageDocument(restRequest,
-										"Command successful")));
+								String message = "Command successful";
+								if (nodeInfo.getRestartRequiredSettings().length > 0)
+									message += ", river restart is necessary to apply changed settings: "
+											+ Utils.createCsvString(Arrays.asList(nodeInfo.getRestartRequiredSettings()));
+								restChannel.sendResponse(new BytesRestResponse(OK, buildMessageDocument(restRequest, message)));
 							}
 
 						});
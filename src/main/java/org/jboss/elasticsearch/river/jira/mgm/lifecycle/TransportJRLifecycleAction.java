@@ -5,6 +5,8 @@
  */
 package org.jboss.elasticsearch.river.jira.mgm.lifecycle;
 
+import java.util.List;
+
 import org.elasticsearch.action.support.ActionFilters;
 import org.elasticsearch.cluster.ClusterName;
 import org.elasticsearch.cluster.ClusterService;
@@ -42,6 +44,9 @@ public class TransportJRLifecycleAction extends
 		case RESTART:
 			river.restart();
 			break;
+		case RECONFIGURE:
+			List<String> restartRequired = river.reconfigureLive();
+			return new NodeJRLifecycleResponse(node, true, restartRequired.toArray(new String[restartRequired.size()]));
 		default:
 			throw new UnsupportedOperationException("Command " + command + " is not supported");
 		}
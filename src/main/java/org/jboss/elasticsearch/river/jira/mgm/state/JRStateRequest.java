@@ -5,6 +5,11 @@
  */
 package org.jboss.elasticsearch.river.jira.mgm.state;
 
+import java.io.IOException;
+
+import org.elasticsearch.common.io.stream.StreamInput;
+import org.elasticsearch.common.io.stream.StreamOutput;
+import org.jboss.elasticsearch.river.jira.Utils;
 import org.jboss.elasticsearch.river.jira.mgm.JRMgmBaseRequest;
 
 /**
@@ -14,6 +19,21 @@ import org.jboss.elasticsearch.river.jira.mgm.JRMgmBaseRequest;
  */
 public class JRStateRequest extends JRMgmBaseRequest<JRStateRequest> {
 
+	/**
+	 * Comma separated keys of JIRA projects to return state for. Null or Empty means all projects.
+	 */
+	private String projectKeys;
+
+	/**
+	 * Index of first indexed project returned.
+	 */
+	private int from = 0;
+
+	/**
+	 * Maximal number of indexed projects returned, -1 means all.
+	 */
+	private int size = -1;
+
 	JRStateRequest() {
 
 	}
@@ -27,9 +47,57 @@ public class JRStateRequest extends JRMgmBaseRequest<JRStateRequest> {
 		super(riverName);
 	}
 
+	public String getProjectKeys() {
+		return projectKeys;
+	}
+
+	public void setProjectKeys(String projectKeys) {
+		this.projectKeys = projectKeys;
+	}
+
+	public int getFrom() {
+		return from;
+	}
+
+	public void setFrom(int from) {
+		this.from = from;
+	}
+
+	public int getSize() {
+		return size;
+	}
+
+	public void setSize(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * @return true if request asks for subset of projects only
+	 */
+	public boolean isPagedRequest() {
+		return !Utils.isEmpty(projectKeys) || from > 0 || size >= 0;
+	}
+
+	@Override
+	public void readFrom(StreamInput in) throws IOException {
+		super.readFrom(in);
+		projectKeys = in.readOptionalString();
+		from = in.readVInt();
+		size = in.readInt();
+	}
+
+	@Override
+	public void writeTo(StreamOutput out) throws IOException {
+		super.writeTo(out);
+		out.writeOptionalString(projectKeys);
+		out.writeVInt(from);
+		out.writeInt(size);
+	}
+
 	@Override
 	public String toString() {
-		return "JRStateRequest [riverName=" + riverName + "]";
+		return "JRStateRequest [riverName=" + riverName + ", projectKeys=" + projectKeys + ", from=" + from + ", size="
+				+ size + "]";
 	}
 
 }
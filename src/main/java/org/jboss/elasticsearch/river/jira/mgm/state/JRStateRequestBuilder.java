@@ -32,6 +32,39 @@ public class JRStateRequestBuilder extends
 		return this;
 	}
 
+	/**
+	 * Set comma separated keys of projects to get state for.
+	 * 
+	 * @param projectKeys keys of projects, null for all projects
+	 * @return builder for chaining
+	 */
+	public JRStateRequestBuilder setProjectKeys(String projectKeys) {
+		this.request.setProjectKeys(projectKeys);
+		return this;
+	}
+
+	/**
+	 * Set index of first indexed project returned.
+	 * 
+	 * @param from index
+	 * @return builder for chaining
+	 */
+	public JRStateRequestBuilder setFrom(int from) {
+		this.request.setFrom(from);
+		return this;
+	}
+
+	/**
+	 * Set maximal number of indexed projects returned.
+	 * 
+	 * @param size maximal number, -1 for all
+	 * @return builder for chaining
+	 */
+	public JRStateRequestBuilder setSize(int size) {
+		this.request.setSize(size);
+		return this;
+	}
+
 	@Override
 	protected void doExecute(ActionListener<JRStateResponse> listener) {
 		if (request.getRiverName() == null)
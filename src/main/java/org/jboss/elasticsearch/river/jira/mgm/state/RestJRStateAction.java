@@ -35,6 +35,9 @@ public class RestJRStateAction extends RestJRMgmBaseAction {
 	public void handleRequest(final RestRequest restRequest, final RestChannel restChannel, Client client) {
 
 		JRStateRequest actionRequest = new JRStateRequest(restRequest.param("riverName"));
+		actionRequest.setProjectKeys(restRequest.param("projectKeys"));
+		actionRequest.setFrom(restRequest.paramAsInt("from", 0));
+		actionRequest.setSize(restRequest.paramAsInt("size", -1));
 
 		client
 				.admin()
@@ -16,6 +16,7 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.threadpool.ThreadPool;
 import org.elasticsearch.transport.TransportService;
 import org.jboss.elasticsearch.river.jira.IJiraRiverMgm;
+import org.jboss.elasticsearch.river.jira.Utils;
 import org.jboss.elasticsearch.river.jira.mgm.TransportJRMgmBaseAction;
 
 /**
@@ -36,7 +37,13 @@ public class TransportJRStateAction extends
 	protected NodeJRStateResponse performOperationOnJiraRiver(IJiraRiverMgm river, JRStateRequest req, DiscoveryNode node)
 			throws Exception {
 		logger.debug("Go to get state information from river '{}'", req.getRiverName());
-		String ret = river.getRiverOperationInfo(node, new Date());
+		String ret = null;
+		if (req.isPagedRequest()) {
+			ret = river.getRiverOperationInfo(node, new Date(), Utils.parseCsvString(req.getProjectKeys()), req.getFrom(),
+					req.getSize());
+		} else {
+			ret = river.getRiverOperationInfo(node, new Date());
+		}
 		return new NodeJRStateResponse(node, true, ret);
 	}
 
@@ -0,0 +1,60 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.settings.SettingsException;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ActivityLogRollover}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class ActivityLogRolloverTest {
+
+	@Test
+	public void parseConfiguration() {
+		Assert.assertEquals(ActivityLogRollover.NONE, ActivityLogRollover.parseConfiguration(null, ActivityLogRollover.NONE));
+		Assert.assertEquals(ActivityLogRollover.DAILY, ActivityLogRollover.parseConfiguration("", ActivityLogRollover.DAILY));
+		Assert.assertEquals(ActivityLogRollover.NONE, ActivityLogRollover.parseConfiguration("none", null));
+		Assert.assertEquals(ActivityLogRollover.DAILY, ActivityLogRollover.parseConfiguration("Daily", null));
+		Assert.assertEquals(ActivityLogRollover.MONTHLY, ActivityLogRollover.parseConfiguration("monthly", null));
+		try {
+			ActivityLogRollover.parseConfiguration("weekly", null);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void getPartitionIndexName() {
+		Assert.assertEquals("log",
+				ActivityLogRollover.NONE.getPartitionIndexName("log", DateTimeUtils.parseISODateTime("2012-09-10T23:55:58Z")));
+		Assert.assertEquals("log_2012.09.10",
+				ActivityLogRollover.DAILY.getPartitionIndexName("log", DateTimeUtils.parseISODateTime("2012-09-10T23:55:58Z")));
+		Assert.assertEquals("log_2012.09",
+				ActivityLogRollover.MONTHLY.getPartitionIndexName("log", DateTimeUtils.parseISODateTime("2012-09-10T23:55:58Z")));
+	}
+
+	@Test
+	public void getPartitionEnd() {
+		Assert.assertNull(ActivityLogRollover.NONE.getPartitionEnd("log", "log"));
+		Assert.assertNull(ActivityLogRollover.DAILY.getPartitionEnd("log", "log"));
+		Assert.assertNull(ActivityLogRollover.DAILY.getPartitionEnd("log", "other_2012.09.10"));
+		Assert.assertNull(ActivityLogRollover.DAILY.getPartitionEnd("log", "log_2012.09"));
+		Assert.assertNull(ActivityLogRollover.DAILY.getPartitionEnd("log", "log_2012.13.10"));
+		Assert.assertNull(ActivityLogRollover.MONTHLY.getPartitionEnd("log", "log_backup"));
+
+		Assert.assertEquals(DateTimeUtils.parseISODateTime("2012-09-11T00:00:00Z"),
+				ActivityLogRollover.DAILY.getPartitionEnd("log", "log_2012.09.10"));
+		Assert.assertEquals(DateTimeUtils.parseISODateTime("2013-01-01T00:00:00Z"),
+				ActivityLogRollover.MONTHLY.getPartitionEnd("log", "log_2012.12"));
+	}
+
+}
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.Date;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.jboss.elasticsearch.river.jira.testtools.ESRealClientTestBase;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit test for {@link ActivityLogWriter}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class ActivityLogWriterTest extends ESRealClientTestBase {
+
+	private static final String ALIAS = "activity_log";
+
+	@Test
+	public void write_noRollover() throws Exception {
+		try {
+			Client client = prepareESClientForUnitTest();
+			indexCreate(ALIAS);
+
+			ActivityLogWriter tested = new ActivityLogWriter(mockEsIntegrationComponent(), client, ALIAS,
+					ActivityLogRollover.NONE, 0, 1000, 10);
+
+			tested.write("type1", XContentFactory.jsonBuilder().startObject().field("a", "b").endObject());
+			tested.write("type2", XContentFactory.jsonBuilder().startObject().field("a", "c").endObject());
+			Assert.assertEquals(2, tested.queue.size());
+
+			tested.close();
+			Assert.assertEquals(0, tested.queue.size());
+			client.admin().indices().prepareRefresh(ALIAS).execute().actionGet();
+			Assert.assertEquals(2, client.prepareCount(ALIAS).execute().actionGet().getCount());
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
+	@Test
+	public void write_fullQueueFlushed() throws Exception {
+		try {
+			Client client = prepareESClientForUnitTest();
+			indexCreate(ALIAS);
+
+			ActivityLogWriter tested = new ActivityLogWriter(mockEsIntegrationComponent(), client, ALIAS,
+					ActivityLogRollover.NONE, 0, 1000, 2);
+
+			for (int i = 0; i < 5; i++) {
+				tested.write("type1", XContentFactory.jsonBuilder().startObject().field("a", i).endObject());
+			}
+			Assert.assertEquals(1, tested.queue.size());
+			client.admin().indices().prepareRefresh(ALIAS).execute().actionGet();
+			Assert.assertEquals(4, client.prepareCount(ALIAS).execute().actionGet().getCount());
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
+	@Test
+	public void write_dailyRolloverWithRetention() throws Exception {
+		try {
+			Client client = prepareESClientForUnitTest();
+			indexCreate(ALIAS + "_2012.01.01");
+			indexCreate(ALIAS + "_backup");
+
+			ActivityLogWriter tested = new ActivityLogWriter(mockEsIntegrationComponent(), client, ALIAS,
+					ActivityLogRollover.DAILY, 2 * 24 * 60 * 60 * 1000L, 1000, 10);
+
+			tested.write("type1", XContentFactory.jsonBuilder().startObject().field("a", "b").endObject());
+			tested.flush();
+
+			String partition = ActivityLogRollover.DAILY.getPartitionIndexName(ALIAS, new Date());
+			Assert.assertTrue(client.admin().indices().prepareExists(partition).execute().actionGet().isExists());
+			Assert.assertFalse(client.admin().indices().prepareExists(ALIAS + "_2012.01.01").execute().actionGet()
+					.isExists());
+			Assert.assertTrue(client.admin().indices().prepareExists(ALIAS + "_backup").execute().actionGet().isExists());
+
+			// records are available over alias
+			client.admin().indices().prepareRefresh(ALIAS).execute().actionGet();
+			Assert.assertEquals(1, client.prepareCount(ALIAS).execute().actionGet().getCount());
+
+			// next write to existing partition
+			tested.write("type1", XContentFactory.jsonBuilder().startObject().field("a", "b").endObject());
+			tested.flush();
+			client.admin().indices().prepareRefresh(ALIAS).execute().actionGet();
+			Assert.assertEquals(2, client.prepareCount(ALIAS).execute().actionGet().getCount());
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
+	protected IESIntegration mockEsIntegrationComponent() {
+		IESIntegration esIntegrationMock = mock(IESIntegration.class);
+		Mockito.when(esIntegrationMock.createLogger(Mockito.any(Class.class))).thenReturn(
+				ESLoggerFactory.getLogger(ActivityLogWriter.class.getName()));
+		return esIntegrationMock;
+	}
+
+}
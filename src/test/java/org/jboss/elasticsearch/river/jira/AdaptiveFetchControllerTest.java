@@ -0,0 +1,196 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.mockito.Mockito.mock;
+
+/**
+ * Unit test for {@link AdaptiveFetchController}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class AdaptiveFetchControllerTest {
+
+	@Test
+	public void configuration() {
+		AdaptiveFetchController tested = new AdaptiveFetchController(mockEsIntegrationComponent(), null, 50, 4);
+		Assert.assertEquals(10, tested.minIssuesPerRequest);
+		Assert.assertEquals(200, tested.maxIssuesPerRequest);
+		Assert.assertEquals(10, tested.issuesPerRequestStep);
+		Assert.assertEquals(2000, tested.targetLatency);
+		Assert.assertEquals(2 * 1024 * 1024, tested.maxResponseSize);
+		Assert.assertEquals(50, tested.getIssuesPerRequest("ORG"));
+		Assert.assertEquals(4, tested.getConcurrency());
+
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put("minIssuesPerRequest", 20);
+		settings.put("maxIssuesPerRequest", "40");
+		settings.put("issuesPerRequestStep", 5);
+		settings.put("targetLatency", "1s");
+		settings.put("maxResponseSize", "1mb");
+		tested = new AdaptiveFetchController(mockEsIntegrationComponent(), settings, 50, 0);
+		Assert.assertEquals(20, tested.minIssuesPerRequest);
+		Assert.assertEquals(40, tested.maxIssuesPerRequest);
+		Assert.assertEquals(5, tested.issuesPerRequestStep);
+		Assert.assertEquals(1000, tested.targetLatency);
+		Assert.assertEquals(1024 * 1024, tested.maxResponseSize);
+		// initial value is clamped into bounds
+		Assert.assertEquals(40, tested.getIssuesPerRequest("ORG"));
+		Assert.assertEquals(1, tested.getConcurrency());
+
+		settings.put("maxIssuesPerRequest", 10);
+		try {
+			new AdaptiveFetchController(mockEsIntegrationComponent(), settings, 50, 1);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+
+		settings.put("maxIssuesPerRequest", 40);
+		settings.put("maxResponseSize", "bad");
+		try {
+			new AdaptiveFetchController(mockEsIntegrationComponent(), settings, 50, 1);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void issuesPerRequest() {
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put("minIssuesPerRequest", 10);
+		settings.put("maxIssuesPerRequest", 100);
+		settings.put("issuesPerRequestStep", 10);
+		settings.put("targetLatency", "1s");
+		settings.put("maxResponseSize", "100kb");
+		AdaptiveFetchController tested = new AdaptiveFetchController(mockEsIntegrationComponent(), settings, 50, 2);
+
+		// case - fast call with full page increases additively
+		tested.reportSuccess("ORG", 100, 5000, 50, 50, 50);
+		Assert.assertEquals(60, tested.getIssuesPerRequest("ORG"));
+		// other projects are not affected
+		Assert.assertEquals(50, tested.getIssuesPerRequest("AAA"));
+
+		// case - fast call with partial page doesn't increase
+		tested.reportSuccess("ORG", 100, 500, 60, 5, 60);
+		Assert.assertEquals(60, tested.getIssuesPerRequest("ORG"));
+
+		// case - slow call decreases multiplicatively
+		tested.reportSuccess("ORG", 1500, 6000, 60, 60, 60);
+		Assert.assertEquals(30, tested.getIssuesPerRequest("ORG"));
+
+		// case - upper bound
+		for (int i = 0; i < 20; i++)
+			tested.reportSuccess("AAA", 100, 100, 100, 100, 100);
+		Assert.assertEquals(100, tested.getIssuesPerRequest("AAA"));
+
+		// case - limited by server max results
+		tested.reportSuccess("AAA", 100, 100, 100, 80, 80);
+		Assert.assertEquals(80, tested.getIssuesPerRequest("AAA"));
+
+		// case - limited by response size (10kb per issue)
+		tested.reportSuccess("BBB", 100, 500 * 1024, 50, 50, 50);
+		Assert.assertEquals(10, tested.getIssuesPerRequest("BBB"));
+
+		// case - failure decreases to lower bound
+		tested.reportFailure("ORG");
+		Assert.assertEquals(15, tested.getIssuesPerRequest("ORG"));
+		tested.reportFailure("ORG");
+		Assert.assertEquals(10, tested.getIssuesPerRequest("ORG"));
+	}
+
+	@Test
+	public void concurrency() {
+		AdaptiveFetchController tested = new AdaptiveFetchController(mockEsIntegrationComponent(), null, 50, 5);
+		Assert.assertEquals(5, tested.getConcurrency());
+
+		tested.reportFailure("ORG");
+		Assert.assertEquals(2, tested.getConcurrency());
+		tested.reportFailure("ORG");
+		Assert.assertEquals(1, tested.getConcurrency());
+		tested.reportFailure("ORG");
+		Assert.assertEquals(1, tested.getConcurrency());
+
+		// case - increased after series of fast calls, slow call resets series
+		for (int i = 0; i < AdaptiveFetchController.CONCURRENCY_INCREASE_AFTER - 1; i++)
+			tested.reportSuccess("ORG", 100, 100, 10, 10, 10);
+		tested.reportSuccess("ORG", 5000, 100, 10, 10, 10);
+		Assert.assertEquals(1, tested.getConcurrency());
+		for (int i = 0; i < AdaptiveFetchController.CONCURRENCY_INCREASE_AFTER; i++)
+			tested.reportSuccess("ORG", 100, 100, 10, 10, 10);
+		Assert.assertEquals(2, tested.getConcurrency());
+
+		// case - upper bound
+		for (int i = 0; i < 10 * AdaptiveFetchController.CONCURRENCY_INCREASE_AFTER; i++)
+			tested.reportSuccess("ORG", 100, 100, 10, 10, 10);
+		Assert.assertEquals(5, tested.getConcurrency());
+	}
+
+	@Test
+	public void setLimits() {
+		AdaptiveFetchController tested = new AdaptiveFetchController(mockEsIntegrationComponent(), null, 50, 5);
+		tested.reportFailure("ORG");
+		Assert.assertEquals(25, tested.getIssuesPerRequest("ORG"));
+		Assert.assertEquals(2, tested.getConcurrency());
+
+		// case - unchanged limits keep adapted values
+		tested.setLimits(50, 5);
+		Assert.assertEquals(25, tested.getIssuesPerRequest("ORG"));
+		Assert.assertEquals(2, tested.getConcurrency());
+
+		// case - new page size used for known and new projects, concurrency raised with maximum
+		tested.setLimits(80, 7);
+		Assert.assertEquals(80, tested.getIssuesPerRequest("ORG"));
+		Assert.assertEquals(80, tested.getIssuesPerRequest("AAA"));
+		Assert.assertEquals(4, tested.getConcurrency());
+		Assert.assertEquals(7, tested.maxConcurrency);
+
+		// case - concurrency lowered to new maximum, page size clamped to configured bounds
+		tested.setLimits(1000, 3);
+		Assert.assertEquals(200, tested.getIssuesPerRequest("ORG"));
+		Assert.assertEquals(3, tested.getConcurrency());
+		tested.setLimits(1000, 0);
+		Assert.assertEquals(1, tested.getConcurrency());
+		Assert.assertEquals(1, tested.maxConcurrency);
+	}
+
+	@Test
+	public void buildProjectDocument() throws Exception {
+		AdaptiveFetchController tested = new AdaptiveFetchController(mockEsIntegrationComponent(), null, 50, 5);
+
+		XContentBuilder builder = XContentFactory.jsonBuilder();
+		Assert.assertFalse(tested.buildProjectDocument(builder, "ORG"));
+
+		tested.reportSuccess("ORG", 100, 5000, 50, 50, 50);
+		tested.reportFailure("ORG");
+		builder = XContentFactory.jsonBuilder();
+		Assert.assertTrue(tested.buildProjectDocument(builder, "ORG"));
+		Assert.assertEquals(
+				"{\"issues_per_request\":30,\"latency_avg\":\"100ms\",\"bytes_per_issue\":100,\"failures\":1}",
+				builder.string());
+	}
+
+	protected IESIntegration mockEsIntegrationComponent() {
+		IESIntegration esIntegrationMock = mock(IESIntegration.class);
+		Mockito.when(esIntegrationMock.createLogger(Mockito.any(Class.class))).thenReturn(
+				ESLoggerFactory.getLogger(AdaptiveFetchController.class.getName()));
+		return esIntegrationMock;
+	}
+
+}
@@ -0,0 +1,193 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.jboss.elasticsearch.tools.content.PreprocessChainContext;
+import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessor;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link CachingPreprocessor}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class CachingPreprocessorTest {
+
+	@Test
+	public void constructor() {
+		StructuredContentPreprocessor delegate = mock(StructuredContentPreprocessor.class);
+		when(delegate.getName()).thenReturn("lookup");
+
+		assertSettingsException(delegate, null);
+		Map<String, Object> settings = new HashMap<String, Object>();
+		assertSettingsException(delegate, settings);
+		settings.put(CachingPreprocessor.CFG_KEY_FIELD, "fields.reporter.name");
+		assertSettingsException(delegate, settings);
+		settings.put(CachingPreprocessor.CFG_TARGET_FIELDS, "reporter_profile, reporter_team");
+
+		CachingPreprocessor tested = new CachingPreprocessor(delegate, settings);
+		Assert.assertEquals("lookup", tested.getName());
+		Assert.assertEquals("fields.reporter.name", tested.keyField);
+		Assert.assertEquals(2, tested.targetFields.size());
+		Assert.assertEquals("reporter_team", tested.targetFields.get(1));
+		Assert.assertEquals(CachingPreprocessor.DEFAULT_MAX_SIZE, tested.maxSize);
+		Assert.assertEquals(CachingPreprocessor.DEFAULT_TTL, tested.ttl);
+
+		List<String> targetFields = new ArrayList<String>();
+		targetFields.add("reporter_profile");
+		settings.put(CachingPreprocessor.CFG_TARGET_FIELDS, targetFields);
+		settings.put(CachingPreprocessor.CFG_MAX_SIZE, 10);
+		settings.put(CachingPreprocessor.CFG_TTL, "0");
+		tested = new CachingPreprocessor(delegate, settings);
+		Assert.assertEquals(1, tested.targetFields.size());
+		Assert.assertEquals(10, tested.maxSize);
+		Assert.assertEquals(0, tested.ttl);
+
+		settings.put(CachingPreprocessor.CFG_MAX_SIZE, 0);
+		assertSettingsException(delegate, settings);
+	}
+
+	private void assertSettingsException(StructuredContentPreprocessor delegate, Map<String, Object> settings) {
+		try {
+			new CachingPreprocessor(delegate, settings);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void preprocessData() throws Exception {
+		StructuredContentPreprocessor delegate = mockLookupPreprocessor();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(CachingPreprocessor.CFG_KEY_FIELD, "fields.reporter.name");
+		settings.put(CachingPreprocessor.CFG_TARGET_FIELDS, "reporter_profile.full_name");
+		CachingPreprocessor tested = new CachingPreprocessor(delegate, settings);
+
+		// case - data without key value are passed to delegate always
+		Assert.assertNull(tested.preprocessData(null));
+		Map<String, Object> issue = new HashMap<String, Object>();
+		tested.preprocessData(issue);
+		tested.preprocessData(issue);
+		verify(delegate, times(3)).preprocessData(Mockito.anyMap(), Mockito.any(PreprocessChainContext.class));
+		Assert.assertEquals(0, tested.size());
+
+		// case - first value is looked up, repeated one is served from cache
+		Map<String, Object> issue1 = prepareIssue("jdoe");
+		tested.preprocessData(issue1);
+		Assert.assertEquals("Full jdoe", XContentMapValues.extractValue("reporter_profile.full_name", issue1));
+		Map<String, Object> issue2 = prepareIssue("jdoe");
+		tested.preprocessData(issue2);
+		Assert.assertEquals("Full jdoe", XContentMapValues.extractValue("reporter_profile.full_name", issue2));
+		verify(delegate, times(1)).preprocessData(Mockito.same(issue1), Mockito.any(PreprocessChainContext.class));
+		verify(delegate, times(0)).preprocessData(Mockito.same(issue2), Mockito.any(PreprocessChainContext.class));
+		Assert.assertEquals(1, tested.getHits());
+		Assert.assertEquals(1, tested.getMisses());
+
+		// case - cached value is not changed by later changes of issue data
+		((Map<String, Object>) issue2.get("reporter_profile")).put("full_name", "changed");
+		Map<String, Object> issue3 = prepareIssue("jdoe");
+		tested.preprocessData(issue3);
+		Assert.assertEquals("Full jdoe", XContentMapValues.extractValue("reporter_profile.full_name", issue3));
+
+		// case - value not filled by delegate is cached too and removed from data
+		Map<String, Object> unknown1 = prepareIssue("unknown");
+		tested.preprocessData(unknown1);
+		Map<String, Object> unknown2 = prepareIssue("unknown");
+		Map<String, Object> profile = new HashMap<String, Object>();
+		profile.put("full_name", "stale");
+		unknown2.put("reporter_profile", profile);
+		tested.preprocessData(unknown2);
+		Assert.assertFalse(profile.containsKey("full_name"));
+		verify(delegate, times(0)).preprocessData(Mockito.same(unknown2), Mockito.any(PreprocessChainContext.class));
+		Assert.assertEquals(3, tested.getHits());
+		Assert.assertEquals(2, tested.getMisses());
+
+		// case - chain context is passed to delegate
+		PreprocessChainContext chainContext = mock(PreprocessChainContext.class);
+		Map<String, Object> issue4 = prepareIssue("jsmith");
+		tested.preprocessData(issue4, chainContext);
+		verify(delegate, times(1)).preprocessData(issue4, chainContext);
+		Map<String, Object> issue5 = new HashMap<String, Object>();
+		tested.preprocessData(issue5, chainContext);
+		verify(delegate, times(1)).preprocessData(issue5, chainContext);
+		Assert.assertEquals(3, tested.getHits());
+		Assert.assertEquals(3, tested.getMisses());
+
+		XContentBuilder builder = XContentFactory.jsonBuilder();
+		tested.buildDocument(builder);
+		Assert.assertEquals("{\"name\":\"lookup\",\"size\":3,\"max_size\":1000,\"hits\":3,\"misses\":3}", builder.string());
+	}
+
+	@Test
+	public void preprocessData_evictionAndExpiration() throws Exception {
+		StructuredContentPreprocessor delegate = mockLookupPreprocessor();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(CachingPreprocessor.CFG_KEY_FIELD, "fields.reporter.name");
+		settings.put(CachingPreprocessor.CFG_TARGET_FIELDS, "reporter_profile.full_name");
+		settings.put(CachingPreprocessor.CFG_MAX_SIZE, 2);
+		CachingPreprocessor tested = new CachingPreprocessor(delegate, settings);
+
+		// case - least recently used value is evicted
+		tested.preprocessData(prepareIssue("a"));
+		tested.preprocessData(prepareIssue("b"));
+		tested.preprocessData(prepareIssue("a"));
+		tested.preprocessData(prepareIssue("c"));
+		Assert.assertEquals(2, tested.size());
+		Assert.assertNotNull(tested.getCached("a", System.currentTimeMillis()));
+		Assert.assertNull(tested.getCached("b", System.currentTimeMillis()));
+		Assert.assertNotNull(tested.getCached("c", System.currentTimeMillis()));
+
+		// case - expired value is not used
+		long now = System.currentTimeMillis();
+		Assert.assertNotNull(tested.getCached("a", now + CachingPreprocessor.DEFAULT_TTL - 1000));
+		Assert.assertNull(tested.getCached("a", now + CachingPreprocessor.DEFAULT_TTL + 1000));
+		Assert.assertEquals(1, tested.size());
+	}
+
+	@SuppressWarnings("unchecked")
+	private StructuredContentPreprocessor mockLookupPreprocessor() {
+		StructuredContentPreprocessor delegate = mock(StructuredContentPreprocessor.class);
+		when(delegate.getName()).thenReturn("lookup");
+		when(delegate.preprocessData(Mockito.anyMap(), Mockito.any(PreprocessChainContext.class))).thenAnswer(new Answer<Map<String, Object>>() {
+			public Map<String, Object> answer(InvocationOnMock invocation) throws Throwable {
+				Map<String, Object> data = (Map<String, Object>) invocation.getArguments()[0];
+				Object name = data != null ? XContentMapValues.extractValue("fields.reporter.name", data) : null;
+				if (name != null && !"unknown".equals(name))
+					Utils.putValueIntoMapOfMaps(data, "reporter_profile.full_name", "Full " + name);
+				return data;
+			}
+		});
+		return delegate;
+	}
+
+	private Map<String, Object> prepareIssue(String reporter) {
+		Map<String, Object> issue = new HashMap<String, Object>();
+		Utils.putValueIntoMapOfMaps(issue, "fields.reporter.name", reporter);
+		return issue;
+	}
+
+}
@@ -20,6 +20,11 @@ public class DateTimeUtilsTest {
   @Test
   public void formatISODateTime() {
     Assert.assertNull(DateTimeUtils.formatISODateTime(null));
+    // milliseconds must survive format and parse roundtrip as exact dates are stored
+    Date d = DateTimeUtils.parseISODateTime("2012-08-14T08:00:00.005-0400");
+    Assert.assertEquals(d, DateTimeUtils.parseISODateTime(DateTimeUtils.formatISODateTime(d)));
+    d = DateTimeUtils.parseISODateTime("2012-08-14T08:00:00.450-0400");
+    Assert.assertEquals(d, DateTimeUtils.parseISODateTime(DateTimeUtils.formatISODateTime(d)));
     // Assert.assertEquals("2012-08-14T08:00:00.000-0400",
     // Utils.formatISODateTime(Utils.parseISODateTime("2012-08-14T08:00:00.000-0400")));
   }
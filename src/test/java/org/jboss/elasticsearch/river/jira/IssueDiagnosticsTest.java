@@ -0,0 +1,129 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.jboss.elasticsearch.river.jira.testtools.TestUtils;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit test for {@link IssueDiagnostics} and {@link IssueDiagnosticRecord}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class IssueDiagnosticsTest {
+
+	@Test
+	public void configuration() {
+		IssueDiagnostics tested = new IssueDiagnostics(mockEsIntegrationComponent(), null);
+		Assert.assertFalse(tested.isEnabled());
+		Assert.assertEquals(10, tested.topSize);
+		Assert.assertFalse(tested.writeToActivityLog);
+
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put("max_document_size", "1mb");
+		settings.put("max_comments", 500);
+		settings.put("max_changelogs", "300");
+		settings.put("max_transform_time", "2s");
+		settings.put("top_size", 5);
+		settings.put("activity_log", true);
+		tested = new IssueDiagnostics(mockEsIntegrationComponent(), settings);
+		Assert.assertTrue(tested.isEnabled());
+		Assert.assertEquals(1024 * 1024, tested.maxDocumentSize);
+		Assert.assertEquals(500, tested.maxComments);
+		Assert.assertEquals(300, tested.maxChangelogs);
+		Assert.assertEquals(2000, tested.maxTransformTime);
+		Assert.assertEquals(5, tested.topSize);
+		Assert.assertTrue(tested.writeToActivityLog);
+
+		settings.put("max_document_size", "badvalue");
+		try {
+			new IssueDiagnostics(mockEsIntegrationComponent(), settings);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+
+		settings.put("max_document_size", "1kb");
+		settings.put("top_size", 0);
+		try {
+			new IssueDiagnostics(mockEsIntegrationComponent(), settings);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void checkIssue() {
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put("max_document_size", "1000");
+		settings.put("max_comments", 10);
+		settings.put("max_transform_time", "100ms");
+		settings.put("top_size", 2);
+		IssueDiagnostics tested = new IssueDiagnostics(esIntegrationMock, settings);
+
+		// case - issue under thresholds
+		Assert.assertNull(tested.checkIssue("ORG", "ORG-1", 1000, 10, 5000, 100));
+		Assert.assertTrue(tested.getTopRecords("ORG").isEmpty());
+
+		// case - issues over thresholds ordered by score, list is bounded
+		Assert.assertNotNull(tested.checkIssue("ORG", "ORG-2", 2000, 0, 0, 0));
+		Assert.assertNotNull(tested.checkIssue("ORG", "ORG-3", 10, 50, 0, 0));
+		Assert.assertNotNull(tested.checkIssue("ORG", "ORG-4", 10, 0, 0, 300));
+		Assert.assertNotNull(tested.checkIssue("AAA", "AAA-1", 10, 0, 0, 300));
+		List<IssueDiagnosticRecord> records = tested.getTopRecords("ORG");
+		Assert.assertEquals(2, records.size());
+		Assert.assertEquals("ORG-3", records.get(0).issueKey);
+		Assert.assertEquals("ORG-4", records.get(1).issueKey);
+		Assert.assertEquals(1, tested.getTopRecords("AAA").size());
+
+		// case - same issue is replaced, not duplicated
+		tested.checkIssue("ORG", "ORG-4", 10, 0, 0, 1000);
+		records = tested.getTopRecords("ORG");
+		Assert.assertEquals(2, records.size());
+		Assert.assertEquals("ORG-4", records.get(0).issueKey);
+		Assert.assertEquals("ORG-3", records.get(1).issueKey);
+
+		// activity log not written if not configured
+		verify(esIntegrationMock, times(0)).reportIssueDiagnosticRecord(Mockito.any(IssueDiagnosticRecord.class));
+
+		settings.put("activity_log", true);
+		tested = new IssueDiagnostics(esIntegrationMock, settings);
+		IssueDiagnosticRecord record = tested.checkIssue("ORG", "ORG-2", 2000, 0, 0, 0);
+		verify(esIntegrationMock, times(1)).reportIssueDiagnosticRecord(record);
+	}
+
+	@Test
+	public void buildDocument() throws Exception {
+		IssueDiagnosticRecord record = new IssueDiagnosticRecord("ORG", "ORG-15",
+				DateTimeUtils.parseISODateTime("2012-09-10T12:55:58Z"), 2500000, 1200, 15, 1520, 2.5);
+		TestUtils.assertJsonEqual(TestUtils.readStringFromClasspathFile("/asserts/IssueDiagnosticsTest_1.json"), record
+				.buildDocument(XContentFactory.jsonBuilder(), "my_river", true).string());
+	}
+
+	protected IESIntegration mockEsIntegrationComponent() {
+		IESIntegration esIntegrationMock = mock(IESIntegration.class);
+		Mockito.when(esIntegrationMock.createLogger(Mockito.any(Class.class))).thenReturn(
+				ESLoggerFactory.getLogger(IssueDiagnostics.class.getName()));
+		return esIntegrationMock;
+	}
+
+}
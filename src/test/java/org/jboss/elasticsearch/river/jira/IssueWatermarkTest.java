@@ -0,0 +1,100 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.Date;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link IssueWatermark}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class IssueWatermarkTest {
+
+	private static final Date D1 = DateTimeUtils.parseISODateTime("2012-08-14T08:00:10.000-0400");
+	private static final Date D2 = DateTimeUtils.parseISODateTime("2012-08-14T08:00:20.000-0400");
+
+	@Test
+	public void constructor() {
+		try {
+			new IssueWatermark(null, "ORG-1");
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		IssueWatermark tested = new IssueWatermark(D1, "ORG-1");
+		Assert.assertEquals(D1, tested.getUpdated());
+		Assert.assertEquals("ORG-1", tested.getIssueKey());
+		Assert.assertEquals(DateTimeUtils.parseISODateTime("2012-08-14T08:00:00.000-0400"), tested.getJQLWindowStart());
+	}
+
+	@Test
+	public void isIndexed() {
+		IssueWatermark tested = new IssueWatermark(D2, "ORG-10");
+		Assert.assertTrue(tested.isIndexed(D1, "ORG-20"));
+		Assert.assertTrue(tested.isIndexed(D2, "ORG-10"));
+		// issues updated at the same time are not ordered
+		Assert.assertFalse(tested.isIndexed(D2, "ORG-9"));
+		Assert.assertFalse(tested.isIndexed(D2, "ORG-11"));
+		Assert.assertFalse(tested.isIndexed(new Date(D2.getTime() + 1), "ORG-10"));
+
+		tested = new IssueWatermark(D2, null);
+		Assert.assertTrue(tested.isIndexed(D1, "ORG-20"));
+		Assert.assertFalse(tested.isIndexed(D2, "ORG-10"));
+	}
+
+	@Test
+	public void advance() {
+		IssueWatermark tested = new IssueWatermark(D1, "ORG-10");
+		Assert.assertSame(tested, tested.advance(D1, "ORG-10"));
+		Assert.assertSame(tested, tested.advance(new Date(D1.getTime() - 1), "ORG-11"));
+		Assert.assertEquals(new IssueWatermark(D1, "ORG-9"), tested.advance(D1, "ORG-9"));
+		Assert.assertEquals(new IssueWatermark(D2, "ORG-1"), tested.advance(D2, "ORG-1"));
+	}
+
+	@Test
+	public void equalsAndHashCode() {
+		Assert.assertEquals(new IssueWatermark(D1, "ORG-1"), new IssueWatermark(D1, "ORG-1"));
+		Assert.assertEquals(new IssueWatermark(D1, "ORG-1").hashCode(), new IssueWatermark(D1, "ORG-1").hashCode());
+		Assert.assertEquals(new IssueWatermark(D1, null), new IssueWatermark(D1, null));
+		Assert.assertFalse(new IssueWatermark(D1, "ORG-1").equals(new IssueWatermark(D1, "ORG-2")));
+		Assert.assertFalse(new IssueWatermark(D1, "ORG-1").equals(new IssueWatermark(D2, "ORG-1")));
+		Assert.assertFalse(new IssueWatermark(D1, "ORG-1").equals(new IssueWatermark(D1, null)));
+	}
+
+	@Test
+	public void readAndStore() throws Exception {
+		IESIntegration esIntegrationMock = mock(IESIntegration.class);
+
+		Assert.assertNull(IssueWatermark.read(esIntegrationMock, "ORG"));
+
+		when(esIntegrationMock.readDatetimeValue("ORG", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(D1);
+		Assert.assertEquals(new IssueWatermark(D1, null), IssueWatermark.read(esIntegrationMock, "ORG"));
+		when(esIntegrationMock.readStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY))
+				.thenReturn("ORG-5");
+		Assert.assertEquals(new IssueWatermark(D1, "ORG-5"), IssueWatermark.read(esIntegrationMock, "ORG"));
+
+		BulkRequestBuilder brb = new BulkRequestBuilder(Mockito.mock(Client.class));
+		new IssueWatermark(D2, "ORG-7").store(esIntegrationMock, "ORG", brb);
+		verify(esIntegrationMock).storeDatetimeValue("ORG", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE,
+				D2, brb);
+		verify(esIntegrationMock).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY, "ORG-7",
+				brb);
+	}
+
+}
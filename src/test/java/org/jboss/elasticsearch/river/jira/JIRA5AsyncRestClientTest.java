@@ -0,0 +1,237 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import junit.framework.Assert;
+
+import org.apache.http.HttpVersion;
+import org.apache.http.concurrent.BasicFuture;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.message.BasicHttpResponse;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+
+/**
+ * Unit test for {@link JIRA5AsyncRestClient}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRA5AsyncRestClientTest {
+
+	protected static final URI TEST_URI = URI.create(JIRA5RestClientTest.TEST_JIRA_URL + "/rest/api/2/project");
+
+	@Test
+	public void constructorAndClose() {
+		JIRA5AsyncRestClient tested = createTested();
+		Assert.assertNotNull(tested.asyncHttpClient);
+		Assert.assertNotNull(tested.getConnectionPoolStats());
+		Assert.assertEquals(10, tested.asyncConnectionManager.getMaxTotal());
+		Assert.assertEquals(1000, tested.connectionIdleTimeout);
+		tested.evictConnections();
+		tested.close();
+		Assert.assertTrue(tested.retryScheduler.isShutdown());
+	}
+
+	@Test
+	public void asyncCall_completed() throws Exception {
+		JIRA5AsyncRestClient tested = createTested();
+		try {
+			// case - success
+			JIRA5AsyncRestClient.AsyncCall call = tested.new AsyncCall(TEST_URI);
+			call.completed(createResponse(200, "[]"));
+			Assert.assertTrue(call.future.isDone());
+			Assert.assertEquals("[]", new String(call.future.get(), "UTF-8"));
+			Assert.assertEquals(JIRACircuitBreaker.State.CLOSED, tested.circuitBreaker.getState(System.currentTimeMillis()));
+
+			// case - JIRA error response is not retried
+			call = tested.new AsyncCall(TEST_URI);
+			call.completed(createResponse(404, "not found"));
+			try {
+				call.future.get();
+				Assert.fail("ExecutionException must be thrown");
+			} catch (ExecutionException e) {
+				Assert.assertEquals(404, ((JIRARestCallException) e.getCause()).getStatusCode());
+			}
+			Assert.assertEquals(0, tested.circuitBreaker.consecutiveFailures);
+		} finally {
+			tested.close();
+		}
+	}
+
+	@Test
+	public void asyncCall_retryAndCircuitBreaker() throws Exception {
+		JIRA5AsyncRestClient tested = createTested();
+		try {
+			tested.retryScheduler.shutdownNow();
+			tested.retryScheduler = mock(ScheduledExecutorService.class);
+			tested.setRetryPolicy(1, 100, 100);
+			tested.setCircuitBreaker(2, 60000);
+
+			// case - unavailability failure is retried after backoff, then failed
+			JIRA5AsyncRestClient.AsyncCall call = tested.new AsyncCall(TEST_URI);
+			call.failed(new SocketTimeoutException("timeout"));
+			Assert.assertFalse(call.future.isDone());
+			verify(tested.retryScheduler).schedule(Mockito.eq(call), Mockito.anyLong(), Mockito.eq(TimeUnit.MILLISECONDS));
+			call.failed(new SocketTimeoutException("timeout 2"));
+			Assert.assertTrue(call.future.isDone());
+			try {
+				call.future.get();
+				Assert.fail("ExecutionException must be thrown");
+			} catch (ExecutionException e) {
+				Assert.assertEquals("timeout 2", e.getCause().getMessage());
+			}
+
+			// case - breaker is open now so next call is rejected without touching JIRA
+			call = tested.new AsyncCall(TEST_URI);
+			call.run();
+			Assert.assertTrue(call.future.isDone());
+			try {
+				call.future.get();
+				Assert.fail("ExecutionException must be thrown");
+			} catch (ExecutionException e) {
+				Assert.assertTrue(e.getCause() instanceof JIRACircuitOpenException);
+			}
+		} finally {
+			tested.close();
+		}
+	}
+
+	@Test
+	public void asyncCall_rateLimited() throws Exception {
+		JIRA5AsyncRestClient tested = createTested();
+		try {
+			final List<Long> scheduled = new ArrayList<Long>();
+
+			// case - scheduled attempt doesn't wait in paused limiter, it is scheduled again after the pause
+			tested.rateLimiter.pause(60000);
+			JIRA5AsyncRestClient.AsyncCall call = tested.new AsyncCall(TEST_URI) {
+				@Override
+				protected void schedule(long delay) {
+					scheduled.add(delay);
+				}
+			};
+			long start = System.currentTimeMillis();
+			call.run();
+			Assert.assertTrue(System.currentTimeMillis() - start < 30000);
+			Assert.assertFalse(call.future.isDone());
+			Assert.assertEquals(1, scheduled.size());
+			Assert.assertTrue(scheduled.get(0) > 50000);
+			Assert.assertTrue(scheduled.get(0) <= 60000);
+		} finally {
+			tested.close();
+		}
+	}
+
+	@Test
+	public void transformingFuture() throws Exception {
+		final int[] transformCount = new int[1];
+		final Exception[] failure = new Exception[1];
+
+		// case - success is transformed only once
+		BasicFuture<byte[]> responseFuture = new BasicFuture<byte[]>(null);
+		JIRA5AsyncRestClient.TransformingFuture<String> tested = new JIRA5AsyncRestClient.TransformingFuture<String>(
+				responseFuture) {
+			@Override
+			protected String transform(byte[] responseData) throws Exception {
+				transformCount[0]++;
+				return new String(responseData, "UTF-8");
+			}
+
+			@Override
+			protected void failed(Exception e) {
+				failure[0] = e;
+			}
+		};
+		Assert.assertFalse(tested.isDone());
+		responseFuture.completed("data".getBytes("UTF-8"));
+		Assert.assertTrue(tested.isDone());
+		Assert.assertEquals("data", tested.get());
+		Assert.assertEquals("data", tested.get(1, TimeUnit.SECONDS));
+		Assert.assertEquals(1, transformCount[0]);
+		Assert.assertNull(failure[0]);
+
+		// case - call failure is reported once and thrown
+		responseFuture = new BasicFuture<byte[]>(null);
+		tested = new JIRA5AsyncRestClient.TransformingFuture<String>(responseFuture) {
+			@Override
+			protected String transform(byte[] responseData) throws Exception {
+				transformCount[0]++;
+				return null;
+			}
+
+			@Override
+			protected void failed(Exception e) {
+				Assert.assertNull(failure[0]);
+				failure[0] = e;
+			}
+		};
+		IOException callError = new IOException("timeout");
+		responseFuture.failed(callError);
+		for (int i = 0; i < 2; i++) {
+			try {
+				tested.get();
+				Assert.fail("ExecutionException must be thrown");
+			} catch (ExecutionException e) {
+				Assert.assertSame(callError, e.getCause());
+			}
+		}
+		Assert.assertSame(callError, failure[0]);
+		Assert.assertEquals(1, transformCount[0]);
+
+		// case - transformation failure is thrown
+		responseFuture = new BasicFuture<byte[]>(null);
+		tested = new JIRA5AsyncRestClient.TransformingFuture<String>(responseFuture) {
+			@Override
+			protected String transform(byte[] responseData) throws Exception {
+				throw new IllegalArgumentException("bad data");
+			}
+		};
+		responseFuture.completed(new byte[0]);
+		try {
+			tested.get();
+			Assert.fail("ExecutionException must be thrown");
+		} catch (ExecutionException e) {
+			Assert.assertEquals("bad data", e.getCause().getMessage());
+		}
+
+		// case - cancel is propagated
+		responseFuture = new BasicFuture<byte[]>(null);
+		tested = new JIRA5AsyncRestClient.TransformingFuture<String>(responseFuture) {
+			@Override
+			protected String transform(byte[] responseData) throws Exception {
+				return null;
+			}
+		};
+		tested.cancel(true);
+		Assert.assertTrue(responseFuture.isCancelled());
+		Assert.assertTrue(tested.isCancelled());
+	}
+
+	protected static JIRA5AsyncRestClient createTested() {
+		return new JIRA5AsyncRestClient(JIRA5RestClientTest.mockEsIntegrationComponent(),
+				JIRA5RestClientTest.TEST_JIRA_URL, null, null, 5000, null, new JIRAConnectionPoolRegistry(), 10, 10, 1000,
+				1000);
+	}
+
+	protected static BasicHttpResponse createResponse(int statusCode, String body) throws Exception {
+		BasicHttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, statusCode, null);
+		response.setEntity(new ByteArrayEntity(body.getBytes("UTF-8")));
+		return response;
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link JIRA5ReplayRestClient} and recording of responses in {@link JIRA5RestClient}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRA5ReplayRestClientTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void constructor() {
+		JIRAResponseRecording recording = new JIRAResponseRecording(folder.getRoot());
+		try {
+			new JIRA5ReplayRestClient(JIRA5RestClientTest.mockEsIntegrationComponent(), JIRA5RestClientTest.TEST_JIRA_URL,
+					null, null, 1);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			new JIRA5ReplayRestClient(JIRA5RestClientTest.mockEsIntegrationComponent(), JIRA5RestClientTest.TEST_JIRA_URL,
+					null, recording, -1);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		JIRA5ReplayRestClient tested = new JIRA5ReplayRestClient(JIRA5RestClientTest.mockEsIntegrationComponent(),
+				JIRA5RestClientTest.TEST_JIRA_URL, null, recording, 0.5);
+		Assert.assertEquals(recording, tested.recording);
+		Assert.assertEquals(0.5, tested.latencyScale);
+		tested.close();
+	}
+
+	@Test
+	public void recordAndReplay() throws Exception {
+		JIRAResponseRecording recording = new JIRAResponseRecording(folder.getRoot());
+		final List<URI> calledUris = new ArrayList<URI>();
+
+		// record responses of successful calls
+		JIRA5RestClient recorder = new JIRA5RestClient(JIRA5RestClientTest.mockEsIntegrationComponent(),
+				JIRA5RestClientTest.TEST_JIRA_URL, null, null, 5000, null) {
+			@Override
+			protected byte[] performJIRAGetRESTRequest(URI uri, ConditionalGet conditionalGet) throws Exception {
+				calledUris.add(uri);
+				if (uri.getPath().endsWith("/project"))
+					return "[{\"key\": \"ORG\"}, {\"key\": \"AAA\"}]".getBytes("UTF-8");
+				throw new JIRARestCallException("error", 400);
+			}
+		};
+		recorder.setResponseRecording(recording);
+		Assert.assertEquals(2, recorder.getAllJIRAProjects().size());
+		try {
+			recorder.getJIRAIssueChangelog("ORG-1");
+			Assert.fail("JIRARestCallException must be thrown");
+		} catch (JIRARestCallException e) {
+			// OK
+		}
+		Assert.assertEquals(2, calledUris.size());
+		recorder.close();
+		Assert.assertEquals(1, new JIRAResponseRecording(folder.getRoot()).size());
+
+		// replay them without JIRA
+		JIRA5ReplayRestClient tested = new JIRA5ReplayRestClient(JIRA5RestClientTest.mockEsIntegrationComponent(),
+				"http://localhost:8080", null, new JIRAResponseRecording(folder.getRoot()), 0);
+		List<String> keys = tested.getAllJIRAProjects();
+		Assert.assertEquals(2, keys.size());
+		Assert.assertEquals("ORG", keys.get(0));
+		try {
+			tested.getJIRAIssueChangelog("ORG-1");
+			Assert.fail("JIRARestCallException must be thrown");
+		} catch (JIRARestCallException e) {
+			Assert.assertEquals(404, e.getStatusCode());
+		}
+		tested.close();
+	}
+
+}
@@ -5,16 +5,28 @@
  */
 package org.jboss.elasticsearch.river.jira;
 
+import java.io.IOException;
+import java.net.SocketTimeoutException;
+import java.net.URI;
 import java.text.SimpleDateFormat;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.TimeZone;
 
 import junit.framework.Assert;
 
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpVersion;
 import org.apache.http.NameValuePair;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.message.BasicHttpResponse;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.elasticsearch.river.RiverName;
 import org.junit.Test;
 import org.mockito.Mockito;
@@ -101,26 +113,126 @@ public class JIRA5RestClientTest {
 
 		tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, "uname", "pwd", 5000, null);
 		Assert.assertTrue(tested.isAuthConfigured);
+		Assert.assertNotNull(tested.authCache.get(tested.targetHost));
+	}
+
+	@Test
+	public void connectionPool() {
+		JIRAConnectionPoolRegistry registry = new JIRAConnectionPoolRegistry();
+
+		try {
+			new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null, registry, 0, 10, 1000,
+					1000);
+			Assert.fail("SettingsException not thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+
+		JIRA5RestClient tested1 = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null,
+				registry, 30, 10, 1000, 1000);
+		JIRA5RestClient tested2 = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, "uname", "pwd", 5000,
+				"latest", registry, 10, 10, 1000, 1000);
+		Assert.assertSame(tested1.connectionPool, tested2.connectionPool);
+		Assert.assertEquals(30, tested1.getConnectionPoolStats().getMax());
+
+		tested1.close();
+		Assert.assertNull(tested1.getConnectionPoolStats());
+		Assert.assertEquals(1, registry.pools.size());
+		tested2.close();
+		Assert.assertTrue(registry.pools.isEmpty());
+		// no exception on repeated close
+		tested2.close();
+	}
+
+	@Test
+	public void setTimeout() {
+		JIRA5RestClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null,
+				new JIRAConnectionPoolRegistry(), 10, 10, 1000, 1000);
+		try {
+			Assert.assertEquals(5000, tested.requestConfig.getSocketTimeout());
+
+			tested.setTimeout(20000);
+			Assert.assertEquals(20000, tested.requestConfig.getSocketTimeout());
+			Assert.assertEquals(20000, tested.requestConfig.getConnectTimeout());
+		} finally {
+			tested.close();
+		}
 	}
 
 	@Test
 	public void getAllJIRAProjects() throws Exception {
 
-		IJIRAClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null) {
+		final List<byte[]> responses = new ArrayList<byte[]>();
+		JIRA5RestClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null) {
 			@Override
-			protected byte[] performJIRAGetRESTCall(String restOperation, List<NameValuePair> params) throws Exception {
+			protected byte[] performJIRAGetRESTCall(String restOperation, List<NameValuePair> params,
+					ConditionalGet conditionalGet) throws Exception {
 				Assert.assertEquals("project", restOperation);
 				Assert.assertNull(params);
-				return ("[{\"key\": \"ORG\", \"name\": \"ORG project\"},{\"key\": \"PPP\"}]").getBytes("UTF-8");
+				Assert.assertSame(projectsConditionalGet, conditionalGet);
+				return responses.remove(0);
 			};
 
 		};
 
+		responses
+				.add(("[{\"key\": \"ORG\", \"name\": \"ORG project\", \"lead\" : {\"key\":\"lead\", \"name\":\"Lead\"}, \"projectCategory\" : [{\"key\":\"x\"}]},{\"key\": \"PPP\"}]")
+						.getBytes("UTF-8"));
 		List<String> ret = tested.getAllJIRAProjects();
 		Assert.assertNotNull(ret);
 		Assert.assertEquals(2, ret.size());
 		Assert.assertTrue(ret.contains("ORG"));
 		Assert.assertTrue(ret.contains("PPP"));
+
+		// case - not modified so cached list returned, and it is a copy
+		ret.clear();
+		responses.add(null);
+		ret = tested.getAllJIRAProjects();
+		Assert.assertEquals(2, ret.size());
+		Assert.assertTrue(ret.contains("ORG"));
+		Assert.assertTrue(ret.contains("PPP"));
+		tested.close();
+	}
+
+	@Test
+	public void parseProjectKeys() throws Exception {
+		Assert.assertTrue(JIRA5RestClient.parseProjectKeys("[]".getBytes("UTF-8")).isEmpty());
+		List<String> ret = JIRA5RestClient.parseProjectKeys(("[{\"self\":\"http://x\",\"key\":\"ORG\",\"avatarUrls\":{\"16x16\":\"a\"}},"
+				+ "{\"id\":10,\"components\":[{\"key\":\"NOTPROJECT\"}],\"key\":\"AAA\"},{\"name\":\"no key\"}]").getBytes("UTF-8"));
+		Assert.assertEquals(2, ret.size());
+		Assert.assertEquals("ORG", ret.get(0));
+		Assert.assertEquals("AAA", ret.get(1));
+
+		try {
+			JIRA5RestClient.parseProjectKeys("{\"key\":\"ORG\"}".getBytes("UTF-8"));
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void conditionalGet() {
+		JIRA5RestClient.ConditionalGet tested = new JIRA5RestClient.ConditionalGet();
+		Assert.assertFalse(tested.isSet());
+		HttpGet request = new HttpGet("http://test.org");
+		tested.addRequestHeaders(request);
+		Assert.assertNull(request.getFirstHeader("If-None-Match"));
+		Assert.assertNull(request.getFirstHeader("If-Modified-Since"));
+
+		HttpResponse response = new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK");
+		response.addHeader("ETag", "\"abc\"");
+		response.addHeader("Last-Modified", "Tue, 21 Oct 2014 07:28:00 GMT");
+		tested.readResponseHeaders(response);
+		Assert.assertTrue(tested.isSet());
+		request = new HttpGet("http://test.org");
+		tested.addRequestHeaders(request);
+		Assert.assertEquals("\"abc\"", request.getFirstHeader("If-None-Match").getValue());
+		Assert.assertEquals("Tue, 21 Oct 2014 07:28:00 GMT", request.getFirstHeader("If-Modified-Since").getValue());
+
+		// case - response without validators clears them
+		tested.readResponseHeaders(new BasicHttpResponse(HttpVersion.HTTP_1_1, 200, "OK"));
+		Assert.assertFalse(tested.isSet());
 	}
 
 	@Test
@@ -131,7 +243,7 @@ public class JIRA5RestClientTest {
 		IJIRAClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null) {
 			@Override
 			protected byte[] performJIRAChangedIssuesREST(String projectKey, int startAt, Date updatedAfter,
-					Date updatedBefore) throws Exception {
+					Date updatedBefore, int issuesPerRequest) throws Exception {
 				Assert.assertEquals("ORG", projectKey);
 				Assert.assertEquals(ua, updatedAfter);
 				Assert.assertEquals(ub, updatedBefore);
@@ -149,6 +261,482 @@ public class JIRA5RestClientTest {
 		Assert.assertEquals(1, ret.getIssuesCount());
 	}
 
+	@Test
+	public void getJIRAChangedIssues_adaptiveFetch() throws Exception {
+		final int[] call = new int[1];
+		JIRA5RestClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null) {
+			@Override
+			protected byte[] performJIRAGetRESTCall(String restOperation, List<NameValuePair> params) throws Exception {
+				call[0]++;
+				if (call[0] == 2)
+					throw new JIRARestCallException("Failed JIRA REST API call. HTTP error code: 503", 503);
+				if (call[0] == 3)
+					throw new JIRARestCallException("Failed JIRA REST API call. HTTP error code: 404", 404);
+				for (NameValuePair param : params) {
+					if (param.getName().equals("maxResults"))
+						Assert.assertEquals("40", param.getValue());
+				}
+				// latency of HTTP request only, without waits in rate limiter
+				httpRequestLatency.set(7L);
+				return "{\"startAt\": 0, \"maxResults\" : 40, \"total\" : 50, \"issues\" : [{\"key\" : \"ORG-45\"}]}"
+						.getBytes("UTF-8");
+			};
+		};
+		AdaptiveFetchController controllerMock = mock(AdaptiveFetchController.class);
+		when(controllerMock.getIssuesPerRequest("ORG")).thenReturn(40);
+		tested.setListJIRAIssuesMax(10);
+		tested.setAdaptiveFetchController(controllerMock);
+
+		// case - success is reported with latency of HTTP request and page size actually requested
+		tested.getJIRAChangedIssues("ORG", 0, null, null);
+		Mockito.verify(controllerMock).reportSuccess(Mockito.eq("ORG"), Mockito.eq(7L), Mockito.anyLong(),
+				Mockito.eq(40), Mockito.eq(1), Mockito.eq(40));
+		Mockito.verify(controllerMock, Mockito.times(1)).getIssuesPerRequest("ORG");
+
+		// case - server error is reported
+		try {
+			tested.getJIRAChangedIssues("ORG", 0, null, null);
+			Assert.fail("JIRARestCallException must be thrown");
+		} catch (JIRARestCallException e) {
+			Assert.assertEquals(503, e.getStatusCode());
+		}
+		Mockito.verify(controllerMock, Mockito.times(1)).reportFailure("ORG");
+
+		// case - client error is not reported as overload
+		try {
+			tested.getJIRAChangedIssues("ORG", 0, null, null);
+			Assert.fail("JIRARestCallException must be thrown");
+		} catch (JIRARestCallException e) {
+			Assert.assertEquals(404, e.getStatusCode());
+		}
+		Mockito.verify(controllerMock, Mockito.times(1)).reportFailure("ORG");
+	}
+
+	@Test
+	public void getJIRAChangedIssues_memoryBudget() throws Exception {
+		JIRA5RestClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null);
+		tested.setListJIRAIssuesMax(100);
+		Assert.assertEquals(100, tested.getIssuesPerRequest("ORG"));
+
+		JIRAMemoryBudget budget = new JIRAMemoryBudget(1000);
+		tested.setMemoryBudget(budget);
+		Assert.assertEquals(100, tested.getIssuesPerRequest("ORG"));
+
+		// case - page is shrunk when more than half of budget is used
+		budget.allocate(750);
+		Assert.assertEquals(50, tested.getIssuesPerRequest("ORG"));
+
+		// case - response size is returned
+		byte[] response = "{\"startAt\": 0, \"maxResults\" : 10, \"total\" : 1, \"issues\" : [{\"key\" : \"ORG-45\"}]}"
+				.getBytes("UTF-8");
+		ChangedIssuesResults ret = tested.parseChangedIssuesResponse(response);
+		Assert.assertEquals(response.length, ret.getResponseSize());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void parseChangedIssuesResponse_maxFieldLength() throws Exception {
+		JIRA5RestClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null);
+		byte[] response = ("{\"startAt\": 0, \"maxResults\" : 10, \"total\" : 2, \"issues\" : ["
+				+ "{\"key\" : \"ORG-45\", \"fields\" : {\"summary\" : \"long summary\", \"labels\" : [\"label1\", \"l2\", \"label3\"],"
+				+ " \"updated\" : \"2012-08-14T08:00:00.000-0400\","
+				+ " \"reporter\" : {\"self\" : \"http://jira/user/jdoe\", \"name\" : \"jdoe\", \"displayName\" : \"John Doe\"}},"
+				+ " \"changelog\" : {\"histories\" : [{\"id\" : \"10600\", \"created\" : \"2012-08-14T08:00:00.000-0400\"}]}},"
+				+ "{\"key\" : \"ORG-46\", \"fields\" : {\"summary\" : \"short\"}}]}").getBytes("UTF-8");
+
+		// case - no limit by default
+		ChangedIssuesResults ret = tested.parseChangedIssuesResponse(response);
+		Map<String, Object> issue = ret.getIssues().get(0);
+		Assert.assertEquals("long summary", XContentMapValues.extractValue("fields.summary", issue));
+		Assert.assertNull(issue.get(JIRA5RestClient.FIELD_TRUNCATED_FIELDS));
+
+		// case - long values in issue fields are truncated and listed, identifiers and dates are kept
+		tested.setMaxFieldLength(5);
+		ret = tested.parseChangedIssuesResponse(response);
+		issue = ret.getIssues().get(0);
+		Assert.assertEquals("ORG-45", issue.get("key"));
+		Assert.assertEquals("long ", XContentMapValues.extractValue("fields.summary", issue));
+		List<String> labels = (List<String>) XContentMapValues.extractValue("fields.labels", issue);
+		Assert.assertEquals("label", labels.get(0));
+		Assert.assertEquals("l2", labels.get(1));
+		Assert.assertEquals("label", labels.get(2));
+		Assert.assertEquals("2012-08-14T08:00:00.000-0400", XContentMapValues.extractValue("fields.updated", issue));
+		Assert.assertEquals("http://jira/user/jdoe", XContentMapValues.extractValue("fields.reporter.self", issue));
+		Assert.assertEquals("John ", XContentMapValues.extractValue("fields.reporter.displayName", issue));
+		Map<String, Object> history = ((List<Map<String, Object>>) XContentMapValues.extractValue("changelog.histories",
+				issue)).get(0);
+		Assert.assertEquals("2012-08-14T08:00:00.000-0400", history.get("created"));
+		List<String> truncated = (List<String>) issue.get(JIRA5RestClient.FIELD_TRUNCATED_FIELDS);
+		Assert.assertEquals(3, truncated.size());
+		Assert.assertTrue(truncated.contains("fields.summary"));
+		Assert.assertTrue(truncated.contains("fields.labels"));
+		Assert.assertTrue(truncated.contains("fields.reporter.displayName"));
+
+		issue = ret.getIssues().get(1);
+		Assert.assertEquals("ORG-46", issue.get("key"));
+		Assert.assertEquals("short", XContentMapValues.extractValue("fields.summary", issue));
+		Assert.assertNull(issue.get(JIRA5RestClient.FIELD_TRUNCATED_FIELDS));
+	}
+
+	@Test
+	public void parseChangedIssuesResponse_stringDedup() throws Exception {
+		JIRA5RestClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null);
+		byte[] response = ("{\"startAt\": 0, \"maxResults\" : 10, \"total\" : 2, \"issues\" : ["
+				+ "{\"key\" : \"ORG-45\", \"fields\" : {\"status\" : {\"name\" : \"Open\"}}},"
+				+ "{\"key\" : \"ORG-46\", \"fields\" : {\"status\" : {\"name\" : \"Open\"}}}]}").getBytes("UTF-8");
+
+		// case - values not deduplicated by default
+		ChangedIssuesResults ret = tested.parseChangedIssuesResponse(response);
+		Assert.assertNotSame(XContentMapValues.extractValue("fields.status.name", ret.getIssues().get(0)),
+				XContentMapValues.extractValue("fields.status.name", ret.getIssues().get(1)));
+
+		tested.setStringDedupTableSize(64);
+		ChangedIssuesResults retDedup = tested.parseChangedIssuesResponse(response);
+		Assert.assertEquals(ret.getIssues(), retDedup.getIssues());
+		Assert.assertEquals(0, retDedup.getStartAt());
+		Assert.assertEquals(2, retDedup.getTotal());
+		Assert.assertSame(XContentMapValues.extractValue("fields.status.name", retDedup.getIssues().get(0)),
+				XContentMapValues.extractValue("fields.status.name", retDedup.getIssues().get(1)));
+	}
+
+	@Test
+	public void getJIRAChangedProjects() throws Exception {
+		final List<String> jqls = new ArrayList<String>();
+		JIRA5RestClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null) {
+			@Override
+			protected byte[] performJIRAGetRESTCall(String restOperation, List<NameValuePair> params) throws Exception {
+				Assert.assertEquals("search", restOperation);
+				String jql = null;
+				for (NameValuePair param : params) {
+					if (param.getName().equals("jql"))
+						jql = param.getValue();
+					if (param.getName().equals("fields"))
+						Assert.assertEquals("project,updated", param.getValue());
+					if (param.getName().equals("maxResults"))
+						Assert.assertEquals("2", param.getValue());
+				}
+				jqls.add(jql);
+				if (jqls.size() == 1)
+					return ("{\"startAt\": 0, \"maxResults\" : 2, \"total\" : 5, \"issues\" : ["
+							+ "{\"key\" : \"ORG-45\", \"fields\" : {\"project\" : {\"key\" : \"ORG\"}, \"updated\" : \"2012-08-14T08:05:10.000-0400\"}},"
+							+ "{\"key\" : \"ORG-44\", \"fields\" : {\"project\" : {\"key\" : \"ORG\"}, \"updated\" : \"2012-08-14T08:04:10.000-0400\"}}"
+							+ "]}").getBytes("UTF-8");
+				return ("{\"startAt\": 0, \"maxResults\" : 2, \"total\" : 1, \"issues\" : ["
+						+ "{\"key\" : \"AS7-1\", \"fields\" : {\"project\" : {\"key\" : \"AS7\"}, \"updated\" : \"2012-08-14T08:01:10.000-0400\"}}"
+						+ "]}").getBytes("UTF-8");
+			};
+		};
+		tested.setJQLDateFormatTimezone(JQL_TEST_TIMEZONE);
+		tested.setListJIRAIssuesMax(2);
+
+		List<String> projectKeys = new ArrayList<String>();
+		projectKeys.add("ORG");
+		projectKeys.add("AS7");
+		projectKeys.add("IDLE");
+		Map<String, Date> ret = tested.getJIRAChangedProjects(projectKeys, JQL_TEST_DATE_FORMAT.parse("2012-08-14 12:00"));
+		Assert.assertEquals(2, ret.size());
+		Assert.assertEquals(DateTimeUtils.parseISODateTime("2012-08-14T08:05:10.000-0400"), ret.get("ORG"));
+		Assert.assertEquals(DateTimeUtils.parseISODateTime("2012-08-14T08:01:10.000-0400"), ret.get("AS7"));
+
+		// truncated response so second call for projects not found yet
+		Assert.assertEquals(2, jqls.size());
+		Assert.assertEquals(
+				"project in (\"ORG\",\"AS7\",\"IDLE\") and updatedDate >= \"2012-08-14 12:00\" ORDER BY updated DESC",
+				jqls.get(0));
+		Assert.assertEquals(
+				"project in (\"AS7\",\"IDLE\") and updatedDate >= \"2012-08-14 12:00\" ORDER BY updated DESC", jqls.get(1));
+
+		// case - updatedAfter is mandatory
+		try {
+			tested.getJIRAChangedProjects(projectKeys, null);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void prepareJIRAChangedIssuesForProjectsParams() throws Exception {
+		JIRA5RestClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null);
+		tested.setJQLDateFormatTimezone(JQL_TEST_TIMEZONE);
+		tested.setListJIRAIssuesMax(20);
+		IJIRAIssueIndexStructureBuilder structureBuilderMock = mock(IJIRAIssueIndexStructureBuilder.class);
+		when(structureBuilderMock.getRequiredJIRACallIssueFields()).thenReturn("key,updated");
+		tested.setIndexStructureBuilder(structureBuilderMock);
+
+		Map<String, Date> projectsUpdatedAfter = new LinkedHashMap<String, Date>();
+		projectsUpdatedAfter.put("ORG", JQL_TEST_DATE_FORMAT.parse("2012-08-14 12:00"));
+		projectsUpdatedAfter.put("AAA", JQL_TEST_DATE_FORMAT.parse("2012-08-14 12:00"));
+		List<NameValuePair> params = tested.prepareJIRAChangedIssuesForProjectsParams(projectsUpdatedAfter, 10);
+		Assert.assertEquals(4, params.size());
+		Assert.assertEquals("project in (\"ORG\",\"AAA\") and updatedDate >= \"2012-08-14 12:00\" ORDER BY updated ASC",
+				params.get(0).getValue());
+		Assert.assertEquals("20", params.get(1).getValue());
+		Assert.assertEquals("10", params.get(2).getValue());
+		Assert.assertEquals("key,updated,project", params.get(3).getValue());
+
+		// case - project field requested already, no date
+		when(structureBuilderMock.getRequiredJIRACallIssueFields()).thenReturn("project,key,updated");
+		projectsUpdatedAfter = new LinkedHashMap<String, Date>();
+		projectsUpdatedAfter.put("ORG", null);
+		params = tested.prepareJIRAChangedIssuesForProjectsParams(projectsUpdatedAfter, 0);
+		Assert.assertEquals("project in (\"ORG\") ORDER BY updated ASC", params.get(0).getValue());
+		Assert.assertEquals("project,key,updated", params.get(3).getValue());
+
+		// case - projects with different windows, projects with same window grouped
+		projectsUpdatedAfter = new LinkedHashMap<String, Date>();
+		projectsUpdatedAfter.put("ORG", JQL_TEST_DATE_FORMAT.parse("2012-08-14 12:00"));
+		projectsUpdatedAfter.put("AAA", JQL_TEST_DATE_FORMAT.parse("2012-08-14 12:05"));
+		projectsUpdatedAfter.put("BBB", JQL_TEST_DATE_FORMAT.parse("2012-08-14 12:00"));
+		projectsUpdatedAfter.put("CCC", null);
+		params = tested.prepareJIRAChangedIssuesForProjectsParams(projectsUpdatedAfter, 0);
+		Assert.assertEquals("(project in (\"ORG\",\"BBB\") and updatedDate >= \"2012-08-14 12:00\")"
+				+ " or (project in (\"AAA\") and updatedDate >= \"2012-08-14 12:05\") or (project in (\"CCC\"))"
+				+ " ORDER BY updated ASC", params.get(0).getValue());
+
+		try {
+			tested.prepareJIRAChangedIssuesForProjectsParams(new HashMap<String, Date>(), 0);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void parseChangedProjectsResponse() throws Exception {
+		Map<String, Date> changed = new HashMap<String, Date>();
+		Assert.assertFalse(JIRA5RestClient.parseChangedProjectsResponse(
+				"{\"startAt\": 0, \"maxResults\" : 50, \"total\" : 0, \"issues\" : []}".getBytes("UTF-8"), changed));
+		Assert.assertTrue(changed.isEmpty());
+
+		try {
+			JIRA5RestClient.parseChangedProjectsResponse(
+					"{\"startAt\": 0, \"total\" : 1, \"issues\" : [{\"key\" : \"ORG-45\", \"fields\" : {}}]}".getBytes("UTF-8"),
+					changed);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+
+		try {
+			JIRA5RestClient.parseChangedProjectsResponse("{\"issues\" : []}".getBytes("UTF-8"), changed);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void getJIRAIssueCommentsAndChangelog() throws Exception {
+		final List<String> operations = new ArrayList<String>();
+		JIRA5RestClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null) {
+			@Override
+			protected byte[] performJIRAGetRESTCall(String restOperation, List<NameValuePair> params) throws Exception {
+				operations.add(restOperation);
+				if (restOperation.endsWith("/comment")) {
+					Assert.assertEquals("startAt", params.get(0).getName());
+					Assert.assertEquals("20", params.get(0).getValue());
+					return "{\"startAt\": 20, \"maxResults\" : 20, \"total\" : 21, \"comments\" : [{\"id\" : \"c21\"}]}"
+							.getBytes("UTF-8");
+				}
+				Assert.assertEquals("fields", params.get(0).getName());
+				Assert.assertEquals("updated", params.get(0).getValue());
+				Assert.assertEquals("expand", params.get(1).getName());
+				Assert.assertEquals("changelog", params.get(1).getValue());
+				return ("{\"key\" : \"ORG-45\", \"fields\" : {\"updated\" : \"2012-08-14T08:05:10.000-0400\"},"
+						+ "\"changelog\" : {\"startAt\": 0, \"maxResults\" : 2, \"total\" : 2, \"histories\" : [{\"id\" : \"h1\"},{\"id\" : \"h2\"}]}}")
+						.getBytes("UTF-8");
+			};
+		};
+
+		Map<String, Object> comments = tested.getJIRAIssueComments("ORG-45", 20);
+		Assert.assertEquals(21, comments.get("total"));
+		Assert.assertEquals(1, ((List<?>) comments.get("comments")).size());
+
+		Map<String, Object> changelog = tested.getJIRAIssueChangelog("ORG-45");
+		Assert.assertEquals(2, ((List<?>) changelog.get("histories")).size());
+
+		Assert.assertEquals(2, operations.size());
+		Assert.assertEquals("issue/ORG-45/comment", operations.get(0));
+		Assert.assertEquals("issue/ORG-45", operations.get(1));
+
+		try {
+			tested.getJIRAIssueComments(null, 0);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			tested.getJIRAIssueChangelog(" ");
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void parseIssueListStructure() throws Exception {
+		Map<String, Object> ret = JIRA5RestClient.parseIssueListStructure(
+				"{\"changelog\" : {\"total\" : 0, \"histories\" : []}}".getBytes("UTF-8"), "changelog");
+		Assert.assertEquals(0, ret.get("total"));
+
+		try {
+			JIRA5RestClient.parseIssueListStructure("{\"key\" : \"ORG-45\"}".getBytes("UTF-8"), "changelog");
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void parseRetryAfter() {
+		long now = DateTimeUtils.parseISODateTime("2014-10-21T07:28:00Z").getTime();
+		Assert.assertEquals(-1, JIRA5RestClient.parseRetryAfter(null, now));
+		Assert.assertEquals(-1, JIRA5RestClient.parseRetryAfter("", now));
+		Assert.assertEquals(-1, JIRA5RestClient.parseRetryAfter("nonsense", now));
+		Assert.assertEquals(-1, JIRA5RestClient.parseRetryAfter("-5", now));
+		Assert.assertEquals(0, JIRA5RestClient.parseRetryAfter("0", now));
+		Assert.assertEquals(120000, JIRA5RestClient.parseRetryAfter(" 120 ", now));
+		Assert.assertEquals(30000, JIRA5RestClient.parseRetryAfter("Tue, 21 Oct 2014 07:28:30 GMT", now));
+		// date in the past
+		Assert.assertEquals(0, JIRA5RestClient.parseRetryAfter("Tue, 21 Oct 2014 07:27:00 GMT", now));
+	}
+
+	@Test
+	public void setRateLimits() {
+		JIRAConnectionPoolRegistry registry = new JIRAConnectionPoolRegistry();
+		JIRA5RestClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null,
+				registry, 10, 10, 1000, 1000);
+		JIRA5RestClient tested2 = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null,
+				registry, 10, 10, 1000, 1000);
+		Assert.assertSame(tested.rateLimiter, tested2.rateLimiter);
+		tested.setRateLimits(5, 1000);
+		tested2.setRateLimits(10, 500);
+		Assert.assertEquals(5d, tested.rateLimiter.maxRequestsPerSecond);
+		Assert.assertEquals(500, tested.rateLimiter.maxBytesPerSecond);
+		tested.setCircuitBreaker(2, 1000);
+		tested2.setCircuitBreaker(0, 500);
+		Assert.assertEquals(2, tested.circuitBreaker.failureThreshold);
+
+		// case - limits of closed client are not used anymore
+		tested.close();
+		Assert.assertEquals(10d, tested2.rateLimiter.maxRequestsPerSecond);
+		Assert.assertEquals(500, tested2.rateLimiter.maxBytesPerSecond);
+		Assert.assertEquals(0, tested2.circuitBreaker.failureThreshold);
+		Assert.assertEquals(500, tested2.circuitBreaker.openTime);
+		tested2.close();
+	}
+
+	@Test
+	public void performJIRAGetRESTCall_retryAndCircuitBreaker() throws Exception {
+		final List<Object> responses = new ArrayList<Object>();
+		final List<URI> calledUris = new ArrayList<URI>();
+		JIRA5RestClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null,
+				new JIRAConnectionPoolRegistry(), 10, 10, 1000, 1000) {
+			@Override
+			protected byte[] performJIRAGetRESTRequest(URI uri, ConditionalGet conditionalGet) throws Exception {
+				calledUris.add(uri);
+				Object r = responses.remove(0);
+				if (r instanceof Exception)
+					throw (Exception) r;
+				return (byte[]) r;
+			}
+		};
+		tested.setRetryPolicy(2, 1, 2);
+		tested.setCircuitBreaker(3, 60000);
+
+		// case - success after retries of I/O error and server error
+		responses.add(new SocketTimeoutException("timeout"));
+		responses.add(new JIRARestCallException("error", 502));
+		responses.add("ok".getBytes());
+		Assert.assertEquals("ok", new String(tested.performJIRAGetRESTCall("project", null)));
+		Assert.assertEquals(3, calledUris.size());
+		Assert.assertEquals(TEST_JIRA_URL + "/rest/api/2/project", calledUris.get(0).toString());
+		Assert.assertEquals(JIRACircuitBreaker.State.CLOSED, tested.getCircuitBreaker().getState(System.currentTimeMillis()));
+		Assert.assertEquals(0, tested.circuitBreaker.consecutiveFailures);
+
+		// case - client error is not retried and doesn't count as failure
+		calledUris.clear();
+		responses.add(new JIRARestCallException("error", 404));
+		try {
+			tested.performJIRAGetRESTCall("project", null);
+			Assert.fail("JIRARestCallException must be thrown");
+		} catch (JIRARestCallException e) {
+			Assert.assertEquals(404, e.getStatusCode());
+		}
+		Assert.assertEquals(1, calledUris.size());
+		Assert.assertEquals(0, tested.circuitBreaker.consecutiveFailures);
+
+		// case - retries exhausted, breaker opens on third failure and stops retrying
+		calledUris.clear();
+		responses.add(new SocketTimeoutException("timeout"));
+		responses.add(new SocketTimeoutException("timeout"));
+		responses.add(new SocketTimeoutException("timeout"));
+		try {
+			tested.performJIRAGetRESTCall("project", null);
+			Assert.fail("SocketTimeoutException must be thrown");
+		} catch (SocketTimeoutException e) {
+			// OK
+		}
+		Assert.assertEquals(3, calledUris.size());
+		Assert.assertEquals(JIRACircuitBreaker.State.OPEN, tested.getCircuitBreaker().getState(System.currentTimeMillis()));
+
+		// case - call rejected while breaker is open
+		calledUris.clear();
+		try {
+			tested.performJIRAGetRESTCall("project", null);
+			Assert.fail("JIRACircuitOpenException must be thrown");
+		} catch (JIRACircuitOpenException e) {
+			// OK
+		}
+		Assert.assertEquals(0, calledUris.size());
+		tested.close();
+	}
+
+	@Test
+	public void computeRetryBackoff() {
+		JIRA5RestClient tested = new JIRA5RestClient(mockEsIntegrationComponent(), TEST_JIRA_URL, null, null, 5000, null,
+				new JIRAConnectionPoolRegistry(), 10, 10, 1000, 1000);
+		tested.setRetryPolicy(3, 1000, 5000);
+		for (int i = 0; i < 20; i++) {
+			long b = tested.computeRetryBackoff(0);
+			Assert.assertTrue(b >= 500 && b <= 1000);
+			b = tested.computeRetryBackoff(1);
+			Assert.assertTrue(b >= 1000 && b <= 2000);
+			// max backoff limit
+			b = tested.computeRetryBackoff(3);
+			Assert.assertTrue(b >= 2500 && b <= 5000);
+			b = tested.computeRetryBackoff(100);
+			Assert.assertTrue(b >= 2500 && b <= 5000);
+		}
+
+		// case - configuration sanity
+		tested.setRetryPolicy(-1, 0, 0);
+		Assert.assertEquals(0, tested.maxRetries);
+		Assert.assertEquals(1, tested.retryInitialBackoff);
+		Assert.assertEquals(1, tested.retryMaxBackoff);
+		tested.close();
+	}
+
+	@Test
+	public void isUnavailabilityFailure() {
+		Assert.assertTrue(JIRA5RestClient.isUnavailabilityFailure(new SocketTimeoutException()));
+		Assert.assertTrue(JIRA5RestClient.isUnavailabilityFailure(new IOException()));
+		Assert.assertTrue(JIRA5RestClient.isUnavailabilityFailure(new JIRARestCallException("", 503)));
+		Assert.assertFalse(JIRA5RestClient.isUnavailabilityFailure(new JIRARestCallException("", 404)));
+		Assert.assertFalse(JIRA5RestClient.isUnavailabilityFailure(new JIRARestCallException("", 429)));
+		Assert.assertFalse(JIRA5RestClient.isUnavailabilityFailure(new IllegalArgumentException()));
+	}
+
+	@Test
+	public void isOverloadFailure() {
+		Assert.assertTrue(JIRA5RestClient.isOverloadFailure(new SocketTimeoutException()));
+		Assert.assertTrue(JIRA5RestClient.isOverloadFailure(new JIRARestCallException("", 500)));
+		Assert.assertTrue(JIRA5RestClient.isOverloadFailure(new JIRARestCallException("", 503)));
+		Assert.assertFalse(JIRA5RestClient.isOverloadFailure(new JIRARestCallException("", 401)));
+		Assert.assertFalse(JIRA5RestClient.isOverloadFailure(new IOException()));
+	}
+
 	@Test
 	public void performJIRAChangedIssuesREST() throws Exception {
 		final Date ua = new Date();
@@ -203,7 +791,7 @@ public class JIRA5RestClientTest {
 				"key,status,issuetype,created,updated,reporter,assignee,summary,description");
 
 		// case - no maxResults parameter defined
-		byte[] ret = tested.performJIRAChangedIssuesREST("ORG", 10, ua, ub);
+		byte[] ret = tested.performJIRAChangedIssuesREST("ORG", 10, ua, ub, tested.getIssuesPerRequest("ORG"));
 		Assert
 				.assertEquals(
 						"{\"maxResults\": -1, \"startAt\": 10, \"fields\" : \"key,status,issuetype,created,updated,reporter,assignee,summary,description\", \"expand\" : \"\" }",
@@ -211,7 +799,7 @@ public class JIRA5RestClientTest {
 
 		// case - maxResults parameter defined
 		tested.listJIRAIssuesMax = 10;
-		ret = tested.performJIRAChangedIssuesREST("ORG", 20, ua, ub);
+		ret = tested.performJIRAChangedIssuesREST("ORG", 20, ua, ub, tested.getIssuesPerRequest("ORG"));
 		Assert
 				.assertEquals(
 						"{\"maxResults\": 10, \"startAt\": 20, \"fields\" : \"key,status,issuetype,created,updated,reporter,assignee,summary,description\", \"expand\" : \"\" }",
@@ -220,7 +808,7 @@ public class JIRA5RestClientTest {
 		// case - no fields defined
 		reset(jiraIssueIndexStructureBuilderMock);
 		tested.listJIRAIssuesMax = 20;
-		ret = tested.performJIRAChangedIssuesREST("ORG", 30, ua, ub);
+		ret = tested.performJIRAChangedIssuesREST("ORG", 30, ua, ub, tested.getIssuesPerRequest("ORG"));
 		Assert.assertEquals("{\"maxResults\": 20, \"startAt\": 30, \"fields\" : \"\", \"expand\" : \"\" }", new String(ret,
 				"UTF-8"));
 
@@ -228,7 +816,7 @@ public class JIRA5RestClientTest {
 		reset(jiraIssueIndexStructureBuilderMock);
 		tested.listJIRAIssuesMax = 10;
 		when(jiraIssueIndexStructureBuilderMock.getRequiredJIRACallIssueExpands()).thenReturn("changelog");
-		ret = tested.performJIRAChangedIssuesREST("ORG", 30, ua, ub);
+		ret = tested.performJIRAChangedIssuesREST("ORG", 30, ua, ub, tested.getIssuesPerRequest("ORG"));
 		Assert.assertEquals("{\"maxResults\": 10, \"startAt\": 30, \"fields\" : \"\", \"expand\" : \"changelog\" }",
 				new String(ret, "UTF-8"));
 
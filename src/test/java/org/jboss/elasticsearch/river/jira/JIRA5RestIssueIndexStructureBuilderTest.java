@@ -8,22 +8,37 @@ package org.jboss.elasticsearch.river.jira;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.codehaus.jackson.JsonNode;
 import org.codehaus.jackson.map.DeserializationConfig;
 import org.codehaus.jackson.map.ObjectMapper;
+import org.elasticsearch.action.ActionRequest;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.action.delete.DeleteRequest;
+import org.elasticsearch.action.index.IndexRequest;
 import org.elasticsearch.action.search.SearchRequestBuilder;
+import org.elasticsearch.action.search.SearchResponse;
 import org.elasticsearch.client.Client;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.text.StringText;
 import org.elasticsearch.common.xcontent.XContent;
 import org.elasticsearch.common.xcontent.XContentBuilder;
 import org.elasticsearch.common.xcontent.XContentGenerator;
+import org.elasticsearch.common.xcontent.XContentHelper;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.index.VersionType;
 import org.elasticsearch.river.RiverName;
+import org.elasticsearch.search.SearchHitField;
+import org.elasticsearch.search.internal.InternalSearchHit;
+import org.elasticsearch.search.internal.InternalSearchHitField;
+import org.elasticsearch.search.internal.InternalSearchHits;
+import org.elasticsearch.search.internal.InternalSearchResponse;
 import org.jboss.elasticsearch.river.jira.testtools.TestUtils;
 import org.jboss.elasticsearch.tools.content.StructuredContentPreprocessor;
 import org.junit.Assert;
@@ -728,6 +743,166 @@ public class JIRA5RestIssueIndexStructureBuilderTest {
 			verify(idp1, times(1)).preprocessData(Mockito.anyMap());
 		}
 
+		// case - issue exceeding diagnostics threshold is recorded
+		{
+			BulkRequestBuilder esBulk = new BulkRequestBuilder(client);
+			tested.issueDataPreprocessors = null;
+			tested.commentIndexingMode = IssueCommentIndexingMode.EMBEDDED;
+			tested.changelogIndexingMode = IssueCommentIndexingMode.NONE;
+			Map<String, Object> diagnosticsSettings = new HashMap<String, Object>();
+			diagnosticsSettings.put("max_comments", 1);
+			tested.issueDiagnostics = new IssueDiagnostics(mockEsIntegrationComponent(), diagnosticsSettings);
+			tested.indexIssue(esBulk, "ORG", TestUtils.readJiraJsonIssueDataFromClasspathFile("ORG-1513"));
+			Assert.assertEquals(0, tested.getIssueDiagnostics().getTopRecords("ORG").size());
+			tested.indexIssue(esBulk, "ORG", TestUtils.readJiraJsonIssueDataFromClasspathFile("ORG-1501"));
+			Assert.assertEquals(1, tested.getIssueDiagnostics().getTopRecords("ORG").size());
+			IssueDiagnosticRecord record = tested.getIssueDiagnostics().getTopRecords("ORG").get(0);
+			Assert.assertEquals("ORG-1501", record.issueKey);
+			Assert.assertEquals(2, record.comments);
+			Assert.assertTrue(record.documentSize > 0);
+		}
+
+	}
+
+	@Test
+	public void indexIssue_changedSince() throws Exception {
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		JIRA5RestIssueIndexStructureBuilder tested = new JIRA5RestIssueIndexStructureBuilder(esIntegrationMock,
+				"search_index", "issue_type", "http://issues-stg.jboss.org/", null);
+		tested.commentIndexingMode = IssueCommentIndexingMode.CHILD;
+		tested.changelogIndexingMode = IssueCommentIndexingMode.STANDALONE;
+		tested.changelogTypeName = "jira_issue_change";
+
+		Client client = Mockito.mock(Client.class);
+
+		// case - no date so everything is indexed without search for indexed documents
+		{
+			BulkRequestBuilder esBulk = new BulkRequestBuilder(client);
+			tested.indexIssue(esBulk, "ORG", TestUtils.readJiraJsonIssueDataFromClasspathFile("ORG-1501"), null, null);
+			Assert.assertEquals(5, esBulk.request().numberOfActions());
+			verify(esIntegrationMock, times(0)).prepareESScrollSearchRequestBuilder(Mockito.anyString());
+		}
+
+		// case - only changed or not indexed yet comments and changelogs are indexed, disappeared comment is deleted,
+		// disappeared changelog item is kept because changelog list is truncated in issue data
+		{
+			Map<String, Object> issue = TestUtils.readJiraJsonIssueDataFromClasspathFile("ORG-1501");
+			List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+			issues.add(issue);
+
+			SearchRequestBuilder srb = new SearchRequestBuilder(client);
+			when(esIntegrationMock.prepareESScrollSearchRequestBuilder("search_index")).thenReturn(srb);
+			SearchResponse sr0 = prepareSearchResponse("scrlid0",
+					prepareSearchHit(1, "12714153", "jira_issue_comment", "ORG-1501"));
+			when(esIntegrationMock.executeESSearchRequest(srb)).thenReturn(sr0);
+			SearchResponse sr1 = prepareSearchResponse("scrlid1",
+					prepareSearchHit(1, "12714153", "jira_issue_comment", "ORG-1501"),
+					prepareSearchHit(2, "12714252", "jira_issue_comment", "ORG-1501"),
+					prepareSearchHit(3, "999", "jira_issue_comment", "ORG-1501"),
+					prepareSearchHit(4, "10600", "jira_issue_change", "ORG-1501"),
+					prepareSearchHit(5, "10599", "jira_issue_change", "ORG-1501"),
+					prepareSearchHit(6, "888", "jira_issue_comment", "ORG-1502"));
+			when(esIntegrationMock.executeESScrollSearchNextRequest(sr0)).thenReturn(sr1);
+			SearchResponse sr2 = prepareSearchResponse("scrlid2");
+			when(esIntegrationMock.executeESScrollSearchNextRequest(sr1)).thenReturn(sr2);
+
+			Map<String, Map<String, Set<String>>> indexedDocumentIds = tested
+					.readIndexedCommentAndChangelogDocumentIds(issues);
+			Assert.assertEquals(1, indexedDocumentIds.size());
+			verify(esIntegrationMock, times(1)).prepareESScrollSearchRequestBuilder("search_index");
+			verify(esIntegrationMock, times(1)).clearESScrollSearch(sr2);
+
+			BulkRequestBuilder esBulk = new BulkRequestBuilder(client);
+			Date changedSince = DateTimeUtils.parseISODateTime("2012-08-28T09:00:00.000-0400");
+			tested.indexIssue(esBulk, "ORG", issue, changedSince, indexedDocumentIds);
+
+			List<ActionRequest> requests = esBulk.request().requests();
+			Assert.assertEquals(4, requests.size());
+			Assert.assertEquals("ORG-1501", ((IndexRequest) requests.get(0)).id());
+			// comment 12714153 not changed since date and indexed already
+			IndexRequest commentRequest = (IndexRequest) requests.get(1);
+			Assert.assertEquals("jira_issue_comment", commentRequest.type());
+			Assert.assertEquals("12714252", commentRequest.id());
+			Assert.assertEquals("ORG-1501", commentRequest.parent());
+			// changelog 10600 not changed since date and indexed already, 10601 not indexed yet
+			IndexRequest changelogRequest = (IndexRequest) requests.get(2);
+			Assert.assertEquals("jira_issue_change", changelogRequest.type());
+			Assert.assertEquals("10601", changelogRequest.id());
+			// comment list is complete so 999 is deleted, changelog 10599 kept as changelog list is truncated
+			DeleteRequest deleteRequest = (DeleteRequest) requests.get(3);
+			Assert.assertEquals("jira_issue_comment", deleteRequest.type());
+			Assert.assertEquals("999", deleteRequest.id());
+			Assert.assertEquals("ORG-1501", deleteRequest.routing());
+		}
+	}
+
+	private InternalSearchHit prepareSearchHit(int docId, String id, String type, String issueKey) {
+		Map<String, SearchHitField> fields = new HashMap<String, SearchHitField>();
+		List<Object> values = new ArrayList<Object>();
+		values.add(issueKey);
+		fields.put("issue_key", new InternalSearchHitField("issue_key", values));
+		return new InternalSearchHit(docId, id, new StringText(type), fields);
+	}
+
+	@Test
+	public void indexIssue_externalVersioning() throws Exception {
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(JIRA5RestIssueIndexStructureBuilder.CONFIG_EXTERNALVERSIONING, true);
+		settings.put(JIRA5RestIssueIndexStructureBuilder.CONFIG_COMMENTMODE, "child");
+		JIRA5RestIssueIndexStructureBuilder tested = new JIRA5RestIssueIndexStructureBuilder(mockEsIntegrationComponent(),
+				"search_index", "issue_type", "http://issues-stg.jboss.org/", settings);
+		Assert.assertTrue(tested.externalVersioning);
+
+		BulkRequestBuilder esBulk = new BulkRequestBuilder(Mockito.mock(Client.class));
+		tested.indexIssue(esBulk, "ORG", TestUtils.readJiraJsonIssueDataFromClasspathFile("ORG-1501"));
+		List<ActionRequest> requests = esBulk.request().requests();
+		Assert.assertEquals(3, requests.size());
+		// all documents are versioned by issue update timestamp
+		long version = DateTimeUtils.parseISODateTime("2012-09-06T02:26:53.000-0400").getTime();
+		for (ActionRequest request : requests) {
+			Assert.assertEquals(version, ((IndexRequest) request).version());
+			Assert.assertEquals(VersionType.EXTERNAL_GTE, ((IndexRequest) request).versionType());
+		}
+
+		// case - versioning disabled by default
+		tested = new JIRA5RestIssueIndexStructureBuilder(mockEsIntegrationComponent(), "search_index", "issue_type",
+				"http://issues-stg.jboss.org/", null);
+		Assert.assertFalse(tested.externalVersioning);
+		esBulk = new BulkRequestBuilder(Mockito.mock(Client.class));
+		tested.indexIssue(esBulk, "ORG", TestUtils.readJiraJsonIssueDataFromClasspathFile("ORG-1501"));
+		Assert.assertEquals(VersionType.INTERNAL, ((IndexRequest) esBulk.request().requests().get(0)).versionType());
+	}
+
+	@Test
+	public void prepareIndexedDocument_documentContentType() throws Exception {
+		Map<String, Object> settings = new HashMap<String, Object>();
+		settings.put(JIRA5RestIssueIndexStructureBuilder.CONFIG_DOCUMENTCONTENTTYPE, "cbor");
+		JIRA5RestIssueIndexStructureBuilder tested = new JIRA5RestIssueIndexStructureBuilder(mockEsIntegrationComponent(),
+				"search_index", "issue_type", "http://issues-stg.jboss.org/", settings);
+		Assert.assertEquals(XContentType.CBOR, tested.documentContentType);
+
+		Map<String, Object> issue = TestUtils.readJiraJsonIssueDataFromClasspathFile("ORG-1501");
+		XContentBuilder cbor = tested.prepareIssueIndexedDocument("ORG", issue);
+		Assert.assertEquals(XContentType.CBOR, cbor.contentType());
+		Assert.assertEquals(XContentType.CBOR, tested.prepareCommentIndexedDocument("ORG", "ORG-1501",
+				tested.extractIssueComments(issue).get(0)).contentType());
+		Assert.assertEquals(XContentType.CBOR, tested.prepareChangelogIndexedDocument("ORG", "ORG-1501",
+				tested.extractIssueChangelogs(issue).get(0)).contentType());
+
+		// same content as JSON document, but smaller
+		tested.documentContentType = XContentType.JSON;
+		XContentBuilder json = tested.prepareIssueIndexedDocument("ORG", issue);
+		Assert.assertEquals(XContentType.JSON, json.contentType());
+		Assert.assertEquals(XContentHelper.convertToMap(json.bytes(), true).v2(),
+				XContentHelper.convertToMap(cbor.bytes(), true).v2());
+		Assert.assertTrue(cbor.bytes().length() < json.bytes().length());
+	}
+
+	private SearchResponse prepareSearchResponse(String scrollId, InternalSearchHit... hits) {
+		InternalSearchHits hitsi = new InternalSearchHits(hits, hits.length, 10f);
+		InternalSearchResponse sr1i = new InternalSearchResponse(hitsi, null, null, null, false, null);
+		SearchResponse sr1 = new SearchResponse(sr1i, scrollId, 1, 1, 100, null);
+		return sr1;
 	}
 
 	@Test
@@ -0,0 +1,138 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link JIRACircuitBreaker}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRACircuitBreakerTest {
+
+	private static final Object CLIENT = new Object();
+
+	@Test
+	public void configure() {
+		JIRACircuitBreaker tested = new JIRACircuitBreaker();
+		Assert.assertEquals(JIRACircuitBreaker.DEFAULT_FAILURE_THRESHOLD, tested.failureThreshold);
+		Assert.assertEquals(JIRACircuitBreaker.DEFAULT_OPEN_TIME, tested.openTime);
+
+		// case - first configuration is used as is
+		tested.configure(CLIENT, 0, 1000);
+		Assert.assertEquals(0, tested.failureThreshold);
+		Assert.assertEquals(1000, tested.openTime);
+
+		// case - more sensitive values from all clients win
+		Object client2 = new Object();
+		Object client3 = new Object();
+		tested.configure(client2, 10, 500);
+		Assert.assertEquals(10, tested.failureThreshold);
+		Assert.assertEquals(1000, tested.openTime);
+		tested.configure(client3, 3, 2000);
+		Assert.assertEquals(3, tested.failureThreshold);
+		Assert.assertEquals(2000, tested.openTime);
+
+		// case - values are relaxed when sensitive client is reconfigured or released
+		tested.configure(client3, 5, 1000);
+		Assert.assertEquals(5, tested.failureThreshold);
+		Assert.assertEquals(1000, tested.openTime);
+		tested.release(client3);
+		Assert.assertEquals(10, tested.failureThreshold);
+		Assert.assertEquals(1000, tested.openTime);
+
+		// case - breaker is disabled when all clients disable it
+		tested.configure(client2, 0, 500);
+		Assert.assertEquals(0, tested.failureThreshold);
+		Assert.assertEquals(1000, tested.openTime);
+
+		// case - defaults when no client remains
+		tested.release(client2);
+		tested.release(CLIENT);
+		Assert.assertEquals(JIRACircuitBreaker.DEFAULT_FAILURE_THRESHOLD, tested.failureThreshold);
+		Assert.assertEquals(JIRACircuitBreaker.DEFAULT_OPEN_TIME, tested.openTime);
+	}
+
+	@Test
+	public void stateTransitions() {
+		JIRACircuitBreaker tested = new JIRACircuitBreaker();
+		tested.configure(CLIENT, 3, 1000);
+		long now = 100000;
+
+		Assert.assertEquals(JIRACircuitBreaker.State.CLOSED, tested.getState(now));
+		Assert.assertTrue(tested.tryCall(now));
+
+		// case - success resets failures counter
+		tested.reportFailure(now);
+		tested.reportFailure(now);
+		tested.reportSuccess();
+		tested.reportFailure(now);
+		tested.reportFailure(now);
+		Assert.assertEquals(JIRACircuitBreaker.State.CLOSED, tested.getState(now));
+		Assert.assertTrue(tested.tryCall(now));
+
+		// case - opened after threshold reached
+		tested.reportFailure(now);
+		Assert.assertEquals(JIRACircuitBreaker.State.OPEN, tested.getState(now));
+		Assert.assertFalse(tested.tryCall(now));
+		Assert.assertFalse(tested.tryCall(now + 999));
+
+		// case - half open after open time, only one probe call permitted
+		Assert.assertEquals(JIRACircuitBreaker.State.HALF_OPEN, tested.getState(now + 1000));
+		Assert.assertTrue(tested.tryCall(now + 1000));
+		Assert.assertFalse(tested.tryCall(now + 1000));
+		Assert.assertEquals(JIRACircuitBreaker.State.HALF_OPEN, tested.getState(now + 1000));
+
+		// case - failed probe opens breaker again
+		tested.reportFailure(now + 1100);
+		Assert.assertEquals(JIRACircuitBreaker.State.OPEN, tested.getState(now + 1100));
+		Assert.assertFalse(tested.tryCall(now + 2000));
+
+		// case - aborted probe permits next probe
+		Assert.assertTrue(tested.tryCall(now + 2100));
+		tested.reportAbort();
+		Assert.assertTrue(tested.tryCall(now + 2100));
+
+		// case - successful probe closes breaker
+		tested.reportSuccess();
+		Assert.assertEquals(JIRACircuitBreaker.State.CLOSED, tested.getState(now + 2100));
+		Assert.assertEquals(0, tested.consecutiveFailures);
+		Assert.assertTrue(tested.tryCall(now + 2100));
+	}
+
+	@Test
+	public void disabled() {
+		JIRACircuitBreaker tested = new JIRACircuitBreaker();
+		tested.configure(CLIENT, 0, 1000);
+		for (int i = 0; i < 100; i++)
+			tested.reportFailure(1000);
+		Assert.assertEquals(JIRACircuitBreaker.State.CLOSED, tested.getState(1000));
+		Assert.assertTrue(tested.tryCall(1000));
+	}
+
+	@Test
+	public void buildDocument() throws Exception {
+		JIRACircuitBreaker tested = new JIRACircuitBreaker();
+		tested.configure(CLIENT, 1, 60000);
+
+		XContentBuilder builder = XContentFactory.jsonBuilder();
+		tested.buildDocument(builder, 1000);
+		Assert.assertEquals("{\"state\":\"CLOSED\",\"consecutive_failures\":0}", builder.string());
+
+		tested.reportFailure(DateTimeUtils.parseISODateTime("2014-10-21T07:28:00Z").getTime());
+		builder = XContentFactory.jsonBuilder();
+		tested.buildDocument(builder, DateTimeUtils.parseISODateTime("2014-10-21T07:28:10Z").getTime());
+		Assert.assertEquals(
+				"{\"state\":\"OPEN\",\"consecutive_failures\":1,\"opened\":\"2014-10-21T07:28:00.000Z\",\"probe_after\":\"2014-10-21T07:29:00.000Z\"}",
+				builder.string());
+	}
+
+}
@@ -0,0 +1,88 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import junit.framework.Assert;
+
+import org.apache.http.HttpHost;
+import org.apache.http.pool.PoolStats;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link JIRAConnectionPoolRegistry} and {@link JIRAConnectionPool}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRAConnectionPoolRegistryTest {
+
+	@Test
+	public void getInstance() {
+		Assert.assertNotNull(JIRAConnectionPoolRegistry.getInstance());
+		Assert.assertSame(JIRAConnectionPoolRegistry.getInstance(), JIRAConnectionPoolRegistry.getInstance());
+	}
+
+	@Test
+	public void prepareKey() {
+		Assert.assertEquals("https://issues.jboss.org:443",
+				JIRAConnectionPoolRegistry.prepareKey(new HttpHost("issues.jboss.org", -1, "https")));
+		Assert.assertEquals("https://issues.jboss.org:443",
+				JIRAConnectionPoolRegistry.prepareKey(new HttpHost("Issues.JBoss.org", 443, "HTTPS")));
+		Assert.assertEquals("http://issues.jboss.org:80",
+				JIRAConnectionPoolRegistry.prepareKey(new HttpHost("issues.jboss.org", -1, "http")));
+		Assert.assertEquals("http://issues.jboss.org:8080",
+				JIRAConnectionPoolRegistry.prepareKey(new HttpHost("issues.jboss.org", 8080, "http")));
+	}
+
+	@Test
+	public void acquireAndRelease() {
+		JIRAConnectionPoolRegistry tested = new JIRAConnectionPoolRegistry();
+
+		JIRAConnectionPool pool1 = tested.acquire(new HttpHost("issues.jboss.org", -1, "https"), 10, 5, 30000);
+		Assert.assertNotNull(pool1);
+		Assert.assertEquals(1, pool1.references);
+		Assert.assertEquals(10, pool1.connectionManager.getMaxTotal());
+		Assert.assertEquals(5, pool1.connectionManager.getDefaultMaxPerRoute());
+		Assert.assertEquals(30000, pool1.idleTimeout);
+		Assert.assertNotNull(tested.evictionThread);
+
+		// case - pool shared for same host, limits raised only, the shortest idle timeout wins
+		JIRAConnectionPool pool2 = tested.acquire(new HttpHost("issues.jboss.org", 443, "https"), 20, 3, 10000);
+		Assert.assertSame(pool1, pool2);
+		Assert.assertEquals(2, pool1.references);
+		Assert.assertEquals(20, pool1.connectionManager.getMaxTotal());
+		Assert.assertEquals(5, pool1.connectionManager.getDefaultMaxPerRoute());
+		Assert.assertEquals(10000, pool1.idleTimeout);
+
+		// case - other pool for other host
+		JIRAConnectionPool pool3 = tested.acquire(new HttpHost("jira.atlassian.com", -1, "https"), 20, 20, 0);
+		Assert.assertNotSame(pool1, pool3);
+		Assert.assertEquals(2, tested.pools.size());
+
+		PoolStats stats = pool1.getStats();
+		Assert.assertEquals(0, stats.getLeased());
+		Assert.assertEquals(0, stats.getAvailable());
+		Assert.assertEquals(0, stats.getPending());
+		Assert.assertEquals(20, stats.getMax());
+
+		tested.evictConnections();
+
+		// case - pool removed after last release only
+		tested.release(pool1);
+		Assert.assertEquals(2, tested.pools.size());
+		tested.release(pool2);
+		Assert.assertEquals(1, tested.pools.size());
+		Assert.assertNotNull(tested.evictionThread);
+		// no exception on repeated release
+		tested.release(pool2);
+		tested.release(null);
+		Assert.assertEquals(1, tested.pools.size());
+
+		tested.release(pool3);
+		Assert.assertTrue(tested.pools.isEmpty());
+		Assert.assertNull(tested.evictionThread);
+	}
+
+}
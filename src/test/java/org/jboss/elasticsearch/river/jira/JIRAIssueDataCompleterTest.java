@@ -0,0 +1,247 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.verifyZeroInteractions;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link JIRAIssueDataCompleter}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRAIssueDataCompleterTest {
+
+	@Test
+	public void constructorAndClose() {
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		try {
+			new JIRAIssueDataCompleter(esIntegrationMock, mock(IJIRAClient.class), 0);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+
+		JIRAIssueDataCompleter tested = new JIRAIssueDataCompleter(esIntegrationMock, mock(IJIRAClient.class), 1);
+		Assert.assertNull(tested.executor);
+		tested.close();
+
+		tested = new JIRAIssueDataCompleter(esIntegrationMock, mock(IJIRAClient.class), 3);
+		Assert.assertNotNull(tested.executor);
+		tested.close();
+		Assert.assertTrue(tested.executor.isShutdown());
+	}
+
+	@Test
+	public void completeIssues_notTruncated() throws Exception {
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		JIRAIssueDataCompleter tested = new JIRAIssueDataCompleter(mockEsIntegrationComponent(), jiraClientMock, 1);
+
+		List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+		issues.add(createIssue("ORG-1", 2, 2, 1, 1));
+		issues.add(createIssue("ORG-2", -1, 0, -1, 0));
+		int[] calls = tested.completeIssues(issues);
+		Assert.assertEquals(2, calls.length);
+		Assert.assertEquals(0, calls[0]);
+		Assert.assertEquals(0, calls[1]);
+		verifyZeroInteractions(jiraClientMock);
+
+		Assert.assertEquals(0, tested.completeIssues(new ArrayList<Map<String, Object>>()).length);
+	}
+
+	@Test
+	public void completeIssues_sequential() throws Exception {
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		JIRAIssueDataCompleter tested = new JIRAIssueDataCompleter(mockEsIntegrationComponent(), jiraClientMock, 1);
+		completeIssuesInternalTest(tested, jiraClientMock);
+	}
+
+	@Test
+	public void completeIssues_parallel() throws Exception {
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		JIRAIssueDataCompleter tested = new JIRAIssueDataCompleter(mockEsIntegrationComponent(), jiraClientMock, 2);
+		try {
+			completeIssuesInternalTest(tested, jiraClientMock);
+		} finally {
+			tested.close();
+		}
+	}
+
+	@Test
+	public void completeIssues_failure() throws Exception {
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		JIRAIssueDataCompleter tested = new JIRAIssueDataCompleter(mockEsIntegrationComponent(), jiraClientMock, 2);
+		try {
+			when(jiraClientMock.getJIRAIssueChangelog("ORG-1")).thenThrow(new JIRARestCallException("not found", 404));
+			List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+			issues.add(createIssue("ORG-1", -1, 0, 3, 1));
+			tested.completeIssues(issues);
+			Assert.fail("JIRARestCallException must be thrown");
+		} catch (JIRARestCallException e) {
+			Assert.assertEquals(404, e.getStatusCode());
+		} finally {
+			tested.close();
+		}
+	}
+
+	private void completeIssuesInternalTest(JIRAIssueDataCompleter tested, IJIRAClient jiraClientMock) throws Exception {
+		// comments of ORG-1 are on two more pages, one comment returned again due concurrent change
+		when(jiraClientMock.getJIRAIssueComments("ORG-1", 2)).thenReturn(createListStructure("comments", 2, 5, "c2", "c3"));
+		when(jiraClientMock.getJIRAIssueComments("ORG-1", 4)).thenReturn(createListStructure("comments", 4, 5, "c3", "c4"));
+		// changelog of ORG-3 is complete in one call
+		when(jiraClientMock.getJIRAIssueChangelog("ORG-3")).thenReturn(
+				createListStructure("histories", 0, 3, "h0", "h1", "h2"));
+
+		List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+		issues.add(createIssue("ORG-1", 5, 2, 1, 1));
+		issues.add(createIssue("ORG-2", 1, 1, -1, 0));
+		issues.add(createIssue("ORG-3", -1, 0, 3, 1));
+		int[] calls = tested.completeIssues(issues);
+		Assert.assertEquals(3, calls.length);
+		Assert.assertEquals(2, calls[0]);
+		Assert.assertEquals(0, calls[1]);
+		Assert.assertEquals(1, calls[2]);
+
+		Map<String, Object> comment = JIRAIssueDataCompleter.getListStructure(issues.get(0),
+				JIRA5RestIssueIndexStructureBuilder.JF_COMMENT);
+		assertIds(JIRAIssueDataCompleter.getList(comment, "comments"), "c0", "c1", "c2", "c3", "c4");
+		Assert.assertEquals(5, comment.get("total"));
+		Assert.assertEquals(5, comment.get("maxResults"));
+		Assert.assertFalse(JIRAIssueDataCompleter.isTruncated(comment, "comments"));
+
+		Map<String, Object> changelog = JIRAIssueDataCompleter.getListStructure(issues.get(2),
+				JIRA5RestIssueIndexStructureBuilder.JF_CHANGELOG);
+		assertIds(JIRAIssueDataCompleter.getList(changelog, "histories"), "h0", "h1", "h2");
+		Assert.assertEquals(3, changelog.get("total"));
+
+		verify(jiraClientMock, times(2)).getJIRAIssueComments(Mockito.eq("ORG-1"), Mockito.anyInt());
+		verify(jiraClientMock).getJIRAIssueChangelog("ORG-3");
+		Mockito.verifyNoMoreInteractions(jiraClientMock);
+	}
+
+	@Test
+	public void isTruncated() {
+		Assert.assertFalse(JIRAIssueDataCompleter.isTruncated(null, "comments"));
+		Assert.assertFalse(JIRAIssueDataCompleter.isTruncated(new HashMap<String, Object>(), "comments"));
+		Assert.assertFalse(JIRAIssueDataCompleter.isTruncated(createListStructure("comments", 0, 2, "c0", "c1"),
+				"comments"));
+		Assert.assertTrue(JIRAIssueDataCompleter.isTruncated(createListStructure("comments", 0, 3, "c0", "c1"),
+				"comments"));
+		Map<String, Object> noList = new HashMap<String, Object>();
+		noList.put("total", 1);
+		Assert.assertTrue(JIRAIssueDataCompleter.isTruncated(noList, "comments"));
+	}
+
+	@Test
+	public void mergeList() {
+		Map<String, Object> listStructure = createListStructure("histories", 0, 10, "h0", "h1");
+		List<Map<String, Object>> items = new ArrayList<Map<String, Object>>();
+		items.add(createItem("h1"));
+		items.add(createItem("h2"));
+		items.add(new HashMap<String, Object>());
+		JIRAIssueDataCompleter.mergeList(listStructure, "histories", items);
+		List<Map<String, Object>> list = JIRAIssueDataCompleter.getList(listStructure, "histories");
+		Assert.assertEquals(4, list.size());
+		Assert.assertEquals("h2", list.get(2).get("id"));
+		Assert.assertEquals(0, listStructure.get("startAt"));
+		Assert.assertEquals(4, listStructure.get("maxResults"));
+		Assert.assertEquals(4, listStructure.get("total"));
+	}
+
+	private static void assertIds(List<Map<String, Object>> list, String... ids) {
+		Assert.assertEquals(ids.length, list.size());
+		for (int i = 0; i < ids.length; i++) {
+			Assert.assertEquals(ids[i], list.get(i).get("id"));
+		}
+	}
+
+	/**
+	 * Create issue data with comments and changelog.
+	 *
+	 * @param key of issue
+	 * @param commentsTotal total number of comments, -1 if comments are not present in data
+	 * @param commentsCount number of comments present in data
+	 * @param changelogTotal total number of changelog histories, -1 if changelog is not present in data
+	 * @param changelogCount number of changelog histories present in data
+	 * @return issue data
+	 */
+	protected static Map<String, Object> createIssue(String key, int commentsTotal, int commentsCount,
+			int changelogTotal, int changelogCount) {
+		Map<String, Object> issue = new HashMap<String, Object>();
+		issue.put("key", key);
+		Map<String, Object> fields = new HashMap<String, Object>();
+		issue.put("fields", fields);
+		if (commentsTotal >= 0) {
+			fields.put("comment", createListStructure("comments", 0, commentsTotal, createIds("c", commentsCount)));
+		}
+		if (changelogTotal >= 0) {
+			issue.put("changelog", createListStructure("histories", 0, changelogTotal, createIds("h", changelogCount)));
+		}
+		return issue;
+	}
+
+	private static String[] createIds(String prefix, int count) {
+		String[] ret = new String[count];
+		for (int i = 0; i < count; i++) {
+			ret[i] = prefix + i;
+		}
+		return ret;
+	}
+
+	protected static Map<String, Object> createListStructure(String listField, int startAt, int total, String... ids) {
+		Map<String, Object> ret = new HashMap<String, Object>();
+		ret.put("startAt", startAt);
+		ret.put("maxResults", ids.length);
+		ret.put("total", total);
+		List<Map<String, Object>> list = new ArrayList<Map<String, Object>>();
+		for (String id : ids) {
+			list.add(createItem(id));
+		}
+		ret.put(listField, list);
+		return ret;
+	}
+
+	private static Map<String, Object> createItem(String id) {
+		Map<String, Object> item = new HashMap<String, Object>();
+		item.put("id", id);
+		return item;
+	}
+
+	@SuppressWarnings("unchecked")
+	protected static IESIntegration mockEsIntegrationComponent() {
+		IESIntegration esIntegrationMock = mock(IESIntegration.class);
+		when(esIntegrationMock.createLogger(Mockito.any(Class.class))).thenReturn(
+				ESLoggerFactory.getLogger(JIRAIssueDataCompleter.class.getName()));
+		when(esIntegrationMock.acquireIndexingThread(Mockito.anyString(), Mockito.any(Runnable.class))).thenAnswer(
+				new Answer<Thread>() {
+					@Override
+					public Thread answer(InvocationOnMock invocation) throws Throwable {
+						Thread t = new Thread((Runnable) invocation.getArguments()[1],
+								(String) invocation.getArguments()[0]);
+						t.setDaemon(true);
+						return t;
+					}
+				});
+		return esIntegrationMock;
+	}
+
+}
@@ -0,0 +1,132 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link JIRAMemoryBudget}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRAMemoryBudgetTest {
+
+	@Test
+	public void constructor() {
+		try {
+			new JIRAMemoryBudget(0);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		Assert.assertEquals(1000, new JIRAMemoryBudget(1000).getMaxBytes());
+	}
+
+	@Test
+	public void allocateAndRelease() throws Exception {
+		JIRAMemoryBudget tested = new JIRAMemoryBudget(1000);
+		tested.allocate(0);
+		tested.allocate(-10);
+		Assert.assertEquals(0, tested.getUsedBytes());
+
+		tested.allocate(600);
+		tested.allocate(300);
+		Assert.assertEquals(900, tested.getUsedBytes());
+		Assert.assertFalse(tested.isExhausted());
+
+		// case - allocation never blocks, so budget may be exceeded
+		tested.allocate(200);
+		Assert.assertEquals(1100, tested.getUsedBytes());
+		Assert.assertTrue(tested.isExhausted());
+
+		tested.release(600);
+		Assert.assertEquals(500, tested.getUsedBytes());
+		Assert.assertFalse(tested.isExhausted());
+
+		// case - release more than used
+		tested.release(700);
+		Assert.assertEquals(0, tested.getUsedBytes());
+		Assert.assertEquals(1100, tested.getPeakBytes());
+
+		XContentBuilder builder = XContentFactory.jsonBuilder();
+		tested.buildDocument(builder);
+		Assert.assertEquals("{\"max_bytes\":1000,\"used_bytes\":0,\"peak_bytes\":1100,\"waits\":0}", builder.string());
+	}
+
+	@Test
+	public void limitIssuesPerRequest() {
+		JIRAMemoryBudget tested = new JIRAMemoryBudget(1000);
+		Assert.assertEquals(100, tested.limitIssuesPerRequest(100));
+		Assert.assertEquals(-1, tested.limitIssuesPerRequest(-1));
+
+		tested.allocate(500);
+		Assert.assertEquals(100, tested.limitIssuesPerRequest(100));
+
+		tested.allocate(250);
+		Assert.assertEquals(50, tested.limitIssuesPerRequest(100));
+		Assert.assertEquals(0, tested.limitIssuesPerRequest(0));
+
+		tested.allocate(240);
+		Assert.assertEquals(2, tested.limitIssuesPerRequest(100));
+
+		tested.allocate(100);
+		Assert.assertEquals(1, tested.limitIssuesPerRequest(100));
+	}
+
+	@Test
+	public void awaitAvailable() throws Exception {
+		final JIRAMemoryBudget tested = new JIRAMemoryBudget(1000);
+
+		// case - not exhausted budget do not block
+		tested.awaitAvailable();
+		Assert.assertEquals(0, tested.getWaits());
+
+		// case - waits until memory is released by other thread
+		tested.allocate(1000);
+		Thread releaser = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				tested.release(500);
+			}
+		};
+		releaser.start();
+		tested.awaitAvailable();
+		Assert.assertEquals(500, tested.getUsedBytes());
+		Assert.assertEquals(1, tested.getWaits());
+		releaser.join();
+
+		// case - waiting thread is released when budget is closed
+		tested.allocate(600);
+		Thread closer = new Thread() {
+			public void run() {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					// ignore
+				}
+				tested.close();
+			}
+		};
+		closer.start();
+		tested.awaitAvailable();
+		Assert.assertEquals(1100, tested.getUsedBytes());
+		Assert.assertEquals(2, tested.getWaits());
+		closer.join();
+
+		// case - closed budget never blocks
+		tested.awaitAvailable();
+		Assert.assertEquals(2, tested.getWaits());
+	}
+
+}
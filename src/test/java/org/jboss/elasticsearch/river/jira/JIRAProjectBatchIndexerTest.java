@@ -0,0 +1,288 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.logging.ESLoggerFactory;
+import org.junit.Test;
+import org.mockito.Mockito;
+import org.mockito.invocation.InvocationOnMock;
+import org.mockito.stubbing.Answer;
+
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+/**
+ * Unit test for {@link JIRAProjectBatchIndexer}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRAProjectBatchIndexerTest {
+
+	@Test
+	public void constructor() {
+		try {
+			new JIRAProjectBatchIndexer(new ArrayList<String>(), null, mockEsIntegrationComponent(), null);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		JIRAProjectBatchIndexer tested = new JIRAProjectBatchIndexer(Utils.parseCsvString("ORG,AAA"), null,
+				mockEsIntegrationComponent(), null);
+		Assert.assertEquals(2, tested.getProjectKeys().size());
+		Assert.assertEquals("AAA", tested.getIndexingInfo("AAA").projectKey);
+		Assert.assertFalse(tested.getIndexingInfo("AAA").fullUpdate);
+		Assert.assertNull(tested.getIndexingInfo("BBB"));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void processUpdate() throws Exception {
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IJIRAIssueIndexStructureBuilder structureBuilderMock = mock(IJIRAIssueIndexStructureBuilder.class);
+		configureStructureBuilderMockDefaults(structureBuilderMock);
+		List<String> projectKeys = Utils.parseCsvString("ORG,AAA,BBB");
+		JIRAProjectBatchIndexer tested = new JIRAProjectBatchIndexer(projectKeys, jiraClientMock, esIntegrationMock,
+				structureBuilderMock);
+		BulkRequestBuilder brb = new BulkRequestBuilder(Mockito.mock(Client.class));
+		when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
+
+		Date wmOrg = DateTimeUtils.parseISODateTime("2012-08-14T08:00:00.000-0400");
+		Date wmAaa = DateTimeUtils.parseISODateTime("2012-08-14T08:03:00.000-0400");
+		Date wmBbb = DateTimeUtils.parseISODateTime("2012-08-14T08:05:00.000-0400");
+		when(esIntegrationMock.readDatetimeValue("ORG", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wmOrg);
+		when(esIntegrationMock.readDatetimeValue("AAA", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wmAaa);
+		when(esIntegrationMock.readDatetimeValue("BBB", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wmBbb);
+
+		List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues, "ORG-45", "ORG", "2012-08-14T08:01:10.000-0400");
+		// indexed already during last update of AAA
+		addIssueMock(issues, "AAA-1", "AAA", "2012-08-14T08:02:10.000-0400");
+		addIssueMock(issues, "AAA-2", "AAA", "2012-08-14T08:04:10.000-0400");
+		List<Map<String, Object>> issues2 = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues2, "BBB-1", "BBB", "2012-08-14T08:05:20.000-0400");
+		addIssueMock(issues2, "AAA-3", "AAA", "2012-08-14T08:06:20.000-0400");
+		Date after2 = DateTimeUtils.parseISODateTime("2012-08-14T08:04:00.000-0400");
+		// each project is searched from its own watermark
+		when(jiraClientMock.getJIRAChangedIssuesForProjects(projectsUpdatedAfter(projectKeys, wmOrg, wmAaa, wmBbb), 0))
+				.thenReturn(new ChangedIssuesResults(issues, 0, 3, 5));
+		// window moved by paging is used for projects with older watermark only
+		when(jiraClientMock.getJIRAChangedIssuesForProjects(projectsUpdatedAfter(projectKeys, after2, after2, wmBbb), 0))
+				.thenReturn(new ChangedIssuesResults(issues2, 0, 3, 2));
+		// extra calls to complete truncated issue data are counted for project of issue, only issues to be indexed are
+		// completed
+		JIRAIssueDataCompleter completerMock = mock(JIRAIssueDataCompleter.class);
+		List<Map<String, Object>> selected = new ArrayList<Map<String, Object>>();
+		selected.add(issues.get(0));
+		selected.add(issues.get(2));
+		when(completerMock.completeIssues(selected)).thenReturn(new int[] { 1, 2 });
+		when(completerMock.completeIssues(issues2)).thenReturn(new int[] { 0, 3 });
+		tested.setIssueDataCompleter(completerMock);
+
+		tested.processUpdate();
+		Assert.assertEquals(1, tested.getIndexingInfo("ORG").extraJiraCalls);
+		Assert.assertEquals(5, tested.getIndexingInfo("AAA").extraJiraCalls);
+		Assert.assertEquals(0, tested.getIndexingInfo("BBB").extraJiraCalls);
+		Assert.assertEquals(1, tested.getIndexingInfo("ORG").issuesUpdated);
+		Assert.assertEquals(2, tested.getIndexingInfo("AAA").issuesUpdated);
+		Assert.assertEquals(1, tested.getIndexingInfo("BBB").issuesUpdated);
+		Assert.assertEquals(4, tested.getIssuesUpdated());
+		verify(jiraClientMock, times(2)).getJIRAChangedIssuesForProjects(Mockito.anyMap(), Mockito.anyInt());
+		verify(completerMock, times(2)).completeIssues(Mockito.anyList());
+		verify(structureBuilderMock).readIndexedCommentAndChangelogDocumentIds(selected);
+		verify(structureBuilderMock).readIndexedCommentAndChangelogDocumentIds(issues2);
+		verify(structureBuilderMock, times(1)).indexIssue(Mockito.eq(brb), Mockito.eq("ORG"), Mockito.any(Map.class), Mockito.any(Date.class),
+				Mockito.any(Map.class));
+		verify(structureBuilderMock, times(2)).indexIssue(Mockito.eq(brb), Mockito.eq("AAA"), Mockito.any(Map.class), Mockito.any(Date.class),
+				Mockito.any(Map.class));
+		verify(structureBuilderMock, times(1)).indexIssue(Mockito.eq(brb), Mockito.eq("BBB"), Mockito.any(Map.class), Mockito.any(Date.class),
+				Mockito.any(Map.class));
+		verify(esIntegrationMock, times(2)).executeESBulkRequest(brb);
+		// watermark of last indexed issue stored for each project
+		verify(esIntegrationMock).storeDatetimeValue("ORG",
+				JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE,
+				DateTimeUtils.parseISODateTime("2012-08-14T08:01:10.000-0400"), brb);
+		verify(esIntegrationMock).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"ORG-45", brb);
+		verify(esIntegrationMock).storeDatetimeValue("AAA",
+				JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE,
+				DateTimeUtils.parseISODateTime("2012-08-14T08:04:10.000-0400"), brb);
+		verify(esIntegrationMock).storeStringValue("AAA", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"AAA-2", brb);
+		verify(esIntegrationMock).storeDatetimeValue("AAA",
+				JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE,
+				DateTimeUtils.parseISODateTime("2012-08-14T08:06:20.000-0400"), brb);
+		verify(esIntegrationMock).storeStringValue("AAA", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"AAA-3", brb);
+		verify(esIntegrationMock).storeDatetimeValue("BBB",
+				JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE,
+				DateTimeUtils.parseISODateTime("2012-08-14T08:05:20.000-0400"), brb);
+		verify(esIntegrationMock).storeStringValue("BBB", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"BBB-1", brb);
+		// exact watermark is stored, so no extra store is necessary not to index last issue again
+		verify(esIntegrationMock, times(0)).storeDatetimeValue(Mockito.anyString(), Mockito.anyString(),
+				Mockito.any(Date.class), (BulkRequestBuilder) Mockito.isNull());
+	}
+
+	@Test
+	public void processUpdate_errors() throws Exception {
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IJIRAIssueIndexStructureBuilder structureBuilderMock = mock(IJIRAIssueIndexStructureBuilder.class);
+		configureStructureBuilderMockDefaults(structureBuilderMock);
+		List<String> projectKeys = Utils.parseCsvString("ORG,AAA");
+		when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(
+				new BulkRequestBuilder(Mockito.mock(Client.class)));
+
+		// case - project never indexed
+		JIRAProjectBatchIndexer tested = new JIRAProjectBatchIndexer(projectKeys, jiraClientMock, esIntegrationMock,
+				structureBuilderMock);
+		Date wm = DateTimeUtils.parseISODateTime("2012-08-14T08:00:00.000-0400");
+		when(esIntegrationMock.readDatetimeValue("ORG", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wm);
+		try {
+			tested.processUpdate();
+			Assert.fail("IllegalStateException must be thrown");
+		} catch (IllegalStateException e) {
+			// OK
+		}
+
+		// case - issue from other project
+		when(esIntegrationMock.readDatetimeValue("AAA", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wm);
+		List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues, "BBB-1", "BBB", "2012-08-14T08:01:10.000-0400");
+		when(jiraClientMock.getJIRAChangedIssuesForProjects(projectsUpdatedAfter(projectKeys, wm, wm), 0)).thenReturn(
+				new ChangedIssuesResults(issues, 0, 3, 1));
+		tested = new JIRAProjectBatchIndexer(projectKeys, jiraClientMock, esIntegrationMock, structureBuilderMock);
+		try {
+			tested.processUpdate();
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void run() throws Exception {
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		List<String> projectKeys = Utils.parseCsvString("ORG,AAA");
+		Date wm = DateTimeUtils.parseISODateTime("2012-08-14T08:00:00.000-0400");
+		when(esIntegrationMock.readDatetimeValue(Mockito.anyString(), Mockito.anyString())).thenReturn(wm);
+
+		// case - finished OK
+		when(jiraClientMock.getJIRAChangedIssuesForProjects(projectsUpdatedAfter(projectKeys, wm, wm), 0)).thenReturn(
+				new ChangedIssuesResults(new ArrayList<Map<String, Object>>(), 0, 3, 0));
+		JIRAProjectBatchIndexer tested = new JIRAProjectBatchIndexer(projectKeys, jiraClientMock, esIntegrationMock,
+				null);
+		tested.run();
+		Assert.assertTrue(tested.getIndexingInfo("ORG").finishedOK);
+		Assert.assertTrue(tested.getIndexingInfo("AAA").finishedOK);
+		Assert.assertNotNull(tested.getIndexingInfo("AAA").startDate);
+		verify(esIntegrationMock).reportIndexingFinished(tested.getIndexingInfo("ORG"));
+		verify(esIntegrationMock).reportIndexingFinished(tested.getIndexingInfo("AAA"));
+
+		// case - error is reported for all projects
+		Mockito.reset(jiraClientMock);
+		when(jiraClientMock.getJIRAChangedIssuesForProjects(projectsUpdatedAfter(projectKeys, wm, wm), 0)).thenThrow(
+				new JIRARestCallException("Failed JIRA REST API call. HTTP error code: 500", 500));
+		tested = new JIRAProjectBatchIndexer(projectKeys, jiraClientMock, esIntegrationMock, null);
+		tested.run();
+		Assert.assertFalse(tested.getIndexingInfo("ORG").finishedOK);
+		Assert.assertFalse(tested.getIndexingInfo("AAA").finishedOK);
+		Assert.assertEquals("Failed JIRA REST API call. HTTP error code: 500", tested.getIndexingInfo("AAA").errorMessage);
+		verify(esIntegrationMock).reportIndexingFinished(tested.getIndexingInfo("ORG"));
+		verify(esIntegrationMock).reportIndexingFinished(tested.getIndexingInfo("AAA"));
+	}
+
+	@Test
+	public void prepareProjectsUpdatedAfter() throws Exception {
+		List<String> projectKeys = Utils.parseCsvString("ORG,AAA");
+		JIRAProjectBatchIndexer tested = new JIRAProjectBatchIndexer(projectKeys, null, mockEsIntegrationComponent(), null);
+		Map<String, IssueWatermark> watermarks = new HashMap<String, IssueWatermark>();
+		watermarks.put("ORG", new IssueWatermark(DateTimeUtils.parseISODateTime("2012-08-14T08:00:10.000-0400"), "ORG-1"));
+		watermarks.put("AAA", new IssueWatermark(DateTimeUtils.parseISODateTime("2012-08-14T08:05:10.000-0400"), "AAA-1"));
+		Date orgWindow = DateTimeUtils.parseISODateTime("2012-08-14T08:00:00.000-0400");
+		Date aaaWindow = DateTimeUtils.parseISODateTime("2012-08-14T08:05:00.000-0400");
+
+		// case - windows of watermarks
+		Assert.assertEquals(projectsUpdatedAfter(projectKeys, orgWindow, aaaWindow),
+				tested.prepareProjectsUpdatedAfter(watermarks, null));
+
+		// case - window moved by paging replaces older windows only
+		Date paging = DateTimeUtils.parseISODateTime("2012-08-14T08:03:00.000-0400");
+		Assert.assertEquals(projectsUpdatedAfter(projectKeys, paging, aaaWindow),
+				tested.prepareProjectsUpdatedAfter(watermarks, paging));
+	}
+
+	protected static Map<String, Date> projectsUpdatedAfter(List<String> projectKeys, Date... dates) {
+		Map<String, Date> ret = new LinkedHashMap<String, Date>();
+		for (int i = 0; i < projectKeys.size(); i++) {
+			ret.put(projectKeys.get(i), dates[i]);
+		}
+		return ret;
+	}
+
+	@Test
+	public void extractIssueProjectKey() {
+		List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues, "ORG-1", "ORG", "2012-08-14T08:01:10.000-0400");
+		Assert.assertEquals("ORG", JIRAProjectBatchIndexer.extractIssueProjectKey(issues.get(0)));
+		Assert.assertNull(JIRAProjectBatchIndexer.extractIssueProjectKey(new HashMap<String, Object>()));
+	}
+
+	protected static void addIssueMock(List<Map<String, Object>> issues, String key, String projectKey, String updated) {
+		Map<String, Object> issue = new HashMap<String, Object>();
+		issues.add(issue);
+		issue.put("key", key);
+		issue.put("updated", updated);
+		Map<String, Object> fields = new HashMap<String, Object>();
+		issue.put("fields", fields);
+		Map<String, Object> project = new HashMap<String, Object>();
+		fields.put("project", project);
+		project.put("key", projectKey);
+	}
+
+	@SuppressWarnings("unchecked")
+	private void configureStructureBuilderMockDefaults(IJIRAIssueIndexStructureBuilder structureBuilderMock) {
+		when(structureBuilderMock.extractIssueKey(Mockito.anyMap())).thenAnswer(new Answer<String>() {
+			public String answer(InvocationOnMock invocation) throws Throwable {
+				return (String) ((Map<String, Object>) invocation.getArguments()[0]).get("key");
+			}
+		});
+		when(structureBuilderMock.extractIssueUpdated(Mockito.anyMap())).thenAnswer(new Answer<Date>() {
+			public Date answer(InvocationOnMock invocation) throws Throwable {
+				return DateTimeUtils.parseISODateTime((String) ((Map<String, Object>) invocation.getArguments()[0])
+						.get("updated"));
+			}
+		});
+	}
+
+	protected static IESIntegration mockEsIntegrationComponent() {
+		IESIntegration esIntegrationMock = mock(IESIntegration.class);
+		Mockito.when(esIntegrationMock.createLogger(Mockito.any(Class.class))).thenReturn(
+				ESLoggerFactory.getLogger(JIRAProjectBatchIndexer.class.getName()));
+		return esIntegrationMock;
+	}
+
+}
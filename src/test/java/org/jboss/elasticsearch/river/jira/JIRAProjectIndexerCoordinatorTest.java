@@ -7,7 +7,9 @@ package org.jboss.elasticsearch.river.jira;
 
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.common.logging.ESLoggerFactory;
@@ -454,6 +456,123 @@ public class JIRAProjectIndexerCoordinatorTest {
 		}
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void fillProjectKeysToIndexQueue_changeProbe() throws Exception {
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		JIRAProjectIndexerCoordinator tested = new JIRAProjectIndexerCoordinator(jiraClientMock, esIntegrationMock, null,
+				60 * 1000, 2, -1, null);
+		tested.setChangeProbe(true);
+
+		Date wmOrg = DateTimeUtils.parseISODateTime("2012-08-14T10:00:00.000Z");
+		Date wmAaa = DateTimeUtils.parseISODateTime("2012-08-14T09:00:00.000Z");
+		Date wmDdd = DateTimeUtils.parseISODateTime("2012-08-14T11:00:00.000Z");
+		when(esIntegrationMock.getAllIndexedProjectsKeys()).thenReturn(Utils.parseCsvString("ORG,AAA,BBB,CCC,DDD"));
+		when(esIntegrationMock.readDatetimeValue("ORG", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wmOrg);
+		when(esIntegrationMock.readDatetimeValue("AAA", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wmAaa);
+		// BBB never indexed, CCC forced
+		when(esIntegrationMock.readDatetimeValue("CCC", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wmAaa);
+		when(
+				esIntegrationMock.readDatetimeValue("CCC",
+						JIRAProjectIndexerCoordinator.STORE_PROPERTYNAME_FORCE_INDEX_INCREMENTAL_UPDATE_DATE)).thenReturn(
+				new Date());
+		when(esIntegrationMock.readDatetimeValue("DDD", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wmDdd);
+
+		// case - only changed projects are scheduled, unchanged are postponed
+		{
+			Map<String, Date> changed = new HashMap<String, Date>();
+			changed.put("ORG", DateTimeUtils.parseISODateTime("2012-08-14T10:00:30.000Z"));
+			// changed after oldest watermark but before own one
+			changed.put("DDD", DateTimeUtils.parseISODateTime("2012-08-14T10:30:00.000Z"));
+			// last change is the issue indexed already
+			changed.put("AAA", wmAaa);
+			when(jiraClientMock.getJIRAChangedProjects(Mockito.anyCollection(), Mockito.eq(wmAaa))).thenReturn(changed);
+
+			tested.fillProjectKeysToIndexQueue();
+			Assert.assertEquals(3, tested.projectKeysToIndexQueue.size());
+			Assert.assertTrue(tested.projectKeysToIndexQueue.contains("ORG"));
+			Assert.assertTrue(tested.projectKeysToIndexQueue.contains("BBB"));
+			Assert.assertTrue(tested.projectKeysToIndexQueue.contains("CCC"));
+			verify(jiraClientMock, times(1)).getJIRAChangedProjects(Mockito.anyCollection(), Mockito.eq(wmAaa));
+			verify(esIntegrationMock).storeDatetimeValue(Mockito.eq("AAA"),
+					Mockito.eq(JIRAProjectIndexerCoordinator.STORE_PROPERTYNAME_LAST_INDEX_UPDATE_START_DATE),
+					Mockito.any(Date.class), Mockito.any(BulkRequestBuilder.class));
+			verify(esIntegrationMock).storeDatetimeValue(Mockito.eq("DDD"),
+					Mockito.eq(JIRAProjectIndexerCoordinator.STORE_PROPERTYNAME_LAST_INDEX_UPDATE_START_DATE),
+					Mockito.any(Date.class), Mockito.any(BulkRequestBuilder.class));
+			verify(esIntegrationMock, times(0)).storeDatetimeValue(Mockito.eq("ORG"), Mockito.anyString(),
+					Mockito.any(Date.class), Mockito.any(BulkRequestBuilder.class));
+		}
+
+		// case - probe failure means all due projects are scheduled
+		{
+			tested.projectKeysToIndexQueue.clear();
+			reset(jiraClientMock);
+			when(jiraClientMock.getJIRAChangedProjects(Mockito.anyCollection(), Mockito.any(Date.class))).thenThrow(
+					new JIRARestCallException("Failed JIRA REST API call. HTTP error code: 500", 500));
+			tested.fillProjectKeysToIndexQueue();
+			Assert.assertEquals(5, tested.projectKeysToIndexQueue.size());
+		}
+
+		// case - probe not performed if disabled
+		{
+			tested.projectKeysToIndexQueue.clear();
+			reset(jiraClientMock);
+			tested.setChangeProbe(false);
+			tested.fillProjectKeysToIndexQueue();
+			Assert.assertEquals(5, tested.projectKeysToIndexQueue.size());
+			Mockito.verifyZeroInteractions(jiraClientMock);
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void fillProjectKeysToIndexQueue_changeProbeReturnsWatermarkIssue() throws Exception {
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		JIRAProjectIndexerCoordinator tested = new JIRAProjectIndexerCoordinator(jiraClientMock, esIntegrationMock, null,
+				60 * 1000, 2, -1, null);
+		tested.setChangeProbe(true);
+
+		// exact watermarks not aligned to minutes, probe JQL is minute precise so it always finds watermark issue again
+		Date wmOrg = DateTimeUtils.parseISODateTime("2012-08-14T10:00:20.500Z");
+		Date wmAaa = DateTimeUtils.parseISODateTime("2012-08-14T10:00:40.250Z");
+		when(esIntegrationMock.getAllIndexedProjectsKeys()).thenReturn(Utils.parseCsvString("ORG,AAA"));
+		when(esIntegrationMock.readDatetimeValue("ORG", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wmOrg);
+		when(esIntegrationMock.readDatetimeValue("AAA", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wmAaa);
+
+		// case - watermark issue returned for both projects, so none is indexed
+		Date probeDate = DateTimeUtils.roundDateTimeToMinutePrecise(wmOrg);
+		Map<String, Date> changed = new HashMap<String, Date>();
+		changed.put("ORG", wmOrg);
+		changed.put("AAA", wmAaa);
+		when(jiraClientMock.getJIRAChangedProjects(Mockito.anyCollection(), Mockito.eq(probeDate))).thenReturn(changed);
+		tested.fillProjectKeysToIndexQueue();
+		Assert.assertTrue(tested.projectKeysToIndexQueue.isEmpty());
+		verify(jiraClientMock).getJIRAChangedProjects(Mockito.anyCollection(), Mockito.eq(probeDate));
+
+		// case - issue updated later in the same minute as watermark is found
+		reset(jiraClientMock);
+		reset(esIntegrationMock);
+		when(esIntegrationMock.getAllIndexedProjectsKeys()).thenReturn(Utils.parseCsvString("ORG,AAA"));
+		when(esIntegrationMock.readDatetimeValue("ORG", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wmOrg);
+		when(esIntegrationMock.readDatetimeValue("AAA", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(wmAaa);
+		changed.put("ORG", DateTimeUtils.parseISODateTime("2012-08-14T10:00:20.501Z"));
+		when(jiraClientMock.getJIRAChangedProjects(Mockito.anyCollection(), Mockito.eq(probeDate))).thenReturn(changed);
+		tested.fillProjectKeysToIndexQueue();
+		Assert.assertEquals(1, tested.projectKeysToIndexQueue.size());
+		Assert.assertTrue(tested.projectKeysToIndexQueue.contains("ORG"));
+	}
+
 	@Test
 	public void startIndexers() throws Exception {
 
@@ -588,6 +707,192 @@ public class JIRAProjectIndexerCoordinatorTest {
 		}
 	}
 
+	@Test
+	public void startIndexers_adaptiveFetchController() throws Exception {
+
+		IESIntegration esIntegrationMock = mock(IESIntegration.class);
+		JIRAProjectIndexerCoordinator tested = new JIRAProjectIndexerCoordinator(null, esIntegrationMock, null, 100000, 3,
+				-1, null);
+		AdaptiveFetchController controllerMock = mock(AdaptiveFetchController.class);
+		tested.setAdaptiveFetchController(controllerMock);
+
+		// case - concurrency lowered by controller, so only one indexer started
+		when(controllerMock.getConcurrency()).thenReturn(1);
+		Assert.assertEquals(1, tested.getEffectiveMaxIndexingThreads());
+		tested.projectKeysToIndexQueue.addAll(Utils.parseCsvString("ORG,AAA,BBB"));
+		when(esIntegrationMock.acquireIndexingThread(Mockito.anyString(), Mockito.any(Runnable.class))).thenReturn(
+				new MockThread());
+		tested.startIndexers();
+		Assert.assertEquals(1, tested.projectIndexerThreads.size());
+		Assert.assertTrue(tested.projectIndexerThreads.containsKey("ORG"));
+		Assert.assertEquals(2, tested.projectKeysToIndexQueue.size());
+
+		// case - concurrency from controller never exceeds configured maximum
+		when(controllerMock.getConcurrency()).thenReturn(10);
+		Assert.assertEquals(3, tested.getEffectiveMaxIndexingThreads());
+		tested.startIndexers();
+		Assert.assertEquals(3, tested.projectIndexerThreads.size());
+		Assert.assertTrue(tested.projectKeysToIndexQueue.isEmpty());
+
+		// case - no controller
+		tested.setAdaptiveFetchController(null);
+		Assert.assertEquals(3, tested.getEffectiveMaxIndexingThreads());
+	}
+
+	@Test
+	public void startIndexers_smallProjectBatching() throws Exception {
+
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		JIRAProjectIndexerCoordinator tested = new JIRAProjectIndexerCoordinator(null, esIntegrationMock, null, 100000, 2,
+				-1, null);
+		tested.setSmallProjectBatching(100, 2);
+		Date wm = new Date();
+		for (String projectKey : Utils.parseCsvString("ORG,AAA,BBB,CCC,DDD")) {
+			when(
+					esIntegrationMock.readDatetimeValue(projectKey,
+							JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE)).thenReturn(wm);
+		}
+		tested.reportProjectSize("ORG", 10);
+		tested.reportProjectSize("AAA", 1000);
+		tested.reportProjectSize("BBB", 100);
+		tested.reportProjectSize("DDD", 5);
+		tested.projectKeysToIndexQueue.addAll(Utils.parseCsvString("ORG,AAA,BBB,CCC,DDD"));
+		MockThread batchThread = new MockThread();
+		MockThread thread = new MockThread();
+		when(
+				esIntegrationMock.acquireIndexingThread(Mockito.eq("jira_river_batch_indexer_ORG"),
+						Mockito.any(Runnable.class))).thenReturn(batchThread);
+		when(esIntegrationMock.acquireIndexingThread(Mockito.eq("jira_river_indexer_AAA"), Mockito.any(Runnable.class)))
+				.thenReturn(thread);
+
+		// case - small projects indexed in one batch (up to max projects), batch thread counted once
+		tested.startIndexers();
+		Assert.assertTrue(batchThread.wasStarted);
+		Assert.assertTrue(thread.wasStarted);
+		Assert.assertEquals(3, tested.projectIndexerThreads.size());
+		Assert.assertEquals(2, tested.getRunningIndexerThreadsCount());
+		Assert.assertSame(batchThread, tested.projectIndexerThreads.get("ORG"));
+		Assert.assertSame(batchThread, tested.projectIndexerThreads.get("BBB"));
+		Assert.assertSame(thread, tested.projectIndexerThreads.get("AAA"));
+		Assert.assertEquals(2, tested.projectKeysToIndexQueue.size());
+		Assert.assertTrue(tested.projectKeysToIndexQueue.contains("CCC"));
+		Assert.assertTrue(tested.projectKeysToIndexQueue.contains("DDD"));
+		Assert.assertEquals(3, tested.getCurrentProjectIndexingInfo().size());
+		verify(esIntegrationMock).storeDatetimeValue(Mockito.eq("ORG"),
+				Mockito.eq(JIRAProjectIndexerCoordinator.STORE_PROPERTYNAME_LAST_INDEX_UPDATE_START_DATE),
+				Mockito.any(Date.class), Mockito.any(BulkRequestBuilder.class));
+		verify(esIntegrationMock).storeDatetimeValue(Mockito.eq("BBB"),
+				Mockito.eq(JIRAProjectIndexerCoordinator.STORE_PROPERTYNAME_LAST_INDEX_UPDATE_START_DATE),
+				Mockito.any(Date.class), Mockito.any(BulkRequestBuilder.class));
+
+		// case - finished batch projects release thread
+		tested.reportIndexingFinished("ORG", true, false);
+		Assert.assertEquals(2, tested.getRunningIndexerThreadsCount());
+		tested.reportIndexingFinished("BBB", true, false);
+		Assert.assertEquals(1, tested.getRunningIndexerThreadsCount());
+		Assert.assertTrue(tested.projectBatchIndexers.isEmpty());
+
+		// case - batch is not started for one small project only
+		when(esIntegrationMock.acquireIndexingThread(Mockito.eq("jira_river_indexer_CCC"), Mockito.any(Runnable.class)))
+				.thenReturn(new MockThread());
+		tested.startIndexers();
+		Assert.assertTrue(tested.projectBatchIndexers.isEmpty());
+		Assert.assertTrue(tested.projectIndexers.containsKey("CCC"));
+	}
+
+	@Test
+	public void startIndexers_pipelineThreadsCounted() throws Exception {
+
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		JIRAProjectIndexerCoordinator tested = new JIRAProjectIndexerCoordinator(null, esIntegrationMock, null, 100000, 6,
+				-1, null);
+		tested.setIndexingPipeline(3, 2);
+		when(esIntegrationMock.acquireIndexingThread(Mockito.anyString(), Mockito.any(Runnable.class))).thenReturn(
+				new MockThread());
+		tested.projectKeysToIndexQueue.addAll(Utils.parseCsvString("ORG,AAA,BBB"));
+
+		// case - first indexer uses all pipeline workers, second one has no free thread for fetcher so runs serially
+		tested.startIndexers();
+		Assert.assertEquals(3, tested.projectIndexers.get("ORG").pipelineWorkers);
+		Assert.assertEquals(0, tested.projectIndexers.get("AAA").pipelineWorkers);
+		Assert.assertEquals(6, tested.getRunningIndexerThreadsCount());
+		Assert.assertEquals(1, tested.projectKeysToIndexQueue.size());
+		Assert.assertTrue(tested.projectKeysToIndexQueue.contains("BBB"));
+
+		// case - finished pipeline releases all its threads
+		tested.reportIndexingFinished("ORG", true, false);
+		Assert.assertEquals(1, tested.getRunningIndexerThreadsCount());
+		tested.startIndexers();
+		Assert.assertEquals(3, tested.projectIndexers.get("BBB").pipelineWorkers);
+		Assert.assertEquals(6, tested.getRunningIndexerThreadsCount());
+
+		// case - less workers used if not enough threads are free, one thread kept free for incremental updates
+		Assert.assertEquals(2, tested.getPipelineWorkersToStart(10, false));
+		Assert.assertEquals(1, tested.getPipelineWorkersToStart(10, true));
+		Assert.assertEquals(0, tested.getPipelineWorkersToStart(9, true));
+
+		// case - pipeline not configured
+		Assert.assertEquals(0, JIRAProjectIndexerCoordinator.getPipelineThreadsCount(0));
+		tested.setIndexingPipeline(0, 2);
+		Assert.assertEquals(0, tested.getPipelineWorkersToStart(100, false));
+	}
+
+	@Test
+	public void scheduleNewProjects() throws Exception {
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		JIRAProjectIndexerCoordinator tested = new JIRAProjectIndexerCoordinator(null, esIntegrationMock, null, 100000, 2,
+				-1, null);
+
+		tested.scheduleNewProjects(null);
+		Assert.assertTrue(tested.projectKeysToIndexQueue.isEmpty());
+
+		tested.projectKeysToIndexQueue.add("AAA");
+		tested.projectIndexerThreads.put("BBB", new MockThread());
+		tested.scheduleNewProjects(Utils.parseCsvString("AAA,BBB,CCC"));
+		Assert.assertEquals(2, tested.projectKeysToIndexQueue.size());
+		Assert.assertTrue(tested.projectKeysToIndexQueue.contains("AAA"));
+		Assert.assertTrue(tested.projectKeysToIndexQueue.contains("CCC"));
+	}
+
+	@Test
+	public void startIndexers_circuitBreaker() throws Exception {
+
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		JIRAProjectIndexerCoordinator tested = new JIRAProjectIndexerCoordinator(jiraClientMock, esIntegrationMock, null,
+				100000, 3, -1, null);
+		when(esIntegrationMock.acquireIndexingThread(Mockito.anyString(), Mockito.any(Runnable.class))).thenReturn(
+				new MockThread());
+		tested.projectKeysToIndexQueue.addAll(Utils.parseCsvString("ORG,AAA,BBB"));
+
+		// case - no breaker available
+		Assert.assertEquals(3, tested.getEffectiveMaxIndexingThreads());
+
+		// case - breaker open so no indexer started
+		JIRACircuitBreaker circuitBreaker = new JIRACircuitBreaker();
+		circuitBreaker.configure(this, 1, 60000);
+		circuitBreaker.reportFailure(System.currentTimeMillis());
+		when(jiraClientMock.getCircuitBreaker()).thenReturn(circuitBreaker);
+		Assert.assertEquals(0, tested.getEffectiveMaxIndexingThreads());
+		tested.startIndexers();
+		Assert.assertEquals(0, tested.projectIndexerThreads.size());
+		Assert.assertEquals(3, tested.projectKeysToIndexQueue.size());
+
+		// case - breaker half open so one indexer started to probe JIRA
+		circuitBreaker.openedAt = System.currentTimeMillis() - 60001;
+		Assert.assertEquals(1, tested.getEffectiveMaxIndexingThreads());
+		tested.startIndexers();
+		Assert.assertEquals(1, tested.projectIndexerThreads.size());
+		Assert.assertEquals(2, tested.projectKeysToIndexQueue.size());
+
+		// case - breaker closed
+		circuitBreaker.reportSuccess();
+		Assert.assertEquals(3, tested.getEffectiveMaxIndexingThreads());
+		tested.startIndexers();
+		Assert.assertEquals(3, tested.projectIndexerThreads.size());
+		Assert.assertTrue(tested.projectKeysToIndexQueue.isEmpty());
+	}
+
 	@Test
 	public void startIndexers_reserveIndexingThreadSlotForIncremental() throws Exception {
 
@@ -857,6 +1162,28 @@ public class JIRAProjectIndexerCoordinatorTest {
 		}
 	}
 
+	@Test
+	public void setIndexingSchedule() throws Exception {
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		JIRAProjectIndexerCoordinator tested = new JIRAProjectIndexerCoordinator(null, esIntegrationMock, null, 10, 2, -1,
+				null);
+		Assert.assertEquals(10, tested.indexUpdatePeriod);
+		Assert.assertEquals(2, tested.maxIndexingThreads);
+
+		CronExpression cron = new CronExpression("0 0 23 ? * *");
+		tested.setIndexingSchedule(20, 4, 1000, cron);
+		Assert.assertEquals(20, tested.indexUpdatePeriod);
+		Assert.assertEquals(4, tested.maxIndexingThreads);
+		Assert.assertEquals(1000, tested.indexFullUpdatePeriod);
+		Assert.assertEquals(cron, tested.indexFullUpdateCronExpression);
+
+		tested.setIndexingSchedule(30, 1, -1, null);
+		Assert.assertEquals(30, tested.indexUpdatePeriod);
+		Assert.assertEquals(1, tested.maxIndexingThreads);
+		Assert.assertEquals(-1, tested.indexFullUpdatePeriod);
+		Assert.assertNull(tested.indexFullUpdateCronExpression);
+	}
+
 	@Test
 	public void forceFullReindex() throws Exception {
 		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
@@ -5,14 +5,19 @@
  */
 package org.jboss.elasticsearch.river.jira;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Future;
 
 import junit.framework.Assert;
 
+import org.apache.http.concurrent.BasicFuture;
+import org.elasticsearch.action.bulk.BulkItemResponse;
 import org.elasticsearch.action.bulk.BulkRequestBuilder;
 import org.elasticsearch.action.search.SearchRequestBuilder;
 import org.elasticsearch.action.search.SearchResponse;
@@ -20,12 +25,14 @@ import org.elasticsearch.client.Client;
 import org.elasticsearch.common.joda.time.format.ISODateTimeFormat;
 import org.elasticsearch.common.logging.ESLoggerFactory;
 import org.elasticsearch.common.text.StringText;
+import org.elasticsearch.rest.RestStatus;
 import org.elasticsearch.search.SearchHit;
 import org.elasticsearch.search.internal.InternalSearchHit;
 import org.elasticsearch.search.internal.InternalSearchHits;
 import org.elasticsearch.search.internal.InternalSearchResponse;
 import org.jboss.elasticsearch.river.jira.testtools.ProjectInfoMatcher;
 import org.junit.Test;
+import org.mockito.InOrder;
 import org.mockito.Mockito;
 import org.mockito.invocation.InvocationOnMock;
 import org.mockito.stubbing.Answer;
@@ -109,6 +116,7 @@ public class JIRAProjectIndexerTest {
 			verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 0,
 					DateTimeUtils.roundDateTimeToMinutePrecise(mockDateAfter), null);
 			verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
+			verify(esIntegrationMock, times(1)).readStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY);
 			verify(esIntegrationMock, times(0)).prepareESBulkRequestBuilder();
 			verify(esIntegrationMock, times(0)).storeDatetimeValue(Mockito.any(String.class), Mockito.any(String.class),
 					Mockito.any(Date.class), Mockito.any(BulkRequestBuilder.class));
@@ -143,10 +151,12 @@ public class JIRAProjectIndexerTest {
 			verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
 			verify(esIntegrationMock, times(1)).prepareESBulkRequestBuilder();
 			verify(jiraIssueIndexStructureBuilderMock, times(3)).indexIssue(Mockito.eq(brb), Mockito.eq("ORG"),
-					Mockito.any(Map.class));
+					Mockito.any(Map.class), Mockito.any(Date.class), Mockito.any(Map.class));
 			verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
 					Mockito.eq(JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE),
-					Mockito.eq(DateTimeUtils.parseISODateTime("2012-08-14T08:02:00.000-0400")), eq(brb));
+					Mockito.eq(DateTimeUtils.parseISODateTime("2012-08-14T08:02:10.000-0400")), eq(brb));
+			verify(esIntegrationMock, times(1)).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+					"ORG-47", brb);
 			verify(esIntegrationMock, times(1)).executeESBulkRequest(eq(brb));
 			verify(esIntegrationMock, Mockito.atLeastOnce()).isClosed();
 			Mockito.verifyNoMoreInteractions(jiraClientMock);
@@ -165,45 +175,138 @@ public class JIRAProjectIndexerTest {
 		JIRAProjectIndexer tested = new JIRAProjectIndexer("ORG", false, jiraClientMock, esIntegrationMock,
 				jiraIssueIndexStructureBuilderMock);
 
-		List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
-
 		Client client = Mockito.mock(Client.class);
+		BulkRequestBuilder brb = new BulkRequestBuilder(client);
 
-		// test case with list from JIRA search method containing only one issue with same update time as 'last update date'
+		// test case with list from JIRA search method containing issues from minute of 'last update date' indexed
+		// already
 		Date mockDateAfter = DateTimeUtils.parseISODateTime("2012-08-14T08:00:10.000-0400");
-		when(
-				esIntegrationMock
-						.readDatetimeValue("ORG", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
-				.thenReturn(mockDateAfter);
-		addIssueMock(issues, "ORG-45", "2012-08-14T08:00:20.000-0400");
-		configureStructureBuilderMockDefaults(jiraIssueIndexStructureBuilderMock);
-		when(jiraClientMock.getJIRAChangedIssues("ORG", 0, DateTimeUtils.roundDateTimeToMinutePrecise(mockDateAfter), null))
-				.thenReturn(new ChangedIssuesResults(issues, 0, 50, 1));
+		Date mockDateAfterMinute = DateTimeUtils.roundDateTimeToMinutePrecise(mockDateAfter);
+		{
+			when(
+					esIntegrationMock.readDatetimeValue("ORG",
+							JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE)).thenReturn(mockDateAfter);
+			when(esIntegrationMock.readStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY))
+					.thenReturn("ORG-45");
+			List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+			addIssueMock(issues, "ORG-44", "2012-08-14T08:00:05.000-0400");
+			addIssueMock(issues, "ORG-45", "2012-08-14T08:00:10.000-0400");
+			// updated at the same time as last indexed issue, so not sure if indexed already
+			addIssueMock(issues, "ORG-40", "2012-08-14T08:00:10.000-0400");
+			addIssueMock(issues, "ORG-46", "2012-08-14T08:00:20.000-0400");
+			configureStructureBuilderMockDefaults(jiraIssueIndexStructureBuilderMock);
+			when(jiraClientMock.getJIRAChangedIssues("ORG", 0, mockDateAfterMinute, null)).thenReturn(
+					new ChangedIssuesResults(issues, 0, 50, 4));
+			when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
+			// document rejected by external versioning is counted as skipped
+			when(esIntegrationMock.executeESBulkRequest(brb)).thenReturn(
+					Collections.singletonList(new BulkItemResponse(0, "index", new BulkItemResponse.Failure("search_index",
+							"jira_issue", "ORG-40", "VersionConflictEngineException", RestStatus.CONFLICT))));
+
+			tested.processUpdate();
+			Assert.assertEquals(2, tested.indexingInfo.issuesUpdated);
+			Assert.assertEquals(1, tested.indexingInfo.staleDocumentsSkipped);
+			Assert.assertFalse(tested.indexingInfo.fullUpdate);
+			verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 0, mockDateAfterMinute, null);
+			verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
+			verify(esIntegrationMock, times(1)).readStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY);
+			verify(esIntegrationMock, times(1)).prepareESBulkRequestBuilder();
+			verify(jiraIssueIndexStructureBuilderMock, times(2)).indexIssue(Mockito.eq(brb), Mockito.eq("ORG"),
+					Mockito.any(Map.class), Mockito.any(Date.class), Mockito.any(Map.class));
+			verify(jiraIssueIndexStructureBuilderMock, times(1)).indexIssue(Mockito.eq(brb), Mockito.eq("ORG"),
+					Mockito.eq(issues.get(2)), Mockito.eq(mockDateAfter), Mockito.any(Map.class));
+			verify(jiraIssueIndexStructureBuilderMock, times(1)).indexIssue(Mockito.eq(brb), Mockito.eq("ORG"),
+					Mockito.eq(issues.get(3)), Mockito.eq(mockDateAfter), Mockito.any(Map.class));
+			verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
+					Mockito.eq(JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE),
+					Mockito.eq(DateTimeUtils.parseISODateTime("2012-08-14T08:00:20.000-0400")), eq(brb));
+			verify(esIntegrationMock, times(1)).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+					"ORG-46", brb);
+			verify(esIntegrationMock, times(1)).executeESBulkRequest(eq(brb));
+			verify(esIntegrationMock, Mockito.atLeastOnce()).isClosed();
+			Mockito.verifyNoMoreInteractions(jiraClientMock);
+			Mockito.verifyNoMoreInteractions(esIntegrationMock);
+		}
+
+		// test case with list from JIRA search method containing only last indexed issue, so nothing is indexed and
+		// stored
+		{
+			reset(esIntegrationMock);
+			reset(jiraClientMock);
+			reset(jiraIssueIndexStructureBuilderMock);
+			tested = new JIRAProjectIndexer("ORG", false, jiraClientMock, esIntegrationMock,
+					jiraIssueIndexStructureBuilderMock);
+			when(
+					esIntegrationMock.readDatetimeValue("ORG",
+							JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE)).thenReturn(mockDateAfter);
+			when(esIntegrationMock.readStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY))
+					.thenReturn("ORG-45");
+			List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+			addIssueMock(issues, "ORG-45", "2012-08-14T08:00:10.000-0400");
+			configureStructureBuilderMockDefaults(jiraIssueIndexStructureBuilderMock);
+			when(jiraClientMock.getJIRAChangedIssues("ORG", 0, mockDateAfterMinute, null)).thenReturn(
+					new ChangedIssuesResults(issues, 0, 50, 1));
+			when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
+
+			tested.processUpdate();
+			Assert.assertEquals(0, tested.indexingInfo.issuesUpdated);
+			verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 0, mockDateAfterMinute, null);
+			verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
+			verify(esIntegrationMock, times(1)).readStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY);
+			verify(esIntegrationMock, times(1)).prepareESBulkRequestBuilder();
+			verify(jiraIssueIndexStructureBuilderMock, times(0)).indexIssue(Mockito.any(BulkRequestBuilder.class),
+					Mockito.anyString(), Mockito.any(Map.class), Mockito.any(Date.class), Mockito.any(Map.class));
+			verify(esIntegrationMock, Mockito.atLeastOnce()).isClosed();
+			Mockito.verifyNoMoreInteractions(jiraClientMock);
+			Mockito.verifyNoMoreInteractions(esIntegrationMock);
+		}
+
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void processUpdate_PagedByDateIssuesReturnedAgain() throws Exception {
+
+		// test case where issues from last minute of previous page are returned again in next page
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IJIRAIssueIndexStructureBuilder jiraIssueIndexStructureBuilderMock = mock(IJIRAIssueIndexStructureBuilder.class);
+		JIRAProjectIndexer tested = new JIRAProjectIndexer("ORG", false, jiraClientMock, esIntegrationMock,
+				jiraIssueIndexStructureBuilderMock);
+		Client client = Mockito.mock(Client.class);
 		BulkRequestBuilder brb = new BulkRequestBuilder(client);
+
+		List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues, "ORG-45", "2012-08-14T08:00:10.000-0400");
+		addIssueMock(issues, "ORG-46", "2012-08-14T08:02:10.000-0400");
+		addIssueMock(issues, "ORG-47", "2012-08-14T08:02:20.000-0400");
+		Date after2 = DateTimeUtils.parseISODateTime("2012-08-14T08:02:00.000-0400");
+		List<Map<String, Object>> issues2 = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues2, "ORG-46", "2012-08-14T08:02:10.000-0400");
+		addIssueMock(issues2, "ORG-47", "2012-08-14T08:02:20.000-0400");
+		// ORG-45 updated again in meantime
+		addIssueMock(issues2, "ORG-45", "2012-08-14T08:02:30.000-0400");
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 0, null, null)).thenReturn(
+				new ChangedIssuesResults(issues, 0, 3, 5));
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 0, after2, null)).thenReturn(
+				new ChangedIssuesResults(issues2, 0, 3, 3));
 		when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
+		configureStructureBuilderMockDefaults(jiraIssueIndexStructureBuilderMock);
 
 		tested.processUpdate();
-		Assert.assertEquals(1, tested.indexingInfo.issuesUpdated);
-		Assert.assertFalse(tested.indexingInfo.fullUpdate);
-		verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 0,
-				DateTimeUtils.roundDateTimeToMinutePrecise(mockDateAfter), null);
-		verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
-		verify(esIntegrationMock, times(1)).prepareESBulkRequestBuilder();
-		verify(jiraIssueIndexStructureBuilderMock, times(1)).indexIssue(Mockito.eq(brb), Mockito.eq("ORG"),
-				Mockito.any(Map.class));
-		verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
-				Mockito.eq(JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE),
-				Mockito.eq(DateTimeUtils.parseISODateTime("2012-08-14T08:00:00.000-0400")), eq(brb));
-		verify(esIntegrationMock, times(1)).executeESBulkRequest(eq(brb));
-		// one more timestamp store with time incremented by one minute not to index last updated issue next time again!
+		Assert.assertEquals(4, tested.indexingInfo.issuesUpdated);
+		verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 0, null, null);
+		verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 0, after2, null);
+		verify(jiraIssueIndexStructureBuilderMock, times(4)).indexIssue(Mockito.any(BulkRequestBuilder.class),
+				Mockito.eq("ORG"), Mockito.any(Map.class), Mockito.any(Date.class), Mockito.any(Map.class));
+		verify(jiraIssueIndexStructureBuilderMock, times(1)).indexIssue(brb, "ORG", issues2.get(2), null, null);
 		verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
 				Mockito.eq(JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE),
-				Mockito.eq(DateTimeUtils.parseISODateTime("2012-08-14T08:01:00.000-0400")),
-				((BulkRequestBuilder) Mockito.isNull()));
-		verify(esIntegrationMock, Mockito.atLeastOnce()).isClosed();
-		Mockito.verifyNoMoreInteractions(jiraClientMock);
-		Mockito.verifyNoMoreInteractions(esIntegrationMock);
-
+				Mockito.eq(DateTimeUtils.parseISODateTime("2012-08-14T08:02:30.000-0400")),
+				Mockito.any(BulkRequestBuilder.class));
+		verify(esIntegrationMock, times(1)).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"ORG-45", brb);
+		verify(esIntegrationMock, times(2)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
 	}
 
 	@SuppressWarnings("unchecked")
@@ -248,27 +351,40 @@ public class JIRAProjectIndexerTest {
 		tested.processUpdate();
 		Assert.assertEquals(8, tested.indexingInfo.issuesUpdated);
 		Assert.assertTrue(tested.indexingInfo.fullUpdate);
+		ProjectIndexingProgress progress = tested.indexingInfo.progress;
+		Assert.assertEquals(ProjectIndexingProgress.Phase.BULK, progress.phase);
+		Assert.assertEquals(3, progress.pagesDone);
+		Assert.assertEquals(8, progress.issuesDone);
+		Assert.assertEquals(8, progress.issuesTotal);
+		Assert.assertTrue(progress.issuesPerSecond > 0);
+		Assert.assertNotNull(progress.estimatedCompletion);
 		verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
 		verify(esIntegrationMock, times(3)).prepareESBulkRequestBuilder();
 		verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 0, null, null);
 		verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 0, after2, null);
 		verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 0, after3, null);
 		verify(jiraIssueIndexStructureBuilderMock, times(8)).indexIssue(Mockito.any(BulkRequestBuilder.class),
-				Mockito.eq("ORG"), Mockito.any(Map.class));
+				Mockito.eq("ORG"), Mockito.any(Map.class), Mockito.any(Date.class), Mockito.any(Map.class));
 		verify(esIntegrationMock, times(3)).storeDatetimeValue(Mockito.any(String.class), Mockito.any(String.class),
 				Mockito.any(Date.class), Mockito.any(BulkRequestBuilder.class));
 		verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
 				Mockito.eq(JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE),
-				Mockito.eq(ISODateTimeFormat.dateTimeParser().parseDateTime("2012-08-14T08:02:00.000-0400").toDate()),
+				Mockito.eq(ISODateTimeFormat.dateTimeParser().parseDateTime("2012-08-14T08:02:20.000-0400").toDate()),
 				Mockito.any(BulkRequestBuilder.class));
 		verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
 				Mockito.eq(JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE),
-				Mockito.eq(ISODateTimeFormat.dateTimeParser().parseDateTime("2012-08-14T08:05:00.000-0400").toDate()),
+				Mockito.eq(ISODateTimeFormat.dateTimeParser().parseDateTime("2012-08-14T08:05:20.000-0400").toDate()),
 				Mockito.any(BulkRequestBuilder.class));
 		verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
 				Mockito.eq(JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE),
-				Mockito.eq(ISODateTimeFormat.dateTimeParser().parseDateTime("2012-08-14T08:07:00.000-0400").toDate()),
+				Mockito.eq(ISODateTimeFormat.dateTimeParser().parseDateTime("2012-08-14T08:07:20.000-0400").toDate()),
 				Mockito.any(BulkRequestBuilder.class));
+		verify(esIntegrationMock, times(1)).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"ORG-47", brb);
+		verify(esIntegrationMock, times(1)).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"ORG-154", brb);
+		verify(esIntegrationMock, times(1)).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"ORG-91", brb);
 		verify(esIntegrationMock, times(3)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
 		verify(esIntegrationMock, Mockito.atLeastOnce()).isClosed();
 		Mockito.verifyNoMoreInteractions(jiraClientMock);
@@ -276,6 +392,290 @@ public class JIRAProjectIndexerTest {
 
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void processUpdate_asyncClientPrefetch() throws Exception {
+
+		// test case with asynchronous client where next page is requested before current one is indexed
+		IJIRAAsyncClient jiraClientMock = mock(IJIRAAsyncClient.class);
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IJIRAIssueIndexStructureBuilder jiraIssueIndexStructureBuilderMock = mock(IJIRAIssueIndexStructureBuilder.class);
+		JIRAProjectIndexer tested = new JIRAProjectIndexer("ORG", false, jiraClientMock, esIntegrationMock,
+				jiraIssueIndexStructureBuilderMock);
+		Client client = Mockito.mock(Client.class);
+		BulkRequestBuilder brb = new BulkRequestBuilder(client);
+
+		List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues, "ORG-45", "2012-08-14T08:00:10.000-0400");
+		addIssueMock(issues, "ORG-47", "2012-08-14T08:02:20.000-0400");
+		Date after2 = DateTimeUtils.parseISODateTime("2012-08-14T08:02:00.000-0400");
+		List<Map<String, Object>> issues2 = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues2, "ORG-481", "2012-08-14T08:03:10.000-0400");
+		addIssueMock(issues2, "ORG-49", "2012-08-14T08:03:40.000-0400");
+		// pages from same minute overlap by one issue
+		List<Map<String, Object>> issues3 = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues3, "ORG-49", "2012-08-14T08:03:40.000-0400");
+		addIssueMock(issues3, "ORG-4", "2012-08-14T08:03:50.000-0400");
+		addIssueMock(issues3, "ORG-91", "2012-08-14T08:07:20.000-0400");
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 0, null, null)).thenReturn(
+				new ChangedIssuesResults(issues, 0, 2, 6));
+		when(jiraClientMock.getJIRAChangedIssuesAsync("ORG", 0, after2, null)).thenReturn(
+				completedFuture(new ChangedIssuesResults(issues2, 0, 2, 4)));
+		when(jiraClientMock.getJIRAChangedIssuesAsync("ORG", 1, after2, null)).thenReturn(
+				completedFuture(new ChangedIssuesResults(issues3, 1, 3, 4)));
+		when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
+		configureStructureBuilderMockDefaults(jiraIssueIndexStructureBuilderMock);
+
+		tested.processUpdate();
+		Assert.assertEquals(6, tested.indexingInfo.issuesUpdated);
+		verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 0, null, null);
+		verify(jiraClientMock, times(1)).getJIRAChangedIssuesAsync("ORG", 0, after2, null);
+		verify(jiraClientMock, times(1)).getJIRAChangedIssuesAsync("ORG", 1, after2, null);
+		verify(jiraIssueIndexStructureBuilderMock, times(6)).indexIssue(Mockito.any(BulkRequestBuilder.class),
+				Mockito.eq("ORG"), Mockito.any(Map.class), Mockito.any(Date.class), Mockito.any(Map.class));
+		verify(esIntegrationMock, times(3)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
+		Mockito.verifyNoMoreInteractions(jiraClientMock);
+
+		// case - failed prefetch is reported
+		reset(jiraClientMock);
+		BasicFuture<ChangedIssuesResults> failed = new BasicFuture<ChangedIssuesResults>(null);
+		failed.failed(new IOException("timeout"));
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 0, null, null)).thenReturn(
+				new ChangedIssuesResults(issues, 0, 2, 6));
+		when(jiraClientMock.getJIRAChangedIssuesAsync("ORG", 0, after2, null)).thenReturn(failed);
+		tested = new JIRAProjectIndexer("ORG", false, jiraClientMock, esIntegrationMock, jiraIssueIndexStructureBuilderMock);
+		try {
+			tested.processUpdate();
+			Assert.fail("IOException must be thrown");
+		} catch (IOException e) {
+			Assert.assertEquals("timeout", e.getMessage());
+		}
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void processUpdate_pipeline() throws Exception {
+
+		// test case with more pages indexed by pipeline where first page is transformed slower than next ones
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IJIRAIssueIndexStructureBuilder jiraIssueIndexStructureBuilderMock = mock(IJIRAIssueIndexStructureBuilder.class);
+		JIRAProjectIndexer tested = new JIRAProjectIndexer("ORG", false, jiraClientMock, esIntegrationMock,
+				jiraIssueIndexStructureBuilderMock);
+		tested.setIndexingPipeline(3, 1);
+		final Client client = Mockito.mock(Client.class);
+
+		List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues, "ORG-45", "2012-08-14T08:00:10.000-0400");
+		addIssueMock(issues, "ORG-47", "2012-08-14T08:02:20.000-0400");
+		Date after2 = DateTimeUtils.parseISODateTime("2012-08-14T08:02:00.000-0400");
+		List<Map<String, Object>> issues2 = new ArrayList<Map<String, Object>>();
+		// returned again
+		addIssueMock(issues2, "ORG-47", "2012-08-14T08:02:20.000-0400");
+		addIssueMock(issues2, "ORG-49", "2012-08-14T08:04:10.000-0400");
+		Date after3 = DateTimeUtils.parseISODateTime("2012-08-14T08:04:00.000-0400");
+		List<Map<String, Object>> issues3 = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues3, "ORG-4", "2012-08-14T08:06:10.000-0400");
+		addIssueMock(issues3, "ORG-91", "2012-08-14T08:07:20.000-0400");
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 0, null, null)).thenReturn(
+				new ChangedIssuesResults(issues, 0, 2, 6));
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 0, after2, null)).thenReturn(
+				new ChangedIssuesResults(issues2, 0, 2, 4));
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 0, after3, null)).thenReturn(
+				new ChangedIssuesResults(issues3, 0, 2, 2));
+		when(esIntegrationMock.prepareESBulkRequestBuilder()).thenAnswer(new Answer<BulkRequestBuilder>() {
+			public BulkRequestBuilder answer(InvocationOnMock invocation) throws Throwable {
+				return new BulkRequestBuilder(client);
+			}
+		});
+		when(esIntegrationMock.acquireIndexingThread(Mockito.anyString(), Mockito.any(Runnable.class))).thenAnswer(
+				new Answer<Thread>() {
+					public Thread answer(InvocationOnMock invocation) throws Throwable {
+						return new Thread((Runnable) invocation.getArguments()[1], (String) invocation.getArguments()[0]);
+					}
+				});
+		configureStructureBuilderMockDefaults(jiraIssueIndexStructureBuilderMock);
+		Mockito.doAnswer(new Answer<Object>() {
+			public Object answer(InvocationOnMock invocation) throws Throwable {
+				if ("ORG-45".equals(((Map<String, Object>) invocation.getArguments()[2]).get("key")))
+					Thread.sleep(300);
+				return null;
+			}
+		}).when(jiraIssueIndexStructureBuilderMock).indexIssue(Mockito.any(BulkRequestBuilder.class), Mockito.eq("ORG"),
+				Mockito.any(Map.class), Mockito.any(Date.class), Mockito.any(Map.class));
+
+		tested.processUpdate();
+		Assert.assertEquals(5, tested.indexingInfo.issuesUpdated);
+		Assert.assertTrue(tested.indexingInfo.fullUpdate);
+		Assert.assertEquals(ProjectIndexingProgress.Phase.BULK, tested.indexingInfo.progress.phase);
+		Assert.assertEquals(3, tested.indexingInfo.progress.pagesDone);
+		verify(esIntegrationMock, times(4)).acquireIndexingThread(Mockito.anyString(), Mockito.any(Runnable.class));
+		verify(jiraIssueIndexStructureBuilderMock, times(5)).indexIssue(Mockito.any(BulkRequestBuilder.class),
+				Mockito.eq("ORG"), Mockito.any(Map.class), Mockito.any(Date.class), Mockito.any(Map.class));
+		verify(esIntegrationMock, times(3)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
+		// watermark is stored in fetch order even if first page is transformed last
+		InOrder inOrder = Mockito.inOrder(esIntegrationMock);
+		inOrder.verify(esIntegrationMock).storeStringValue(Mockito.eq("ORG"),
+				Mockito.eq(IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY), Mockito.eq("ORG-47"),
+				Mockito.any(BulkRequestBuilder.class));
+		inOrder.verify(esIntegrationMock).storeStringValue(Mockito.eq("ORG"),
+				Mockito.eq(IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY), Mockito.eq("ORG-49"),
+				Mockito.any(BulkRequestBuilder.class));
+		inOrder.verify(esIntegrationMock).storeStringValue(Mockito.eq("ORG"),
+				Mockito.eq(IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY), Mockito.eq("ORG-91"),
+				Mockito.any(BulkRequestBuilder.class));
+
+		// case - failure of transform stage is thrown and nothing is written after it
+		reset(esIntegrationMock);
+		when(esIntegrationMock.createLogger(Mockito.any(Class.class))).thenReturn(
+				ESLoggerFactory.getLogger(JIRAProjectIndexerCoordinator.class.getName()));
+		when(esIntegrationMock.acquireIndexingThread(Mockito.anyString(), Mockito.any(Runnable.class))).thenAnswer(
+				new Answer<Thread>() {
+					public Thread answer(InvocationOnMock invocation) throws Throwable {
+						return new Thread((Runnable) invocation.getArguments()[1], (String) invocation.getArguments()[0]);
+					}
+				});
+		when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(new BulkRequestBuilder(client));
+		Mockito.doThrow(new IllegalStateException("preprocessor failed")).when(jiraIssueIndexStructureBuilderMock)
+				.indexIssue(Mockito.any(BulkRequestBuilder.class), Mockito.eq("ORG"), Mockito.any(Map.class),
+						Mockito.any(Date.class), Mockito.any(Map.class));
+		tested = new JIRAProjectIndexer("ORG", true, jiraClientMock, esIntegrationMock, jiraIssueIndexStructureBuilderMock);
+		tested.setIndexingPipeline(2, 2);
+		try {
+			tested.processUpdate();
+			Assert.fail("IllegalStateException must be thrown");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("preprocessor failed", e.getMessage());
+		}
+		Assert.assertEquals(0, tested.indexingInfo.issuesUpdated);
+		verify(esIntegrationMock, times(0)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void processUpdate_memoryBudget() throws Exception {
+
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IJIRAIssueIndexStructureBuilder jiraIssueIndexStructureBuilderMock = mock(IJIRAIssueIndexStructureBuilder.class);
+		configureStructureBuilderMockDefaults(jiraIssueIndexStructureBuilderMock);
+		final JIRAMemoryBudget budget = new JIRAMemoryBudget(1000);
+		JIRAProjectIndexer tested = new JIRAProjectIndexer("ORG", true, jiraClientMock, esIntegrationMock,
+				jiraIssueIndexStructureBuilderMock);
+		tested.setMemoryBudget(budget);
+		Client client = Mockito.mock(Client.class);
+
+		List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues, "ORG-45", "2012-08-14T08:00:00.000-0400");
+		addIssueMock(issues, "ORG-46", "2012-08-14T08:01:00.000-0400");
+		ChangedIssuesResults res = new ChangedIssuesResults(issues, 0, 50, 2);
+		res.setResponseSize(600);
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 0, null, null)).thenReturn(res);
+		when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(new BulkRequestBuilder(client));
+
+		// case - page is accounted until bulk is written
+		when(esIntegrationMock.executeESBulkRequest(Mockito.any(BulkRequestBuilder.class))).thenAnswer(
+				new Answer<List<BulkItemResponse>>() {
+					public List<BulkItemResponse> answer(InvocationOnMock invocation) throws Throwable {
+						Assert.assertEquals(600, budget.getUsedBytes());
+						return Collections.emptyList();
+					}
+				});
+		tested.processUpdate();
+		Assert.assertEquals(2, tested.indexingInfo.issuesUpdated);
+		Assert.assertEquals(0, budget.getUsedBytes());
+		Assert.assertEquals(600, budget.getPeakBytes());
+
+		// case - memory is released when indexing fails
+		Mockito.doThrow(new IllegalStateException("bulk failed")).when(esIntegrationMock)
+				.executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
+		tested = new JIRAProjectIndexer("ORG", true, jiraClientMock, esIntegrationMock, jiraIssueIndexStructureBuilderMock);
+		tested.setMemoryBudget(budget);
+		try {
+			tested.processUpdate();
+			Assert.fail("IllegalStateException must be thrown");
+		} catch (IllegalStateException e) {
+			Assert.assertEquals("bulk failed", e.getMessage());
+		}
+		Assert.assertEquals(0, budget.getUsedBytes());
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void processUpdate_issueDataCompleter() throws Exception {
+
+		// test case where truncated issue data are completed before indexing and extra calls are counted
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IJIRAIssueIndexStructureBuilder jiraIssueIndexStructureBuilderMock = mock(IJIRAIssueIndexStructureBuilder.class);
+		JIRAIssueDataCompleter completerMock = mock(JIRAIssueDataCompleter.class);
+		JIRAProjectIndexer tested = new JIRAProjectIndexer("ORG", false, jiraClientMock, esIntegrationMock,
+				jiraIssueIndexStructureBuilderMock);
+		tested.setIssueDataCompleter(completerMock);
+		Client client = Mockito.mock(Client.class);
+		BulkRequestBuilder brb = new BulkRequestBuilder(client);
+
+		List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues, "ORG-45", "2012-08-14T08:00:10.000-0400");
+		addIssueMock(issues, "ORG-46", "2012-08-14T08:01:10.000-0400");
+		addIssueMock(issues, "ORG-47", "2012-08-14T08:02:20.000-0400");
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 0, null, null)).thenReturn(
+				new ChangedIssuesResults(issues, 0, 50, 3));
+		when(completerMock.completeIssues(issues)).thenReturn(new int[] { 2, 0, 1 });
+		when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
+		configureStructureBuilderMockDefaults(jiraIssueIndexStructureBuilderMock);
+
+		tested.processUpdate();
+		Assert.assertEquals(3, tested.indexingInfo.issuesUpdated);
+		Assert.assertEquals(3, tested.indexingInfo.extraJiraCalls);
+		verify(completerMock, times(1)).completeIssues(issues);
+		verify(jiraIssueIndexStructureBuilderMock, times(3)).indexIssue(Mockito.any(BulkRequestBuilder.class),
+				Mockito.eq("ORG"), Mockito.any(Map.class), Mockito.any(Date.class), Mockito.any(Map.class));
+
+		// case - completion failure stops indexing of page
+		reset(completerMock);
+		when(completerMock.completeIssues(issues)).thenThrow(new IOException("timeout"));
+		tested = new JIRAProjectIndexer("ORG", false, jiraClientMock, esIntegrationMock,
+				jiraIssueIndexStructureBuilderMock);
+		tested.setIssueDataCompleter(completerMock);
+		try {
+			tested.processUpdate();
+			Assert.fail("IOException must be thrown");
+		} catch (IOException e) {
+			Assert.assertEquals("timeout", e.getMessage());
+		}
+		Assert.assertEquals(0, tested.indexingInfo.issuesUpdated);
+		verify(jiraIssueIndexStructureBuilderMock, times(3)).indexIssue(Mockito.any(BulkRequestBuilder.class),
+				Mockito.eq("ORG"), Mockito.any(Map.class), Mockito.any(Date.class), Mockito.any(Map.class));
+
+		// case - issues indexed already by previous update are not completed
+		reset(completerMock);
+		when(esIntegrationMock.readDatetimeValue("ORG", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
+				.thenReturn(DateTimeUtils.parseISODateTime("2012-08-14T08:00:10.000-0400"));
+		when(esIntegrationMock.readStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY))
+				.thenReturn("ORG-45");
+		when(
+				jiraClientMock.getJIRAChangedIssues("ORG", 0,
+						DateTimeUtils.parseISODateTime("2012-08-14T08:00:00.000-0400"), null)).thenReturn(
+				new ChangedIssuesResults(issues, 0, 50, 3));
+		List<Map<String, Object>> selected = new ArrayList<Map<String, Object>>(issues.subList(1, 3));
+		when(completerMock.completeIssues(selected)).thenReturn(new int[] { 0, 1 });
+		tested = new JIRAProjectIndexer("ORG", false, jiraClientMock, esIntegrationMock,
+				jiraIssueIndexStructureBuilderMock);
+		tested.setIssueDataCompleter(completerMock);
+		tested.processUpdate();
+		Assert.assertEquals(2, tested.indexingInfo.issuesUpdated);
+		Assert.assertEquals(1, tested.indexingInfo.extraJiraCalls);
+		verify(completerMock, times(1)).completeIssues(selected);
+		verify(completerMock, times(0)).completeIssues(issues);
+	}
+
+	protected static Future<ChangedIssuesResults> completedFuture(ChangedIssuesResults res) {
+		BasicFuture<ChangedIssuesResults> f = new BasicFuture<ChangedIssuesResults>(null);
+		f.completed(res);
+		return f;
+	}
+
 	@SuppressWarnings("unchecked")
 	@Test
 	public void processUpdate_PagedByStartAt() throws Exception {
@@ -294,48 +694,120 @@ public class JIRAProjectIndexerTest {
 		addIssueMock(issues, "ORG-45", "2012-08-14T08:00:00.000-0400");
 		addIssueMock(issues, "ORG-46", "2012-08-14T08:00:00.000-0400");
 		addIssueMock(issues, "ORG-47", "2012-08-14T08:00:00.000-0400");
+		// pages overlap by one issue, so shift caused by issue changed in JIRA during paging can be detected
 		List<Map<String, Object>> issues2 = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues2, "ORG-47", "2012-08-14T08:00:00.000-0400");
 		addIssueMock(issues2, "ORG-481", "2012-08-14T08:00:00.000-0400");
 		addIssueMock(issues2, "ORG-49", "2012-08-14T08:00:10.000-0400");
-		addIssueMock(issues2, "ORG-154", "2012-08-14T08:00:10.000-0400");
 		List<Map<String, Object>> issues3 = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues3, "ORG-49", "2012-08-14T08:00:10.000-0400");
+		addIssueMock(issues3, "ORG-154", "2012-08-14T08:00:10.000-0400");
 		addIssueMock(issues3, "ORG-4", "2012-08-14T08:00:10.000-0400");
-		addIssueMock(issues3, "ORG-91", "2012-08-14T08:00:20.000-0400");
+		List<Map<String, Object>> issues4 = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues4, "ORG-4", "2012-08-14T08:00:10.000-0400");
+		addIssueMock(issues4, "ORG-91", "2012-08-14T08:00:20.000-0400");
 		when(
 				esIntegrationMock
 						.readDatetimeValue("ORG", JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE))
 				.thenReturn(null);
 		when(jiraClientMock.getJIRAChangedIssues("ORG", 0, null, null)).thenReturn(
 				new ChangedIssuesResults(issues, 0, 3, 8));
-		when(jiraClientMock.getJIRAChangedIssues("ORG", 3, null, null)).thenReturn(
-				new ChangedIssuesResults(issues2, 3, 3, 8));
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 2, null, null)).thenReturn(
+				new ChangedIssuesResults(issues2, 2, 3, 8));
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 4, null, null)).thenReturn(
+				new ChangedIssuesResults(issues3, 4, 3, 8));
 		when(jiraClientMock.getJIRAChangedIssues("ORG", 6, null, null)).thenReturn(
-				new ChangedIssuesResults(issues3, 6, 3, 8));
+				new ChangedIssuesResults(issues4, 6, 3, 8));
 		when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
 		configureStructureBuilderMockDefaults(jiraIssueIndexStructureBuilderMock);
 
 		tested.processUpdate();
 		Assert.assertEquals(8, tested.indexingInfo.issuesUpdated);
 		verify(esIntegrationMock, times(1)).readDatetimeValue(Mockito.any(String.class), Mockito.any(String.class));
-		verify(esIntegrationMock, times(3)).prepareESBulkRequestBuilder();
+		verify(esIntegrationMock, times(4)).prepareESBulkRequestBuilder();
 		verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 0, null, null);
-		verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 3, null, null);
+		verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 2, null, null);
+		verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 4, null, null);
 		verify(jiraClientMock, times(1)).getJIRAChangedIssues("ORG", 6, null, null);
 		verify(jiraIssueIndexStructureBuilderMock, times(8)).indexIssue(Mockito.any(BulkRequestBuilder.class),
-				Mockito.eq("ORG"), Mockito.any(Map.class));
-		verify(esIntegrationMock, times(3)).storeDatetimeValue(Mockito.any(String.class), Mockito.any(String.class),
+				Mockito.eq("ORG"), Mockito.any(Map.class), Mockito.any(Date.class), Mockito.any(Map.class));
+		verify(esIntegrationMock, times(4)).storeDatetimeValue(Mockito.any(String.class), Mockito.any(String.class),
 				Mockito.any(Date.class), Mockito.any(BulkRequestBuilder.class));
-		verify(esIntegrationMock, times(3)).storeDatetimeValue(Mockito.eq("ORG"),
+		verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
 				Mockito.eq(JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE),
 				Mockito.eq(DateTimeUtils.parseISODateTime("2012-08-14T08:00:00.000-0400")),
 				Mockito.any(BulkRequestBuilder.class));
-		verify(esIntegrationMock, times(3)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
+		verify(esIntegrationMock, times(2)).storeDatetimeValue(Mockito.eq("ORG"),
+				Mockito.eq(JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE),
+				Mockito.eq(DateTimeUtils.parseISODateTime("2012-08-14T08:00:10.000-0400")),
+				Mockito.any(BulkRequestBuilder.class));
+		verify(esIntegrationMock, times(1)).storeDatetimeValue(Mockito.eq("ORG"),
+				Mockito.eq(JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE),
+				Mockito.eq(DateTimeUtils.parseISODateTime("2012-08-14T08:00:20.000-0400")),
+				Mockito.any(BulkRequestBuilder.class));
+		verify(esIntegrationMock, times(1)).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"ORG-47", brb);
+		verify(esIntegrationMock, times(1)).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"ORG-49", brb);
+		verify(esIntegrationMock, times(1)).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"ORG-4", brb);
+		verify(esIntegrationMock, times(1)).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"ORG-91", brb);
+		verify(esIntegrationMock, times(4)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
 		verify(esIntegrationMock, Mockito.atLeastOnce()).isClosed();
 		Mockito.verifyNoMoreInteractions(jiraClientMock);
 		Mockito.verifyNoMoreInteractions(esIntegrationMock);
 
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void processUpdate_PagedByStartAtIssueChangedDuringPaging() throws Exception {
+
+		// test case where issue from already processed part of minute is changed in JIRA during pagination, so next issues
+		// shift to lower startAt and window must be scanned from start again not to skip any of them
+		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
+		IESIntegration esIntegrationMock = mockEsIntegrationComponent();
+		IJIRAIssueIndexStructureBuilder jiraIssueIndexStructureBuilderMock = mock(IJIRAIssueIndexStructureBuilder.class);
+		JIRAProjectIndexer tested = new JIRAProjectIndexer("ORG", false, jiraClientMock, esIntegrationMock,
+				jiraIssueIndexStructureBuilderMock);
+		Client client = Mockito.mock(Client.class);
+		BulkRequestBuilder brb = new BulkRequestBuilder(client);
+
+		List<Map<String, Object>> issues = new ArrayList<Map<String, Object>>();
+		addIssueMock(issues, "ORG-45", "2012-08-14T08:00:00.000-0400");
+		addIssueMock(issues, "ORG-46", "2012-08-14T08:00:00.000-0400");
+		addIssueMock(issues, "ORG-47", "2012-08-14T08:00:00.000-0400");
+		// ORG-46 updated again in meantime, so ORG-47 is not at startAt 2 anymore and ORG-48 would be skipped
+		List<Map<String, Object>> issuesShifted = new ArrayList<Map<String, Object>>();
+		addIssueMock(issuesShifted, "ORG-48", "2012-08-14T08:00:10.000-0400");
+		addIssueMock(issuesShifted, "ORG-49", "2012-08-14T08:00:10.000-0400");
+		addIssueMock(issuesShifted, "ORG-46", "2012-08-14T08:00:30.000-0400");
+		List<Map<String, Object>> issuesRescan = new ArrayList<Map<String, Object>>();
+		addIssueMock(issuesRescan, "ORG-45", "2012-08-14T08:00:00.000-0400");
+		addIssueMock(issuesRescan, "ORG-47", "2012-08-14T08:00:00.000-0400");
+		addIssueMock(issuesRescan, "ORG-48", "2012-08-14T08:00:10.000-0400");
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 0, null, null)).thenReturn(
+				new ChangedIssuesResults(issues, 0, 3, 5), new ChangedIssuesResults(issuesRescan, 0, 3, 5));
+		when(jiraClientMock.getJIRAChangedIssues("ORG", 2, null, null)).thenReturn(
+				new ChangedIssuesResults(issuesShifted, 2, 3, 5));
+		when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
+		configureStructureBuilderMockDefaults(jiraIssueIndexStructureBuilderMock);
+
+		tested.processUpdate();
+		Assert.assertEquals(6, tested.indexingInfo.issuesUpdated);
+		verify(jiraClientMock, times(2)).getJIRAChangedIssues("ORG", 0, null, null);
+		verify(jiraClientMock, times(2)).getJIRAChangedIssues("ORG", 2, null, null);
+		// ORG-48 indexed once even if returned again in last page
+		verify(jiraIssueIndexStructureBuilderMock, times(1)).indexIssue(brb, "ORG", issuesRescan.get(2), null, null);
+		verify(jiraIssueIndexStructureBuilderMock, times(1)).indexIssue(brb, "ORG", issuesShifted.get(1), null, null);
+		verify(jiraIssueIndexStructureBuilderMock, times(1)).indexIssue(brb, "ORG", issuesShifted.get(2), null, null);
+		verify(esIntegrationMock, times(3)).executeESBulkRequest(Mockito.any(BulkRequestBuilder.class));
+		verify(esIntegrationMock, times(1)).storeStringValue("ORG", IssueWatermark.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_KEY,
+				"ORG-46", brb);
+		Mockito.verifyNoMoreInteractions(jiraClientMock);
+	}
+
 	@Test
 	public void run() throws Exception {
 		IJIRAClient jiraClientMock = mock(IJIRAClient.class);
@@ -379,7 +851,7 @@ public class JIRAProjectIndexerTest {
 							JIRAProjectIndexer.STORE_PROPERTYNAME_LAST_INDEXED_ISSUE_UPDATE_DATE)).thenReturn(null);
 			when(jiraClientMock.getJIRAChangedIssues("ORG", 0, null, null)).thenReturn(
 					new ChangedIssuesResults(issues, 0, 50, 4));
-			when(jiraClientMock.getJIRAChangedIssues("ORG", 3, null, null)).thenThrow(new Exception("JIRA call error"));
+			when(jiraClientMock.getJIRAChangedIssues("ORG", 2, null, null)).thenThrow(new Exception("JIRA call error"));
 			when(esIntegrationMock.prepareESBulkRequestBuilder()).thenReturn(brb);
 
 			tested.run();
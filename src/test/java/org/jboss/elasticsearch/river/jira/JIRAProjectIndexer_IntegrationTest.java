@@ -87,7 +87,7 @@ public class JIRAProjectIndexer_IntegrationTest extends ESRealClientTestBase {
 			Assert.assertEquals(false, tested.indexingInfo.fullUpdate);
 			Assert.assertNotNull(tested.startTime);
 
-			Date lastIssueUpdatedDate2 = DateTimeUtils.parseISODateTimeWithMinutePrecise("2012-09-06T03:27:25.000-0400");
+			Date lastIssueUpdatedDate2 = DateTimeUtils.parseISODateTime("2012-09-06T03:27:25.000-0400");
 			Assert.assertEquals(lastIssueUpdatedDate2, tested.readLastIssueUpdatedDate(PROJECT_KEY));
 
 			assertDocumentsInIndex(client, CFG_TYPE_ISSUE, "ORG-1501", "ORG-1513", "ORG-1514");
@@ -112,7 +112,7 @@ public class JIRAProjectIndexer_IntegrationTest extends ESRealClientTestBase {
 			Assert.assertEquals(false, tested.indexingInfo.fullUpdate);
 			Assert.assertNotNull(tested.startTime);
 
-			Date lastIssueUpdatedDate3 = DateTimeUtils.parseISODateTimeWithMinutePrecise("2012-09-06T03:28:21.000-0400");
+			Date lastIssueUpdatedDate3 = DateTimeUtils.parseISODateTime("2012-09-06T03:28:21.000-0400");
 			Assert.assertEquals(lastIssueUpdatedDate3, tested.readLastIssueUpdatedDate(PROJECT_KEY));
 
 			assertDocumentsInIndex(client, CFG_TYPE_ISSUE, "ORG-1501", "ORG-1513", "ORG-1514");
@@ -158,7 +158,7 @@ public class JIRAProjectIndexer_IntegrationTest extends ESRealClientTestBase {
 			Assert.assertEquals(false, tested.indexingInfo.fullUpdate);
 			Assert.assertNotNull(tested.startTime);
 
-			Date lastIssueUpdatedDate2 = DateTimeUtils.parseISODateTimeWithMinutePrecise("2012-09-06T03:27:25.000-0400");
+			Date lastIssueUpdatedDate2 = DateTimeUtils.parseISODateTime("2012-09-06T03:27:25.000-0400");
 			Assert.assertEquals(lastIssueUpdatedDate2, tested.readLastIssueUpdatedDate(PROJECT_KEY));
 
 			assertDocumentsInIndex(client, CFG_TYPE_ISSUE, "ORG-1501", "ORG-1513", "ORG-1514");
@@ -185,7 +185,7 @@ public class JIRAProjectIndexer_IntegrationTest extends ESRealClientTestBase {
 			Assert.assertEquals(false, tested.indexingInfo.fullUpdate);
 			Assert.assertNotNull(tested.startTime);
 
-			Date lastIssueUpdatedDate3 = DateTimeUtils.parseISODateTimeWithMinutePrecise("2012-09-06T03:28:21.000-0400");
+			Date lastIssueUpdatedDate3 = DateTimeUtils.parseISODateTime("2012-09-06T03:28:21.000-0400");
 			Assert.assertEquals(lastIssueUpdatedDate3, tested.readLastIssueUpdatedDate(PROJECT_KEY));
 
 			assertDocumentsInIndex(client, CFG_TYPE_ISSUE, "ORG-1501", "ORG-1513", "ORG-1514");
@@ -238,7 +238,7 @@ public class JIRAProjectIndexer_IntegrationTest extends ESRealClientTestBase {
 			Assert.assertEquals(false, tested.indexingInfo.fullUpdate);
 			Assert.assertNotNull(tested.startTime);
 
-			Date lastIssueUpdatedDate2 = DateTimeUtils.parseISODateTimeWithMinutePrecise("2012-09-06T03:27:25.000-0400");
+			Date lastIssueUpdatedDate2 = DateTimeUtils.parseISODateTime("2012-09-06T03:27:25.000-0400");
 			Assert.assertEquals(lastIssueUpdatedDate2, tested.readLastIssueUpdatedDate(PROJECT_KEY));
 
 			assertDocumentsInIndex(client, CFG_TYPE_ISSUE, "ORG-1501", "ORG-1513", "ORG-1514");
@@ -267,7 +267,7 @@ public class JIRAProjectIndexer_IntegrationTest extends ESRealClientTestBase {
 			Assert.assertEquals(false, tested.indexingInfo.fullUpdate);
 			Assert.assertNotNull(tested.startTime);
 
-			Date lastIssueUpdatedDate3 = DateTimeUtils.parseISODateTimeWithMinutePrecise("2012-09-06T03:28:21.000-0400");
+			Date lastIssueUpdatedDate3 = DateTimeUtils.parseISODateTime("2012-09-06T03:28:21.000-0400");
 			Assert.assertEquals(lastIssueUpdatedDate3, tested.readLastIssueUpdatedDate(PROJECT_KEY));
 
 			assertDocumentsInIndex(client, CFG_TYPE_ISSUE, "ORG-1501", "ORG-1513", "ORG-1514");
@@ -321,7 +321,7 @@ public class JIRAProjectIndexer_IntegrationTest extends ESRealClientTestBase {
 			Assert.assertEquals(true, tested.indexingInfo.fullUpdate);
 			Assert.assertNotNull(tested.startTime);
 
-			Date lastIssueUpdatedDate2 = DateTimeUtils.parseISODateTimeWithMinutePrecise("2012-09-06T03:27:25.000-0400");
+			Date lastIssueUpdatedDate2 = DateTimeUtils.parseISODateTime("2012-09-06T03:27:25.000-0400");
 			Assert.assertEquals(lastIssueUpdatedDate2, tested.readLastIssueUpdatedDate(PROJECT_KEY));
 
 			assertDocumentsInIndex(client, CFG_TYPE_ISSUE, "ORG-1501", "ORG-1513", "ORG-1514", "AAA-1", "AAA-2");
@@ -344,7 +344,7 @@ public class JIRAProjectIndexer_IntegrationTest extends ESRealClientTestBase {
 			Assert.assertEquals(true, tested.indexingInfo.fullUpdate);
 			Assert.assertNotNull(tested.startTime);
 
-			Date lastIssueUpdatedDate3 = DateTimeUtils.parseISODateTimeWithMinutePrecise("2012-09-06T03:28:21.000-0400");
+			Date lastIssueUpdatedDate3 = DateTimeUtils.parseISODateTime("2012-09-06T03:28:21.000-0400");
 			Assert.assertEquals(lastIssueUpdatedDate3, tested.readLastIssueUpdatedDate(PROJECT_KEY));
 
 			assertDocumentsInIndex(client, CFG_TYPE_ISSUE, "ORG-1501", "ORG-1513", "AAA-1", "AAA-2");
@@ -389,7 +389,7 @@ public class JIRAProjectIndexer_IntegrationTest extends ESRealClientTestBase {
 			Assert.assertEquals(true, tested.indexingInfo.fullUpdate);
 			Assert.assertNotNull(tested.startTime);
 
-			Date lastIssueUpdatedDate2 = DateTimeUtils.parseISODateTimeWithMinutePrecise("2012-09-06T03:27:25.000-0400");
+			Date lastIssueUpdatedDate2 = DateTimeUtils.parseISODateTime("2012-09-06T03:27:25.000-0400");
 			Assert.assertEquals(lastIssueUpdatedDate2, tested.readLastIssueUpdatedDate(PROJECT_KEY));
 
 			assertDocumentsInIndex(client, CFG_TYPE_ISSUE, "ORG-1501", "ORG-1513", "ORG-1514", "AAA-1", "AAA-2");
@@ -417,7 +417,7 @@ public class JIRAProjectIndexer_IntegrationTest extends ESRealClientTestBase {
 			Assert.assertEquals(true, tested.indexingInfo.fullUpdate);
 			Assert.assertNotNull(tested.startTime);
 
-			Date lastIssueUpdatedDate3 = DateTimeUtils.parseISODateTimeWithMinutePrecise("2012-09-06T03:28:21.000-0400");
+			Date lastIssueUpdatedDate3 = DateTimeUtils.parseISODateTime("2012-09-06T03:28:21.000-0400");
 			Assert.assertEquals(lastIssueUpdatedDate3, tested.readLastIssueUpdatedDate(PROJECT_KEY));
 
 			assertDocumentsInIndex(client, CFG_TYPE_ISSUE, "ORG-1501", "ORG-1513", "AAA-1", "AAA-2");
@@ -469,7 +469,7 @@ public class JIRAProjectIndexer_IntegrationTest extends ESRealClientTestBase {
 			Assert.assertEquals(true, tested.indexingInfo.fullUpdate);
 			Assert.assertNotNull(tested.startTime);
 
-			Date lastIssueUpdatedDate2 = DateTimeUtils.parseISODateTimeWithMinutePrecise("2012-09-06T03:27:25.000-0400");
+			Date lastIssueUpdatedDate2 = DateTimeUtils.parseISODateTime("2012-09-06T03:27:25.000-0400");
 			Assert.assertEquals(lastIssueUpdatedDate2, tested.readLastIssueUpdatedDate(PROJECT_KEY));
 
 			assertDocumentsInIndex(client, CFG_TYPE_ISSUE, "ORG-1501", "ORG-1513", "ORG-1514", "AAA-1", "AAA-2");
@@ -495,7 +495,7 @@ public class JIRAProjectIndexer_IntegrationTest extends ESRealClientTestBase {
 			Assert.assertEquals(true, tested.indexingInfo.fullUpdate);
 			Assert.assertNotNull(tested.startTime);
 
-			Date lastIssueUpdatedDate3 = DateTimeUtils.parseISODateTimeWithMinutePrecise("2012-09-06T03:28:21.000-0400");
+			Date lastIssueUpdatedDate3 = DateTimeUtils.parseISODateTime("2012-09-06T03:28:21.000-0400");
 			Assert.assertEquals(lastIssueUpdatedDate3, tested.readLastIssueUpdatedDate(PROJECT_KEY));
 
 			assertDocumentsInIndex(client, CFG_TYPE_ISSUE, "ORG-1501", "ORG-1513", "AAA-1", "AAA-2");
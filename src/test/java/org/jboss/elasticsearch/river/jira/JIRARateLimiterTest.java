@@ -0,0 +1,133 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link JIRARateLimiter}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRARateLimiterTest {
+
+	private static final Object CLIENT = new Object();
+
+	@Test
+	public void configure() {
+		JIRARateLimiter tested = new JIRARateLimiter();
+		Assert.assertEquals(0d, tested.maxRequestsPerSecond);
+		Assert.assertEquals(0, tested.maxBytesPerSecond);
+
+		// case - unlimited configuration keeps unlimited
+		tested.configure(CLIENT, 0, 0);
+		Assert.assertEquals(0d, tested.maxRequestsPerSecond);
+		Assert.assertEquals(0, tested.maxBytesPerSecond);
+
+		tested.configure(CLIENT, 10, 1000);
+		Assert.assertEquals(10d, tested.maxRequestsPerSecond);
+		Assert.assertEquals(1000, tested.maxBytesPerSecond);
+		// bucket is full after first configuration
+		Assert.assertEquals(10d, tested.requestTokens);
+		Assert.assertEquals(1000d, tested.byteTokens);
+
+		// case - more restrictive from all clients wins
+		Object client2 = new Object();
+		Object client3 = new Object();
+		tested.configure(client2, 20, 500);
+		Assert.assertEquals(10d, tested.maxRequestsPerSecond);
+		Assert.assertEquals(500, tested.maxBytesPerSecond);
+		tested.configure(client3, 5, 0);
+		Assert.assertEquals(5d, tested.maxRequestsPerSecond);
+		Assert.assertEquals(500, tested.maxBytesPerSecond);
+		Assert.assertEquals(5d, tested.requestTokens);
+
+		// case - limits are raised when restrictive client is reconfigured or released
+		tested.configure(client3, 0, 0);
+		Assert.assertEquals(10d, tested.maxRequestsPerSecond);
+		Assert.assertEquals(500, tested.maxBytesPerSecond);
+		tested.release(client2);
+		Assert.assertEquals(10d, tested.maxRequestsPerSecond);
+		Assert.assertEquals(1000, tested.maxBytesPerSecond);
+		tested.release(CLIENT);
+		Assert.assertEquals(0d, tested.maxRequestsPerSecond);
+		Assert.assertEquals(0, tested.maxBytesPerSecond);
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 100; i++)
+			Assert.assertEquals(0, tested.tryAcquire(now));
+
+		// case - release of unknown client has no effect
+		tested.configure(CLIENT, 2, 0);
+		tested.release(new Object());
+		Assert.assertEquals(2d, tested.maxRequestsPerSecond);
+	}
+
+	@Test
+	public void tryAcquire_unlimited() {
+		JIRARateLimiter tested = new JIRARateLimiter();
+		long now = System.currentTimeMillis();
+		for (int i = 0; i < 100; i++)
+			Assert.assertEquals(0, tested.tryAcquire(now));
+		tested.reportBytes(1000000);
+		Assert.assertEquals(0, tested.tryAcquire(now));
+	}
+
+	@Test
+	public void tryAcquire_requests() {
+		JIRARateLimiter tested = new JIRARateLimiter();
+		tested.configure(CLIENT, 2, 0);
+		long now = tested.lastRefill;
+
+		// case - burst of bucket capacity allowed
+		Assert.assertEquals(0, tested.tryAcquire(now));
+		Assert.assertEquals(0, tested.tryAcquire(now));
+		// case - then we have to wait for token
+		Assert.assertEquals(500, tested.tryAcquire(now));
+		Assert.assertEquals(250, tested.tryAcquire(now + 250));
+		Assert.assertEquals(0, tested.tryAcquire(now + 500));
+		Assert.assertEquals(500, tested.tryAcquire(now + 500));
+	}
+
+	@Test
+	public void tryAcquire_bytes() {
+		JIRARateLimiter tested = new JIRARateLimiter();
+		tested.configure(CLIENT, 0, 1000);
+		long now = System.currentTimeMillis();
+		tested.lastRefill = now + 10000;
+
+		Assert.assertEquals(0, tested.tryAcquire(now + 10000));
+		tested.byteTokens -= 3000;
+		// debt of 2000 bytes
+		Assert.assertEquals(2000, tested.tryAcquire(now + 10000));
+		Assert.assertEquals(1000, tested.tryAcquire(now + 11000));
+		Assert.assertEquals(0, tested.tryAcquire(now + 12000));
+	}
+
+	@Test
+	public void pause() throws InterruptedException {
+		JIRARateLimiter tested = new JIRARateLimiter();
+		tested.pause(200);
+		long now = System.currentTimeMillis();
+		long wait = tested.tryAcquire(now);
+		Assert.assertTrue(wait > 0 && wait <= 200);
+		Assert.assertEquals(0, tested.tryAcquire(now + 201));
+
+		// case - shorter pause doesn't shorten running pause
+		tested.pause(5000);
+		tested.pause(10);
+		Assert.assertTrue(tested.tryAcquire(System.currentTimeMillis()) > 1000);
+
+		// case - acquire waits for pause end
+		tested = new JIRARateLimiter();
+		tested.pause(100);
+		long start = System.currentTimeMillis();
+		tested.acquire();
+		Assert.assertTrue(System.currentTimeMillis() - start >= 90);
+	}
+
+}
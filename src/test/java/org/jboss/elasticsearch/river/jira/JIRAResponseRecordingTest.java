@@ -0,0 +1,78 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.File;
+import java.net.URI;
+
+import junit.framework.Assert;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+/**
+ * Unit test for {@link JIRAResponseRecording}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRAResponseRecordingTest {
+
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	@Test
+	public void prepareKey() throws Exception {
+		Assert.assertEquals("/rest/api/2/project",
+				JIRAResponseRecording.prepareKey(new URI("https://issues.jboss.org/rest/api/2/project")));
+		// host and order of parameters doesn't matter
+		String key = JIRAResponseRecording.prepareKey(new URI(
+				"https://issues.jboss.org/rest/api/2/search?startAt=0&jql=project%3D%27ORG%27&fields=key%2Cupdated"));
+		Assert.assertEquals("/rest/api/2/search?fields=key%2Cupdated&jql=project%3D%27ORG%27&startAt=0", key);
+		Assert.assertEquals(key, JIRAResponseRecording.prepareKey(new URI(
+				"http://localhost:8080/rest/api/2/search?jql=project%3D%27ORG%27&fields=key%2Cupdated&startAt=0")));
+		Assert.assertFalse(key.equals(JIRAResponseRecording.prepareKey(new URI(
+				"https://issues.jboss.org/rest/api/2/search?startAt=50&jql=project%3D%27ORG%27&fields=key%2Cupdated"))));
+	}
+
+	@Test
+	public void prepareFileName() {
+		String name = JIRAResponseRecording.prepareFileName("/rest/api/2/project");
+		Assert.assertEquals(40 + JIRAResponseRecording.RESPONSE_FILE_SUFFIX.length(), name.length());
+		Assert.assertTrue(name.endsWith(JIRAResponseRecording.RESPONSE_FILE_SUFFIX));
+		Assert.assertEquals(name, JIRAResponseRecording.prepareFileName("/rest/api/2/project"));
+		Assert.assertFalse(name.equals(JIRAResponseRecording.prepareFileName("/rest/api/2/search")));
+	}
+
+	@Test
+	public void recordAndGet() throws Exception {
+		File dir = new File(folder.getRoot(), "rec");
+		URI uri1 = new URI("https://issues.jboss.org/rest/api/2/search?jql=a&startAt=0");
+		URI uri2 = new URI("https://issues.jboss.org/rest/api/2/search?jql=a&startAt=50");
+
+		JIRAResponseRecording tested = new JIRAResponseRecording(dir);
+		Assert.assertEquals(0, tested.size());
+		Assert.assertNull(tested.get(uri1));
+
+		tested.record(uri1, "response 1".getBytes("UTF-8"), 120);
+		tested.record(uri2, "response 2".getBytes("UTF-8"), 80);
+		Assert.assertTrue(dir.isDirectory());
+		Assert.assertEquals("response 1", new String(tested.get(uri1).getData(), "UTF-8"));
+		Assert.assertEquals(120, tested.get(uri1).getLatency());
+
+		// recorded again, last one wins also after reload
+		tested.record(uri1, "response 1b".getBytes("UTF-8"), 20);
+		Assert.assertEquals("response 1b", new String(tested.get(uri1).getData(), "UTF-8"));
+
+		JIRAResponseRecording reloaded = new JIRAResponseRecording(dir);
+		Assert.assertEquals(2, reloaded.size());
+		Assert.assertEquals("response 1b", new String(reloaded.get(uri1).getData(), "UTF-8"));
+		Assert.assertEquals(20, reloaded.get(uri1).getLatency());
+		Assert.assertEquals("response 2", new String(reloaded.get(uri2).getData(), "UTF-8"));
+		Assert.assertNull(reloaded.get(new URI("https://issues.jboss.org/rest/api/2/project")));
+	}
+
+}
@@ -28,6 +28,7 @@ import org.elasticsearch.common.settings.Settings;
 import org.elasticsearch.common.settings.SettingsException;
 import org.elasticsearch.common.transport.DummyTransportAddress;
 import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.river.RiverName;
 import org.elasticsearch.river.RiverSettings;
 import org.jboss.elasticsearch.river.jira.testtools.ESRealClientTestBase;
@@ -88,6 +89,7 @@ public class JiraRiverTest extends ESRealClientTestBase {
 		Assert.assertEquals(JiraRiver.INDEX_ISSUE_TYPE_NAME_DEFAULT, tested.typeName);
 		Assert.assertEquals(50, tested.jiraClient.getListJIRAIssuesMax());
 		Assert.assertEquals("https://issues.jboss.org/rest/api/2/", tested.jiraClient.getJiraAPIUrlBase());
+		Assert.assertNotNull(tested.jiraClient.getConnectionPoolStats());
 
 		Map<String, Object> indexSettings = new HashMap<String, Object>();
 		toplevelSettingsAdd.put("index", indexSettings);
@@ -119,6 +121,217 @@ public class JiraRiverTest extends ESRealClientTestBase {
 		Assert.assertEquals(20, tested.jiraClient.getListJIRAIssuesMax());
 		Assert.assertEquals(TimeZone.getTimeZone("Europe/Prague"),
 				((JIRA5RestClient) tested.jiraClient).jqlDateFormat.getTimeZone());
+		Assert.assertNull(tested.adaptiveFetchController);
+		Assert.assertNull(((JIRA5RestClient) tested.jiraClient).adaptiveFetchController);
+
+		// case - rate limits configuration
+		jiraSettings.put("maxRequestsPerSecond", "2.5");
+		jiraSettings.put("maxBytesPerSecond", "1mb");
+		JiraRiver rateLimited = prepareJiraRiverInstanceForTest("https://ratelimit.test.org", jiraSettings,
+				toplevelSettingsAdd, false);
+		Assert.assertEquals(2.5d, ((JIRA5RestClient) rateLimited.jiraClient).rateLimiter.maxRequestsPerSecond);
+		Assert.assertEquals(1024 * 1024, ((JIRA5RestClient) rateLimited.jiraClient).rateLimiter.maxBytesPerSecond);
+		rateLimited.jiraClient.close();
+		jiraSettings.put("maxBytesPerSecond", "bad");
+		try {
+			prepareJiraRiverInstanceForTest("https://ratelimit.test.org", jiraSettings, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		jiraSettings.remove("maxRequestsPerSecond");
+		jiraSettings.remove("maxBytesPerSecond");
+
+		// case - retry and circuit breaker configuration
+		Assert.assertEquals(JIRA5RestClient.DEFAULT_MAX_RETRIES, ((JIRA5RestClient) tested.jiraClient).maxRetries);
+		jiraSettings.put("maxRetries", 4);
+		jiraSettings.put("retryInitialBackoff", "2s");
+		jiraSettings.put("retryMaxBackoff", "1m");
+		jiraSettings.put("circuitBreakerFailureThreshold", 2);
+		jiraSettings.put("circuitBreakerOpenTime", "5m");
+		JiraRiver retrying = prepareJiraRiverInstanceForTest("https://retry.test.org", jiraSettings, toplevelSettingsAdd,
+				false);
+		Assert.assertEquals(4, ((JIRA5RestClient) retrying.jiraClient).maxRetries);
+		Assert.assertEquals(2000, ((JIRA5RestClient) retrying.jiraClient).retryInitialBackoff);
+		Assert.assertEquals(60000, ((JIRA5RestClient) retrying.jiraClient).retryMaxBackoff);
+		Assert.assertEquals(2, retrying.jiraClient.getCircuitBreaker().failureThreshold);
+		Assert.assertEquals(5 * 60 * 1000, retrying.jiraClient.getCircuitBreaker().openTime);
+		retrying.jiraClient.close();
+		jiraSettings.remove("maxRetries");
+		jiraSettings.remove("retryInitialBackoff");
+		jiraSettings.remove("retryMaxBackoff");
+		jiraSettings.remove("circuitBreakerFailureThreshold");
+		jiraSettings.remove("circuitBreakerOpenTime");
+
+		// case - asynchronous client
+		Assert.assertFalse(tested.jiraClient instanceof JIRA5AsyncRestClient);
+		jiraSettings.put("asyncClient", true);
+		JiraRiver async = prepareJiraRiverInstanceForTest("https://async.test.org", jiraSettings, toplevelSettingsAdd,
+				false);
+		Assert.assertTrue(async.jiraClient instanceof JIRA5AsyncRestClient);
+		async.jiraClient.close();
+		jiraSettings.remove("asyncClient");
+
+		// case - content type of indexed and river state documents
+		Assert.assertEquals(XContentType.JSON, tested.documentContentType);
+		indexSettings.put("document_content_type", "smile");
+		JiraRiver smile = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd,
+				false);
+		Assert.assertEquals(XContentType.SMILE, smile.documentContentType);
+		Assert.assertEquals(XContentType.SMILE,
+				((JIRA5RestIssueIndexStructureBuilder) smile.jiraIssueIndexStructureBuilder).documentContentType);
+		Assert.assertEquals(XContentType.SMILE, smile.storeValueBuildDocument("AAA", "my_property", "value").contentType());
+		indexSettings.put("document_content_type", "yaml");
+		try {
+			prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		indexSettings.remove("document_content_type");
+
+		// case - record and replay of JIRA responses
+		Assert.assertNull(((JIRA5RestClient) tested.jiraClient).responseRecording);
+		jiraSettings.put("recordResponsesDir", "target/jira-recording");
+		JiraRiver recording = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings,
+				toplevelSettingsAdd, false);
+		Assert.assertNotNull(((JIRA5RestClient) recording.jiraClient).responseRecording);
+		recording.jiraClient.close();
+		jiraSettings.put("replayResponsesDir", "target/jira-recording");
+		try {
+			prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		jiraSettings.remove("recordResponsesDir");
+		jiraSettings.put("replayLatencyScale", 0.5);
+		JiraRiver replay = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd,
+				false);
+		Assert.assertTrue(replay.jiraClient instanceof JIRA5ReplayRestClient);
+		Assert.assertEquals(0.5, ((JIRA5ReplayRestClient) replay.jiraClient).latencyScale);
+		replay.jiraClient.close();
+		jiraSettings.put("replayLatencyScale", -1);
+		try {
+			prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		jiraSettings.remove("replayResponsesDir");
+		jiraSettings.remove("replayLatencyScale");
+
+		// case - change probe and small project batching
+		Assert.assertFalse(tested.changeProbe);
+		Assert.assertEquals(0, tested.smallProjectBatchThreshold);
+		jiraSettings.put("changeProbe", true);
+		jiraSettings.put("smallProjectBatchThreshold", 200);
+		jiraSettings.put("smallProjectBatchMaxProjects", 20);
+		JiraRiver batching = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings,
+				toplevelSettingsAdd, false);
+		Assert.assertTrue(batching.changeProbe);
+		Assert.assertEquals(200, batching.smallProjectBatchThreshold);
+		Assert.assertEquals(20, batching.smallProjectBatchMaxProjects);
+		jiraSettings.put("smallProjectBatchMaxProjects", 1);
+		try {
+			prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		jiraSettings.remove("smallProjectBatchMaxProjects");
+		// batching disabled with custom JQL template
+		jiraSettings.put("jqlTemplate", "project='%s'%s%s and issuetype = Bug ORDER BY updated ASC");
+		batching = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+		Assert.assertEquals(0, batching.smallProjectBatchThreshold);
+		// template is static in client so do not affect other tests
+		batching.jiraClient.setJqlTemplate(JiraRiver.DEFAULT_JQL_TEMPLATE);
+		jiraSettings.remove("jqlTemplate");
+		jiraSettings.remove("changeProbe");
+		jiraSettings.remove("smallProjectBatchThreshold");
+
+		// case - completion of truncated issue data
+		Assert.assertEquals(JIRAIssueDataCompleter.DEFAULT_MAX_PARALLEL_FETCHES, tested.maxParallelIssueDataFetches);
+		jiraSettings.put("maxParallelIssueDataFetches", 0);
+		JiraRiver noCompletion = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings,
+				toplevelSettingsAdd, false);
+		Assert.assertEquals(0, noCompletion.maxParallelIssueDataFetches);
+		jiraSettings.put("maxParallelIssueDataFetches", -1);
+		try {
+			prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		jiraSettings.remove("maxParallelIssueDataFetches");
+
+		// case - indexing pipeline
+		Assert.assertEquals(0, tested.pipelineWorkers);
+		Assert.assertEquals(JIRAProjectIndexingPipeline.DEFAULT_QUEUE_CAPACITY, tested.pipelineQueueCapacity);
+		jiraSettings.put("pipelineWorkers", 3);
+		jiraSettings.put("pipelineQueueCapacity", 5);
+		JiraRiver pipeline = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd,
+				false);
+		Assert.assertEquals(3, pipeline.pipelineWorkers);
+		Assert.assertEquals(5, pipeline.pipelineQueueCapacity);
+		jiraSettings.put("pipelineQueueCapacity", 0);
+		try {
+			prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		jiraSettings.put("pipelineWorkers", -1);
+		jiraSettings.remove("pipelineQueueCapacity");
+		try {
+			prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		jiraSettings.remove("pipelineWorkers");
+
+		// case - memory budget and max field length
+		Assert.assertEquals(0, tested.memoryBudgetSize);
+		Assert.assertEquals(0, ((JIRA5RestClient) tested.jiraClient).maxFieldLength);
+		jiraSettings.put("memoryBudget", "10mb");
+		jiraSettings.put("maxFieldLength", 1000);
+		JiraRiver budget = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd,
+				false);
+		Assert.assertEquals(10 * 1024 * 1024, budget.memoryBudgetSize);
+		Assert.assertEquals(1000, ((JIRA5RestClient) budget.jiraClient).maxFieldLength);
+		jiraSettings.put("memoryBudget", "badvalue");
+		try {
+			prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		jiraSettings.remove("memoryBudget");
+		jiraSettings.put("maxFieldLength", -1);
+		try {
+			prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		jiraSettings.remove("maxFieldLength");
+
+		// case - string deduplication
+		Assert.assertEquals(0, ((JIRA5RestClient) tested.jiraClient).stringDedupTableSize);
+		jiraSettings.put("stringDedupTableSize", 4096);
+		JiraRiver dedup = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd,
+				false);
+		Assert.assertEquals(4096, ((JIRA5RestClient) dedup.jiraClient).stringDedupTableSize);
+		jiraSettings.put("stringDedupTableSize", -1);
+		try {
+			prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+		jiraSettings.remove("stringDedupTableSize");
+
 		// assert index structure builder initialization
 		Assert.assertEquals(tested.jiraIssueIndexStructureBuilder, tested.jiraClient.getIndexStructureBuilder());
 		Assert.assertEquals(tested.indexName,
@@ -128,6 +341,50 @@ public class JiraRiverTest extends ESRealClientTestBase {
 		Assert.assertEquals(tested.riverName().getName(),
 				((JIRA5RestIssueIndexStructureBuilder) tested.jiraIssueIndexStructureBuilder).riverName);
 
+		// case - adaptive fetch configuration
+		Map<String, Object> adaptiveFetchSettings = new HashMap<String, Object>();
+		adaptiveFetchSettings.put("maxIssuesPerRequest", 100);
+		jiraSettings.put("adaptiveFetch", adaptiveFetchSettings);
+		tested = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+		Assert.assertNotNull(tested.adaptiveFetchController);
+		Assert.assertEquals(tested.adaptiveFetchController,
+				((JIRA5RestClient) tested.jiraClient).adaptiveFetchController);
+		Assert.assertEquals(20, tested.adaptiveFetchController.getIssuesPerRequest("ORG"));
+		Assert.assertEquals(5, tested.adaptiveFetchController.getConcurrency());
+		jiraSettings.remove("adaptiveFetch");
+
+		// case - activity log configuration
+		Map<String, Object> activityLogSettings = new HashMap<String, Object>();
+		toplevelSettingsAdd.put("activity_log", activityLogSettings);
+		activityLogSettings.put("index", "activity_index");
+		tested = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+		Assert.assertEquals("activity_index", tested.activityLogIndexName);
+		Assert.assertEquals(JiraRiver.INDEX_ACTIVITY_TYPE_NAME_DEFAULT, tested.activityLogTypeName);
+		Assert.assertEquals(JiraRiver.INDEX_ACTIVITY_DIAGNOSTICS_TYPE_NAME_DEFAULT, tested.activityLogDiagnosticsTypeName);
+		Assert.assertEquals(ActivityLogRollover.NONE, tested.activityLogRollover);
+		Assert.assertEquals(0, tested.activityLogRetention);
+		Assert.assertEquals(5000, tested.activityLogFlushPeriod);
+		Assert.assertEquals(1000, tested.activityLogQueueSize);
+
+		activityLogSettings.put("rollover", "monthly");
+		activityLogSettings.put("retention", "60d");
+		activityLogSettings.put("flush_period", "10s");
+		activityLogSettings.put("queue_size", 50);
+		tested = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+		Assert.assertEquals(ActivityLogRollover.MONTHLY, tested.activityLogRollover);
+		Assert.assertEquals(60L * 24 * 60 * 60 * 1000, tested.activityLogRetention);
+		Assert.assertEquals(10000, tested.activityLogFlushPeriod);
+		Assert.assertEquals(50, tested.activityLogQueueSize);
+
+		try {
+			activityLogSettings.put("rollover", "none");
+			tested = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, toplevelSettingsAdd, false);
+			Assert.fail("SettingsException expected");
+		} catch (SettingsException e) {
+			// OK, retention without rollover
+		}
+		toplevelSettingsAdd.remove("activity_log");
+
 		// case - invalid cron expression
 		try {
 			jiraSettings.put("indexFullUpdateCronExpression", "* * * * ? ?");
@@ -149,13 +406,28 @@ public class JiraRiverTest extends ESRealClientTestBase {
 				Utils.loadJSONFromJarPackagedFile("/river_configuration_test_preprocessors.json"), false);
 
 		List<StructuredContentPreprocessor> preprocs = ((JIRA5RestIssueIndexStructureBuilder) tested.jiraIssueIndexStructureBuilder).issueDataPreprocessors;
-		Assert.assertEquals(2, preprocs.size());
+		Assert.assertEquals(3, preprocs.size());
 		Assert.assertEquals("Status Normalizer", preprocs.get(0).getName());
 		Assert.assertEquals("value1", ((IssueDataPreprocessorMock) preprocs.get(0)).settings.get("some_setting_1_1"));
 		Assert.assertEquals("value2", ((IssueDataPreprocessorMock) preprocs.get(0)).settings.get("some_setting_1_2"));
 		Assert.assertEquals("Issue type Normalizer", preprocs.get(1).getName());
 		Assert.assertEquals("value1", ((IssueDataPreprocessorMock) preprocs.get(1)).settings.get("some_setting_2_1"));
 		Assert.assertEquals("value2", ((IssueDataPreprocessorMock) preprocs.get(1)).settings.get("some_setting_2_2"));
+
+		// case - preprocessor with cache
+		Assert.assertEquals("Reporter Lookup", preprocs.get(2).getName());
+		CachingPreprocessor cache = (CachingPreprocessor) preprocs.get(2);
+		Assert.assertEquals("value1", ((IssueDataPreprocessorMock) cache.delegate).settings.get("some_setting_3_1"));
+		Assert.assertEquals("fields.reporter.name", cache.keyField);
+		Assert.assertEquals(500, cache.maxSize);
+		Assert.assertEquals(60 * 60 * 1000, cache.ttl);
+		Assert.assertEquals(1, tested.preprocessorCaches.size());
+		Assert.assertEquals(cache, tested.preprocessorCaches.get(0));
+
+		// case - caches of previous configuration are dropped on reconfiguration
+		tested.configure(tested.settings.settings());
+		Assert.assertEquals(1, tested.preprocessorCaches.size());
+		Assert.assertNotSame(cache, tested.preprocessorCaches.get(0));
 	}
 
 	@Test
@@ -336,6 +608,141 @@ public class JiraRiverTest extends ESRealClientTestBase {
 		}
 	}
 
+	@Test
+	public void applyLiveConfiguration() throws Exception {
+		Map<String, Object> jiraSettings = new HashMap<String, Object>();
+		jiraSettings.put("maxIndexingThreads", 2);
+		jiraSettings.put("projectKeysIndexed", "ORG,AAA");
+		JiraRiver tested = prepareJiraRiverInstanceForTest("https://issues.jboss.org", jiraSettings, null, true);
+		IJIRAProjectIndexerCoordinator coordinatorMock = mock(IJIRAProjectIndexerCoordinator.class);
+		tested.coordinatorInstance = coordinatorMock;
+
+		// case - live settings changed only
+		{
+			Map<String, Object> settings = new HashMap<String, Object>();
+			Map<String, Object> newJiraSettings = new HashMap<String, Object>();
+			settings.put("jira", newJiraSettings);
+			newJiraSettings.put("urlBase", "https://issues.jboss.org");
+			newJiraSettings.put("maxIndexingThreads", 4);
+			newJiraSettings.put("indexUpdatePeriod", "10m");
+			newJiraSettings.put("indexFullUpdatePeriod", "2h");
+			newJiraSettings.put("maxIssuesPerRequest", 20);
+			newJiraSettings.put("timeout", "10s");
+			newJiraSettings.put("projectKeysIndexed", "ORG,BBB");
+			newJiraSettings.put("projectKeysExcluded", "AAA");
+
+			List<String> ret = tested.applyLiveConfiguration(settings);
+			Assert.assertTrue(ret.isEmpty());
+			Assert.assertEquals(4, tested.maxIndexingThreads);
+			Assert.assertEquals(10 * 60 * 1000, tested.indexUpdatePeriod);
+			Assert.assertEquals(2 * 60 * 60 * 1000, tested.indexFullUpdatePeriod);
+			Assert.assertNull(tested.indexFullUpdateCronExpression);
+			verify(coordinatorMock).setIndexingSchedule(10 * 60 * 1000, 4, 2 * 60 * 60 * 1000, null);
+			verify(tested.jiraClient).setListJIRAIssuesMax(20);
+			verify(tested.jiraClient).setTimeout(10000);
+			Assert.assertEquals(Utils.parseCsvString("ORG,BBB"), tested.allIndexedProjectsKeys);
+			Assert.assertEquals(Long.MAX_VALUE, tested.allIndexedProjectsKeysNextRefresh);
+			Assert.assertEquals(Utils.parseCsvString("AAA"), tested.projectKeysExcluded);
+		}
+
+		// case - project keys loaded from JIRA, restart required settings reported
+		{
+			reset(coordinatorMock);
+			Map<String, Object> settings = new HashMap<String, Object>();
+			Map<String, Object> newJiraSettings = new HashMap<String, Object>();
+			settings.put("jira", newJiraSettings);
+			settings.put("index", new HashMap<String, Object>());
+			newJiraSettings.put("urlBase", "https://issues.jboss.org/jira");
+			newJiraSettings.put("indexFullUpdateCronExpression", "0 0 23 ? * *");
+
+			List<String> ret = tested.applyLiveConfiguration(settings);
+			Assert.assertEquals(2, ret.size());
+			Assert.assertEquals("index", ret.get(0));
+			Assert.assertEquals("jira/urlBase", ret.get(1));
+			Assert.assertEquals(1, tested.maxIndexingThreads);
+			Assert.assertEquals("0 0 23 ? * *", tested.indexFullUpdateCronExpression.getCronExpression());
+			verify(coordinatorMock).setIndexingSchedule(5 * 60 * 1000, 1, 12 * 60 * 60 * 1000,
+					tested.indexFullUpdateCronExpression);
+			Assert.assertEquals(0, tested.allIndexedProjectsKeysNextRefresh);
+			Assert.assertNull(tested.projectKeysExcluded);
+		}
+
+		// case - invalid value, nothing is applied
+		{
+			reset(coordinatorMock);
+			Map<String, Object> settings = new HashMap<String, Object>();
+			Map<String, Object> newJiraSettings = new HashMap<String, Object>();
+			settings.put("jira", newJiraSettings);
+			newJiraSettings.put("maxIndexingThreads", 3);
+			newJiraSettings.put("indexFullUpdateCronExpression", "bad cron");
+			try {
+				tested.applyLiveConfiguration(settings);
+				Assert.fail("SettingsException must be thrown");
+			} catch (SettingsException e) {
+				// OK
+			}
+			Assert.assertEquals(1, tested.maxIndexingThreads);
+			Mockito.verifyZeroInteractions(coordinatorMock);
+		}
+
+		// case - limits of adaptive fetch changed
+		{
+			tested.adaptiveFetchController = new AdaptiveFetchController(tested, null, 50, 2);
+			Map<String, Object> settings = new HashMap<String, Object>();
+			Map<String, Object> newJiraSettings = new HashMap<String, Object>();
+			settings.put("jira", newJiraSettings);
+			newJiraSettings.put("maxIndexingThreads", 4);
+			newJiraSettings.put("maxIssuesPerRequest", 100);
+			tested.applyLiveConfiguration(settings);
+			Assert.assertEquals(100, tested.adaptiveFetchController.getIssuesPerRequest("ORG"));
+			Assert.assertEquals(4, tested.adaptiveFetchController.getConcurrency());
+		}
+
+		// case - no jira section
+		try {
+			tested.applyLiveConfiguration(new HashMap<String, Object>());
+			Assert.fail("SettingsException must be thrown");
+		} catch (SettingsException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void findSettingsRequiringRestart() {
+		Map<String, Object> oldSettings = new HashMap<String, Object>();
+		Map<String, Object> oldJira = new HashMap<String, Object>();
+		oldSettings.put("jira", oldJira);
+		oldJira.put("urlBase", "https://issues.jboss.org");
+		oldJira.put("maxIndexingThreads", 2);
+		oldSettings.put("activity_log", "a");
+
+		Map<String, Object> newSettings = new HashMap<String, Object>();
+		Map<String, Object> newJira = new HashMap<String, Object>();
+		newSettings.put("jira", newJira);
+		newJira.put("urlBase", "https://issues.jboss.org");
+		newJira.put("maxIndexingThreads", 5);
+		newJira.put("timeout", "1s");
+		newSettings.put("activity_log", "a");
+
+		// case - live settings changed only
+		Assert.assertTrue(JiraRiver.findSettingsRequiringRestart(oldSettings, newSettings).isEmpty());
+
+		// case - restart required settings changed, added and removed
+		newJira.put("username", "joe");
+		newJira.put("urlBase", "https://other.org");
+		newSettings.remove("activity_log");
+		newSettings.put("index", "b");
+		List<String> ret = JiraRiver.findSettingsRequiringRestart(oldSettings, newSettings);
+		Assert.assertEquals(4, ret.size());
+		Assert.assertEquals("activity_log", ret.get(0));
+		Assert.assertEquals("index", ret.get(1));
+		Assert.assertEquals("jira/urlBase", ret.get(2));
+		Assert.assertEquals("jira/username", ret.get(3));
+
+		// case - no old settings
+		Assert.assertEquals(2, JiraRiver.findSettingsRequiringRestart(null, newSettings).size());
+	}
+
 	@Test
 	public void restart() {
 		// TODO unit test for river restart method
@@ -401,6 +808,45 @@ public class JiraRiverTest extends ESRealClientTestBase {
 				.assertTrue(tested.allIndexedProjectsKeysNextRefresh <= (System.currentTimeMillis() + JiraRiver.JIRA_PROJECTS_REFRESH_TIME));
 	}
 
+	@SuppressWarnings("unchecked")
+	@Test
+	public void getAllIndexedProjectsKeys_refreshAndNewProjects() throws Exception {
+		Map<String, Object> jiraSettings = new HashMap<String, Object>();
+		jiraSettings.put("projectKeysExcluded", "PEM");
+		jiraSettings.put("projectListRefreshPeriod", "5m");
+
+		JiraRiver tested = prepareJiraRiverInstanceForTest(jiraSettings);
+		Assert.assertEquals(5 * 60 * 1000, tested.projectListRefreshPeriod);
+		IJIRAClient jiraClientMock = tested.jiraClient;
+		IJIRAProjectIndexerCoordinator coordinatorMock = mock(IJIRAProjectIndexerCoordinator.class);
+		tested.coordinatorInstance = coordinatorMock;
+
+		// case - first load doesn't schedule anything
+		when(jiraClientMock.getAllJIRAProjects()).thenReturn(Utils.parseCsvString("ORG,PEM"));
+		List<String> r = tested.getAllIndexedProjectsKeys();
+		Assert.assertEquals(1, r.size());
+		Assert.assertTrue(tested.allIndexedProjectsKeysNextRefresh <= (System.currentTimeMillis() + 5 * 60 * 1000));
+		Assert.assertTrue(tested.allIndexedProjectsKeysNextRefresh > (System.currentTimeMillis() + 4 * 60 * 1000));
+		verify(coordinatorMock, times(0)).scheduleNewProjects(Mockito.anyList());
+
+		// case - no refresh before period elapsed
+		r = tested.getAllIndexedProjectsKeys();
+		verify(jiraClientMock, times(1)).getAllJIRAProjects();
+
+		// case - nothing new after refresh
+		tested.allIndexedProjectsKeysNextRefresh = 0;
+		when(jiraClientMock.getAllJIRAProjects()).thenReturn(Utils.parseCsvString("ORG,PEM"));
+		tested.getAllIndexedProjectsKeys();
+		verify(coordinatorMock, times(0)).scheduleNewProjects(Mockito.anyList());
+
+		// case - new projects scheduled, excluded ones not
+		tested.allIndexedProjectsKeysNextRefresh = 0;
+		when(jiraClientMock.getAllJIRAProjects()).thenReturn(Utils.parseCsvString("AAA,ORG,PEM,BBB"));
+		r = tested.getAllIndexedProjectsKeys();
+		Assert.assertEquals(3, r.size());
+		verify(coordinatorMock).scheduleNewProjects(Utils.parseCsvString("AAA,BBB"));
+	}
+
 	@Test
 	public void storeDatetimeValueBuildDocument() throws Exception {
 		JiraRiver tested = prepareJiraRiverInstanceForTest(null);
@@ -456,6 +902,13 @@ public class JiraRiverTest extends ESRealClientTestBase {
 			Assert.assertEquals(DateTimeUtils.parseISODateTime("2012-09-02T05:02:20"),
 					tested.readDatetimeValue("ORG2", "testProperty_1_2"));
 
+			Assert.assertNull(tested.readStringValue("ORG1", "testProperty_2"));
+			tested.storeStringValue("ORG1", "testProperty_2", "ORG1-12", null);
+			Assert.assertEquals("ORG1-12", tested.readStringValue("ORG1", "testProperty_2"));
+			Assert.assertNull(tested.readStringValue("ORG2", "testProperty_2"));
+			Assert.assertTrue(tested.deleteDatetimeValue("ORG1", "testProperty_2"));
+			Assert.assertNull(tested.readStringValue("ORG1", "testProperty_2"));
+
 			Assert.assertTrue(tested.deleteDatetimeValue("ORG1", "testProperty_1_1"));
 			Assert.assertNull(tested.readDatetimeValue("ORG1", "testProperty_1_1"));
 			Assert.assertEquals(DateTimeUtils.parseISODateTime("2012-09-03T05:12:40"),
@@ -485,8 +938,9 @@ public class JiraRiverTest extends ESRealClientTestBase {
 		tested.storeDatetimeValue("ORG", "prop", new Date(), esBulk);
 		tested.storeDatetimeValue("ORG", "prop2", new Date(), esBulk);
 		tested.storeDatetimeValue("ORG", "prop3", new Date(), esBulk);
+		tested.storeStringValue("ORG", "prop4", "ORG-1", esBulk);
 
-		Assert.assertEquals(3, esBulk.numberOfActions());
+		Assert.assertEquals(4, esBulk.numberOfActions());
 
 	}
 
@@ -518,14 +972,23 @@ public class JiraRiverTest extends ESRealClientTestBase {
 		{
 			tested.reportIndexingFinished(new ProjectIndexingInfo("ORG", false, 10, 0, 0, null, true, 10, null));
 			verify(coordMock, times(1)).reportIndexingFinished("ORG", true, false);
+			verify(coordMock, times(0)).reportProjectSize(Mockito.anyString(), Mockito.anyInt());
 			Mockito.verifyZeroInteractions(clientMock);
 		}
 		{
 			reset(coordMock);
 			tested.reportIndexingFinished(new ProjectIndexingInfo("AAA", true, 10, 0, 0, null, false, 10, null));
 			verify(coordMock, times(1)).reportIndexingFinished("AAA", false, true);
+			verify(coordMock, times(0)).reportProjectSize(Mockito.anyString(), Mockito.anyInt());
 			Mockito.verifyZeroInteractions(clientMock);
 		}
+		// case - project size known after successful full update
+		{
+			reset(coordMock);
+			tested.reportIndexingFinished(new ProjectIndexingInfo("AAA", true, 120, 0, 0, null, true, 10, null));
+			verify(coordMock, times(1)).reportIndexingFinished("AAA", true, true);
+			verify(coordMock, times(1)).reportProjectSize("AAA", 120);
+		}
 
 		// report correctly with activity log
 		tested.activityLogIndexName = "alindex";
@@ -599,6 +1062,11 @@ public class JiraRiverTest extends ESRealClientTestBase {
 				.parseISODateTime("2012-09-27T09:21:26.422Z"));
 		TestUtils.assertStringFromClasspathFile("/asserts/JiraRiver_getRiverOperationInfo_1.json", info);
 
+		// case - projects filtering and paging
+		info = tested.getRiverOperationInfo(new DiscoveryNode("My Node", "fsdfsdfxzd", DummyTransportAddress.INSTANCE,
+				new HashMap<String, String>(), Version.CURRENT), DateTimeUtils.parseISODateTime("2012-09-27T09:21:26.422Z"),
+				Utils.parseCsvString("ORG,JJJ,XXX"), 1, 5);
+		TestUtils.assertStringFromClasspathFile("/asserts/JiraRiver_getRiverOperationInfo_3.json", info);
 	}
 
 	@Test
@@ -829,6 +1297,57 @@ public class JiraRiverTest extends ESRealClientTestBase {
 		}
 	}
 
+	@Test
+	public void warmUpIndexingHistory_retryBackoff() throws Exception {
+		JiraRiver tested = prepareJiraRiverInstanceForTest(null);
+		tested.activityLogIndexName = "alindex";
+		tested.activityLogTypeName = "altype";
+		Client clientMock = mock(Client.class);
+		tested.client = clientMock;
+
+		// case - failed read sets next attempt time
+		when(clientMock.admin()).thenThrow(new RuntimeException("ES not available"));
+		long now = System.currentTimeMillis();
+		tested.warmUpIndexingHistory();
+		Assert.assertFalse(tested.indexingHistoryWarmedUp);
+		Assert.assertTrue(tested.indexingHistoryWarmUpNextAttempt >= now + JiraRiver.INDEXING_HISTORY_WARMUP_RETRY_TIME);
+		verify(clientMock).admin();
+
+		// case - no read attempt until next attempt time
+		reset(clientMock);
+		tested.warmUpIndexingHistory();
+		Mockito.verifyZeroInteractions(clientMock);
+
+		// case - read attempted again after next attempt time
+		tested.indexingHistoryWarmUpNextAttempt = now - 1;
+		when(clientMock.admin()).thenThrow(new RuntimeException("ES not available"));
+		tested.warmUpIndexingHistory();
+		verify(clientMock).admin();
+	}
+
+	@Test
+	public void writeActivityLogDocument_rolloverWithoutWriter() throws Exception {
+		JiraRiver tested = prepareJiraRiverInstanceForTest(null);
+		tested.activityLogIndexName = "alindex";
+		tested.activityLogTypeName = "altype";
+		tested.activityLogRollover = ActivityLogRollover.MONTHLY;
+		try {
+			tested.client = prepareESClientForUnitTest();
+
+			// case - partition index with alias created by synchronous write
+			tested.writeActivityLogDocument("altype", jsonBuilder().startObject().field("a", "b").endObject());
+			String partition = ActivityLogRollover.MONTHLY.getPartitionIndexName("alindex", new Date());
+			Assert.assertTrue(tested.client.admin().indices().prepareExists(partition).execute().actionGet().isExists());
+
+			// case - next write into existing partition
+			tested.writeActivityLogDocument("altype", jsonBuilder().startObject().field("a", "c").endObject());
+			tested.client.admin().indices().prepareRefresh("alindex").execute().actionGet();
+			Assert.assertEquals(2, tested.client.prepareCount("alindex").execute().actionGet().getCount());
+		} finally {
+			finalizeESClientForUnitTest();
+		}
+	}
+
 	private void assertLastInfo(JiraRiver tested, ProjectIndexingInfo indexingInfoExpected) {
 		ProjectIndexingInfo indexingInfoReal = tested.getLastProjectIndexingInfo(indexingInfoExpected.projectKey);
 		Assert.assertNotNull(indexingInfoReal);
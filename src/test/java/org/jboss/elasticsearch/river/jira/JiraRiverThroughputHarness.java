@@ -0,0 +1,258 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.net.MalformedURLException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.elasticsearch.action.bulk.BulkItemResponse;
+import org.elasticsearch.action.bulk.BulkRequestBuilder;
+import org.elasticsearch.client.Client;
+import org.elasticsearch.common.settings.ImmutableSettings;
+import org.elasticsearch.river.RiverName;
+import org.elasticsearch.river.RiverSettings;
+import org.jboss.elasticsearch.river.jira.testtools.BusyTimeTracker;
+import org.jboss.elasticsearch.river.jira.testtools.ESRealClientTestBase;
+import org.jboss.elasticsearch.river.jira.testtools.JIRARestStubServer;
+
+/**
+ * End-to-end throughput harness for whole {@link JIRAProjectIndexerCoordinator} and {@link JIRAProjectIndexer} run
+ * against embedded ElasticSearch node and local JIRA stub ({@link JIRARestStubServer}). This is not Unit test but
+ * helper for performance measurements during development! Run it from IDE or command line, tune it over system
+ * properties:
+ * <ul>
+ * <li><code>projects</code> - number of JIRA projects, default 10
+ * <li><code>issues</code> - number of issues per project, default 500
+ * <li><code>comments</code> - number of comments per issue, default 5
+ * <li><code>changelogs</code> - number of changelog histories per issue, default 5
+ * <li><code>textLength</code> - length of description and comment texts, default 500
+ * <li><code>latency</code> - JIRA latency per request [ms], default 20
+ * <li><code>latencyPerIssue</code> - JIRA latency per returned issue [ms], default 1
+ * <li><code>pageSizeLimit</code> - maximal number of issues returned by JIRA in one request, default 1000
+ * <li><code>errorRate</code> - probability of HTTP 500 JIRA response (0 - 1), default 0
+ * <li><code>embeddedListLimit</code> - maximal number of comments and changelog histories embedded in JIRA search
+ * response, rest is loaded over issue REST calls, default 0 (all embedded)
+ * <li><code>threads</code> - <code>jira/maxIndexingThreads</code> of the river, default 2
+ * <li><code>pageSize</code> - <code>jira/maxIssuesPerRequest</code> of the river, default 50
+ * <li><code>pipelineWorkers</code> - <code>jira/pipelineWorkers</code> of the river, default 0 (serial indexing)
+ * <li><code>asyncClient</code> - <code>jira/asyncClient</code> of the river, default false
+ * <li><code>changeProbe</code> - <code>jira/changeProbe</code> of the river, default false
+ * <li><code>smallProjectBatchThreshold</code> - <code>jira/smallProjectBatchThreshold</code> of the river, default 0
+ * (projects are not indexed in batches)
+ * <li><code>maxParallelIssueDataFetches</code> - <code>jira/maxParallelIssueDataFetches</code> of the river, default 4
+ * <li><code>stringDedupTableSize</code> - <code>jira/stringDedupTableSize</code> of the river, default 0 (values are
+ * not deduplicated), see {@link StringDedupBenchmark} for heap retained by parsed pages only
+ * <li><code>touchFraction</code> - fraction of issues updated before incremental scenario, default 0.1
+ * <li><code>contentType</code> - <code>index/document_content_type</code> of the river (<code>json</code>,
+ * <code>smile</code> or <code>cbor</code>), default <code>json</code>. Run harness for each of them to compare ES bulk
+ * bytes and throughput.
+ * <li><code>commentMode</code> - <code>index/comment_mode</code> and <code>index/changelog_mode</code> of the river,
+ * default <code>embedded</code>
+ * <li><code>timeout</code> - maximal time of one scenario [s], default 600
+ * </ul>
+ * Reported values are end-to-end throughput in issues per second, JIRA-idle and ES-idle ratios (part of scenario time
+ * when no JIRA request resp. no ES bulk request was running, JIRA requests are measured on JIRA stub side so all of
+ * them are covered, including batched, prefetched and completing calls), size of ES bulk requests and heap high-water
+ * mark (sum of peak usage of all heap memory pools, so it is approximation only).
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JiraRiverThroughputHarness extends ESRealClientTestBase {
+
+	private static final String RIVER_NAME = "jira_river_harness";
+
+	public static void main(String[] args) throws Exception {
+		new JiraRiverThroughputHarness().run();
+	}
+
+	protected JIRARestStubServer stub;
+
+	protected InstrumentedJiraRiver river;
+
+	public void run() throws Exception {
+		stub = new JIRARestStubServer();
+		stub.projectsCount = Integer.getInteger("projects", 10);
+		stub.issuesPerProject = Integer.getInteger("issues", 500);
+		stub.commentsPerIssue = Integer.getInteger("comments", 5);
+		stub.changelogsPerIssue = Integer.getInteger("changelogs", 5);
+		stub.textLength = Integer.getInteger("textLength", 500);
+		stub.latencyPerRequest = Long.getLong("latency", 20);
+		stub.latencyPerIssue = Long.getLong("latencyPerIssue", 1);
+		stub.pageSizeLimit = Integer.getInteger("pageSizeLimit", 1000);
+		stub.errorRate = Double.parseDouble(System.getProperty("errorRate", "0"));
+		stub.embeddedListLimit = Integer.getInteger("embeddedListLimit", 0);
+		long timeout = Long.getLong("timeout", 600) * 1000;
+
+		try {
+			String urlBase = stub.start(0);
+			Client client = prepareESClientForUnitTest();
+			indexCreate("_river");
+			indexCreate(RIVER_NAME);
+
+			river = new InstrumentedJiraRiver(new RiverName("jira", RIVER_NAME), new RiverSettings(
+					ImmutableSettings.settingsBuilder().build(), prepareRiverSettings(urlBase)), client);
+
+			System.out.println("JIRA river throughput harness: " + stub.projectsCount + " projects x "
+					+ stub.issuesPerProject + " issues, " + stub.commentsPerIssue + " comments and " + stub.changelogsPerIssue
+					+ " changelogs per issue, " + river.documentContentType + " documents");
+
+			river.start();
+			report("full", runScenario(timeout));
+
+			int touched = stub.touchIssues(Double.parseDouble(System.getProperty("touchFraction", "0.1")));
+			System.out.println("Touched " + touched + " issues for incremental update");
+			river.forceIncrementalReindex(null);
+			report("incremental", runScenario(timeout));
+
+		} finally {
+			if (river != null)
+				river.close();
+			finalizeESClientForUnitTest();
+			stub.stop();
+		}
+	}
+
+	protected Map<String, Object> prepareRiverSettings(String urlBase) {
+		Map<String, Object> settings = new HashMap<String, Object>();
+		Map<String, Object> jiraSettings = new HashMap<String, Object>();
+		settings.put("jira", jiraSettings);
+		jiraSettings.put("urlBase", urlBase);
+		jiraSettings.put("maxIndexingThreads", Integer.getInteger("threads", 2));
+		jiraSettings.put("maxIssuesPerRequest", Integer.getInteger("pageSize", 50));
+		jiraSettings.put("pipelineWorkers", Integer.getInteger("pipelineWorkers", 0));
+		jiraSettings.put("asyncClient", Boolean.getBoolean("asyncClient"));
+		jiraSettings.put("changeProbe", Boolean.getBoolean("changeProbe"));
+		jiraSettings.put("smallProjectBatchThreshold", Integer.getInteger("smallProjectBatchThreshold", 0));
+		jiraSettings.put("maxParallelIssueDataFetches", Integer.getInteger("maxParallelIssueDataFetches", 4));
+		jiraSettings.put("stringDedupTableSize", Integer.getInteger("stringDedupTableSize", 0));
+		jiraSettings.put("timeout", "30s");
+		jiraSettings.put("indexUpdatePeriod", "1h");
+		jiraSettings.put("indexFullUpdatePeriod", "0");
+		Map<String, Object> indexSettings = new HashMap<String, Object>();
+		settings.put("index", indexSettings);
+		indexSettings.put("index", RIVER_NAME);
+		indexSettings.put("comment_mode", System.getProperty("commentMode", "embedded"));
+		indexSettings.put("changelog_mode", System.getProperty("commentMode", "embedded"));
+		indexSettings.put("document_content_type", System.getProperty("contentType", "json"));
+		return settings;
+	}
+
+	/**
+	 * Wait until all projects are indexed and collect measured values.
+	 */
+	protected ScenarioResult runScenario(long timeout) throws Exception {
+		resetHeapPeaks();
+		river.finishedIndexings.clear();
+		long start = System.currentTimeMillis();
+		stub.busyTracker.reset(start);
+		river.esTracker.reset(start);
+		long requestsStart = stub.requestsCount.get();
+		long bytesStart = stub.bytesSent.get();
+		long bulkBytesStart = river.bulkBytes.get();
+
+		while (river.finishedIndexings.size() < stub.projectsCount) {
+			if (System.currentTimeMillis() - start > timeout)
+				throw new IllegalStateException("Scenario not finished in " + timeout + "ms");
+			Thread.sleep(50);
+		}
+
+		ScenarioResult ret = new ScenarioResult();
+		ret.timeElapsed = System.currentTimeMillis() - start;
+		for (ProjectIndexingInfo pi : river.finishedIndexings) {
+			ret.issues += pi.issuesUpdated;
+			if (!pi.finishedOK)
+				ret.failedRuns++;
+		}
+		ret.jiraIdleRatio = stub.busyTracker.idleRatio(start);
+		ret.esIdleRatio = river.esTracker.idleRatio(start);
+		ret.jiraRequests = stub.requestsCount.get() - requestsStart;
+		ret.jiraBytes = stub.bytesSent.get() - bytesStart;
+		ret.bulkBytes = river.bulkBytes.get() - bulkBytesStart;
+		ret.heapHighWaterMark = heapPeak();
+		return ret;
+	}
+
+	protected void report(String scenario, ScenarioResult r) {
+		System.out.println(String.format(
+				"%-12s issues: %d, time: %dms, throughput: %.1f issues/s, JIRA requests: %d (%d kB), ES bulks: %d kB, "
+						+ "JIRA idle: %.1f%%, ES idle: %.1f%%, heap high-water: %d MB, failed runs: %d", scenario, r.issues,
+				r.timeElapsed, (r.issues * 1000d / Math.max(1, r.timeElapsed)), r.jiraRequests, r.jiraBytes / 1024,
+				r.bulkBytes / 1024, r.jiraIdleRatio * 100, r.esIdleRatio * 100, r.heapHighWaterMark / (1024 * 1024),
+				r.failedRuns));
+	}
+
+	private static void resetHeapPeaks() {
+		System.gc();
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		}
+	}
+
+	private static long heapPeak() {
+		long ret = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if (pool.getType() == MemoryType.HEAP)
+				ret += pool.getPeakUsage().getUsed();
+		}
+		return ret;
+	}
+
+	/**
+	 * Values measured for one scenario.
+	 */
+	protected static class ScenarioResult {
+		long timeElapsed;
+		long issues;
+		long failedRuns;
+		long jiraRequests;
+		long jiraBytes;
+		long bulkBytes;
+		double jiraIdleRatio;
+		double esIdleRatio;
+		long heapHighWaterMark;
+	}
+
+	/**
+	 * JIRA River with instrumented ES calls.
+	 */
+	protected static class InstrumentedJiraRiver extends JiraRiver {
+
+		final BusyTimeTracker esTracker = new BusyTimeTracker();
+		final List<ProjectIndexingInfo> finishedIndexings = new CopyOnWriteArrayList<ProjectIndexingInfo>();
+		final AtomicLong bulkBytes = new AtomicLong();
+
+		public InstrumentedJiraRiver(RiverName riverName, RiverSettings settings, Client client)
+				throws MalformedURLException {
+			super(riverName, settings, client);
+		}
+
+		@Override
+		public List<BulkItemResponse> executeESBulkRequest(BulkRequestBuilder esBulk) throws Exception {
+			bulkBytes.addAndGet(esBulk.request().estimatedSizeInBytes());
+			esTracker.begin();
+			try {
+				return super.executeESBulkRequest(esBulk);
+			} finally {
+				esTracker.end();
+			}
+		}
+
+		@Override
+		public void reportIndexingFinished(ProjectIndexingInfo indexingInfo) {
+			super.reportIndexingFinished(indexingInfo);
+			finishedIndexings.add(indexingInfo);
+		}
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.Date;
+import java.util.List;
+
+import junit.framework.Assert;
+
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ProjectIndexingHistory}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class ProjectIndexingHistoryTest {
+
+	@Test
+	public void constructor() {
+		Assert.assertEquals(ProjectIndexingHistory.SIZE_DEFAULT, new ProjectIndexingHistory().getSize());
+		Assert.assertEquals(3, new ProjectIndexingHistory(3).getSize());
+		try {
+			new ProjectIndexingHistory(0);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+	}
+
+	@Test
+	public void put() {
+		ProjectIndexingHistory tested = new ProjectIndexingHistory(2);
+		Assert.assertNull(tested.get("ORG"));
+		Assert.assertTrue(tested.getHistory("ORG").isEmpty());
+
+		ProjectIndexingInfo i1 = createInfo("ORG", 1000);
+		ProjectIndexingInfo i2 = createInfo("ORG", 2000);
+		ProjectIndexingInfo i3 = createInfo("ORG", 3000);
+		ProjectIndexingInfo a1 = createInfo("AAA", 1000);
+
+		tested.put("ORG", i1);
+		tested.put("AAA", a1);
+		Assert.assertEquals(i1, tested.get("ORG"));
+		Assert.assertEquals(a1, tested.get("AAA"));
+
+		tested.put("ORG", i2);
+		tested.put("ORG", i3);
+		Assert.assertEquals(i3, tested.get("ORG"));
+		List<ProjectIndexingInfo> history = tested.getHistory("ORG");
+		Assert.assertEquals(2, history.size());
+		Assert.assertEquals(i3, history.get(0));
+		Assert.assertEquals(i2, history.get(1));
+		Assert.assertEquals(1, tested.getHistory("AAA").size());
+	}
+
+	@Test
+	public void putOlder() {
+		ProjectIndexingHistory tested = new ProjectIndexingHistory(3);
+
+		ProjectIndexingInfo i1 = createInfo("ORG", 1000);
+		ProjectIndexingInfo i2 = createInfo("ORG", 2000);
+		ProjectIndexingInfo i3 = createInfo("ORG", 3000);
+		ProjectIndexingInfo i4 = createInfo("ORG", 4000);
+
+		// case - record from current run is kept as the last one
+		tested.put("ORG", i4);
+		Assert.assertTrue(tested.putOlder("ORG", i2));
+		Assert.assertTrue(tested.putOlder("ORG", i3));
+		Assert.assertEquals(i4, tested.get("ORG"));
+		List<ProjectIndexingInfo> history = tested.getHistory("ORG");
+		Assert.assertEquals(3, history.size());
+		Assert.assertEquals(i4, history.get(0));
+		Assert.assertEquals(i3, history.get(1));
+		Assert.assertEquals(i2, history.get(2));
+
+		// case - no room
+		Assert.assertFalse(tested.putOlder("ORG", i1));
+		Assert.assertEquals(3, tested.getHistory("ORG").size());
+
+		// case - duplicate is not added
+		tested = new ProjectIndexingHistory(3);
+		tested.put("ORG", i2);
+		Assert.assertFalse(tested.putOlder("ORG", createInfo("ORG", 2000)));
+		Assert.assertEquals(1, tested.getHistory("ORG").size());
+	}
+
+	private ProjectIndexingInfo createInfo(String projectKey, long startDate) {
+		return new ProjectIndexingInfo(projectKey, false, 1, 0, 0, new Date(startDate), true, 10, null);
+	}
+
+}
@@ -39,6 +39,12 @@ public class ProjectIndexingInfoTest {
 		TestUtils.assertJsonEqual(TestUtils.readStringFromClasspathFile("/asserts/ProjectIndexingInfoTest_4.json"),
 				new ProjectIndexingInfo("ORG", true, 10, 1, 1, DateTimeUtils.parseISODateTime("2012-09-10T12:55:58Z"), true,
 						1250, null).buildDocument(XContentFactory.jsonBuilder(), null, false, false).string());
+
+		ProjectIndexingInfo withExtraCalls = new ProjectIndexingInfo("ORG", true, 10, 1, 1,
+				DateTimeUtils.parseISODateTime("2012-09-10T12:55:58Z"), true, 1250, null);
+		withExtraCalls.extraJiraCalls = 3;
+		TestUtils.assertJsonEqual(TestUtils.readStringFromClasspathFile("/asserts/ProjectIndexingInfoTest_5.json"),
+				withExtraCalls.buildDocument(XContentFactory.jsonBuilder(), "my_river", false, true).string());
 	}
 
 	@Test
@@ -47,6 +53,11 @@ public class ProjectIndexingInfoTest {
 				DateTimeUtils.parseISODateTime("2012-09-10T12:55:58Z"), true, 1250, null));
 		readFromDocumentInternalTest(new ProjectIndexingInfo("ORGA", false, 10, 0, 1,
 				DateTimeUtils.parseISODateTime("2012-09-11T02:55:58Z"), false, 125, "Error"));
+		ProjectIndexingInfo withExtraCalls = new ProjectIndexingInfo("ORG", false, 10, 0, 0,
+				DateTimeUtils.parseISODateTime("2012-09-11T02:55:58Z"), true, 125, null);
+		withExtraCalls.extraJiraCalls = 5;
+		withExtraCalls.staleDocumentsSkipped = 2;
+		readFromDocumentInternalTest(withExtraCalls);
 	}
 
 	private void readFromDocumentInternalTest(ProjectIndexingInfo src) throws IOException {
@@ -57,6 +68,8 @@ public class ProjectIndexingInfoTest {
 		Assert.assertEquals(src.fullUpdate, result.fullUpdate);
 		Assert.assertEquals(src.issuesUpdated, result.issuesUpdated);
 		Assert.assertEquals(src.issuesDeleted, result.issuesDeleted);
+		Assert.assertEquals(src.extraJiraCalls, result.extraJiraCalls);
+		Assert.assertEquals(src.staleDocumentsSkipped, result.staleDocumentsSkipped);
 		// not stored and read for now!
 		Assert.assertEquals(0, result.commentsDeleted);
 		Assert.assertEquals(src.startDate, result.startDate);
@@ -0,0 +1,71 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.jboss.elasticsearch.river.jira.ProjectIndexingProgress.Phase;
+import org.jboss.elasticsearch.river.jira.testtools.TestUtils;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link ProjectIndexingProgress}.
+ * 
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class ProjectIndexingProgressTest {
+
+	@Test
+	public void pageProcessed() {
+		ProjectIndexingProgress tested = ProjectIndexingProgress.INITIAL;
+		Assert.assertEquals(-1, tested.issuesTotal);
+		Assert.assertNull(tested.estimatedCompletion);
+
+		// first page initializes rate
+		tested = tested.pageProcessed(50, 1000, 150, 10000);
+		Assert.assertEquals(1, tested.pagesDone);
+		Assert.assertEquals(50, tested.issuesDone);
+		Assert.assertEquals(200, tested.issuesTotal);
+		Assert.assertEquals(50d, tested.issuesPerSecond, 0.001);
+		Assert.assertEquals(13000, tested.estimatedCompletion.getTime());
+
+		// next pages are averaged
+		tested = tested.pageProcessed(50, 500, 100, 20000);
+		Assert.assertEquals(2, tested.pagesDone);
+		Assert.assertEquals(100, tested.issuesDone);
+		Assert.assertEquals(200, tested.issuesTotal);
+		Assert.assertEquals(65d, tested.issuesPerSecond, 0.001);
+
+		// remaining count can't be negative
+		tested = tested.pageProcessed(10, 100, -5, 30000);
+		Assert.assertEquals(110, tested.issuesTotal);
+		Assert.assertEquals(30000, tested.estimatedCompletion.getTime());
+
+		// phase change keeps values
+		ProjectIndexingProgress p2 = tested.withPhase(Phase.DELETE);
+		Assert.assertEquals(Phase.DELETE, p2.phase);
+		Assert.assertEquals(Phase.FETCH, tested.phase);
+		Assert.assertEquals(tested.issuesDone, p2.issuesDone);
+		Assert.assertEquals(tested.estimatedCompletion, p2.estimatedCompletion);
+	}
+
+	@Test
+	public void buildDocument() throws Exception {
+		ProjectIndexingInfo info = new ProjectIndexingInfo("ORG", true, 10, 1, 1,
+				DateTimeUtils.parseISODateTime("2012-09-10T12:55:58Z"), true, 1250, null);
+		info.progress = new ProjectIndexingProgress(Phase.BULK, 2, 100, 300, 12.345d,
+				DateTimeUtils.parseISODateTime("2012-09-10T13:05:58Z"));
+
+		TestUtils.assertJsonEqual(TestUtils.readStringFromClasspathFile("/asserts/ProjectIndexingProgressTest_1.json"),
+				info.buildDocument(XContentFactory.jsonBuilder(), null, true, false).string());
+
+		// progress is not part of final status
+		TestUtils.assertJsonEqual(TestUtils.readStringFromClasspathFile("/asserts/ProjectIndexingInfoTest_1.json"),
+				info.buildDocument(XContentFactory.jsonBuilder(), null, true, true).string());
+	}
+
+}
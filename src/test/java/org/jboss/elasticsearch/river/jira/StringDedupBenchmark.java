@@ -0,0 +1,144 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+
+/**
+ * Benchmark of heap retained by pages of issues parsed from JIRA response with and without {@link StringDedupTable}.
+ * This is not Unit test but helper for performance measurements during development! Run it from IDE or command line
+ * (with the same <code>-Xmx</code> for both variants), tune it over system properties:
+ * <ul>
+ * <li><code>pages</code> - number of pages parsed and retained, default 200
+ * <li><code>pageSize</code> - number of issues in page, default 50
+ * <li><code>comments</code> - number of comments and changelog histories per issue, default 5
+ * <li><code>textLength</code> - length of description and comment texts, default 500
+ * <li><code>tableSize</code> - size of deduplication table, default 4096
+ * </ul>
+ * Reported values are heap retained by parsed pages (measured after full GC, so approximation only), retained heap per
+ * page, parse time and table hit ratio.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class StringDedupBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		int pages = Integer.getInteger("pages", 200);
+		int pageSize = Integer.getInteger("pageSize", 50);
+		int comments = Integer.getInteger("comments", 5);
+		int textLength = Integer.getInteger("textLength", 500);
+		int tableSize = Integer.getInteger("tableSize", 4096);
+
+		List<byte[]> responses = new ArrayList<byte[]>();
+		for (int p = 0; p < pages; p++) {
+			responses.add(prepareResponse(p, pageSize, comments, textLength));
+		}
+		System.out.println("String deduplication benchmark: " + pages + " pages x " + pageSize + " issues, "
+				+ comments + " comments and changelogs per issue");
+
+		// warm up both variants
+		run(responses.subList(0, Math.min(20, pages)), 0);
+		run(responses.subList(0, Math.min(20, pages)), tableSize);
+
+		run(responses, 0);
+		run(responses, tableSize);
+	}
+
+	private static void run(List<byte[]> responses, int tableSize) throws IOException {
+		List<Map<String, Object>> retained = new ArrayList<Map<String, Object>>();
+		long hits = 0;
+		long misses = 0;
+		long heapStart = usedHeap();
+		long start = System.nanoTime();
+		for (byte[] response : responses) {
+			XContentParser parser = XContentFactory.xContent(XContentType.JSON).createParser(response);
+			if (tableSize > 0) {
+				StringDedupTable table = new StringDedupTable(tableSize);
+				retained.add(table.readMapAndClose(parser));
+				hits += table.getHits();
+				misses += table.getMisses();
+			} else {
+				retained.add(parser.mapAndClose());
+			}
+		}
+		long time = (System.nanoTime() - start) / 1000000;
+		long heap = usedHeap() - heapStart;
+		System.out.println(String.format(
+				"%-12s retained heap: %d kB, per page: %d kB, parse time: %dms, table hit ratio: %.1f%%",
+				tableSize > 0 ? "dedup " + tableSize : "no dedup", heap / 1024, heap / 1024 / responses.size(), time,
+				(hits * 100d / Math.max(1, hits + misses))));
+		if (retained.size() != responses.size())
+			throw new IllegalStateException();
+	}
+
+	private static long usedHeap() {
+		for (int i = 0; i < 3; i++) {
+			System.gc();
+		}
+		Runtime rt = Runtime.getRuntime();
+		return rt.totalMemory() - rt.freeMemory();
+	}
+
+	private static byte[] prepareResponse(int page, int pageSize, int comments, int textLength) throws IOException {
+		StringBuilder text = new StringBuilder();
+		while (text.length() < textLength) {
+			text.append("Lorem ipsum dolor sit amet ");
+		}
+		String t = text.substring(0, textLength);
+		String updated = "2013-01-" + (10 + page % 20) + "T08:00:00.000-0400";
+		XContentBuilder b = XContentFactory.jsonBuilder().startObject();
+		b.field("startAt", page * pageSize).field("maxResults", pageSize).field("total", 1000000);
+		b.startArray("issues");
+		for (int i = 0; i < pageSize; i++) {
+			String issueKey = "ORG-" + (page * pageSize + i + 1);
+			b.startObject().field("key", issueKey).startObject("fields");
+			b.field("updated", updated).field("created", updated);
+			b.field("summary", "Summary of issue " + issueKey).field("description", t);
+			b.startObject("project").field("key", "ORG").field("name", "Project ORG").endObject();
+			b.startObject("issuetype").field("name", "Bug").endObject();
+			b.startObject("status").field("name", "Open").endObject();
+			b.startObject("priority").field("name", "Major").endObject();
+			writeUser(b, "reporter", i);
+			writeUser(b, "assignee", i + 1);
+			b.startObject("comment").field("total", comments).startArray("comments");
+			for (int c = 0; c < comments; c++) {
+				b.startObject().field("id", issueKey + "-c" + c).field("body", t);
+				writeUser(b, "author", c);
+				b.field("created", updated).field("updated", updated).endObject();
+			}
+			b.endArray().endObject();
+			b.endObject();
+			b.startObject("changelog").field("total", comments).startArray("histories");
+			for (int h = 0; h < comments; h++) {
+				b.startObject().field("id", issueKey + "-h" + h);
+				writeUser(b, "author", h);
+				b.field("created", updated);
+				b.startArray("items").startObject().field("field", "status").field("fieldtype", "jira").field("from", "1")
+						.field("fromString", "Open").field("to", "3").field("toString", "In Progress").endObject().endArray();
+				b.endObject();
+			}
+			b.endArray().endObject();
+			b.endObject();
+		}
+		b.endArray().endObject();
+		return b.bytes().toBytes();
+	}
+
+	private static void writeUser(XContentBuilder b, String field, int num) throws IOException {
+		String name = "user" + (num % 50);
+		b.startObject(field).field("name", name).field("emailAddress", name + "@example.com")
+				.field("displayName", "User " + name).endObject();
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira;
+
+import java.util.List;
+import java.util.Map;
+
+import junit.framework.Assert;
+
+import org.elasticsearch.common.xcontent.XContentFactory;
+import org.elasticsearch.common.xcontent.XContentParser;
+import org.elasticsearch.common.xcontent.XContentType;
+import org.elasticsearch.common.xcontent.support.XContentMapValues;
+import org.junit.Test;
+
+/**
+ * Unit test for {@link StringDedupTable}.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class StringDedupTableTest {
+
+	@Test
+	public void constructor() {
+		try {
+			new StringDedupTable(0);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		try {
+			new StringDedupTable(StringDedupTable.MAX_SIZE + 1);
+			Assert.fail("IllegalArgumentException must be thrown");
+		} catch (IllegalArgumentException e) {
+			// OK
+		}
+		Assert.assertEquals(1, new StringDedupTable(1).capacity());
+		Assert.assertEquals(64, new StringDedupTable(64).capacity());
+		Assert.assertEquals(128, new StringDedupTable(65).capacity());
+	}
+
+	@Test
+	public void dedup() {
+		StringDedupTable tested = new StringDedupTable(16);
+		char[] buffer = "xxOpenxxOpenxxClosed".toCharArray();
+
+		String s1 = tested.dedup(buffer, 2, 4);
+		Assert.assertEquals("Open", s1);
+		String s2 = tested.dedup(buffer, 8, 4);
+		Assert.assertSame(s1, s2);
+		Assert.assertEquals("Closed", tested.dedup(buffer, 14, 6));
+		Assert.assertSame(s1, tested.dedup("Open".toCharArray(), 0, 4));
+		Assert.assertEquals("", tested.dedup(buffer, 0, 0));
+		Assert.assertEquals(2, tested.getHits());
+		Assert.assertEquals(3, tested.getMisses());
+
+		// case - long value is not deduplicated
+		char[] longValue = new char[StringDedupTable.MAX_VALUE_LENGTH + 1];
+		String l1 = tested.dedup(longValue, 0, longValue.length);
+		Assert.assertEquals(longValue.length, l1.length());
+		Assert.assertNotSame(l1, tested.dedup(longValue, 0, longValue.length));
+		Assert.assertEquals(2, tested.getHits());
+	}
+
+	@Test
+	public void dedup_bounded() {
+		// case - full table overwrites slot, values are still correct
+		StringDedupTable tested = new StringDedupTable(2);
+		for (int i = 0; i < 100; i++) {
+			String v = "value" + i;
+			Assert.assertEquals(v, tested.dedup(v.toCharArray(), 0, v.length()));
+		}
+		Assert.assertEquals(2, tested.capacity());
+		int nonNull = 0;
+		for (String s : tested.slots) {
+			if (s != null)
+				nonNull++;
+		}
+		Assert.assertEquals(2, nonNull);
+	}
+
+	@SuppressWarnings("unchecked")
+	@Test
+	public void readMapAndClose() throws Exception {
+		byte[] json = ("{\"startAt\" : 0, \"total\" : 2, \"ratio\" : 1.5, \"ok\" : true, \"none\" : null, \"issues\" : ["
+				+ "{\"key\" : \"ORG-1\", \"fields\" : {\"status\" : {\"name\" : \"Open\"}, \"labels\" : [\"a\", \"b\"]}},"
+				+ "{\"key\" : \"ORG-2\", \"fields\" : {\"status\" : {\"name\" : \"Open\"}, \"labels\" : []}}]}")
+				.getBytes("UTF-8");
+
+		Map<String, Object> expected = XContentFactory.xContent(XContentType.JSON).createParser(json).mapAndClose();
+		XContentParser parser = XContentFactory.xContent(XContentType.JSON).createParser(json);
+		StringDedupTable tested = new StringDedupTable(64);
+		Map<String, Object> ret = tested.readMapAndClose(parser);
+		Assert.assertEquals(expected, ret);
+
+		List<Map<String, Object>> issues = (List<Map<String, Object>>) ret.get("issues");
+		Assert.assertSame(XContentMapValues.extractValue("fields.status.name", issues.get(0)),
+				XContentMapValues.extractValue("fields.status.name", issues.get(1)));
+		Assert.assertEquals(1, tested.getHits());
+	}
+
+}
@@ -15,6 +15,8 @@ import java.util.Set;
 import java.util.concurrent.TimeUnit;
 
 import org.elasticsearch.ElasticsearchParseException;
+import org.elasticsearch.common.settings.SettingsException;
+import org.elasticsearch.common.xcontent.XContentType;
 import org.elasticsearch.common.xcontent.support.XContentMapValues;
 import org.junit.Assert;
 import org.junit.Test;
@@ -111,6 +113,21 @@ public class UtilsTest {
     }
   }
 
+  @Test
+  public void parseDocumentContentType() {
+    Assert.assertEquals(XContentType.JSON, Utils.parseDocumentContentType(null, "key"));
+    Assert.assertEquals(XContentType.JSON, Utils.parseDocumentContentType(" ", "key"));
+    Assert.assertEquals(XContentType.JSON, Utils.parseDocumentContentType("json", "key"));
+    Assert.assertEquals(XContentType.SMILE, Utils.parseDocumentContentType("SMILE", "key"));
+    Assert.assertEquals(XContentType.CBOR, Utils.parseDocumentContentType(" cbor ", "key"));
+    try {
+      Utils.parseDocumentContentType("yaml", "index/document_content_type");
+      Assert.fail("SettingsException must be thrown");
+    } catch (SettingsException e) {
+      Assert.assertTrue(e.getMessage().contains("index/document_content_type"));
+    }
+  }
+
   @Test
   public void createCsvString() {
     Assert.assertNull(Utils.createCsvString(null));
@@ -20,8 +20,10 @@ public class JRLifecycleCommandTest {
   public void detectById() {
     Assert.assertEquals(JRLifecycleCommand.RESTART, JRLifecycleCommand.detectById(JRLifecycleCommand.RESTART.getId()));
     Assert.assertEquals(JRLifecycleCommand.STOP, JRLifecycleCommand.detectById(JRLifecycleCommand.STOP.getId()));
-    Assert.assertNull(JRLifecycleCommand.detectById(3));
+    Assert.assertEquals(JRLifecycleCommand.RECONFIGURE,
+        JRLifecycleCommand.detectById(JRLifecycleCommand.RECONFIGURE.getId()));
     Assert.assertNull(JRLifecycleCommand.detectById(4));
+    Assert.assertNull(JRLifecycleCommand.detectById(5));
     Assert.assertNull(JRLifecycleCommand.detectById(0));
   }
 
@@ -48,6 +48,13 @@ public class NodeJRLifecycleResponseTest {
       NodeJRLifecycleResponse tested = new NodeJRLifecycleResponse(dn, true);
       Assert.assertEquals(dn, tested.getNode());
       Assert.assertTrue(tested.isRiverFound());
+      Assert.assertEquals(0, tested.getRestartRequiredSettings().length);
+    }
+    {
+      NodeJRLifecycleResponse tested = new NodeJRLifecycleResponse(dn, true, new String[] { "jira/urlBase" });
+      Assert.assertEquals(dn, tested.getNode());
+      Assert.assertTrue(tested.isRiverFound());
+      Assert.assertEquals("jira/urlBase", tested.getRestartRequiredSettings()[0]);
     }
   }
 
@@ -63,6 +70,12 @@ public class NodeJRLifecycleResponseTest {
       NodeJRLifecycleResponse testedSrc = new NodeJRLifecycleResponse(dn, true);
       NodeJRLifecycleResponse testedTarget = performSerializationAndBasicAsserts(testedSrc);
     }
+    {
+      NodeJRLifecycleResponse testedSrc = new NodeJRLifecycleResponse(dn, true, new String[] { "jira/urlBase", "index" });
+      NodeJRLifecycleResponse testedTarget = performSerializationAndBasicAsserts(testedSrc);
+      Assert.assertEquals(2, testedTarget.getRestartRequiredSettings().length);
+      Assert.assertEquals("index", testedTarget.getRestartRequiredSettings()[1]);
+    }
 
   }
 
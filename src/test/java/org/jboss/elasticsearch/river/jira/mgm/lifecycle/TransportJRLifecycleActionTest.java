@@ -5,6 +5,8 @@
  */
 package org.jboss.elasticsearch.river.jira.mgm.lifecycle;
 
+import java.util.Arrays;
+
 import junit.framework.Assert;
 
 import org.elasticsearch.Version;
@@ -110,6 +112,20 @@ public class TransportJRLifecycleActionTest {
 			Mockito.verifyNoMoreInteractions(river);
 		}
 
+		Mockito.reset(river);
+		{
+			Mockito.when(river.reconfigureLive()).thenReturn(Arrays.asList("jira/urlBase"));
+			JRLifecycleRequest req = new JRLifecycleRequest("myriver", JRLifecycleCommand.RECONFIGURE);
+			NodeJRLifecycleResponse resp = tested.performOperationOnJiraRiver(river, req, dn);
+			Assert.assertNotNull(resp);
+			Assert.assertTrue(resp.isRiverFound());
+			Assert.assertEquals(dn, resp.getNode());
+			Assert.assertEquals(1, resp.getRestartRequiredSettings().length);
+			Assert.assertEquals("jira/urlBase", resp.getRestartRequiredSettings()[0]);
+			Mockito.verify(river).reconfigureLive();
+			Mockito.verifyNoMoreInteractions(river);
+		}
+
 	}
 
 	private static DiscoveryNode dn = new DiscoveryNode("aa", DummyTransportAddress.INSTANCE, Version.CURRENT);
@@ -41,6 +41,10 @@ public class JRStateRequestBuilderTest {
 			JRStateRequestBuilder tested = new JRStateRequestBuilder(client);
 			Assert.assertEquals(tested, tested.setRiverName("my river"));
 			Assert.assertEquals("my river", tested.request().getRiverName());
+			Assert.assertEquals(tested, tested.setProjectKeys("ORG,AAA").setFrom(2).setSize(5));
+			Assert.assertEquals("ORG,AAA", tested.request().getProjectKeys());
+			Assert.assertEquals(2, tested.request().getFrom());
+			Assert.assertEquals(5, tested.request().getSize());
 			ActionListener<JRStateResponse> al = new ActionListener<JRStateResponse>() {
 
 				@Override
@@ -53,6 +53,23 @@ public class JRStateRequestTest {
       JRStateRequest testedSrc = new JRStateRequest("myriver");
       JRStateRequest testedTarget = performserialization(testedSrc);
       Assert.assertEquals("myriver", testedTarget.getRiverName());
+      Assert.assertNull(testedTarget.getProjectKeys());
+      Assert.assertEquals(0, testedTarget.getFrom());
+      Assert.assertEquals(-1, testedTarget.getSize());
+      Assert.assertFalse(testedTarget.isPagedRequest());
+    }
+
+    {
+      JRStateRequest testedSrc = new JRStateRequest("myriver");
+      testedSrc.setProjectKeys("ORG,AAA");
+      testedSrc.setFrom(10);
+      testedSrc.setSize(20);
+      JRStateRequest testedTarget = performserialization(testedSrc);
+      Assert.assertEquals("myriver", testedTarget.getRiverName());
+      Assert.assertEquals("ORG,AAA", testedTarget.getProjectKeys());
+      Assert.assertEquals(10, testedTarget.getFrom());
+      Assert.assertEquals(20, testedTarget.getSize());
+      Assert.assertTrue(testedTarget.isPagedRequest());
     }
 
   }
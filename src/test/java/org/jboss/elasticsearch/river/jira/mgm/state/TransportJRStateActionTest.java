@@ -5,6 +5,7 @@
  */
 package org.jboss.elasticsearch.river.jira.mgm.state;
 
+import java.util.Arrays;
 import java.util.Date;
 
 import junit.framework.Assert;
@@ -114,6 +115,22 @@ public class TransportJRStateActionTest {
 			Mockito.verifyNoMoreInteractions(river);
 		}
 
+		Mockito.reset(river);
+		{
+			Mockito.when(
+					river.getRiverOperationInfo(Mockito.eq(dn), Mockito.any(Date.class), Mockito.anyListOf(String.class),
+							Mockito.anyInt(), Mockito.anyInt())).thenReturn("state info paged");
+			JRStateRequest req = new JRStateRequest("myriver");
+			req.setProjectKeys("ORG, AAA");
+			req.setFrom(5);
+			req.setSize(10);
+			NodeJRStateResponse resp = tested.performOperationOnJiraRiver(river, req, dn);
+			Assert.assertEquals("state info paged", resp.stateInformation);
+			Mockito.verify(river).getRiverOperationInfo(Mockito.eq(dn), (Date) Mockito.notNull(),
+					Mockito.eq(Arrays.asList("ORG", "AAA")), Mockito.eq(5), Mockito.eq(10));
+			Mockito.verifyNoMoreInteractions(river);
+		}
+
 	}
 
 	private static DiscoveryNode dn = new DiscoveryNode("aa", DummyTransportAddress.INSTANCE, Version.CURRENT);
@@ -0,0 +1,59 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira.testtools;
+
+/**
+ * Tracks time when at least one operation of some kind is running. Used by load test helpers to measure idle ratio of
+ * JIRA and ES.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class BusyTimeTracker {
+
+	private int inFlight = 0;
+	private long busySince;
+	private long busyTime;
+
+	/**
+	 * Start new measurement.
+	 *
+	 * @param now timestamp measurement starts at [ms]
+	 */
+	public synchronized void reset(long now) {
+		busyTime = 0;
+		busySince = now;
+	}
+
+	/**
+	 * Operation started.
+	 */
+	public synchronized void begin() {
+		if (inFlight++ == 0)
+			busySince = System.currentTimeMillis();
+	}
+
+	/**
+	 * Operation finished.
+	 */
+	public synchronized void end() {
+		if (--inFlight == 0)
+			busyTime += System.currentTimeMillis() - busySince;
+	}
+
+	/**
+	 * Get part of time from measurement start when no operation was running.
+	 *
+	 * @param start timestamp measurement started at [ms]
+	 * @return idle ratio (0 - 1)
+	 */
+	public synchronized double idleRatio(long start) {
+		long now = System.currentTimeMillis();
+		long busy = busyTime;
+		if (inFlight > 0)
+			busy += now - Math.max(busySince, start);
+		return 1d - ((double) busy / Math.max(1, now - start));
+	}
+}
@@ -0,0 +1,578 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2012 Red Hat Inc. and/or its affiliates and other contributors
+ * as indicated by the @authors tag. All rights reserved.
+ */
+package org.jboss.elasticsearch.river.jira.testtools;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.elasticsearch.common.xcontent.XContentBuilder;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import static org.elasticsearch.common.xcontent.XContentFactory.jsonBuilder;
+
+/**
+ * Local HTTP server simulating JIRA 5 REST API for load tests. Serves <code>/rest/api/2/project</code>,
+ * <code>/rest/api/2/search</code>, <code>/rest/api/2/issue/{key}/comment</code> and
+ * <code>/rest/api/2/issue/{key}?expand=changelog</code> operations over generated data set of
+ * <code>projects x issues</code> with configurable comment and changelog volume, latency, page size limit and error
+ * injection. This is not Unit test but helper for tests during development!
+ * <p>
+ * JQL sent by JIRA river is understood only in forms created by default JQL template, change probe and batched search,
+ * so <code>project='KEY'</code>, <code>project in ("A","B")</code>, <code>updatedDate >= "yyyy-MM-dd HH:mm"</code>
+ * and <code>updatedDate <= "yyyy-MM-dd HH:mm"</code> conditions joined by <code>and</code>, clauses joined by
+ * <code>or</code>, and <code>ORDER BY updated ASC|DESC</code> are evaluated. <code>fields</code> and
+ * <code>expand</code> parameters of search are honored.
+ *
+ * @author Vlastimil Elias (velias at redhat dot com)
+ */
+public class JIRARestStubServer {
+
+	private static final Pattern JQL_PROJECT = Pattern.compile("project\\s*=\\s*['\"]?([^'\"\\s)]+)");
+	private static final Pattern JQL_PROJECT_IN = Pattern.compile("project\\s+in\\s*\\(([^)]*)\\)",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern JQL_ORDER_BY = Pattern.compile("\\s*ORDER\\s+BY\\s+updated(\\s+(ASC|DESC))?\\s*$",
+			Pattern.CASE_INSENSITIVE);
+	private static final Pattern JQL_OR = Pattern.compile("\\s+or\\s+", Pattern.CASE_INSENSITIVE);
+	private static final Pattern ISSUE_PATH = Pattern.compile("/rest/api/2/issue/([^/]+)-(\\d+)(/comment)?/?");
+	private static final Pattern JQL_UPDATED_AFTER = Pattern.compile("updatedDate\\s*>=\\s*\"([^\"]+)\"");
+	private static final Pattern JQL_UPDATED_BEFORE = Pattern.compile("updatedDate\\s*<=\\s*\"([^\"]+)\"");
+
+	/**
+	 * Number of generated projects
+	 */
+	public int projectsCount = 10;
+	/**
+	 * Number of generated issues per project
+	 */
+	public int issuesPerProject = 500;
+	/**
+	 * Number of comments generated for each issue
+	 */
+	public int commentsPerIssue = 5;
+	/**
+	 * Number of changelog histories generated for each issue
+	 */
+	public int changelogsPerIssue = 5;
+	/**
+	 * Length of generated issue description and comment body texts
+	 */
+	public int textLength = 500;
+	/**
+	 * Fixed latency added to each REST call [ms]
+	 */
+	public long latencyPerRequest = 20;
+	/**
+	 * Latency added to search REST call for each returned issue [ms]
+	 */
+	public long latencyPerIssue = 1;
+	/**
+	 * Maximal number of issues returned by one search call, simulates <code>jira.search.views.default.max</code>.
+	 */
+	public int pageSizeLimit = 1000;
+	/**
+	 * Probability (0 - 1) that REST call fails with HTTP 500 error
+	 */
+	public double errorRate = 0;
+	/**
+	 * Maximal number of comments and changelog histories embedded in search response for one issue, real total is
+	 * returned so rest is loaded over issue REST calls as JIRA does. 0 means all are embedded.
+	 */
+	public int embeddedListLimit = 0;
+
+	/**
+	 * Counters of served requests and bytes
+	 */
+	public final AtomicLong requestsCount = new AtomicLong();
+	public final AtomicLong errorsCount = new AtomicLong();
+	public final AtomicLong bytesSent = new AtomicLong();
+
+	/**
+	 * Tracks time when at least one REST call is being served.
+	 */
+	public final BusyTimeTracker busyTracker = new BusyTimeTracker();
+
+	private HttpServer server;
+
+	private final Random random = new Random(1);
+
+	/**
+	 * Issue update timestamps, key is project key, value is list of issue updated timestamps indexed by issue number.
+	 */
+	private final Map<String, long[]> issueUpdated = new HashMap<String, long[]>();
+
+	private final SimpleDateFormat jiraDateFormat = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSZ");
+	private final SimpleDateFormat jqlDateFormat = new SimpleDateFormat("yyyy-MM-dd HH:mm");
+
+	private String text;
+
+	/**
+	 * Generate data set and start server on given port.
+	 *
+	 * @param port to listen on, 0 means any free port
+	 * @return URL base of started JIRA stub, to be used as <code>jira/urlBase</code>
+	 * @throws IOException
+	 */
+	public String start(int port) throws IOException {
+		generateData();
+		server = HttpServer.create(new InetSocketAddress("localhost", port), 50);
+		server.setExecutor(Executors.newFixedThreadPool(20));
+		server.createContext("/rest/api/2/", new HttpHandler() {
+			@Override
+			public void handle(HttpExchange exchange) throws IOException {
+				busyTracker.begin();
+				try {
+					dispatch(exchange);
+				} finally {
+					busyTracker.end();
+				}
+			}
+		});
+		server.start();
+		return "http://localhost:" + server.getAddress().getPort();
+	}
+
+	/**
+	 * Stop the server.
+	 */
+	public void stop() {
+		if (server != null) {
+			server.stop(0);
+			((java.util.concurrent.ExecutorService) server.getExecutor()).shutdownNow();
+			server = null;
+		}
+	}
+
+	/**
+	 * Get keys of all generated projects.
+	 *
+	 * @return list of project keys
+	 */
+	public List<String> getProjectKeys() {
+		List<String> ret = new ArrayList<String>();
+		for (int i = 0; i < projectsCount; i++) {
+			ret.add(projectKey(i));
+		}
+		return ret;
+	}
+
+	/**
+	 * Mark given fraction of issues in each project as updated now, so they are returned by next incremental update.
+	 *
+	 * @param fraction of issues to touch (0 - 1)
+	 * @return number of touched issues
+	 */
+	public synchronized int touchIssues(double fraction) {
+		int ret = 0;
+		long now = System.currentTimeMillis();
+		for (long[] updated : issueUpdated.values()) {
+			for (int i = 0; i < updated.length; i++) {
+				if (random.nextDouble() < fraction) {
+					updated[i] = now + i;
+					ret++;
+				}
+			}
+		}
+		return ret;
+	}
+
+	private String projectKey(int i) {
+		return "P" + i;
+	}
+
+	private void generateData() {
+		StringBuilder sb = new StringBuilder();
+		while (sb.length() < textLength) {
+			sb.append("Lorem ipsum dolor sit amet, consectetur adipiscing elit. ");
+		}
+		text = sb.substring(0, textLength);
+		long base = System.currentTimeMillis() - 365L * 24 * 60 * 60 * 1000;
+		for (int p = 0; p < projectsCount; p++) {
+			long[] updated = new long[issuesPerProject];
+			for (int i = 0; i < issuesPerProject; i++) {
+				// some issues share same minute to exercise paging inside one minute
+				updated[i] = base + (i * 37 * 1000L);
+			}
+			issueUpdated.put(projectKey(p), updated);
+		}
+	}
+
+	protected void dispatch(HttpExchange exchange) throws IOException {
+		String path = exchange.getRequestURI().getPath();
+		if ("/rest/api/2/project".equals(path) || "/rest/api/2/project/".equals(path)) {
+			handleProject(exchange);
+		} else if ("/rest/api/2/search".equals(path) || "/rest/api/2/search/".equals(path)) {
+			handleSearch(exchange);
+		} else if (ISSUE_PATH.matcher(path).matches()) {
+			handleIssue(exchange);
+		} else {
+			sendResponse(exchange, 404, "{\"errorMessages\":[\"Not supported by JIRA stub\"]}".getBytes("UTF-8"));
+		}
+	}
+
+	protected void handleProject(HttpExchange exchange) throws IOException {
+		if (!beforeRequest(exchange))
+			return;
+		XContentBuilder b = jsonBuilder().startArray();
+		for (String key : getProjectKeys()) {
+			b.startObject().field("key", key).field("name", "Project " + key).endObject();
+		}
+		b.endArray();
+		sendResponse(exchange, 200, b.bytes().toBytes());
+	}
+
+	protected void handleSearch(HttpExchange exchange) throws IOException {
+		if (!beforeRequest(exchange))
+			return;
+		Map<String, String> params = parseQuery(exchange.getRequestURI());
+		int startAt = params.containsKey("startAt") ? Integer.parseInt(params.get("startAt")) : 0;
+		int maxResults = params.containsKey("maxResults") ? Integer.parseInt(params.get("maxResults")) : 50;
+		if (maxResults > pageSizeLimit)
+			maxResults = pageSizeLimit;
+		Set<String> fields = parseFields(params.get("fields"));
+		String expand = params.get("expand");
+		boolean changelog = expand != null && expand.contains("changelog");
+
+		List<IssueRef> matching = evaluateJql(params.get("jql"));
+
+		int end = Math.min(matching.size(), startAt + maxResults);
+		XContentBuilder b = jsonBuilder().startObject();
+		b.field("startAt", startAt).field("maxResults", maxResults).field("total", matching.size());
+		b.startArray("issues");
+		for (int i = startAt; i < end; i++) {
+			writeIssue(b, matching.get(i), fields, changelog);
+		}
+		b.endArray().endObject();
+		sleep(latencyPerIssue * Math.max(0, end - startAt));
+		sendResponse(exchange, 200, b.bytes().toBytes());
+	}
+
+	/**
+	 * Serve <code>issue/{key}/comment</code> and <code>issue/{key}?expand=changelog</code> REST calls used to complete
+	 * truncated lists.
+	 */
+	protected void handleIssue(HttpExchange exchange) throws IOException {
+		if (!beforeRequest(exchange))
+			return;
+		Matcher m = ISSUE_PATH.matcher(exchange.getRequestURI().getPath());
+		m.matches();
+		IssueRef issue = null;
+		synchronized (this) {
+			long[] updated = issueUpdated.get(m.group(1));
+			int issueNum = Integer.parseInt(m.group(2)) - 1;
+			if (updated != null && issueNum >= 0 && issueNum < updated.length)
+				issue = new IssueRef(m.group(1), issueNum, updated[issueNum]);
+		}
+		if (issue == null) {
+			sendResponse(exchange, 404, "{\"errorMessages\":[\"Issue Does Not Exist\"]}".getBytes("UTF-8"));
+			return;
+		}
+		XContentBuilder b = jsonBuilder();
+		if (m.group(3) != null) {
+			Map<String, String> params = parseQuery(exchange.getRequestURI());
+			int startAt = params.containsKey("startAt") ? Integer.parseInt(params.get("startAt")) : 0;
+			writeComments(b, issue, startAt, pageSizeLimit);
+		} else {
+			b.startObject();
+			b.field("id", issue.getId()).field("key", issue.getKey());
+			b.startObject("fields").field("updated", formatDate(issue.updated)).endObject();
+			b.field("changelog");
+			writeChangelog(b, issue, 0);
+			b.endObject();
+		}
+		sendResponse(exchange, 200, b.bytes().toBytes());
+	}
+
+	/**
+	 * Evaluate JQL in forms sent by JIRA river.
+	 *
+	 * @param jql to evaluate
+	 * @return issues matching JQL in requested order
+	 */
+	protected List<IssueRef> evaluateJql(String jql) {
+		boolean descending = false;
+		String condition = jql != null ? jql : "";
+		Matcher order = JQL_ORDER_BY.matcher(condition);
+		if (order.find()) {
+			descending = "DESC".equalsIgnoreCase(order.group(2));
+			condition = condition.substring(0, order.start());
+		}
+
+		List<JqlClause> clauses = new ArrayList<JqlClause>();
+		for (String clause : JQL_OR.split(condition)) {
+			clauses.add(parseJqlClause(clause));
+		}
+
+		List<IssueRef> ret = new ArrayList<IssueRef>();
+		synchronized (this) {
+			for (Map.Entry<String, long[]> project : issueUpdated.entrySet()) {
+				long[] updated = project.getValue();
+				for (int i = 0; i < updated.length; i++) {
+					for (JqlClause clause : clauses) {
+						if (clause.matches(project.getKey(), updated[i])) {
+							ret.add(new IssueRef(project.getKey(), i, updated[i]));
+							break;
+						}
+					}
+				}
+			}
+		}
+		final int direction = descending ? -1 : 1;
+		Collections.sort(ret, new Comparator<IssueRef>() {
+			@Override
+			public int compare(IssueRef o1, IssueRef o2) {
+				int c = Long.compare(o1.updated, o2.updated);
+				if (c == 0)
+					c = o1.getKey().compareTo(o2.getKey());
+				return direction * c;
+			}
+		});
+		return ret;
+	}
+
+	private JqlClause parseJqlClause(String clause) {
+		JqlClause ret = new JqlClause();
+		Matcher in = JQL_PROJECT_IN.matcher(clause);
+		if (in.find()) {
+			ret.projectKeys = new HashSet<String>();
+			for (String key : in.group(1).split(",")) {
+				ret.projectKeys.add(key.trim().replace("\"", "").replace("'", ""));
+			}
+		} else {
+			String key = extract(JQL_PROJECT, clause);
+			if (key != null)
+				ret.projectKeys = Collections.singleton(key);
+		}
+		ret.after = parseJqlDate(extract(JQL_UPDATED_AFTER, clause), Long.MIN_VALUE);
+		// JQL has minute precision, so 'before' bound covers whole minute
+		long before = parseJqlDate(extract(JQL_UPDATED_BEFORE, clause), Long.MAX_VALUE);
+		ret.before = before == Long.MAX_VALUE ? before : before + 59999;
+		return ret;
+	}
+
+	/**
+	 * One clause of JQL, conditions of the clause are joined by <code>and</code>.
+	 */
+	private static class JqlClause {
+		Set<String> projectKeys;
+		long after;
+		long before;
+
+		boolean matches(String projectKey, long updated) {
+			return (projectKeys == null || projectKeys.contains(projectKey)) && updated >= after && updated <= before;
+		}
+	}
+
+	/**
+	 * Reference to generated issue.
+	 */
+	protected static class IssueRef {
+		final String projectKey;
+		final int issueNum;
+		final long updated;
+
+		IssueRef(String projectKey, int issueNum, long updated) {
+			this.projectKey = projectKey;
+			this.issueNum = issueNum;
+			this.updated = updated;
+		}
+
+		String getKey() {
+			return projectKey + "-" + (issueNum + 1);
+		}
+
+		String getId() {
+			return "" + (Math.abs(projectKey.hashCode() % 1000) * 1000000 + issueNum);
+		}
+	}
+
+	private static Set<String> parseFields(String fields) {
+		if (fields == null)
+			return null;
+		Set<String> ret = new HashSet<String>();
+		for (String f : fields.split(",")) {
+			f = f.trim();
+			if ("*all".equals(f))
+				return null;
+			if (f.length() > 0)
+				ret.add(f);
+		}
+		return ret;
+	}
+
+	private static boolean isRequested(Set<String> fields, String field) {
+		return fields == null || fields.contains(field);
+	}
+
+	private void writeIssue(XContentBuilder b, IssueRef issue, Set<String> fields, boolean changelog) throws IOException {
+		String updatedStr = formatDate(issue.updated);
+		String issueKey = issue.getKey();
+		b.startObject();
+		b.field("id", issue.getId());
+		b.field("key", issueKey);
+		b.startObject("fields");
+		if (isRequested(fields, "updated"))
+			b.field("updated", updatedStr);
+		if (isRequested(fields, "created"))
+			b.field("created", updatedStr);
+		if (isRequested(fields, "summary"))
+			b.field("summary", "Summary of issue " + issueKey);
+		if (isRequested(fields, "description"))
+			b.field("description", text);
+		if (isRequested(fields, "project"))
+			b.startObject("project").field("key", issue.projectKey).field("name", "Project " + issue.projectKey).endObject();
+		if (isRequested(fields, "issuetype"))
+			b.startObject("issuetype").field("name", "Bug").endObject();
+		if (isRequested(fields, "status"))
+			b.startObject("status").field("name", "Open").endObject();
+		if (isRequested(fields, "reporter"))
+			writeUser(b, "reporter", issue.issueNum);
+		if (isRequested(fields, "assignee"))
+			writeUser(b, "assignee", issue.issueNum + 1);
+		if (isRequested(fields, "comment")) {
+			b.field("comment");
+			writeComments(b, issue, 0, embeddedListLimit > 0 ? embeddedListLimit : commentsPerIssue);
+		}
+		b.endObject();
+		if (changelog) {
+			b.field("changelog");
+			writeChangelog(b, issue, embeddedListLimit);
+		}
+		b.endObject();
+	}
+
+	private void writeComments(XContentBuilder b, IssueRef issue, int startAt, int maxResults) throws IOException {
+		String updatedStr = formatDate(issue.updated);
+		int end = Math.min(commentsPerIssue, startAt + maxResults);
+		b.startObject().field("startAt", startAt).field("maxResults", maxResults).field("total", commentsPerIssue)
+				.startArray("comments");
+		for (int c = startAt; c < end; c++) {
+			b.startObject().field("id", issue.getKey() + "-c" + c).field("body", text);
+			writeUser(b, "author", c);
+			b.field("created", updatedStr).field("updated", updatedStr).endObject();
+		}
+		b.endArray().endObject();
+	}
+
+	/**
+	 * @param limit maximal number of written histories, 0 means all
+	 */
+	private void writeChangelog(XContentBuilder b, IssueRef issue, int limit) throws IOException {
+		String updatedStr = formatDate(issue.updated);
+		int end = limit > 0 ? Math.min(changelogsPerIssue, limit) : changelogsPerIssue;
+		b.startObject().field("startAt", 0).field("maxResults", end).field("total", changelogsPerIssue)
+				.startArray("histories");
+		for (int h = 0; h < end; h++) {
+			b.startObject().field("id", issue.getKey() + "-h" + h);
+			writeUser(b, "author", h);
+			b.field("created", updatedStr);
+			b.startArray("items").startObject().field("field", "status").field("fieldtype", "jira").field("from", "1")
+					.field("fromString", "Open").field("to", "3").field("toString", "In Progress").endObject().endArray();
+			b.endObject();
+		}
+		b.endArray().endObject();
+	}
+
+	private void writeUser(XContentBuilder b, String field, int num) throws IOException {
+		String name = "user" + (num % 50);
+		b.startObject(field).field("name", name).field("emailAddress", name + "@example.com")
+				.field("displayName", "User " + name).endObject();
+	}
+
+	/**
+	 * Simulate latency and inject errors.
+	 *
+	 * @return true if request processing should continue
+	 */
+	private boolean beforeRequest(HttpExchange exchange) throws IOException {
+		requestsCount.incrementAndGet();
+		sleep(latencyPerRequest);
+		if (errorRate > 0 && random.nextDouble() < errorRate) {
+			errorsCount.incrementAndGet();
+			sendResponse(exchange, 500, "{\"errorMessages\":[\"Injected error\"]}".getBytes("UTF-8"));
+			return false;
+		}
+		return true;
+	}
+
+	private void sendResponse(HttpExchange exchange, int status, byte[] body) throws IOException {
+		exchange.getResponseHeaders().add("Content-Type", "application/json;charset=UTF-8");
+		exchange.sendResponseHeaders(status, body.length);
+		OutputStream os = exchange.getResponseBody();
+		try {
+			os.write(body);
+		} finally {
+			os.close();
+		}
+		bytesSent.addAndGet(body.length);
+	}
+
+	private static Map<String, String> parseQuery(URI uri) throws IOException {
+		Map<String, String> ret = new HashMap<String, String>();
+		String q = uri.getRawQuery();
+		if (q != null) {
+			for (String p : q.split("&")) {
+				int i = p.indexOf('=');
+				if (i > 0)
+					ret.put(URLDecoder.decode(p.substring(0, i), "UTF-8"), URLDecoder.decode(p.substring(i + 1), "UTF-8"));
+			}
+		}
+		return ret;
+	}
+
+	private static String extract(Pattern pattern, String jql) {
+		if (jql == null)
+			return null;
+		Matcher m = pattern.matcher(jql);
+		return m.find() ? m.group(1) : null;
+	}
+
+	private synchronized long parseJqlDate(String value, long defaultValue) {
+		if (value == null)
+			return defaultValue;
+		try {
+			return jqlDateFormat.parse(value).getTime();
+		} catch (ParseException e) {
+			return defaultValue;
+		}
+	}
+
+	private synchronized String formatDate(long date) {
+		return jiraDateFormat.format(new Date(date));
+	}
+
+	private static void sleep(long millis) {
+		if (millis <= 0)
+			return;
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}